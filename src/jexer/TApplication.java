@@ -58,6 +58,7 @@ import jexer.event.TMenuEvent;
 import jexer.event.TMouseEvent;
 import jexer.event.TResizeEvent;
 import jexer.backend.Backend;
+import jexer.backend.EventRing;
 import jexer.backend.MultiBackend;
 import jexer.backend.Screen;
 import jexer.backend.SwingBackend;
@@ -76,7 +77,7 @@ import static jexer.TKeypress.*;
  * application.  It manages windows, provides a menu bar and status bar, and
  * processes events received from the user.
  */
-public class TApplication implements Runnable {
+public class TApplication implements Runnable, EventRing.Listener {
 
     /**
      * Translated strings.
@@ -103,6 +104,12 @@ public class TApplication implements Runnable {
      */
     private static final boolean smartWindowPlacement = true;
 
+    /**
+     * The longest the adaptive screen scheduler will wait between flushes,
+     * in millis.
+     */
+    private static final long MAX_ADAPTIVE_FRAME_MILLIS = 1000;
+
     /**
      * Two backend types are available.
      */
@@ -194,9 +201,14 @@ public class TApplication implements Runnable {
     private long doubleClickTime = 250;
 
     /**
-     * Event queue that is filled by run().
+     * Event queue that is filled by postEvent() and drained by run().
      */
-    private List<TInputEvent> fillEventQueue;
+    private EventRing fillEventQueue;
+
+    /**
+     * Events run() is dispatching.  Only touched by the run() thread.
+     */
+    private List<TInputEvent> dispatchEvents;
 
     /**
      * Event queue that will be drained by either primary or secondary
@@ -309,6 +321,24 @@ public class TApplication implements Runnable {
      */
     private boolean hideMenuBar = false;
 
+    /**
+     * The minimum number of millis between screen flushes, or 0 to flush
+     * as soon as the screen changes.
+     */
+    private long screenFrameMillis = 0;
+
+    /**
+     * The number of millis a screen flush is held back while updates are
+     * arriving in a burst, so that more of them fold into one frame.
+     */
+    private long screenCoalesceMillis = 0;
+
+    /**
+     * If true, stretch the time between screen flushes when the backend is
+     * slow to take the output.
+     */
+    private boolean screenAdaptive = false;
+
     /**
      * The list of commands to run before the next I/O check.
      */
@@ -471,6 +501,11 @@ public class TApplication implements Runnable {
                     }
                 } // while (!application.quit)
 
+                // Whether mouse motion can be coalesced depends on the
+                // widget tree, so check it once here on the widget thread
+                // rather than under the queue lock for every event.
+                boolean coalesceMotion = application.isMouseMotionCoalesced();
+
                 // Pull all events off the queue
                 for (;;) {
                     TInputEvent event = null;
@@ -479,6 +514,16 @@ public class TApplication implements Runnable {
                             break;
                         }
                         event = application.drainEventQueue.remove(0);
+
+                        // Only the most recent of a run of equivalent
+                        // mouse motion events needs to be seen.
+                        while (coalesceMotion
+                            && (application.drainEventQueue.size() > 0)
+                            && application.isMotionSupersededBy(event,
+                                application.drainEventQueue.get(0))
+                        ) {
+                            event = application.drainEventQueue.remove(0);
+                        }
                     }
 
                     // We will have an event to process, so repaint the
@@ -535,6 +580,21 @@ public class TApplication implements Runnable {
          */
         private boolean dirty = false;
 
+        /**
+         * The time the first repaint request since the last flush came in.
+         */
+        private long dirtyTime = 0;
+
+        /**
+         * The time the last flush started.
+         */
+        private long lastFlushTime = 0;
+
+        /**
+         * How long the last flush took, in millis.
+         */
+        private long lastFlushMillis = 0;
+
         /**
          * Public constructor.
          *
@@ -571,13 +631,18 @@ public class TApplication implements Runnable {
                 while (!application.quit) {
                     try {
                         synchronized (this) {
+                            // Always check within 50 milliseconds.
+                            long timeout = 50;
                             if (dirty) {
-                                dirty = false;
-                                break;
+                                long now = System.currentTimeMillis();
+                                long deadline = getNextFrameTime();
+                                if (now >= deadline) {
+                                    dirty = false;
+                                    break;
+                                }
+                                timeout = Math.min(timeout, deadline - now);
                             }
-
-                            // Always check within 50 milliseconds.
-                            this.wait(50);
+                            this.wait(timeout);
                         }
                     } catch (InterruptedException e) {
                         // SQUASH
@@ -589,9 +654,11 @@ public class TApplication implements Runnable {
                     System.err.printf("%d %s backend.flushScreen()\n",
                         System.currentTimeMillis(), Thread.currentThread());
                 }
+                lastFlushTime = System.currentTimeMillis();
                 synchronized (getScreen()) {
                     backend.flushScreen();
                 }
+                lastFlushMillis = System.currentTimeMillis() - lastFlushTime;
             } // while (true) (main runnable loop)
 
             // Shutdown the user I/O thread(s)
@@ -603,10 +670,40 @@ public class TApplication implements Runnable {
          */
         public void setDirty() {
             synchronized (this) {
-                dirty = true;
+                if (!dirty) {
+                    dirty = true;
+                    dirtyTime = System.currentTimeMillis();
+                }
             }
         }
 
+        /**
+         * Figure out when the pending frame may be flushed.  A change that
+         * comes in after the screen has been quiet is flushed right away so
+         * that keystroke echo stays fast; changes arriving in a burst are
+         * held to the frame interval and coalescing window.
+         *
+         * @return the time in millis
+         */
+        private long getNextFrameTime() {
+            long interval = application.screenFrameMillis;
+            if (application.screenAdaptive
+                && (lastFlushMillis > interval)
+            ) {
+                // The backend took a while to take the last frame, give it
+                // at least that long before sending another.
+                interval = Math.min(lastFlushMillis,
+                    MAX_ADAPTIVE_FRAME_MILLIS);
+            }
+            long deadline = lastFlushTime + interval;
+            if (dirtyTime < deadline + application.screenCoalesceMillis) {
+                // Still in a burst of updates.
+                deadline = Math.max(deadline,
+                    dirtyTime + application.screenCoalesceMillis);
+            }
+            return deadline;
+        }
+
     }
 
     // ------------------------------------------------------------------------
@@ -772,10 +869,36 @@ public class TApplication implements Runnable {
             hideMenuBar = true;
         }
 
+        // Screen update rate options
+        try {
+            int fps = Integer.parseInt(System.getProperty("jexer.screen.fps",
+                    "0"));
+            if (fps > 0) {
+                screenFrameMillis = 1000 / fps;
+            }
+            long frameMillis = Long.parseLong(System.getProperty(
+                "jexer.screen.minFrameMillis", "0"));
+            if (frameMillis > screenFrameMillis) {
+                screenFrameMillis = frameMillis;
+            }
+            long coalesceMillis = Long.parseLong(System.getProperty(
+                "jexer.screen.coalesceMillis", "0"));
+            if (coalesceMillis > 0) {
+                screenCoalesceMillis = coalesceMillis;
+            }
+        } catch (NumberFormatException e) {
+            // SQUASH
+        }
+        if (System.getProperty("jexer.screen.adaptive",
+                "false").equals("true")) {
+            screenAdaptive = true;
+        }
+
         theme           = new ColorTheme();
         desktopTop      = (hideMenuBar ? 0 : 1);
         desktopBottom   = getScreen().getHeight() - 1 + (hideStatusBar ? 1 : 0);
-        fillEventQueue  = new LinkedList<TInputEvent>();
+        fillEventQueue  = new EventRing();
+        dispatchEvents  = new ArrayList<TInputEvent>();
         drainEventQueue = new LinkedList<TInputEvent>();
         windows         = new LinkedList<TWindow>();
         menus           = new ArrayList<TMenu>();
@@ -848,58 +971,60 @@ public class TApplication implements Runnable {
         primaryEventHandler = new WidgetEventHandler(this, true);
         (new Thread(primaryEventHandler)).start();
 
+        fillEventQueue.setConsumer(Thread.currentThread());
         started = true;
 
         while (!quit) {
-            synchronized (this) {
-                boolean doWait = false;
-
-                if (!backend.hasEvents()) {
-                    synchronized (fillEventQueue) {
-                        if (fillEventQueue.size() == 0) {
-                            doWait = true;
-                        }
-                    }
+            if (!backend.hasEvents() && fillEventQueue.isEmpty()) {
+                // No I/O to dispatch, so wait until the backend provides
+                // new I/O.  Jexer's own backends wake us through
+                // EventRing.wakeListener(); the short timeout covers other
+                // backends that still wake their listener with notifyAll().
+                if (debugThreads) {
+                    System.err.println(System.currentTimeMillis() +
+                        " " + Thread.currentThread() + " MAIN sleep");
                 }
 
-                if (doWait) {
-                    // No I/O to dispatch, so wait until the backend
-                    // provides new I/O.
-                    try {
-                        if (debugThreads) {
-                            System.err.println(System.currentTimeMillis() +
-                                " " + Thread.currentThread() + " MAIN sleep");
-                        }
-
-                        this.wait();
+                fillEventQueue.await(50);
 
-                        if (debugThreads) {
-                            System.err.println(System.currentTimeMillis() +
-                                " " + Thread.currentThread() + " MAIN AWAKE");
-                        }
-                    } catch (InterruptedException e) {
-                        // I'm awake and don't care why, let's see what's
-                        // going on out there.
-                    }
+                if (debugThreads) {
+                    System.err.println(System.currentTimeMillis() +
+                        " " + Thread.currentThread() + " MAIN AWAKE " +
+                        fillEventQueue);
                 }
+            }
 
-            } // synchronized (this)
+            // Pull any pending I/O events
+            fillEventQueue.drainTo(dispatchEvents);
+            backend.getEvents(dispatchEvents);
 
-            synchronized (fillEventQueue) {
-                // Pull any pending I/O events
-                backend.getEvents(fillEventQueue);
+            if (dispatchEvents.size() == 0) {
+                // A backend can wake us with no input when it has more
+                // output ready, e.g. an image row that finished encoding
+                // after the last flush.  Send out whatever it left dirty.
+                boolean dirty;
+                synchronized (getScreen()) {
+                    dirty = getScreen().isDirty();
+                }
+                if (dirty) {
+                    screenHandler.setDirty();
+                    wakeScreenHandler();
+                }
+            }
 
-                // Dispatch each event to the appropriate handler, one at a
-                // time.
-                for (;;) {
-                    TInputEvent event = null;
-                    if (fillEventQueue.size() == 0) {
-                        break;
-                    }
-                    event = fillEventQueue.remove(0);
-                    metaHandleEvent(event);
+            // Dispatch each event to the appropriate handler, one at a
+            // time.
+            for (int i = 0; i < dispatchEvents.size(); i++) {
+                TInputEvent event = dispatchEvents.get(i);
+                if ((i + 1 < dispatchEvents.size())
+                    && isResizeSupersededBy(event, dispatchEvents.get(i + 1))
+                ) {
+                    // A later resize replaces this one.
+                    continue;
                 }
+                metaHandleEvent(event);
             }
+            dispatchEvents.clear();
 
             // Wake a consumer thread if we have any pending events.
             if (drainEventQueue.size() > 0) {
@@ -1306,6 +1431,100 @@ public class TApplication implements Runnable {
         }
     }
 
+    /**
+     * See if a screen resize event can be dropped because the event
+     * immediately after it is another screen resize.  This only looks at
+     * the events, so it is safe to call from any thread.
+     *
+     * @param event the earlier event
+     * @param next the event immediately following it
+     * @return true if event can be discarded in favor of next
+     */
+    private boolean isResizeSupersededBy(final TInputEvent event,
+        final TInputEvent next) {
+
+        if ((event instanceof TResizeEvent) && (next instanceof TResizeEvent)) {
+            return (((TResizeEvent) event).getType() ==
+                ((TResizeEvent) next).getType());
+        }
+        return false;
+    }
+
+    /**
+     * See if a mouse motion event can be dropped because the event
+     * immediately after it is mouse motion with the same buttons and
+     * modifiers.  This only looks at the events; the caller must also
+     * check isMouseMotionCoalesced().
+     *
+     * @param event the earlier event
+     * @param next the event immediately following it
+     * @return true if event can be discarded in favor of next
+     */
+    private boolean isMotionSupersededBy(final TInputEvent event,
+        final TInputEvent next) {
+
+        if (!(event instanceof TMouseEvent) || !(next instanceof TMouseEvent)) {
+            return false;
+        }
+        TMouseEvent mouse = (TMouseEvent) event;
+        TMouseEvent nextMouse = (TMouseEvent) next;
+        if ((mouse.getType() != TMouseEvent.Type.MOUSE_MOTION)
+            || (nextMouse.getType() != TMouseEvent.Type.MOUSE_MOTION)
+            || (mouse.isMouse1() != nextMouse.isMouse1())
+            || (mouse.isMouse2() != nextMouse.isMouse2())
+            || (mouse.isMouse3() != nextMouse.isMouse3())
+            || (mouse.isMouseWheelUp() != nextMouse.isMouseWheelUp())
+            || (mouse.isMouseWheelDown() != nextMouse.isMouseWheelDown())
+            || (mouse.isAlt() != nextMouse.isAlt())
+            || (mouse.isCtrl() != nextMouse.isCtrl())
+            || (mouse.isShift() != nextMouse.isShift())
+        ) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * See if no widget that could receive mouse motion events has asked
+     * to see every motion sample.  This walks the widget tree, so only
+     * call it from the widget event thread.
+     *
+     * @return true if mouse motion events may be coalesced
+     */
+    private boolean isMouseMotionCoalesced() {
+        TWidget receiver = secondaryEventReceiver;
+        if (receiver != null) {
+            return isMouseMotionCoalesced(receiver);
+        }
+        TWindow window = getActiveWindow();
+        if ((window != null) && !isMouseMotionCoalesced(window)) {
+            return false;
+        }
+        if ((desktop != null) && !isMouseMotionCoalesced(desktop)) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * See if a widget and all of its children allow mouse motion events
+     * to be coalesced.
+     *
+     * @param widget the widget to check
+     * @return true if no widget in this tree has opted out
+     */
+    private boolean isMouseMotionCoalesced(final TWidget widget) {
+        if (!widget.isMouseMotionCoalesced()) {
+            return false;
+        }
+        for (TWidget child: widget.getChildren()) {
+            if (!isMouseMotionCoalesced(child)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Dispatch one event to the appropriate widget or application-level
      * event handler.  This is the primary event handler, it has the normal
@@ -1720,6 +1939,19 @@ public class TApplication implements Runnable {
         }
     }
 
+    // ------------------------------------------------------------------------
+    // EventRing.Listener -----------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Called by a backend thread after it has queued new input.
+     */
+    public void eventsReady() {
+        if (fillEventQueue != null) {
+            fillEventQueue.wakeConsumer();
+        }
+    }
+
     // ------------------------------------------------------------------------
     // TApplication -----------------------------------------------------------
     // ------------------------------------------------------------------------
@@ -1794,6 +2026,16 @@ public class TApplication implements Runnable {
         return clipboard;
     }
 
+    /**
+     * Get the queue of posted events, e.g. to read its depth and wait
+     * counters.  Only run() may remove events from it.
+     *
+     * @return the event queue
+     */
+    public final EventRing getEventQueue() {
+        return fillEventQueue;
+    }
+
     /**
      * Repaint the screen on the next update.
      */
@@ -2024,10 +2266,13 @@ public class TApplication implements Runnable {
                 getScreen().putCharXY(oldDrawnMouseX, oldDrawnMouseY,
                     oldDrawnMouseCell);
                 oldDrawnMouseCell = getScreen().getCharXY(mouseX, mouseY);
-                if (backend instanceof ECMA48Backend) {
+                if ((backend instanceof ECMA48Backend)
+                    && !((ECMA48Backend) backend).hasImageDeltas()
+                ) {
                     // Special case: the entire row containing the mouse has
                     // to be re-drawn if it has any image data, AND any rows
-                    // in between.
+                    // in between.  Terminals with image deltas only redraw
+                    // the two cells the pointer left and entered.
                     if (oldDrawnMouseY != mouseY) {
                         for (int i = oldDrawnMouseY; ;) {
                             getScreen().unsetImageRow(i);
@@ -2171,7 +2416,9 @@ public class TApplication implements Runnable {
                 oldDrawnMouseX, oldDrawnMouseY);
         }
         oldDrawnMouseCell = getScreen().getCharXY(mouseX, mouseY);
-        if (backend instanceof ECMA48Backend) {
+        if ((backend instanceof ECMA48Backend)
+            && !((ECMA48Backend) backend).hasImageDeltas()
+        ) {
             // Special case: the entire row containing the mouse has to be
             // re-drawn if it has any image data, AND any rows in between.
             if (oldDrawnMouseY != mouseY) {
@@ -2257,8 +2504,8 @@ public class TApplication implements Runnable {
      */
     public void exit() {
         quit = true;
-        synchronized (this) {
-            this.notify();
+        if (fillEventQueue != null) {
+            fillEventQueue.wakeConsumer();
         }
     }
 
@@ -3336,16 +3583,12 @@ public class TApplication implements Runnable {
      * @param event new event to add to the queue
      */
     public final void postEvent(final TInputEvent event) {
-        synchronized (this) {
-            synchronized (fillEventQueue) {
-                fillEventQueue.add(event);
-            }
-            if (debugThreads) {
-                System.err.println(System.currentTimeMillis() + " " +
-                    Thread.currentThread() + " postEvent() wake up main");
-            }
-            this.notify();
+        if (debugThreads) {
+            System.err.println(System.currentTimeMillis() + " " +
+                Thread.currentThread() + " postEvent() wake up main");
         }
+        // Adding to the ring wakes up run().
+        fillEventQueue.put(event);
     }
 
     /**
@@ -3354,17 +3597,12 @@ public class TApplication implements Runnable {
      * @param event new event to add to the queue
      */
     public final void postMenuEvent(final TInputEvent event) {
-        synchronized (this) {
-            synchronized (fillEventQueue) {
-                fillEventQueue.add(event);
-            }
-            if (debugThreads) {
-                System.err.println(System.currentTimeMillis() + " " +
-                    Thread.currentThread() + " postMenuEvent() wake up main");
-            }
-            closeMenu();
-            this.notify();
+        if (debugThreads) {
+            System.err.println(System.currentTimeMillis() + " " +
+                Thread.currentThread() + " postMenuEvent() wake up main");
         }
+        fillEventQueue.put(event);
+        closeMenu();
     }
 
     /**
@@ -28,9 +28,27 @@
  */
 package jexer;
 
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 import jexer.bits.Cell;
+import jexer.bits.CellAttributes;
 import jexer.event.TCommandEvent;
 import jexer.event.TKeypressEvent;
 import jexer.event.TMouseEvent;
@@ -39,7 +57,15 @@ import static jexer.TCommand.*;
 import static jexer.TKeypress.*;
 
 /**
- * TImage renders a piece of a bitmap image on screen.
+ * TImage renders a piece of a bitmap image on screen.  Large images are
+ * decoded and rotated on a background thread; until that finishes, a
+ * mosaic of one sampled color per text cell is drawn instead.
+ *
+ * The rotated image is kept as a mipmap pyramid of half-resolution
+ * levels.  Scaling never makes a whole scaled copy: each visible text
+ * cell is drawn from the nearest level that is at least as large as
+ * needed, and recently drawn cells are kept in a bounded cache so that
+ * panning and zooming back and forth is cheap.
  */
 public class TImage extends TWidget implements EditMenuUser {
 
@@ -70,10 +96,33 @@ public class TImage extends TWidget implements EditMenuUser {
         SCALE,
     }
 
+    /**
+     * Images with fewer pixels than this are rotated and scaled on the
+     * calling thread, since a background job would only add a frame of
+     * placeholder.
+     */
+    private static final long ASYNC_PIXELS = 1024 * 1024;
+
+    /**
+     * Mipmap levels stop halving once either side would drop below this
+     * many pixels.
+     */
+    private static final int MIN_MIPMAP_SIZE = 64;
+
+    /**
+     * The most bytes of cell images to keep in the tile cache.
+     */
+    private static final long MAX_TILE_BYTES = 16 * 1024 * 1024;
+
     // ------------------------------------------------------------------------
     // Variables --------------------------------------------------------------
     // ------------------------------------------------------------------------
 
+    /**
+     * Threads shared by all TImages to decode and rotate images.
+     */
+    private static ExecutorService imageExecutor = null;
+
     /**
      * Scaling strategy to use.
      */
@@ -90,15 +139,44 @@ public class TImage extends TWidget implements EditMenuUser {
     private TAction clickAction;
 
     /**
-     * The image to display.
+     * The rotated image at full size, then at half, quarter, etc.  This is
+     * null while it is being made.
      */
-    private BufferedImage image;
+    private List<BufferedImage> mipmaps = null;
 
     /**
-     * The original image from construction time.
+     * The original image from construction time.  This is null while the
+     * file is still being decoded.
      */
     private BufferedImage originalImage;
 
+    /**
+     * The file originalImage is being decoded from, or null.
+     */
+    private File file = null;
+
+    /**
+     * The width of the original image, known before it is decoded.
+     */
+    private int originalWidth;
+
+    /**
+     * The height of the original image, known before it is decoded.
+     */
+    private int originalHeight;
+
+    /**
+     * Bumped every time a new background job is started, so that results
+     * from earlier jobs are ignored.
+     */
+    private int generation = 0;
+
+    /**
+     * The rotation the current background job is producing mipmaps for, or
+     * -1 if no job is running.
+     */
+    private int pendingRotation = -1;
+
     /**
      * The current scaling factor for the image.
      */
@@ -110,8 +188,8 @@ public class TImage extends TWidget implements EditMenuUser {
     private int clockwise = 0;
 
     /**
-     * If true, this widget was resized and a new scaled image must be
-     * produced.
+     * If true, this widget was resized and the number of rows and columns
+     * must be recomputed.
      */
     private boolean resized = false;
 
@@ -126,17 +204,25 @@ public class TImage extends TWidget implements EditMenuUser {
     private int top;
 
     /**
-     * The cells containing the broken up image pieces.
+     * Recently drawn cells of the image, by getScaleKey() plus position,
+     * least recently used first.  Each cell has an image of its own, so
+     * evicting it frees its pixels.
+     */
+    private LinkedHashMap<String, Cell> tiles = new LinkedHashMap<String,
+        Cell>(256, 0.75f, true);
+
+    /**
+     * Number of bytes held by the tile cache.
      */
-    private Cell cells[][];
+    private long tileBytes = 0;
 
     /**
-     * The number of rows in cells[].
+     * The number of text cell rows in the scaled image.
      */
     private int cellRows;
 
     /**
-     * The number of columns in cells[].
+     * The number of text cell columns in the scaled image.
      */
     private int cellColumns;
 
@@ -196,6 +282,8 @@ public class TImage extends TWidget implements EditMenuUser {
 
         setCursorVisible(false);
         this.originalImage = image;
+        this.originalWidth = image.getWidth();
+        this.originalHeight = image.getHeight();
         this.left = left;
         this.top = top;
         this.clickAction = clickAction;
@@ -203,6 +291,57 @@ public class TImage extends TWidget implements EditMenuUser {
         sizeToImage(true);
     }
 
+    /**
+     * Public constructor.  Only the file's header is read here, the image
+     * itself is decoded on a background thread.
+     *
+     * @param parent parent widget
+     * @param x column relative to parent
+     * @param y row relative to parent
+     * @param width number of text cells for width of the image
+     * @param height number of text cells for height of the image
+     * @param file the image file to display
+     * @param left left column of the image.  0 is the left-most column.
+     * @param top top row of the image.  0 is the top-most row.
+     * @throws IOException if the file is not an image that can be read
+     */
+    public TImage(final TWidget parent, final int x, final int y,
+        final int width, final int height,
+        final File file, final int left, final int top) throws IOException {
+
+        // Set parent and window
+        super(parent, x, y, width, height);
+
+        setCursorVisible(false);
+        this.file = file;
+        this.left = left;
+        this.top = top;
+
+        ImageInputStream input = ImageIO.createImageInputStream(file);
+        if (input == null) {
+            throw new IOException("Cannot read " + file);
+        }
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Unknown image format: " + file);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input);
+                originalWidth = reader.getWidth(0);
+                originalHeight = reader.getHeight(0);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            input.close();
+        }
+
+        startRender(file);
+        sizeToImage(true);
+    }
+
     // ------------------------------------------------------------------------
     // Event handlers ---------------------------------------------------------
     // ------------------------------------------------------------------------
@@ -231,14 +370,12 @@ public class TImage extends TWidget implements EditMenuUser {
             if (keypress.getKey().getChar() == '+') {
                 // Make the image bigger.
                 scaleFactor *= 1.25;
-                image = null;
                 sizeToImage(true);
                 return;
             }
             if (keypress.getKey().getChar() == '-') {
                 // Make the image smaller.
                 scaleFactor *= 0.80;
-                image = null;
                 sizeToImage(true);
                 return;
             }
@@ -246,14 +383,12 @@ public class TImage extends TWidget implements EditMenuUser {
         if (keypress.equals(kbAltUp)) {
             // Make the image bigger.
             scaleFactor *= 1.25;
-            image = null;
             sizeToImage(true);
             return;
         }
         if (keypress.equals(kbAltDown)) {
             // Make the image smaller.
             scaleFactor *= 0.80;
-            image = null;
             sizeToImage(true);
             return;
         }
@@ -261,7 +396,7 @@ public class TImage extends TWidget implements EditMenuUser {
             // Rotate clockwise.
             clockwise++;
             clockwise %= 4;
-            image = null;
+            mipmaps = null;
             sizeToImage(true);
             return;
         }
@@ -271,7 +406,7 @@ public class TImage extends TWidget implements EditMenuUser {
             if (clockwise < 0) {
                 clockwise = 3;
             }
-            image = null;
+            mipmaps = null;
             sizeToImage(true);
             return;
         }
@@ -320,7 +455,6 @@ public class TImage extends TWidget implements EditMenuUser {
         if (scale == Scale.NONE) {
             return;
         }
-        image = null;
         resized = true;
     }
 
@@ -333,7 +467,12 @@ public class TImage extends TWidget implements EditMenuUser {
     public void onCommand(final TCommandEvent command) {
         if (command.equals(cmCopy)) {
             // Copy image to clipboard.
-            getClipboard().copyImage(image);
+            BufferedImage image = getVisibleImage();
+            if (image != null) {
+                getClipboard().copyImage(image);
+            } else if (originalImage != null) {
+                getClipboard().copyImage(originalImage);
+            }
             return;
         }
     }
@@ -349,21 +488,92 @@ public class TImage extends TWidget implements EditMenuUser {
     public void draw() {
         sizeToImage(false);
 
-        // We have already broken the image up, just draw the last set of
-        // cells.
-        for (int x = 0; (x < getWidth()) && (x + left < cellColumns); x++) {
-            if ((left + x) * lastTextWidth > image.getWidth()) {
+        if (mipmaps == null) {
+            drawPlaceholder();
+            return;
+        }
+
+        // Draw the visible part of the image, reusing cells that were
+        // drawn before at this scale.
+        int textWidth = lastTextWidth;
+        int textHeight = lastTextHeight;
+        Dimension size = getImageSize(textWidth, textHeight);
+        String scaleKey = getScaleKey(size);
+        int columns = Math.min(getWidth(), cellColumns - left);
+        int rows = Math.min(getHeight(), cellRows - top);
+        if ((columns <= 0) || (rows <= 0)) {
+            return;
+        }
+
+        // Find the cells that are not in the tile cache, and the rectangle
+        // around them.
+        Cell [][] cells = new Cell[columns][rows];
+        int missLeft = columns;
+        int missTop = rows;
+        int missRight = 0;
+        int missBottom = 0;
+        for (int x = 0; x < columns; x++) {
+            if ((left + x) * textWidth > size.width) {
                 continue;
             }
-
-            for (int y = 0; (y < getHeight()) && (y + top < cellRows); y++) {
-                if ((top + y) * lastTextHeight > image.getHeight()) {
+            for (int y = 0; y < rows; y++) {
+                if ((top + y) * textHeight > size.height) {
                     continue;
                 }
                 assert (x + left < cellColumns);
                 assert (y + top < cellRows);
 
-                getWindow().putCharXY(x, y, cells[x + left][y + top]);
+                cells[x][y] = tiles.get(scaleKey + (x + left) + ","
+                    + (y + top));
+                if (cells[x][y] == null) {
+                    missLeft = Math.min(missLeft, x);
+                    missTop = Math.min(missTop, y);
+                    missRight = Math.max(missRight, x + 1);
+                    missBottom = Math.max(missBottom, y + 1);
+                }
+            }
+        }
+
+        if (missRight > missLeft) {
+            // Scale only the rectangle around the missing cells, in one
+            // pass rather than one cell at a time.
+            BufferedImage view = drawView((left + missLeft) * textWidth,
+                (top + missTop) * textHeight,
+                (missRight - missLeft) * textWidth,
+                (missBottom - missTop) * textHeight, size);
+            int [] rgb = new int[textWidth * textHeight];
+            for (int x = missLeft; x < missRight; x++) {
+                if ((left + x) * textWidth > size.width) {
+                    continue;
+                }
+                for (int y = missTop; y < missBottom; y++) {
+                    if (((top + y) * textHeight > size.height)
+                        || (cells[x][y] != null)
+                    ) {
+                        continue;
+                    }
+                    // Copy the cell out, so that the cache does not keep
+                    // the whole rectangle alive.
+                    view.getRGB((x - missLeft) * textWidth,
+                        (y - missTop) * textHeight, textWidth, textHeight,
+                        rgb, 0, textWidth);
+                    BufferedImage image = new BufferedImage(textWidth,
+                        textHeight, BufferedImage.TYPE_INT_ARGB);
+                    image.setRGB(0, 0, textWidth, textHeight, rgb, 0,
+                        textWidth);
+                    cells[x][y] = new Cell();
+                    cells[x][y].setImage(image);
+                    putTile(scaleKey + (x + left) + "," + (y + top),
+                        cells[x][y]);
+                }
+            }
+        }
+
+        for (int x = 0; x < columns; x++) {
+            for (int y = 0; y < rows; y++) {
+                if (cells[x][y] != null) {
+                    getWindow().putCharXY(x, y, cells[x][y]);
+                }
             }
         }
 
@@ -374,7 +584,8 @@ public class TImage extends TWidget implements EditMenuUser {
     // ------------------------------------------------------------------------
 
     /**
-     * Size cells[][] according to the screen font size.
+     * Compute the number of rows and columns for the screen font size, and
+     * start making the mipmaps if needed.
      *
      * @param always if true, always resize the cells
      */
@@ -382,10 +593,18 @@ public class TImage extends TWidget implements EditMenuUser {
         int textWidth = getScreen().getTextWidth();
         int textHeight = getScreen().getTextHeight();
 
-        if (image == null) {
-            image = rotateImage(originalImage, clockwise);
-            image = scaleImage(image, scaleFactor, getWidth(), getHeight(),
-                textWidth, textHeight);
+        if (mipmaps == null) {
+            if ((originalImage != null)
+                && ((long) originalWidth * originalHeight < ASYNC_PIXELS)
+            ) {
+                // Anything still running in the background is now stale.
+                generation++;
+                pendingRotation = -1;
+                mipmaps = makeMipmaps(rotateImage(originalImage, clockwise));
+                clearTiles();
+            } else if (pendingRotation != clockwise) {
+                startRender((originalImage == null) ? file : null);
+            }
         }
 
         if ((always == true) ||
@@ -397,51 +616,16 @@ public class TImage extends TWidget implements EditMenuUser {
         ) {
             resized = false;
 
-            cellColumns = image.getWidth() / textWidth;
-            if (cellColumns * textWidth < image.getWidth()) {
+            Dimension size = getImageSize(textWidth, textHeight);
+            cellColumns = size.width / textWidth;
+            if (cellColumns * textWidth < size.width) {
                 cellColumns++;
             }
-            cellRows = image.getHeight() / textHeight;
-            if (cellRows * textHeight < image.getHeight()) {
+            cellRows = size.height / textHeight;
+            if (cellRows * textHeight < size.height) {
                 cellRows++;
             }
 
-            // Break the image up into an array of cells.
-            cells = new Cell[cellColumns][cellRows];
-
-            for (int x = 0; x < cellColumns; x++) {
-                for (int y = 0; y < cellRows; y++) {
-
-                    int width = textWidth;
-                    if ((x + 1) * textWidth > image.getWidth()) {
-                        width = image.getWidth() - (x * textWidth);
-                    }
-                    int height = textHeight;
-                    if ((y + 1) * textHeight > image.getHeight()) {
-                        height = image.getHeight() - (y * textHeight);
-                    }
-
-                    Cell cell = new Cell();
-                    if ((width != textWidth) || (height != textHeight)) {
-                        BufferedImage newImage;
-                        newImage = new BufferedImage(textWidth, textHeight,
-                            BufferedImage.TYPE_INT_ARGB);
-
-                        java.awt.Graphics gr = newImage.getGraphics();
-                        gr.drawImage(image.getSubimage(x * textWidth,
-                                y * textHeight, width, height),
-                            0, 0, null, null);
-                        gr.dispose();
-                        cell.setImage(newImage);
-                    } else {
-                        cell.setImage(image.getSubimage(x * textWidth,
-                                y * textHeight, width, height));
-                    }
-
-                    cells[x][y] = cell;
-                }
-            }
-
             lastTextWidth = textWidth;
             lastTextHeight = textHeight;
         }
@@ -460,6 +644,402 @@ public class TImage extends TWidget implements EditMenuUser {
         }
     }
 
+    /**
+     * Put a cell into the tile cache, evicting the least recently used
+     * cells until the cache fits in MAX_TILE_BYTES.
+     *
+     * @param key the key
+     * @param cell the cell
+     */
+    private void putTile(final String key, final Cell cell) {
+        Cell old = tiles.put(key, cell);
+        if (old != null) {
+            tileBytes -= sizeOfTile(key, old);
+        }
+        tileBytes += sizeOfTile(key, cell);
+
+        Iterator<Map.Entry<String, Cell>> it = tiles.entrySet().iterator();
+        while ((tileBytes > MAX_TILE_BYTES) && it.hasNext()) {
+            Map.Entry<String, Cell> entry = it.next();
+            if (entry.getKey().equals(key)) {
+                continue;
+            }
+            tileBytes -= sizeOfTile(entry.getKey(), entry.getValue());
+            it.remove();
+        }
+    }
+
+    /**
+     * Empty the tile cache.
+     */
+    private void clearTiles() {
+        tiles.clear();
+        tileBytes = 0;
+    }
+
+    /**
+     * Estimate the memory used by one tile cache entry.
+     *
+     * @param key the key
+     * @param cell the cell
+     * @return the size in bytes
+     */
+    private static long sizeOfTile(final String key, final Cell cell) {
+        BufferedImage image = cell.getImage();
+        return (4L * image.getWidth() * image.getHeight())
+            + (2L * key.length());
+    }
+
+    /**
+     * Describe everything that decides what the cells look like other than
+     * their position, for the tile cache.  Rotation is not included
+     * because the cache is cleared when the mipmaps are replaced.
+     *
+     * @param size the size of the scaled image
+     * @return the key prefix
+     */
+    private String getScaleKey(final Dimension size) {
+        return scale + ";" + size.width + "x" + size.height + ";"
+            + lastTextWidth + "x" + lastTextHeight + ";";
+    }
+
+    /**
+     * Get the mapping from the rotated image to the scaled image.
+     *
+     * @param size the size of the scaled image
+     * @return the horizontal scale, vertical scale, and X and Y offsets of
+     * the image inside the scaled image (non-zero only for the letterbox)
+     */
+    private double [] getScaleTransform(final Dimension size) {
+        int rotatedWidth = originalWidth;
+        int rotatedHeight = originalHeight;
+        if (clockwise % 2 == 1) {
+            rotatedWidth = originalHeight;
+            rotatedHeight = originalWidth;
+        }
+        double destWidth = size.width;
+        double destHeight = size.height;
+        double offsetX = 0;
+        double offsetY = 0;
+        if (scale == Scale.SCALE) {
+            double a = (double) rotatedWidth / rotatedHeight;
+            if (a > (double) size.width / size.height) {
+                // Horizontal letterbox
+                destHeight = (int) (destWidth / a);
+                offsetY = (int) ((size.height - destHeight) / 2);
+            } else {
+                // Vertical letterbox
+                destWidth = (int) (destHeight * a);
+                offsetX = (int) ((size.width - destWidth) / 2);
+            }
+        }
+        return new double [] {
+            destWidth / rotatedWidth, destHeight / rotatedHeight,
+            offsetX, offsetY
+        };
+    }
+
+    /**
+     * Draw a rectangle of the scaled image from the nearest mipmap level.
+     *
+     * @param gr the graphics to draw on
+     * @param x the left edge of the rectangle in the scaled image
+     * @param y the top edge of the rectangle in the scaled image
+     * @param width the width of the rectangle
+     * @param height the height of the rectangle
+     * @param size the size of the scaled image
+     */
+    private void drawScaled(final Graphics2D gr, final int x, final int y,
+        final int width, final int height, final Dimension size) {
+
+        double [] transform = getScaleTransform(size);
+        double scaleX = transform[0];
+        double scaleY = transform[1];
+
+        if (scale == Scale.SCALE) {
+            gr.setColor(scaleBackColor);
+            gr.fillRect(0, 0, width, height);
+        }
+
+        // Use the smallest level that is still at least as large as the
+        // result, so that we only ever shrink by less than half.
+        int level = 0;
+        double shrink = Math.min(scaleX, scaleY);
+        while ((level + 1 < mipmaps.size()) && (shrink <= 0.5)) {
+            level++;
+            shrink *= 2;
+        }
+        BufferedImage source = mipmaps.get(level);
+        BufferedImage full = mipmaps.get(0);
+        scaleX = scaleX * full.getWidth() / source.getWidth();
+        scaleY = scaleY * full.getHeight() / source.getHeight();
+
+        if ((scaleX == 1.0) && (scaleY == 1.0)) {
+            gr.drawImage(source, (int) (transform[2] - x),
+                (int) (transform[3] - y), null);
+            return;
+        }
+        gr.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+            RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        AffineTransform at = new AffineTransform();
+        at.translate(transform[2] - x, transform[3] - y);
+        at.scale(scaleX, scaleY);
+        gr.drawImage(source, at, null);
+    }
+
+    /**
+     * Draw a rectangle of the scaled image, clipped to the scaled image's
+     * edges.  Anything beyond the edges is left transparent.
+     *
+     * @param x the left edge of the rectangle in the scaled image
+     * @param y the top edge of the rectangle in the scaled image
+     * @param width the width of the rectangle
+     * @param height the height of the rectangle
+     * @param size the size of the scaled image
+     * @return the rectangle as a new image
+     */
+    private BufferedImage drawView(final int x, final int y, final int width,
+        final int height, final Dimension size) {
+
+        BufferedImage view = new BufferedImage(width, height,
+            BufferedImage.TYPE_INT_ARGB);
+        Graphics2D gr = view.createGraphics();
+        gr.clipRect(0, 0, Math.min(width, size.width - x),
+            Math.min(height, size.height - y));
+        drawScaled(gr, x, y, width, height, size);
+        gr.dispose();
+        return view;
+    }
+
+    /**
+     * Build the mipmap levels for an image.
+     *
+     * @param image the rotated image at full size
+     * @return the levels, starting with image itself
+     */
+    private static List<BufferedImage> makeMipmaps(final BufferedImage image) {
+        List<BufferedImage> levels = new ArrayList<BufferedImage>();
+        levels.add(image);
+        BufferedImage level = image;
+        while ((level.getWidth() / 2 >= MIN_MIPMAP_SIZE)
+            && (level.getHeight() / 2 >= MIN_MIPMAP_SIZE)
+        ) {
+            int width = (level.getWidth() + 1) / 2;
+            int height = (level.getHeight() + 1) / 2;
+            BufferedImage half = new BufferedImage(width, height,
+                BufferedImage.TYPE_INT_ARGB);
+            Graphics2D gr = half.createGraphics();
+            gr.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            gr.drawImage(level, 0, 0, width, height, null);
+            gr.dispose();
+            levels.add(half);
+            level = half;
+        }
+        return levels;
+    }
+
+    /**
+     * Draw the visible cells as a mosaic while the real image is being
+     * produced: each cell is a blank with the color of the original pixel
+     * at its center.  This costs one pixel lookup per visible cell no
+     * matter how large the image is.
+     */
+    private void drawPlaceholder() {
+        int textWidth = lastTextWidth;
+        int textHeight = lastTextHeight;
+        Dimension size = getImageSize(textWidth, textHeight);
+        CellAttributes attr = new CellAttributes();
+
+        for (int x = 0; (x < getWidth()) && (x + left < cellColumns); x++) {
+            for (int y = 0; (y < getHeight()) && (y + top < cellRows); y++) {
+                int rgb = scaleBackColor.getRGB();
+                if (originalImage != null) {
+                    rgb = samplePixel(((x + left) * textWidth)
+                        + (textWidth / 2), ((y + top) * textHeight)
+                        + (textHeight / 2), size, textWidth, textHeight);
+                }
+                attr.setBackColorRGB(rgb & 0xFFFFFF);
+                getWindow().putCharXY(x, y, ' ', attr);
+            }
+        }
+    }
+
+    /**
+     * Find the pixel of the original image that ends up at a position in
+     * the rotated and scaled image.
+     *
+     * @param px column in the rotated and scaled image
+     * @param py row in the rotated and scaled image
+     * @param size the size of the rotated and scaled image
+     * @param textWidth the width in pixels for one text cell
+     * @param textHeight the height in pixels for one text cell
+     * @return the ARGB color of that pixel, or scaleBackColor if it is in
+     * the letterbox
+     */
+    private int samplePixel(final int px, final int py, final Dimension size,
+        final int textWidth, final int textHeight) {
+
+        int rotatedWidth = originalWidth;
+        int rotatedHeight = originalHeight;
+        if (clockwise % 2 == 1) {
+            rotatedWidth = originalHeight;
+            rotatedHeight = originalWidth;
+        }
+
+        // Undo the scaling.
+        double u = (double) px / size.width;
+        double v = (double) py / size.height;
+        if (scale == Scale.SCALE) {
+            int destWidth = size.width;
+            int destHeight = size.height;
+            double a = (double) rotatedWidth / rotatedHeight;
+            if (a > (double) size.width / size.height) {
+                destHeight = (int) (destWidth / a);
+            } else {
+                destWidth = (int) (destHeight * a);
+            }
+            int offsetX = (size.width - destWidth) / 2;
+            int offsetY = (size.height - destHeight) / 2;
+            if ((px < offsetX) || (px >= offsetX + destWidth)
+                || (py < offsetY) || (py >= offsetY + destHeight)
+            ) {
+                return scaleBackColor.getRGB();
+            }
+            u = (double) (px - offsetX) / destWidth;
+            v = (double) (py - offsetY) / destHeight;
+        }
+        int rx = Math.min((int) (u * rotatedWidth), rotatedWidth - 1);
+        int ry = Math.min((int) (v * rotatedHeight), rotatedHeight - 1);
+
+        // Undo the rotation, the same way rotateImage() maps pixels.
+        int ox = rx;
+        int oy = ry;
+        switch (clockwise % 4) {
+        case 1:
+            ox = ry;
+            oy = originalHeight - 1 - rx;
+            break;
+        case 2:
+            ox = originalWidth - 1 - rx;
+            oy = originalHeight - 1 - ry;
+            break;
+        case 3:
+            ox = originalWidth - 1 - ry;
+            oy = rx;
+            break;
+        default:
+            break;
+        }
+        return originalImage.getRGB(ox, oy);
+    }
+
+    /**
+     * Compute the size of the rotated and scaled image.
+     *
+     * @param textWidth the width in pixels for one text cell
+     * @param textHeight the height in pixels for one text cell
+     * @return the size in pixels
+     */
+    private Dimension getImageSize(final int textWidth, final int textHeight) {
+        int rotatedWidth = originalWidth;
+        int rotatedHeight = originalHeight;
+        if (clockwise % 2 == 1) {
+            rotatedWidth = originalHeight;
+            rotatedHeight = originalWidth;
+        }
+        switch (scale) {
+        case STRETCH:
+        case SCALE:
+            return new Dimension(getWidth() * textWidth,
+                getHeight() * textHeight);
+        default:
+            if (Math.abs(scaleFactor - 1.0) < 0.03) {
+                return new Dimension(rotatedWidth, rotatedHeight);
+            }
+            return new Dimension((int) (rotatedWidth * scaleFactor),
+                (int) (rotatedHeight * scaleFactor));
+        }
+    }
+
+    /**
+     * Get the threads shared by all TImages, creating them if needed.
+     *
+     * @return the executor
+     */
+    private static synchronized ExecutorService getImageExecutor() {
+        if (imageExecutor == null) {
+            int threads = Math.max(1,
+                Runtime.getRuntime().availableProcessors() / 2);
+            imageExecutor = Executors.newFixedThreadPool(threads,
+                new ThreadFactory() {
+                    public Thread newThread(final Runnable r) {
+                        Thread thread = new Thread(r, "TImage render");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        }
+        return imageExecutor;
+    }
+
+    /**
+     * Decode (if needed) and rotate the image and build its mipmaps on a
+     * background thread.  The result is handed back on the application
+     * thread through invokeLater().
+     *
+     * @param file the file to decode first, or null to use originalImage
+     */
+    private void startRender(final File file) {
+        generation++;
+        pendingRotation = clockwise;
+
+        final int jobGeneration = generation;
+        final BufferedImage source = originalImage;
+        final int jobClockwise = clockwise;
+        final TApplication app = getApplication();
+
+        getImageExecutor().execute(new Runnable() {
+            public void run() {
+                BufferedImage decoded = source;
+                if (file != null) {
+                    try {
+                        decoded = ImageIO.read(file);
+                    } catch (IOException e) {
+                        // SQUASH
+                    }
+                    if (decoded == null) {
+                        // Show an empty image rather than keep trying.
+                        decoded = new BufferedImage(1, 1,
+                            BufferedImage.TYPE_INT_ARGB);
+                    }
+                }
+                final BufferedImage original = decoded;
+                final List<BufferedImage> levels = makeMipmaps(
+                    rotateImage(decoded, jobClockwise));
+
+                app.invokeLater(new Runnable() {
+                    public void run() {
+                        if ((file != null) && (originalImage == null)) {
+                            originalImage = original;
+                            originalWidth = original.getWidth();
+                            originalHeight = original.getHeight();
+                            TImage.this.file = null;
+                        }
+                        if (jobGeneration != generation) {
+                            // The rotation changed while this was running.
+                            return;
+                        }
+                        pendingRotation = -1;
+                        mipmaps = levels;
+                        clearTiles();
+                        sizeToImage(true);
+                    }
+                });
+            }
+        });
+    }
+
     /**
      * Get the top corner to render.
      *
@@ -542,16 +1122,33 @@ public class TImage extends TWidget implements EditMenuUser {
      */
     public void setImage(final BufferedImage image) {
         this.originalImage = image;
-        this.image = null;
+        this.file = null;
+        this.originalWidth = image.getWidth();
+        this.originalHeight = image.getHeight();
+        this.mipmaps = null;
+        // Drop the result of any job started for the old image.
+        this.generation++;
+        this.pendingRotation = -1;
         sizeToImage(true);
     }
 
     /**
-     * Get the visible (processed) image.
+     * Get the visible (processed) image.  The whole scaled image is drawn
+     * for this call, so it can be large.
      *
-     * @return the image that is currently on screen
+     * @return the image that is currently on screen, or null if it is
+     * still being produced
      */
     public BufferedImage getVisibleImage() {
+        if (mipmaps == null) {
+            return null;
+        }
+        Dimension size = getImageSize(lastTextWidth, lastTextHeight);
+        BufferedImage image = new BufferedImage(size.width, size.height,
+            BufferedImage.TYPE_INT_ARGB);
+        Graphics2D gr = image.createGraphics();
+        drawScaled(gr, 0, 0, size.width, size.height, size);
+        gr.dispose();
         return image;
     }
 
@@ -571,7 +1168,6 @@ public class TImage extends TWidget implements EditMenuUser {
      */
     public void setScaleType(final Scale scale) {
         this.scale = scale;
-        this.image = null;
         sizeToImage(true);
     }
 
@@ -591,7 +1187,6 @@ public class TImage extends TWidget implements EditMenuUser {
      */
     public void setScaleFactor(final double scaleFactor) {
         this.scaleFactor = scaleFactor;
-        image = null;
         sizeToImage(true);
     }
 
@@ -613,7 +1208,7 @@ public class TImage extends TWidget implements EditMenuUser {
         default:
             // Don't know how this happened, but fix it.
             clockwise = 0;
-            image = null;
+            mipmaps = null;
             sizeToImage(true);
             return 0;
         }
@@ -644,99 +1239,10 @@ public class TImage extends TWidget implements EditMenuUser {
             break;
         }
 
-        image = null;
+        mipmaps = null;
         sizeToImage(true);
     }
 
-    /**
-     * Scale an image by to be scaleFactor size.
-     *
-     * @param image the image to scale
-     * @param factor the scale to make the new image
-     * @param width the number of text cell columns for the destination image
-     * @param height the number of text cell rows for the destination image
-     * @param textWidth the width in pixels for one text cell
-     * @param textHeight the height in pixels for one text cell
-     */
-    private BufferedImage scaleImage(final BufferedImage image,
-        final double factor, final int width, final int height,
-        final int textWidth, final int textHeight) {
-
-        if ((scale == Scale.NONE) && (Math.abs(factor - 1.0) < 0.03)) {
-            // If we are within 3% of 1.0, just return the original image.
-            return image;
-        }
-
-        int destWidth = 0;
-        int destHeight = 0;
-        int x = 0;
-        int y = 0;
-
-        BufferedImage newImage = null;
-
-        switch (scale) {
-        case NONE:
-            destWidth = (int) (image.getWidth() * factor);
-            destHeight = (int) (image.getHeight() * factor);
-            newImage = new BufferedImage(destWidth, destHeight,
-                BufferedImage.TYPE_INT_ARGB);
-            break;
-        case STRETCH:
-            destWidth = width * textWidth;
-            destHeight = height * textHeight;
-            newImage = new BufferedImage(destWidth, destHeight,
-                BufferedImage.TYPE_INT_ARGB);
-            break;
-        case SCALE:
-            double a = (double) image.getWidth() / image.getHeight();
-            double b = (double) (width * textWidth) / (height * textHeight);
-            assert (a > 0);
-            assert (b > 0);
-
-            /*
-            System.err.println("Scale: original " + image.getWidth() +
-                "x" + image.getHeight());
-            System.err.println("         screen " + (width * textWidth) +
-                "x" + (height * textHeight));
-            System.err.println("A " + a + " B " + b);
-             */
-
-            if (a > b) {
-                // Horizontal letterbox
-                destWidth = width * textWidth;
-                destHeight = (int) (destWidth / a);
-                y = ((height * textHeight) - destHeight) / 2;
-                assert (y >= 0);
-                /*
-                System.err.println("Horizontal letterbox: " + destWidth +
-                    "x" + destHeight + ", Y offset " + y);
-                 */
-            } else {
-                // Vertical letterbox
-                destHeight = height * textHeight;
-                destWidth = (int) (destHeight * a);
-                x = ((width * textWidth) - destWidth) / 2;
-                assert (x >= 0);
-                /*
-                System.err.println("Vertical letterbox: " + destWidth +
-                    "x" + destHeight + ", X offset " + x);
-                 */
-            }
-            newImage = new BufferedImage(width * textWidth, height * textHeight,
-                BufferedImage.TYPE_INT_ARGB);
-            break;
-        }
-
-        java.awt.Graphics gr = newImage.createGraphics();
-        if (scale == Scale.SCALE) {
-            gr.setColor(scaleBackColor);
-            gr.fillRect(0, 0, width * textWidth, height * textHeight);
-        }
-        gr.drawImage(image, x, y, destWidth, destHeight, null);
-        gr.dispose();
-        return newImage;
-    }
-
     /**
      * Rotate an image either clockwise or counterclockwise.
      *
@@ -28,11 +28,9 @@
  */
 package jexer;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ResourceBundle;
-import javax.imageio.ImageIO;
 
 import jexer.event.TKeypressEvent;
 import jexer.event.TMouseEvent;
@@ -102,10 +100,8 @@ public class TImageWindow extends TScrollableWindow {
 
         super(parent, file.getName(), x, y, width, height, RESIZABLE);
 
-        BufferedImage image = ImageIO.read(file);
-
         imageField = addImage(0, 0, getWidth() - 2, getHeight() - 2,
-            image, 0, 0);
+            file, 0, 0);
         setTitle(file.getName());
 
         setupAfterImage();
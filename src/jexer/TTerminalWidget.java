@@ -34,7 +34,6 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.text.MessageFormat;
-import java.util.List;
 import java.util.Map;
 import java.util.ResourceBundle;
 
@@ -44,12 +43,11 @@ import jexer.backend.SwingTerminal;
 import jexer.bits.Cell;
 import jexer.event.TCommandEvent;
 import jexer.event.TKeypressEvent;
-import jexer.event.TMenuEvent;
 import jexer.event.TMouseEvent;
 import jexer.event.TResizeEvent;
-import jexer.menu.TMenu;
 import jexer.tterminal.DisplayLine;
 import jexer.tterminal.DisplayListener;
+import jexer.tterminal.DisplaySnapshot;
 import jexer.tterminal.ECMA48;
 import static jexer.TCommand.*;
 import static jexer.TKeypress.*;
@@ -121,7 +119,13 @@ public class TTerminalWidget extends TScrollableWidget
     /**
      * The last seen visible display.
      */
-    private List<DisplayLine> display;
+    private DisplaySnapshot display;
+
+    /**
+     * Scratch cell used by draw() to fix up colors before putting them on
+     * the screen.
+     */
+    private Cell drawCell = new Cell();
 
     /**
      * If true, the display has changed and needs updating.
@@ -636,7 +640,10 @@ public class TTerminalWidget extends TScrollableWidget
                 }
 
                 if ((display == null) || emulator.isReading()) {
-                    display = emulator.getVisibleDisplay(getHeight(),
+                    if (display == null) {
+                        display = new DisplaySnapshot();
+                    }
+                    emulator.updateVisibleDisplay(display, getHeight(),
                         -getVerticalValue());
                     assert (display.size() == getHeight());
                 }
@@ -646,8 +653,8 @@ public class TTerminalWidget extends TScrollableWidget
         }
 
         // Now draw the emulator screen
-        int row = 0;
-        for (DisplayLine line: display) {
+        for (int row = 0; row < display.size(); row++) {
+            DisplayLine line = display.getLine(row);
             int widthMax = width;
             if (line.isDoubleWidth()) {
                 widthMax /= 2;
@@ -663,7 +670,8 @@ public class TTerminalWidget extends TScrollableWidget
                     continue;
                 }
 
-                Cell newCell = new Cell(ch);
+                Cell newCell = drawCell;
+                newCell.setTo(ch);
                 boolean reverse = line.isReverseColor() ^ ch.isReverse();
                 newCell.setReverse(false);
                 if (reverse) {
@@ -686,7 +694,6 @@ public class TTerminalWidget extends TScrollableWidget
                     putCharXY(i, row, newCell);
                 }
             }
-            row++;
         }
     }
 
@@ -1247,7 +1254,10 @@ public class TTerminalWidget extends TScrollableWidget
         } else {
             dirty = true;
         }
-        getApplication().postEvent(new TMenuEvent(TMenu.MID_REPAINT));
+        // Only the changed cells need to go out, so ask for a normal
+        // repaint rather than MID_REPAINT, which throws away the physical
+        // screen.  Repeated requests fold into one frame.
+        getApplication().doRepaint();
     }
 
     /**
@@ -29,6 +29,7 @@
 package jexer;
 
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
@@ -128,6 +129,12 @@ public abstract class TWidget implements Comparable<TWidget> {
      */
     private boolean cursorVisible = false;
 
+    /**
+     * If true, consecutive mouse motion events may be merged before they
+     * reach this widget.
+     */
+    private boolean mouseMotionCoalesced = true;
+
     /**
      * Cursor column position in relative coordinates.
      */
@@ -1022,6 +1029,27 @@ public abstract class TWidget implements Comparable<TWidget> {
         return visible;
     }
 
+    /**
+     * Get the mouse motion coalescing flag.
+     *
+     * @return if true, runs of mouse motion events may be reduced to the
+     * most recent one before being dispatched to this widget
+     */
+    public final boolean isMouseMotionCoalesced() {
+        return mouseMotionCoalesced;
+    }
+
+    /**
+     * Set the mouse motion coalescing flag.  Widgets that need every
+     * motion sample (for example freehand drawing) should set this to false.
+     *
+     * @param coalesced if true, runs of mouse motion events may be reduced
+     * to the most recent one before being dispatched to this widget
+     */
+    public final void setMouseMotionCoalesced(final boolean coalesced) {
+        this.mouseMotionCoalesced = coalesced;
+    }
+
     /**
      * Set visible cursor flag.
      *
@@ -2727,6 +2755,26 @@ public abstract class TWidget implements Comparable<TWidget> {
             clickAction);
     }
 
+    /**
+     * Convenience function to add an image to this container/window.  The
+     * file is decoded in the background.
+     *
+     * @param x column relative to parent
+     * @param y row relative to parent
+     * @param width number of text cells for width of the image
+     * @param height number of text cells for height of the image
+     * @param file the image file to display
+     * @param left left column of the image.  0 is the left-most column.
+     * @param top top row of the image.  0 is the top-most row.
+     * @throws IOException if the file is not an image that can be read
+     */
+    public final TImage addImage(final int x, final int y,
+        final int width, final int height,
+        final File file, final int left, final int top) throws IOException {
+
+        return new TImage(this, x, y, width, height, file, left, top);
+    }
+
     /**
      * Convenience function to add an editable 2D data table to this
      * container/window.
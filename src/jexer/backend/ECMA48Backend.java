@@ -165,4 +165,35 @@ public class ECMA48Backend extends GenericBackend {
         this(listener, input, reader, writer, false);
     }
 
+    /**
+     * Public constructor.
+     *
+     * @param terminal the ECMA48Terminal to use.  This is typically a
+     * terminal that has its input passed in by a TelnetSession rather than
+     * read by its own thread.
+     */
+    public ECMA48Backend(final ECMA48Terminal terminal) {
+        this.terminal = terminal;
+
+        // Keep the terminal's sessionInfo so that TApplication can see it
+        sessionInfo = terminal.getSessionInfo();
+
+        // ECMA48Terminal is the screen too
+        screen = terminal;
+    }
+
+    // ------------------------------------------------------------------------
+    // ECMA48Backend ----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Check if the terminal only re-sends the image cells that changed.
+     *
+     * @return true if the image beneath the mouse pointer survives the
+     * pointer moving, so whole image rows need not be redrawn
+     */
+    public boolean hasImageDeltas() {
+        return ((ECMA48Terminal) terminal).hasImageDeltas();
+    }
+
 }
@@ -0,0 +1,468 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2019 Kevin Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.backend;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * ECMA48Encoder is a reusable byte buffer that ECMA48Terminal renders a
+ * whole frame into.  Text is encoded to UTF-8 and numeric parameters to
+ * ASCII digits as they are appended, so emitting escape sequences does not
+ * create any intermediate String or StringBuilder objects.
+ */
+public class ECMA48Encoder {
+
+    // ------------------------------------------------------------------------
+    // Constants --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The ESC character.
+     */
+    private static final byte ESC = 0x1B;
+
+    /**
+     * The Base64 alphabet.
+     */
+    private static final byte [] BASE64 = ("ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+        + "abcdefghijklmnopqrstuvwxyz0123456789+/").getBytes(
+            StandardCharsets.US_ASCII);
+
+    /**
+     * Base64 output is broken into lines of this many 4-character groups,
+     * the same as StringUtils.toBase64().
+     */
+    private static final int BASE64_LINE_GROUPS = 19;
+
+    // ------------------------------------------------------------------------
+    // Variables --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The encoded bytes.
+     */
+    private byte [] buffer;
+
+    /**
+     * The number of bytes in buffer that are used.
+     */
+    private int length = 0;
+
+    /**
+     * Base64Stream encodes the bytes written to it as Base64 onto the end
+     * of this encoder, so that binary data such as a PNG file does not
+     * need to be collected into an array and converted to a String first.
+     * close() must be called to write out the final group; it does not
+     * close anything else.
+     */
+    private class Base64Stream extends OutputStream {
+
+        /**
+         * Up to two bytes waiting to make up a 3-byte group.
+         */
+        private int pending = 0;
+
+        /**
+         * The number of bytes in pending.
+         */
+        private int pendingCount = 0;
+
+        /**
+         * The number of 4-character groups on the current line.
+         */
+        private int groups = 0;
+
+        /**
+         * Write one byte.
+         *
+         * @param b the byte
+         */
+        @Override
+        public void write(final int b) {
+            pending = (pending << 8) | (b & 0xFF);
+            pendingCount++;
+            if (pendingCount == 3) {
+                group(pending, 4);
+                pending = 0;
+                pendingCount = 0;
+            }
+        }
+
+        /**
+         * Write some bytes.
+         *
+         * @param b the bytes
+         * @param off the first byte to write
+         * @param len the number of bytes to write
+         */
+        @Override
+        public void write(final byte [] b, final int off, final int len) {
+            int i = off;
+            int end = off + len;
+            while ((pendingCount != 0) && (i < end)) {
+                write(b[i++]);
+            }
+            ensureCapacity(((end - i) / 3) * 4
+                + (((end - i) / 3 / BASE64_LINE_GROUPS) + 1) * 2);
+            for (; i + 3 <= end; i += 3) {
+                group(((b[i] & 0xFF) << 16) | ((b[i + 1] & 0xFF) << 8)
+                    | (b[i + 2] & 0xFF), 4);
+            }
+            while (i < end) {
+                write(b[i++]);
+            }
+        }
+
+        /**
+         * Write the final partial group with its padding.
+         */
+        @Override
+        public void close() {
+            if (pendingCount == 1) {
+                group(pending << 16, 2);
+            } else if (pendingCount == 2) {
+                group(pending << 8, 3);
+            }
+            pending = 0;
+            pendingCount = 0;
+        }
+
+        /**
+         * Append one 4-character group, starting a new line first if the
+         * current one is full.
+         *
+         * @param bits 24 bits of input
+         * @param chars the number of characters to encode, the rest are
+         * padding
+         */
+        private void group(final int bits, final int chars) {
+            ensureCapacity(6);
+            if (groups == BASE64_LINE_GROUPS) {
+                buffer[length++] = '\r';
+                buffer[length++] = '\n';
+                groups = 0;
+            }
+            for (int i = 0; i < 4; i++) {
+                if (i < chars) {
+                    buffer[length++] = BASE64[(bits >>> (18 - (i * 6)))
+                        & 0x3F];
+                } else {
+                    buffer[length++] = '=';
+                }
+            }
+            groups++;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Constructors -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Public constructor.
+     */
+    public ECMA48Encoder() {
+        this(8192);
+    }
+
+    /**
+     * Public constructor.
+     *
+     * @param capacity the initial size of the buffer in bytes
+     */
+    public ECMA48Encoder(final int capacity) {
+        buffer = new byte[Math.max(capacity, 16)];
+    }
+
+    // ------------------------------------------------------------------------
+    // ECMA48Encoder ----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Discard the contents of the buffer, but keep its storage.
+     */
+    public void reset() {
+        length = 0;
+    }
+
+    /**
+     * Get the number of encoded bytes.
+     *
+     * @return the number of bytes
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Discard everything after a position, e.g. to roll back a speculative
+     * append.
+     *
+     * @param length the new length, which must not be larger than the
+     * current one
+     */
+    public void setLength(final int length) {
+        if ((length < 0) || (length > this.length)) {
+            throw new IllegalArgumentException("Invalid length: " + length);
+        }
+        this.length = length;
+    }
+
+    /**
+     * Get an OutputStream that appends the Base64 encoding of everything
+     * written to it.  Close the stream when done to finish the encoding.
+     *
+     * @return the stream
+     */
+    public OutputStream base64Stream() {
+        return new Base64Stream();
+    }
+
+    /**
+     * Decode part of the buffer to a String, e.g. to save a rendered image
+     * in a cache.
+     *
+     * @param start the first byte to decode
+     * @return the bytes from start to the end of the buffer
+     */
+    public String substring(final int start) {
+        return new String(buffer, start, length - start,
+            StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Make sure there is space for more bytes.
+     *
+     * @param n the number of bytes about to be appended
+     */
+    private void ensureCapacity(final int n) {
+        if (length + n > buffer.length) {
+            byte [] newBuffer = new byte[Math.max(buffer.length * 2,
+                    length + n)];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+    }
+
+    /**
+     * Append one raw byte.
+     *
+     * @param b the byte
+     * @return this encoder
+     */
+    public ECMA48Encoder appendByte(final int b) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) b;
+        return this;
+    }
+
+    /**
+     * Append raw bytes.
+     *
+     * @param bytes the bytes
+     * @param offset the first byte to copy
+     * @param count the number of bytes to copy
+     * @return this encoder
+     */
+    public ECMA48Encoder appendBytes(final byte [] bytes, final int offset,
+        final int count) {
+
+        ensureCapacity(count);
+        System.arraycopy(bytes, offset, buffer, length, count);
+        length += count;
+        return this;
+    }
+
+    /**
+     * Append one Unicode code point, encoded as UTF-8.
+     *
+     * @param ch the code point
+     * @return this encoder
+     */
+    public ECMA48Encoder appendCodePoint(final int ch) {
+        ensureCapacity(4);
+        if (ch < 0x80) {
+            buffer[length++] = (byte) ch;
+        } else if (ch < 0x800) {
+            buffer[length++] = (byte) (0xC0 | (ch >>> 6));
+            buffer[length++] = (byte) (0x80 | (ch & 0x3F));
+        } else if (ch < 0x10000) {
+            buffer[length++] = (byte) (0xE0 | (ch >>> 12));
+            buffer[length++] = (byte) (0x80 | ((ch >>> 6) & 0x3F));
+            buffer[length++] = (byte) (0x80 | (ch & 0x3F));
+        } else {
+            buffer[length++] = (byte) (0xF0 | (ch >>> 18));
+            buffer[length++] = (byte) (0x80 | ((ch >>> 12) & 0x3F));
+            buffer[length++] = (byte) (0x80 | ((ch >>> 6) & 0x3F));
+            buffer[length++] = (byte) (0x80 | (ch & 0x3F));
+        }
+        return this;
+    }
+
+    /**
+     * Append a string, encoded as UTF-8.
+     *
+     * @param str the string
+     * @return this encoder
+     */
+    public ECMA48Encoder append(final String str) {
+        ensureCapacity(str.length());
+        for (int i = 0; i < str.length();) {
+            int ch = str.codePointAt(i);
+            i += Character.charCount(ch);
+            if (ch < 0x80) {
+                ensureCapacity(1);
+                buffer[length++] = (byte) ch;
+            } else {
+                appendCodePoint(ch);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Append a non-negative integer as decimal ASCII digits.
+     *
+     * @param value the number
+     * @return this encoder
+     */
+    public ECMA48Encoder appendInt(final int value) {
+        if (value < 0) {
+            appendByte('-');
+            return appendInt(-value);
+        }
+        if (value < 10) {
+            return appendByte('0' + value);
+        }
+        int digits = 0;
+        for (int i = value; i > 0; i /= 10) {
+            digits++;
+        }
+        ensureCapacity(digits);
+        int v = value;
+        for (int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + (v % 10));
+            v /= 10;
+        }
+        length += digits;
+        return this;
+    }
+
+    /**
+     * Append a Control Sequence Introducer, ESC [.
+     *
+     * @return this encoder
+     */
+    public ECMA48Encoder csi() {
+        ensureCapacity(2);
+        buffer[length++] = ESC;
+        buffer[length++] = '[';
+        return this;
+    }
+
+    /**
+     * Append a CSI sequence with one numeric parameter, e.g. "\033[5C".
+     *
+     * @param n the parameter
+     * @param finalByte the final character of the sequence
+     * @return this encoder
+     */
+    public ECMA48Encoder csi(final int n, final char finalByte) {
+        return csi().appendInt(n).appendByte(finalByte);
+    }
+
+    /**
+     * Append a Cursor Position (CUP) sequence.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @return this encoder
+     */
+    public ECMA48Encoder gotoXY(final int x, final int y) {
+        return csi().appendInt(y + 1).appendByte(';').appendInt(x + 1).
+            appendByte('H');
+    }
+
+    /**
+     * Append the first color of a T.416 RGB SGR parameter list, e.g.
+     * "38;2;RR;GG;BB".  No CSI or final byte is emitted.
+     *
+     * @param rgb a 24-bit RGB value
+     * @param foreground if true, this is a foreground color
+     * @return this encoder
+     */
+    public ECMA48Encoder rgbParam(final int rgb, final boolean foreground) {
+        appendByte(foreground ? '3' : '4').appendByte('8');
+        appendByte(';').appendByte('2').appendByte(';');
+        appendInt((rgb >>> 16) & 0xFF).appendByte(';');
+        appendInt((rgb >>>  8) & 0xFF).appendByte(';');
+        return appendInt(rgb & 0xFF);
+    }
+
+    /**
+     * Write the encoded bytes to a stream with a single write() call.  The
+     * buffer is not reset.
+     *
+     * @param out the stream
+     * @throws IOException if the stream throws it
+     */
+    public void writeTo(final OutputStream out) throws IOException {
+        if (length > 0) {
+            out.write(buffer, 0, length);
+        }
+    }
+
+    /**
+     * Write the encoded bytes to a character stream.  This is the fallback
+     * for terminals that were constructed without an OutputStream, and it
+     * does allocate a String.  The buffer is not reset.
+     *
+     * @param out the character stream
+     * @throws IOException if the stream throws it
+     */
+    public void writeTo(final Writer out) throws IOException {
+        if (length > 0) {
+            out.write(toString());
+        }
+    }
+
+    /**
+     * Decode the buffer to a String, for debugging.
+     *
+     * @return the buffer contents
+     */
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+}
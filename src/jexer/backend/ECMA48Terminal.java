@@ -33,7 +33,6 @@ import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.InputStream;
@@ -44,16 +43,30 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import javax.imageio.ImageIO;
 
 import jexer.bits.Cell;
 import jexer.bits.CellAttributes;
 import jexer.bits.Color;
-import jexer.bits.StringUtils;
 import jexer.event.TCommandEvent;
 import jexer.event.TInputEvent;
 import jexer.event.TKeypressEvent;
@@ -96,10 +109,53 @@ public class ECMA48Terminal extends LogicalScreen
         RGB,
     }
 
+    /**
+     * Available hardware scrolling support.
+     */
+    private enum ScrollOption {
+        DISABLED,
+        SU,
+        IL,
+    }
+
     // ------------------------------------------------------------------------
     // Variables --------------------------------------------------------------
     // ------------------------------------------------------------------------
 
+    /**
+     * Timer shared by all blocking readers to process ESC and window size
+     * timeouts.
+     */
+    private static Timer idleTimer = null;
+
+    /**
+     * Pool shared by all terminals to encode sixel image rows in parallel.
+     */
+    private static ForkJoinPool sixelPool = null;
+
+    /**
+     * Color lookup cubes for SixelPalette.matchColor(), by palette size.
+     * The palette only depends on its size, so every terminal can share
+     * the same cube.
+     */
+    private static HashMap<Integer, short []> sixelColorCubes = null;
+
+    /**
+     * Image cache shared by all terminals when sharedImageCache is set.
+     * The keys carry everything that affects the encoded string, so every
+     * viewer of the same screen (e.g. under MultiBackend) can reuse the
+     * first viewer's work.
+     */
+    private static ImageCache sharedImageCache = null;
+
+    /**
+     * Sixel rows being encoded on sixelPool by any terminal, by imageCache
+     * key.  A terminal that needs a row that another terminal has already
+     * submitted waits on the same job instead of encoding it again.
+     */
+    private static HashMap<String, SixelJob> sixelInFlight =
+        new HashMap<String, SixelJob>();
+
     /**
      * Emit debugging to stderr.
      */
@@ -120,7 +176,7 @@ public class ECMA48Terminal extends LogicalScreen
     /**
      * The event queue, filled up by a thread reading on input.
      */
-    private List<TInputEvent> eventQueue;
+    private EventRing eventQueue;
 
     /**
      * If true, we want the reader thread to exit gracefully.
@@ -128,10 +184,49 @@ public class ECMA48Terminal extends LogicalScreen
     private boolean stopReaderThread;
 
     /**
-     * The reader thread.
+     * The reader thread, or null if input is passed in via addInput().
      */
     private Thread readerThread;
 
+    /**
+     * If true, the reader thread blocks on read() rather than polling
+     * available(), and idleTimer processes timeouts.
+     */
+    private boolean blockingRead = false;
+
+    /**
+     * The periodic window size check, or null if the reader thread is
+     * polling.
+     */
+    private TimerTask idleTask = null;
+
+    /**
+     * Lock held while the input parser is running.  In blocking mode the
+     * reader thread and idleTimer both drive the parser.
+     */
+    private final Object parserLock = new Object();
+
+    /**
+     * UTF-8 decoder for bytes passed to addInput().
+     */
+    private CharsetDecoder inputDecoder;
+
+    /**
+     * Bytes passed to addInput() that have not been decoded yet, i.e. the
+     * start of a multi-byte sequence.
+     */
+    private ByteBuffer inputBytes;
+
+    /**
+     * Characters decoded by addInput().
+     */
+    private CharBuffer inputChars;
+
+    /**
+     * Events generated by addInput() and checkIdle().
+     */
+    private List<TInputEvent> inputEvents;
+
     /**
      * Parameters being collected.  E.g. if the string is \033[1;3m, then
      * params[0] will be 1 and params[1] will be 3.
@@ -187,6 +282,68 @@ public class ECMA48Terminal extends LogicalScreen
      */
     private boolean wideCharImages = true;
 
+    /**
+     * If true, pick the cheapest cursor movement sequence when placing
+     * cells, and use REP/ECH for runs of identical cells.
+     */
+    private boolean cursorOptimize = false;
+
+    /**
+     * If true, the terminal supports REP (repeat preceding graphic
+     * character).  Only used when cursorOptimize is set.
+     */
+    private boolean repSupported = true;
+
+    /**
+     * The column the terminal's cursor is known to be on after the
+     * output emitted so far, or -1 if unknown.
+     */
+    private int terminalCursorX = -1;
+
+    /**
+     * The row the terminal's cursor is known to be on after the output
+     * emitted so far, or -1 if unknown.
+     */
+    private int terminalCursorY = -1;
+
+    /**
+     * If not DISABLED, look for blocks of rows that moved up or down since
+     * the last flush and shift them with a scrolling region.
+     */
+    private ScrollOption scrollOption = ScrollOption.DISABLED;
+
+    /**
+     * Hash of each logical row, used to detect scrolling.
+     */
+    private int [] logicalRowHash = null;
+
+    /**
+     * Hash of each physical row, used to detect scrolling.
+     */
+    private int [] physicalRowHash = null;
+
+    /**
+     * If true, the logical or physical row has image cells and cannot be
+     * part of a scrolling region.
+     */
+    private boolean [] imageRow = null;
+
+    /**
+     * If true, the row hashes and imageRow flag for this row are current.
+     */
+    private boolean [] rowHashed = null;
+
+    /**
+     * The rows that were dirty when scrollPhysical() started.
+     */
+    private int [] dirtyRowList = null;
+
+    /**
+     * For each shift (offset by height), the last row of the block
+     * scrollPhysical() already scored at that shift.
+     */
+    private int [] shiftScoredTo = null;
+
     /**
      * Window width in pixels.  Used for sixel support.
      */
@@ -213,9 +370,14 @@ public class ECMA48Terminal extends LogicalScreen
     private SixelPalette palette = null;
 
     /**
-     * The sixel post-rendered string cache.
+     * If true, the shared palette has been sent to the terminal.
+     */
+    private boolean sixelPaletteSent = false;
+
+    /**
+     * The post-rendered string cache for sixel, iTerm2, and Jexer images.
      */
-    private ImageCache sixelCache = null;
+    private ImageCache imageCache = null;
 
     /**
      * Number of colors in the sixel palette.  Xterm 335 defines the max as
@@ -225,14 +387,39 @@ public class ECMA48Terminal extends LogicalScreen
     private int sixelPaletteSize = 1024;
 
     /**
-     * If true, emit image data via iTerm2 image protocol.
+     * If true, only the image cells that changed are re-sent.  If false,
+     * a whole row of image cells is re-sent when any text cell in it
+     * becomes an image.
      */
-    private boolean iterm2Images = false;
+    private boolean imageDeltas = true;
+
+    /**
+     * If true, encode the sixel image rows of a frame in parallel.
+     */
+    private boolean sixelParallel = true;
+
+    /**
+     * How long in millis to wait for parallel sixel rows before sending
+     * the frame without them.  0 means wait for every row.
+     */
+    private long sixelDeadline = 0;
+
+    /**
+     * Image rows of the frame being flushed, waiting to be encoded in
+     * parallel.
+     */
+    private ArrayList<SixelJob> sixelJobs = new ArrayList<SixelJob>();
 
     /**
-     * The iTerm2 post-rendered string cache.
+     * Image rows that missed a frame's deadline and are still being
+     * encoded.  Their results go into imageCache when they finish.
      */
-    private ImageCache iterm2Cache = null;
+    private ArrayList<SixelJob> sixelPending = new ArrayList<SixelJob>();
+
+    /**
+     * If true, emit image data via iTerm2 image protocol.
+     */
+    private boolean iterm2Images = false;
 
     /**
      * If not DISABLED, emit image data via Jexer image protocol if the
@@ -241,9 +428,10 @@ public class ECMA48Terminal extends LogicalScreen
     private JexerImageOption jexerImageOption = JexerImageOption.JPG;
 
     /**
-     * The Jexer post-rendered string cache.
+     * The zlib compression level for PNG images, 0 (fastest) to 9
+     * (smallest).
      */
-    private ImageCache jexerCache = null;
+    private int pngCompression = 4;
 
     /**
      * If true, then we changed System.in and need to change it back.
@@ -277,6 +465,23 @@ public class ECMA48Terminal extends LogicalScreen
      */
     private PrintWriter output;
 
+    /**
+     * The terminal's raw OutputStream underlying output, or null if the
+     * terminal was constructed with a PrintWriter.  Screen updates are
+     * written here directly as UTF-8 bytes.
+     */
+    private OutputStream outputStream;
+
+    /**
+     * The reusable buffer each screen update is encoded into.
+     */
+    private ECMA48Encoder encoder = new ECMA48Encoder();
+
+    /**
+     * If true, a write to outputStream failed.
+     */
+    private boolean outputError = false;
+
     /**
      * The listening object that run() wakes up on new input.
      */
@@ -306,11 +511,27 @@ public class ECMA48Terminal extends LogicalScreen
      */
     private class SixelPalette {
 
+        /**
+         * Number of bits per channel in the color lookup cube.
+         */
+        private static final int CUBE_BITS = 5;
+
         /**
          * Color palette for sixel output, sorted low to high.
          */
         private List<Integer> rgbColors = new ArrayList<Integer>();
 
+        /**
+         * The same colors as rgbColors, for the dither loop.
+         */
+        private int [] rgbArray;
+
+        /**
+         * The palette index for every color in a 32x32x32 RGB cube.  This
+         * turns matchColor() into a single array lookup.
+         */
+        private short [] colorCube;
+
         /**
          * Map of color palette index for sixel output, from the order it was
          * generated by makePalette() to rgbColors.
@@ -348,11 +569,6 @@ public class ECMA48Terminal extends LogicalScreen
          */
         private int satStep = -1;
 
-        /**
-         * Cached RGB to HSL result.
-         */
-        private int hsl[] = new int[3];
-
         /**
          * ColorIdx records a RGB color and its palette index.
          */
@@ -384,21 +600,69 @@ public class ECMA48Terminal extends LogicalScreen
          */
         public SixelPalette() {
             makePalette();
+            rgbArray = new int[rgbColors.size()];
+            for (int i = 0; i < rgbArray.length; i++) {
+                rgbArray[i] = rgbColors.get(i);
+            }
+            colorCube = getSixelColorCube(this);
         }
 
         /**
-         * Find the nearest match for a color in the palette.
+         * Find the nearest match for a color in the palette.  The palette
+         * is read-only once constructed, so this may be called from
+         * several encoder threads at once.
          *
          * @param color the RGB color
          * @return the index in rgbColors that is closest to color
          */
         public int matchColor(final int color) {
+            return colorCube[((color >>> 9) & 0x7C00)
+                | ((color >>> 6) & 0x03E0)
+                | ((color >>> 3) & 0x001F)];
+        }
+
+        /**
+         * Build the lookup cube for matchColor().  Each entry is the
+         * searchColor() match for the center of its cube cell.
+         *
+         * @return the cube
+         */
+        private short [] makeColorCube() {
+            int side = 1 << CUBE_BITS;
+            int shift = 8 - CUBE_BITS;
+            int half = 1 << (shift - 1);
+            short [] cube = new short[side * side * side];
+            int [] hsl = new int[3];
+            int i = 0;
+            for (int red = 0; red < side; red++) {
+                for (int green = 0; green < side; green++) {
+                    for (int blue = 0; blue < side; blue++) {
+                        int color = (((red << shift) + half) << 16)
+                            | (((green << shift) + half) << 8)
+                            | ((blue << shift) + half);
+                        cube[i++] = (short) searchColor(color, hsl);
+                    }
+                }
+            }
+            return cube;
+        }
+
+        /**
+         * Search the palette for the nearest match for a color.
+         *
+         * @param color the RGB color
+         * @param hsl scratch space for the RGB to HSL conversion
+         * @return the index in rgbColors that is closest to color
+         */
+        private int searchColor(final int color, final int [] hsl) {
 
             assert (color >= 0);
 
             /*
-             * matchColor() is a critical performance bottleneck.  To make it
-             * decent, we do the following:
+             * This used to run for every pixel and was a critical
+             * performance bottleneck.  It now only fills colorCube, but
+             * that is still 32K searches.  To make it decent, we do the
+             * following:
              *
              *   1. Find the nearest two hues that bracket this color.
              *
@@ -518,101 +782,79 @@ public class ECMA48Terminal extends LogicalScreen
         }
 
         /**
-         * Dither an image to a sixelPaletteSize palette.  The dithered
-         * image cells will contain indexes into the palette.
+         * Dither an image to a sixelPaletteSize palette.
          *
          * @param image the image to dither
-         * @return the dithered image.  Every pixel is an index into the
-         * palette.
+         * @return the dithered image as one palette index per pixel, in
+         * row-major order
          */
-        public BufferedImage ditherImage(final BufferedImage image) {
+        public int [] ditherImage(final BufferedImage image) {
 
-            BufferedImage ditheredImage = new BufferedImage(image.getWidth(),
-                image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+            int imageWidth = image.getWidth();
+            int imageHeight = image.getHeight();
 
-            int [] rgbArray = image.getRGB(0, 0, image.getWidth(),
-                image.getHeight(), null, 0, image.getWidth());
-            ditheredImage.setRGB(0, 0, image.getWidth(), image.getHeight(),
-                rgbArray, 0, image.getWidth());
+            // Work on the raw raster: each pixel is replaced by its palette
+            // index once it has been visited, and the error is pushed into
+            // pixels that have not been visited yet.
+            int [] pixels = image.getRGB(0, 0, imageWidth, imageHeight,
+                null, 0, imageWidth);
 
-            for (int imageY = 0; imageY < image.getHeight(); imageY++) {
-                for (int imageX = 0; imageX < image.getWidth(); imageX++) {
-                    int oldPixel = ditheredImage.getRGB(imageX,
-                        imageY) & 0xFFFFFF;
+            int i = 0;
+            for (int imageY = 0; imageY < imageHeight; imageY++) {
+                for (int imageX = 0; imageX < imageWidth; imageX++, i++) {
+                    int oldPixel = pixels[i] & 0xFFFFFF;
                     int colorIdx = matchColor(oldPixel);
                     assert (colorIdx >= 0);
                     assert (colorIdx < sixelPaletteSize);
-                    int newPixel = rgbColors.get(colorIdx);
-                    ditheredImage.setRGB(imageX, imageY, colorIdx);
-
-                    int oldRed   = (oldPixel >>> 16) & 0xFF;
-                    int oldGreen = (oldPixel >>>  8) & 0xFF;
-                    int oldBlue  =  oldPixel         & 0xFF;
-
-                    int newRed   = (newPixel >>> 16) & 0xFF;
-                    int newGreen = (newPixel >>>  8) & 0xFF;
-                    int newBlue  =  newPixel         & 0xFF;
-
-                    int redError   = (oldRed - newRed) / 16;
-                    int greenError = (oldGreen - newGreen) / 16;
-                    int blueError  = (oldBlue - newBlue) / 16;
-
-                    int red, green, blue;
-                    if (imageX < image.getWidth() - 1) {
-                        int pXpY  = ditheredImage.getRGB(imageX + 1, imageY);
-                        red   = ((pXpY >>> 16) & 0xFF) + (7 * redError);
-                        green = ((pXpY >>>  8) & 0xFF) + (7 * greenError);
-                        blue  = ( pXpY         & 0xFF) + (7 * blueError);
-                        red = clamp(red);
-                        green = clamp(green);
-                        blue = clamp(blue);
-                        pXpY = ((red & 0xFF) << 16);
-                        pXpY |= ((green & 0xFF) << 8) | (blue & 0xFF);
-                        ditheredImage.setRGB(imageX + 1, imageY, pXpY);
-
-                        if (imageY < image.getHeight() - 1) {
-                            int pXpYp = ditheredImage.getRGB(imageX + 1,
-                                imageY + 1);
-                            red   = ((pXpYp >>> 16) & 0xFF) + redError;
-                            green = ((pXpYp >>>  8) & 0xFF) + greenError;
-                            blue  = ( pXpYp         & 0xFF) + blueError;
-                            red = clamp(red);
-                            green = clamp(green);
-                            blue = clamp(blue);
-                            pXpYp = ((red & 0xFF) << 16);
-                            pXpYp |= ((green & 0xFF) << 8) | (blue & 0xFF);
-                            ditheredImage.setRGB(imageX + 1, imageY + 1, pXpYp);
+                    int newPixel = rgbArray[colorIdx];
+                    pixels[i] = colorIdx;
+
+                    int redError   = (((oldPixel >>> 16) & 0xFF)
+                        - ((newPixel >>> 16) & 0xFF)) / 16;
+                    int greenError = (((oldPixel >>>  8) & 0xFF)
+                        - ((newPixel >>>  8) & 0xFF)) / 16;
+                    int blueError  = ((oldPixel & 0xFF)
+                        - (newPixel & 0xFF)) / 16;
+
+                    if (imageX < imageWidth - 1) {
+                        pixels[i + 1] = diffuse(pixels[i + 1], 7,
+                            redError, greenError, blueError);
+                        if (imageY < imageHeight - 1) {
+                            pixels[i + imageWidth + 1] = diffuse(
+                                pixels[i + imageWidth + 1], 1,
+                                redError, greenError, blueError);
                         }
-                    } else if (imageY < image.getHeight() - 1) {
-                        int pXmYp = ditheredImage.getRGB(imageX - 1,
-                            imageY + 1);
-                        int pXYp  = ditheredImage.getRGB(imageX,
-                            imageY + 1);
-
-                        red   = ((pXmYp >>> 16) & 0xFF) + (3 * redError);
-                        green = ((pXmYp >>>  8) & 0xFF) + (3 * greenError);
-                        blue  = ( pXmYp         & 0xFF) + (3 * blueError);
-                        red = clamp(red);
-                        green = clamp(green);
-                        blue = clamp(blue);
-                        pXmYp = ((red & 0xFF) << 16);
-                        pXmYp |= ((green & 0xFF) << 8) | (blue & 0xFF);
-                        ditheredImage.setRGB(imageX - 1, imageY + 1, pXmYp);
-
-                        red   = ((pXYp >>> 16) & 0xFF) + (5 * redError);
-                        green = ((pXYp >>>  8) & 0xFF) + (5 * greenError);
-                        blue  = ( pXYp         & 0xFF) + (5 * blueError);
-                        red = clamp(red);
-                        green = clamp(green);
-                        blue = clamp(blue);
-                        pXYp = ((red & 0xFF) << 16);
-                        pXYp |= ((green & 0xFF) << 8) | (blue & 0xFF);
-                        ditheredImage.setRGB(imageX,     imageY + 1, pXYp);
+                    } else if (imageY < imageHeight - 1) {
+                        pixels[i + imageWidth - 1] = diffuse(
+                            pixels[i + imageWidth - 1], 3,
+                            redError, greenError, blueError);
+                        pixels[i + imageWidth] = diffuse(
+                            pixels[i + imageWidth], 5,
+                            redError, greenError, blueError);
                     }
-                } // for (int imageY = 0; imageY < image.getHeight(); imageY++)
-            } // for (int imageX = 0; imageX < image.getWidth(); imageX++)
+                } // for (int imageX = 0; imageX < imageWidth; imageX++)
+            } // for (int imageY = 0; imageY < imageHeight; imageY++)
+
+            return pixels;
+        }
+
+        /**
+         * Add a share of the quantization error to a pixel.
+         *
+         * @param pixel the RGB pixel
+         * @param weight the share of the error, in sixteenths
+         * @param redError the red error, in sixteenths
+         * @param greenError the green error, in sixteenths
+         * @param blueError the blue error, in sixteenths
+         * @return the new RGB pixel
+         */
+        private int diffuse(final int pixel, final int weight,
+            final int redError, final int greenError, final int blueError) {
 
-            return ditheredImage;
+            int red   = clamp(((pixel >>> 16) & 0xFF) + (weight * redError));
+            int green = clamp(((pixel >>>  8) & 0xFF) + (weight * greenError));
+            int blue  = clamp(( pixel         & 0xFF) + (weight * blueError));
+            return (red << 16) | (green << 8) | blue;
         }
 
         /**
@@ -932,137 +1174,117 @@ public class ECMA48Terminal extends LogicalScreen
     }
 
     /**
-     * ImageCache is a least-recently-used cache that hangs on to the
-     * post-rendered sixel or iTerm2 string for a particular set of cells.
+     * SixelJob is one row of image cells to be encoded on sixelPool.
      */
-    private class ImageCache {
+    private class SixelJob implements Callable<String> {
 
         /**
-         * Maximum size of the cache.
+         * Column of the first cell.
          */
-        private int maxSize = 100;
+        public int x;
 
         /**
-         * The entries stored in the cache.
+         * Row of the cells.
          */
-        private HashMap<String, CacheEntry> cache = null;
+        public int y;
 
         /**
-         * CacheEntry is one entry in the cache.
+         * Copies of the logical cells, so that the screen can keep changing
+         * while this job runs.
          */
-        private class CacheEntry {
-            /**
-             * The cache key.
-             */
-            public String key;
+        public ArrayList<Cell> cells;
 
-            /**
-             * The cache data.
-             */
-            public String data;
+        /**
+         * The palette to dither with.
+         */
+        public SixelPalette palette;
 
-            /**
-             * The last time this entry was used.
-             */
-            public long millis = 0;
+        /**
+         * The imageCache key.
+         */
+        public String key;
 
-            /**
-             * Public constructor.
-             *
-             * @param key the cache entry key
-             * @param data the cache entry data
-             */
-            public CacheEntry(final String key, final String data) {
-                this.key = key;
-                this.data = data;
-                this.millis = System.currentTimeMillis();
-            }
-        }
+        /**
+         * The encoder output, or null if it has not been submitted.
+         */
+        public Future<String> result;
 
         /**
-         * Public constructor.
-         *
-         * @param maxSize the maximum size of the cache
+         * The job whose call() produces result.  This is another
+         * terminal's job when the same row was already in flight.
          */
-        public ImageCache(final int maxSize) {
-            this.maxSize = maxSize;
-            cache = new HashMap<String, CacheEntry>();
-        }
+        public SixelJob runner;
+
+        /**
+         * The listeners to wake when call() returns, or null.  Terminals
+         * that gave up waiting on this row add themselves here so that
+         * their screens get flushed again once it is ready.
+         */
+        private ArrayList<Object> waiters = null;
+
+        /**
+         * If true, call() has returned.
+         */
+        private boolean done = false;
 
         /**
-         * Make a unique key for a list of cells.
+         * Public constructor.
          *
-         * @param cells the cells
-         * @return the key
+         * @param x column coordinate.  0 is the left-most column.
+         * @param y row coordinate.  0 is the top-most row.
+         * @param cells the cells containing the bitmap data
          */
-        private String makeKey(final ArrayList<Cell> cells) {
-            StringBuilder sb = new StringBuilder();
-            for (Cell cell: cells) {
-                sb.append(cell.hashCode());
-            }
-            return sb.toString();
+        public SixelJob(final int x, final int y,
+            final ArrayList<Cell> cells) {
+
+            this.x = x;
+            this.y = y;
+            this.cells = cells;
         }
 
         /**
-         * Get an entry from the cache.
+         * Encode the cells.
          *
-         * @param cells the list of cells that are the cache key
-         * @return the sixel string representing these cells, or null if this
-         * list of cells is not in the cache
+         * @return the sixel data, without the DCS and ST
          */
-        public String get(final ArrayList<Cell> cells) {
-            CacheEntry entry = cache.get(makeKey(cells));
-            if (entry == null) {
-                return null;
+        public String call() {
+            try {
+                return encodeSixel(palette, cells);
+            } finally {
+                ArrayList<Object> wake;
+                synchronized (this) {
+                    done = true;
+                    wake = waiters;
+                    waiters = null;
+                }
+                if (wake != null) {
+                    for (Object waiter: wake) {
+                        EventRing.wakeListener(waiter);
+                    }
+                }
             }
-            entry.millis = System.currentTimeMillis();
-            return entry.data;
         }
 
         /**
-         * Put an entry into the cache.
+         * Arrange for a listener to be woken when call() returns.
          *
-         * @param cells the list of cells that are the cache key
-         * @param data the sixel string representing these cells
+         * @param waiter the listener, may be null
+         * @return false if call() has already returned
          */
-        public void put(final ArrayList<Cell> cells, final String data) {
-            String key = makeKey(cells);
-
-            // System.err.println("put() " + key + " size " + cache.size());
-
-            assert (!cache.containsKey(key));
-
-            assert (cache.size() <= maxSize);
-            if (cache.size() == maxSize) {
-                // Cache is at limit, evict oldest entry.
-                long oldestTime = Long.MAX_VALUE;
-                String keyToRemove = null;
-                for (CacheEntry entry: cache.values()) {
-                    if ((entry.millis < oldestTime) || (keyToRemove == null)) {
-                        keyToRemove = entry.key;
-                        oldestTime = entry.millis;
-                    }
+        public synchronized boolean wakeWhenDone(final Object waiter) {
+            if (done) {
+                return false;
+            }
+            if (waiter != null) {
+                if (waiters == null) {
+                    waiters = new ArrayList<Object>();
+                }
+                if (!waiters.contains(waiter)) {
+                    waiters.add(waiter);
                 }
-                /*
-                System.err.println("put() remove key = " + keyToRemove +
-                    " size " + cache.size());
-                 */
-                assert (keyToRemove != null);
-                cache.remove(keyToRemove);
-                /*
-                System.err.println("put() removed, size " + cache.size());
-                 */
             }
-            assert (cache.size() <= maxSize);
-            CacheEntry entry = new CacheEntry(key, data);
-            assert (key.equals(entry.key));
-            cache.put(key, entry);
-            /*
-            System.err.println("put() added key " + key + " " +
-                " size " + cache.size());
-             */
+            return true;
         }
-
     }
 
     // ------------------------------------------------------------------------
@@ -1155,46 +1377,14 @@ public class ECMA48Terminal extends LogicalScreen
         }
 
         if (output == null) {
-            this.output = new PrintWriter(new OutputStreamWriter(System.out,
-                    "UTF-8"));
+            this.outputStream = System.out;
         } else {
-            this.output = new PrintWriter(new OutputStreamWriter(output,
-                    "UTF-8"));
+            this.outputStream = output;
         }
+        this.output = new PrintWriter(new OutputStreamWriter(outputStream,
+                "UTF-8"));
 
-        // Request Device Attributes
-        this.output.printf("\033[c");
-
-        // Request xterm report window/cell dimensions in pixels
-        this.output.printf("%s", xtermReportPixelDimensions());
-
-        // Enable mouse reporting and metaSendsEscape
-        this.output.printf("%s%s", mouse(true), xtermMetaSendsEscape(true));
-
-        // Request xterm use the sixel settings we want
-        this.output.printf("%s", xtermSetSixelSettings());
-
-        this.output.flush();
-
-        // Query the screen size
-        sessionInfo.queryWindowSize();
-        setDimensions(sessionInfo.getWindowWidth(),
-            sessionInfo.getWindowHeight());
-
-        // Hang onto the window size
-        windowResize = new TResizeEvent(TResizeEvent.Type.SCREEN,
-            sessionInfo.getWindowWidth(), sessionInfo.getWindowHeight());
-
-        reloadOptions();
-
-        // Spin up the input reader
-        eventQueue = new ArrayList<TInputEvent>();
-        readerThread = new Thread(this);
-        readerThread.start();
-
-        // Clear the screen
-        this.output.write(clearAll());
-        this.output.flush();
+        startTerminal(true);
     }
 
     /**
@@ -1255,39 +1445,7 @@ public class ECMA48Terminal extends LogicalScreen
 
         this.output = writer;
 
-        // Request Device Attributes
-        this.output.printf("\033[c");
-
-        // Request xterm report window/cell dimensions in pixels
-        this.output.printf("%s", xtermReportPixelDimensions());
-
-        // Enable mouse reporting and metaSendsEscape
-        this.output.printf("%s%s", mouse(true), xtermMetaSendsEscape(true));
-
-        // Request xterm use the sixel settings we want
-        this.output.printf("%s", xtermSetSixelSettings());
-
-        this.output.flush();
-
-        // Query the screen size
-        sessionInfo.queryWindowSize();
-        setDimensions(sessionInfo.getWindowWidth(),
-            sessionInfo.getWindowHeight());
-
-        // Hang onto the window size
-        windowResize = new TResizeEvent(TResizeEvent.Type.SCREEN,
-            sessionInfo.getWindowWidth(), sessionInfo.getWindowHeight());
-
-        reloadOptions();
-
-        // Spin up the input reader
-        eventQueue = new ArrayList<TInputEvent>();
-        readerThread = new Thread(this);
-        readerThread.start();
-
-        // Clear the screen
-        this.output.write(clearAll());
-        this.output.flush();
+        startTerminal(true);
     }
 
     /**
@@ -1307,41 +1465,90 @@ public class ECMA48Terminal extends LogicalScreen
         this(listener, input, reader, writer, false);
     }
 
-    // ------------------------------------------------------------------------
-    // LogicalScreen ----------------------------------------------------------
-    // ------------------------------------------------------------------------
-
     /**
-     * Set the window title.
+     * Constructor sets up state for getEvent() without a reader thread.
+     * Input is instead passed in by the caller via addInput(), and
+     * checkIdle() must be called once getIdleDeadline() has passed to
+     * process ESC key and window size timeouts.  This is used by
+     * TelnetServer to serve many sessions from one I/O thread.  The
+     * listener is set later with setListener().
      *
-     * @param title the new title
+     * @param sessionInfo the session information, used to obtain the window
+     * size
+     * @param output an OutputStream connected to the remote user.  output is
+     * always converted to a Writer with UTF-8 encoding.
+     * @throws IllegalArgumentException if sessionInfo or output are null
+     * @throws UnsupportedEncodingException if an exception is thrown when
+     * creating the OutputStreamWriter
      */
-    @Override
-    public void setTitle(final String title) {
-        output.write(getSetTitleString(title));
-        flush();
-    }
+    public ECMA48Terminal(final SessionInfo sessionInfo,
+        final OutputStream output) throws UnsupportedEncodingException {
 
-    /**
-     * Push the logical screen to the physical device.
-     */
+        if (sessionInfo == null) {
+            throw new IllegalArgumentException("SessionInfo must be specified");
+        }
+        if (output == null) {
+            throw new IllegalArgumentException("OutputStream must be " +
+                "specified");
+        }
+        resetParser();
+        mouse1           = false;
+        mouse2           = false;
+        mouse3           = false;
+        stopReaderThread = false;
+        this.sessionInfo = sessionInfo;
+
+        inputDecoder = Charset.forName("UTF-8").newDecoder();
+        inputDecoder.onMalformedInput(CodingErrorAction.REPLACE);
+        inputDecoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+        inputBytes = ByteBuffer.allocate(1024);
+        inputChars = CharBuffer.allocate(1024);
+        inputEvents = new ArrayList<TInputEvent>();
+
+        this.outputStream = output;
+        this.output = new PrintWriter(new OutputStreamWriter(outputStream,
+                "UTF-8"));
+
+        startTerminal(false);
+    }
+
+    // ------------------------------------------------------------------------
+    // LogicalScreen ----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Set the window title.
+     *
+     * @param title the new title
+     */
+    @Override
+    public void setTitle(final String title) {
+        output.write(getSetTitleString(title));
+        flush();
+    }
+
+    /**
+     * Push the logical screen to the physical device.
+     */
     @Override
     public void flushPhysical() {
-        StringBuilder sb = new StringBuilder();
+        encoder.reset();
         if ((cursorVisible)
             && (cursorY >= 0)
             && (cursorX >= 0)
             && (cursorY <= height - 1)
             && (cursorX <= width - 1)
         ) {
-            flushString(sb);
-            sb.append(cursor(true));
-            sb.append(gotoXY(cursorX, cursorY));
+            flushString(encoder);
+            encoder.append(cursor(true));
+            encoder.gotoXY(cursorX, cursorY);
+            terminalCursorX = cursorX;
+            terminalCursorY = cursorY;
         } else {
-            sb.append(cursor(false));
-            flushString(sb);
+            encoder.append(cursor(false));
+            flushString(encoder);
         }
-        output.write(sb.toString());
+        writeEncoder();
         flush();
     }
 
@@ -1368,9 +1575,7 @@ public class ECMA48Terminal extends LogicalScreen
      * @return if true, getEvents() has something to return to the backend
      */
     public boolean hasEvents() {
-        synchronized (eventQueue) {
-            return (eventQueue.size() > 0);
-        }
+        return !eventQueue.isEmpty();
     }
 
     /**
@@ -1379,14 +1584,7 @@ public class ECMA48Terminal extends LogicalScreen
      * @param queue list to append new events to
      */
     public void getEvents(final List<TInputEvent> queue) {
-        synchronized (eventQueue) {
-            if (eventQueue.size() > 0) {
-                synchronized (queue) {
-                    queue.addAll(eventQueue);
-                }
-                eventQueue.clear();
-            }
-        }
+        eventQueue.drainTo(queue);
     }
 
     /**
@@ -1398,11 +1596,13 @@ public class ECMA48Terminal extends LogicalScreen
 
         // Tell the reader thread to stop looking at input
         stopReaderThread = true;
-        try {
-            readerThread.join();
-        } catch (InterruptedException e) {
-            if (debugToStderr) {
-                e.printStackTrace();
+        if ((readerThread != null) && !blockingRead) {
+            try {
+                readerThread.join();
+            } catch (InterruptedException e) {
+                if (debugToStderr) {
+                    e.printStackTrace();
+                }
             }
         }
 
@@ -1436,6 +1636,97 @@ public class ECMA48Terminal extends LogicalScreen
         }
     }
 
+    /**
+     * Pass bytes received from the remote user to the input parser.  This
+     * is only used when the terminal was constructed without an
+     * InputStream, and must always be called from the same thread as
+     * checkIdle().
+     *
+     * @param buf the bytes received
+     * @param off the start offset in buf
+     * @param len the number of bytes received
+     */
+    public void addInput(final byte [] buf, final int off, final int len) {
+        if (inputBytes.remaining() < len) {
+            ByteBuffer newBytes = ByteBuffer.allocate(inputBytes.position()
+                + len);
+            inputBytes.flip();
+            newBytes.put(inputBytes);
+            inputBytes = newBytes;
+        }
+        inputBytes.put(buf, off, len);
+        inputBytes.flip();
+        synchronized (parserLock) {
+            for (;;) {
+                inputChars.clear();
+                CoderResult result = inputDecoder.decode(inputBytes,
+                    inputChars, false);
+                inputChars.flip();
+                while (inputChars.hasRemaining()) {
+                    processChar(inputEvents, inputChars.get());
+                }
+                if (!result.isOverflow()) {
+                    break;
+                }
+            }
+        }
+        // Keep any partial UTF-8 sequence for the next call.
+        inputBytes.compact();
+        checkIdle();
+    }
+
+    /**
+     * Generate the events that depend only on elapsed time: a lone ESC
+     * keystroke, and a change in the window size.  This is called by the
+     * owner of a terminal constructed without an InputStream, and by
+     * idleTimer for a blocking reader.
+     */
+    public void checkIdle() {
+        synchronized (parserLock) {
+            getIdleEvents(inputEvents);
+            if (inputEvents.size() > 0) {
+                for (TInputEvent event: inputEvents) {
+                    eventQueue.put(event);
+                }
+                EventRing.wakeListener(listener);
+                inputEvents.clear();
+            }
+        }
+    }
+
+    /**
+     * Get the time checkIdle() will next have something to do.  This only
+     * looks at what addInput() has already seen: a lone ESC waiting to
+     * time out, or a window size that differs from the last one reported.
+     * It does not query the window size.
+     *
+     * @return the time in millis, or Long.MAX_VALUE if checkIdle() need
+     * not be called until more input comes in
+     */
+    public long getIdleDeadline() {
+        synchronized (parserLock) {
+            long deadline = Long.MAX_VALUE;
+            if (state == ParseState.ESCAPE) {
+                deadline = escapeTime + 101;
+            }
+            if ((sessionInfo.getWindowWidth() != windowResize.getWidth())
+                || (sessionInfo.getWindowHeight() != windowResize.getHeight())
+            ) {
+                deadline = Math.min(deadline, windowSizeTime + 1001);
+            }
+            return deadline;
+        }
+    }
+
+    /**
+     * Tell the application that the remote user has disconnected.  This is
+     * only used when the terminal was constructed without an InputStream.
+     */
+    public void inputClosed() {
+        eventQueue.put(new TCommandEvent(cmBackendDisconnect));
+        EventRing.wakeListener(listener);
+    }
+
     /**
      * Set listener to a different Object.
      *
@@ -1467,6 +1758,33 @@ public class ECMA48Terminal extends LogicalScreen
             wideCharImages = false;
         }
 
+        // Default to plain CUP positioning.
+        if (System.getProperty("jexer.ECMA48.cursorOptimize",
+                "false").equals("true")) {
+            cursorOptimize = true;
+        } else {
+            cursorOptimize = false;
+        }
+
+        // REP is an xterm extension, the Linux console lacks it.
+        if (System.getProperty("jexer.ECMA48.rep", "true").equals("false")) {
+            repSupported = false;
+        } else {
+            repSupported = true;
+        }
+
+        // Default to repainting rows that scrolled.  "su" uses SU/SD, "il"
+        // uses IL/DL for terminals that lack SU/SD.
+        String scrollStr = System.getProperty("jexer.ECMA48.scrollOptimize",
+            "false").toLowerCase();
+        if (scrollStr.equals("su") || scrollStr.equals("true")) {
+            scrollOption = ScrollOption.SU;
+        } else if (scrollStr.equals("il")) {
+            scrollOption = ScrollOption.IL;
+        } else {
+            scrollOption = ScrollOption.DISABLED;
+        }
+
         // Pull the system properties for sixel output.
         if (System.getProperty("jexer.ECMA48.sixel", "true").equals("true")) {
             sixel = true;
@@ -1503,6 +1821,49 @@ public class ECMA48Terminal extends LogicalScreen
             sixelSharedPalette = true;
         }
 
+        // Image deltas
+        if (System.getProperty("jexer.ECMA48.imageDeltas",
+                "true").equals("false")) {
+            imageDeltas = false;
+        } else {
+            imageDeltas = true;
+        }
+
+        // Parallel encoding and its deadline
+        if (System.getProperty("jexer.ECMA48.sixelParallel",
+                "true").equals("false")) {
+            sixelParallel = false;
+        } else {
+            sixelParallel = true;
+        }
+        try {
+            sixelDeadline = Long.parseLong(System.getProperty(
+                "jexer.ECMA48.sixelDeadline", "0"));
+            if (sixelDeadline < 0) {
+                sixelDeadline = 0;
+            }
+        } catch (NumberFormatException e) {
+            // SQUASH
+        }
+
+        // Image cache size in MB, and whether all terminals share one cache
+        int imageCacheSize = 16;
+        try {
+            imageCacheSize = Integer.parseInt(System.getProperty(
+                "jexer.ECMA48.imageCacheSize", "16"));
+            if (imageCacheSize < 1) {
+                imageCacheSize = 1;
+            }
+        } catch (NumberFormatException e) {
+            // SQUASH
+        }
+        if (System.getProperty("jexer.ECMA48.sharedImageCache",
+                "true").equals("false")) {
+            imageCache = new ImageCache(imageCacheSize * 1024L * 1024L);
+        } else {
+            imageCache = getSharedImageCache(imageCacheSize * 1024L * 1024L);
+        }
+
         // Default to not supporting iTerm2 images.
         if (System.getProperty("jexer.ECMA48.iTerm2Images",
                 "false").equals("true")) {
@@ -1524,6 +1885,15 @@ public class ECMA48Terminal extends LogicalScreen
             jexerImageOption = JexerImageOption.RGB;
         }
 
+        // PNG compression level for iTerm2 and Jexer images
+        try {
+            pngCompression = Integer.parseInt(System.getProperty(
+                "jexer.ECMA48.pngCompression", "4"));
+            pngCompression = Math.max(0, Math.min(pngCompression, 9));
+        } catch (NumberFormatException e) {
+            // SQUASH
+        }
+
         // Set custom colors
         setCustomSystemColors();
     }
@@ -1536,6 +1906,16 @@ public class ECMA48Terminal extends LogicalScreen
      * Read function runs on a separate thread.
      */
     public void run() {
+        if (blockingRead) {
+            readBlocking();
+
+            // Pass an event up to TApplication to tell it this Backend is
+            // done.
+            eventQueue.put(new TCommandEvent(cmBackendDisconnect));
+            EventRing.wakeListener(listener);
+            return;
+        }
+
         boolean done = false;
         // available() will often return > 1, so we need to read in chunks to
         // stay caught up.
@@ -1580,32 +1960,24 @@ public class ECMA48Terminal extends LogicalScreen
                         if (events.size() > 0) {
                             // Add to the queue for the backend thread to
                             // be able to obtain.
-                            synchronized (eventQueue) {
-                                eventQueue.addAll(events);
-                            }
-                            if (listener != null) {
-                                synchronized (listener) {
-                                    listener.notifyAll();
-                                }
+                            for (TInputEvent event: events) {
+                                eventQueue.put(event);
                             }
+                            EventRing.wakeListener(listener);
                             events.clear();
                         }
                     }
                 } else {
                     getIdleEvents(events);
                     if (events.size() > 0) {
-                        synchronized (eventQueue) {
-                            eventQueue.addAll(events);
-                        }
-                        if (listener != null) {
-                            synchronized (listener) {
-                                listener.notifyAll();
-                            }
+                        for (TInputEvent event: events) {
+                            eventQueue.put(event);
                         }
+                        EventRing.wakeListener(listener);
                         events.clear();
                     }
 
-                    if (output.checkError()) {
+                    if (output.checkError() || outputError) {
                         // This is EOF.
                         done = true;
                     }
@@ -1623,22 +1995,140 @@ public class ECMA48Terminal extends LogicalScreen
         } // while ((done == false) && (stopReaderThread == false))
 
         // Pass an event up to TApplication to tell it this Backend is done.
-        synchronized (eventQueue) {
-            eventQueue.add(new TCommandEvent(cmBackendDisconnect));
-        }
-        if (listener != null) {
-            synchronized (listener) {
-                listener.notifyAll();
+        eventQueue.put(new TCommandEvent(cmBackendDisconnect));
+        EventRing.wakeListener(listener);
+
+        // System.err.println("*** run() exiting..."); System.err.flush();
+    }
+
+    /**
+     * Read input until EOF, blocking on read() rather than polling
+     * available().  idleTimer looks after the timeouts that polling used
+     * to catch, so an idle terminal does not wake up more than once per
+     * second.
+     */
+    private void readBlocking() {
+        char [] readBuffer = new char[1024];
+        List<TInputEvent> events = new ArrayList<TInputEvent>();
+        inputEvents = new ArrayList<TInputEvent>();
+
+        idleTask = new TimerTask() {
+            public void run() {
+                checkIdle();
             }
+        };
+        getIdleTimer().schedule(idleTask, 1000, 1000);
+
+        try {
+            while (!stopReaderThread) {
+                int rc = input.read(readBuffer, 0, readBuffer.length);
+                if (rc == -1) {
+                    // This is EOF
+                    break;
+                }
+                synchronized (parserLock) {
+                    for (int i = 0; i < rc; i++) {
+                        processChar(events, readBuffer[i]);
+                    }
+                    getIdleEvents(events);
+                    if (state == ParseState.ESCAPE) {
+                        // Report a lone ESC if nothing follows it.
+                        getIdleTimer().schedule(new TimerTask() {
+                            public void run() {
+                                checkIdle();
+                            }
+                        }, 110);
+                    }
+                }
+                if (events.size() > 0) {
+                    for (TInputEvent event: events) {
+                        eventQueue.put(event);
+                    }
+                    EventRing.wakeListener(listener);
+                    events.clear();
+                }
+            }
+        } catch (IOException e) {
+            if (!stopReaderThread) {
+                e.printStackTrace();
+            }
+        } finally {
+            idleTask.cancel();
         }
+    }
 
-        // System.err.println("*** run() exiting..."); System.err.flush();
+    /**
+     * Get the timer shared by all blocking readers, creating it if needed.
+     *
+     * @return the timer
+     */
+    private static synchronized Timer getIdleTimer() {
+        if (idleTimer == null) {
+            idleTimer = new Timer("ECMA48Terminal idle", true);
+        }
+        return idleTimer;
     }
 
     // ------------------------------------------------------------------------
     // ECMA48Terminal ---------------------------------------------------------
     // ------------------------------------------------------------------------
 
+    /**
+     * Finish construction once sessionInfo and output are set: ask the
+     * terminal about itself, pick up the window size and options, and
+     * clear the screen.
+     *
+     * @param startReader if true, start the thread that reads input; if
+     * false, input is passed in with addInput()
+     */
+    private void startTerminal(final boolean startReader) {
+        // Request Device Attributes
+        this.output.printf("\033[c");
+
+        // Request xterm report window/cell dimensions in pixels
+        this.output.printf("%s", xtermReportPixelDimensions());
+
+        // Enable mouse reporting and metaSendsEscape
+        this.output.printf("%s%s", mouse(true), xtermMetaSendsEscape(true));
+
+        // Request xterm use the sixel settings we want
+        this.output.printf("%s", xtermSetSixelSettings());
+
+        this.output.flush();
+
+        // Query the screen size
+        sessionInfo.queryWindowSize();
+        setDimensions(sessionInfo.getWindowWidth(),
+            sessionInfo.getWindowHeight());
+
+        // Hang onto the window size
+        windowResize = new TResizeEvent(TResizeEvent.Type.SCREEN,
+            sessionInfo.getWindowWidth(), sessionInfo.getWindowHeight());
+
+        reloadOptions();
+
+        eventQueue = new EventRing();
+
+        if (startReader) {
+            // Blocking reads must be chosen before the reader starts.
+            blockingRead = System.getProperty("jexer.ECMA48.blockingRead",
+                "false").equals("true");
+
+            // Spin up the input reader
+            readerThread = new Thread(this);
+            if (blockingRead) {
+                // A reader blocked on System.in must not keep the JVM
+                // alive.
+                readerThread.setDaemon(true);
+            }
+            readerThread.start();
+        }
+
+        // Clear the screen
+        this.output.write(clearAll());
+        this.output.flush();
+    }
+
     /**
      * Get the width of a character cell in pixels.
      *
@@ -1756,33 +2246,73 @@ public class ECMA48Terminal extends LogicalScreen
         output.flush();
     }
 
+    /**
+     * Send everything in the encoder to the remote side.  When the raw
+     * OutputStream is available this is a single write() of the already
+     * encoded bytes.
+     */
+    private void writeEncoder() {
+        if (outputStream == null) {
+            output.write(encoder.toString());
+            return;
+        }
+        // Anything already queued in the PrintWriter must go out first.
+        output.flush();
+        try {
+            encoder.writeTo(outputStream);
+        } catch (IOException e) {
+            if (debugToStderr) {
+                e.printStackTrace();
+            }
+            outputError = true;
+        }
+    }
+
     /**
      * Perform a somewhat-optimal rendering of a line.
      *
      * @param y row coordinate.  0 is the top-most row.
-     * @param sb StringBuilder to write escape sequences to
+     * @param buf encoder to write escape sequences to
      * @param lastAttr cell attributes from the last call to flushLine
      */
-    private void flushLine(final int y, final StringBuilder sb,
+    private void flushLine(final int y, final ECMA48Encoder buf,
         CellAttributes lastAttr) {
 
+        if (!isDirtyRow(y) && !reallyCleared) {
+            // Nothing on this row has changed since the last flush.
+            return;
+        }
+
         int lastX = -1;
         int textEnd = 0;
-        for (int x = 0; x < width; x++) {
+        for (int x = width - 1; x >= 0; x--) {
             Cell lCell = logical[x][y];
             if (!lCell.isBlank()) {
                 textEnd = x;
+                break;
             }
         }
         // Push textEnd to first column beyond the text area
         textEnd++;
 
+        // Only visit the span of cells that were touched since the last
+        // flush.
+        int left = 0;
+        int right = width;
+        if (!reallyCleared) {
+            left = getDirtyLeft(y);
+            right = getDirtyRight(y);
+        }
+
         // DEBUG
         // reallyCleared = true;
 
         boolean hasImage = false;
 
-        for (int x = 0; x < width; x++) {
+        for (int x = left; x < right; x++) {
+            if (!isDirtyCell(x, y) && !reallyCleared) {
+                continue;
+            }
             Cell lCell = logical[x][y];
             Cell pCell = physical[x][y];
 
@@ -1798,13 +2328,18 @@ public class ECMA48Terminal extends LogicalScreen
 
                 if (lastAttr == null) {
                     lastAttr = new CellAttributes();
-                    sb.append(normal());
+                    normal(buf);
                 }
 
-                // Place the cell
-                if ((lastX != (x - 1)) || (lastX == -1)) {
+                // Place the cell.  The optimizer instead moves the cursor
+                // just before something is actually emitted.
+                if (!cursorOptimize
+                    && ((lastX != (x - 1)) || (lastX == -1))
+                ) {
                     // Advancing at least one cell, or the first gotoXY
-                    sb.append(gotoXY(x, y));
+                    buf.gotoXY(x, y);
+                    terminalCursorX = x;
+                    terminalCursorY = y;
                 }
 
                 assert (lastAttr != null);
@@ -1812,6 +2347,10 @@ public class ECMA48Terminal extends LogicalScreen
                 if ((x == textEnd) && (textEnd < width - 1)) {
                     assert (lCell.isBlank());
 
+                    if (cursorOptimize) {
+                        moveCursor(buf, x, y, lastAttr);
+                    }
+
                     for (int i = x; i < width; i++) {
                         assert (logical[i][y].isBlank());
                         // Physical is always updated
@@ -1819,8 +2358,9 @@ public class ECMA48Terminal extends LogicalScreen
                     }
 
                     // Clear remaining line
-                    sb.append(clearRemainingLine());
+                    buf.append(clearRemainingLine());
                     lastAttr.reset();
+                    updateDirtyRow(y);
                     return;
                 }
 
@@ -1853,7 +2393,15 @@ public class ECMA48Terminal extends LogicalScreen
 
                 if (hasImage) {
                     hasImage = false;
-                    sb.append(gotoXY(x, y));
+                    if (!cursorOptimize) {
+                        buf.gotoXY(x, y);
+                        terminalCursorX = x;
+                        terminalCursorY = y;
+                    }
+                }
+
+                if (cursorOptimize) {
+                    moveCursor(buf, x, y, lastAttr);
                 }
 
                 // Now emit only the modified attributes
@@ -1866,8 +2414,8 @@ public class ECMA48Terminal extends LogicalScreen
                     && (lCell.isBlink() == lastAttr.isBlink())
                 ) {
                     // Both colors changed, attributes the same
-                    sb.append(color(lCell.isBold(),
-                            lCell.getForeColor(), lCell.getBackColor()));
+                    color(buf, lCell.isBold(),
+                            lCell.getForeColor(), lCell.getBackColor());
 
                     if (debugToStderr) {
                         System.err.printf("1 Change only fore/back colors\n");
@@ -1882,8 +2430,8 @@ public class ECMA48Terminal extends LogicalScreen
                     && (lCell.isBlink() == lastAttr.isBlink())
                 ) {
                     // Both colors changed, attributes the same
-                    sb.append(colorRGB(lCell.getForeColorRGB(),
-                            lCell.getBackColorRGB()));
+                    colorRGB(buf, lCell.getForeColorRGB(),
+                            lCell.getBackColorRGB());
 
                     if (debugToStderr) {
                         System.err.printf("1 Change only fore/back colors (RGB)\n");
@@ -1897,11 +2445,11 @@ public class ECMA48Terminal extends LogicalScreen
                     && (lCell.isBlink() != lastAttr.isBlink())
                 ) {
                     // Everything is different
-                    sb.append(color(lCell.getForeColor(),
+                    color(buf, lCell.getForeColor(),
                             lCell.getBackColor(),
                             lCell.isBold(), lCell.isReverse(),
                             lCell.isBlink(),
-                            lCell.isUnderline()));
+                            lCell.isUnderline());
 
                     if (debugToStderr) {
                         System.err.printf("2 Set all attributes\n");
@@ -1916,8 +2464,8 @@ public class ECMA48Terminal extends LogicalScreen
                 ) {
 
                     // Attributes same, foreColor different
-                    sb.append(color(lCell.isBold(),
-                            lCell.getForeColor(), true));
+                    color(buf, lCell.isBold(),
+                            lCell.getForeColor(), true);
 
                     if (debugToStderr) {
                         System.err.printf("3 Change foreColor\n");
@@ -1933,7 +2481,7 @@ public class ECMA48Terminal extends LogicalScreen
                     && (lCell.isBlink() == lastAttr.isBlink())
                 ) {
                     // Attributes same, foreColor different
-                    sb.append(colorRGB(lCell.getForeColorRGB(), true));
+                    colorRGB(buf, lCell.getForeColorRGB(), true);
 
                     if (debugToStderr) {
                         System.err.printf("3 Change foreColor (RGB)\n");
@@ -1947,8 +2495,8 @@ public class ECMA48Terminal extends LogicalScreen
                     && (lCell.isBlink() == lastAttr.isBlink())
                 ) {
                     // Attributes same, backColor different
-                    sb.append(color(lCell.isBold(),
-                            lCell.getBackColor(), false));
+                    color(buf, lCell.isBold(),
+                            lCell.getBackColor(), false);
 
                     if (debugToStderr) {
                         System.err.printf("4 Change backColor\n");
@@ -1962,7 +2510,7 @@ public class ECMA48Terminal extends LogicalScreen
                     && (lCell.isBlink() == lastAttr.isBlink())
                 ) {
                     // Attributes same, foreColor different
-                    sb.append(colorRGB(lCell.getBackColorRGB(), false));
+                    colorRGB(buf, lCell.getBackColorRGB(), false);
 
                     if (debugToStderr) {
                         System.err.printf("4 Change backColor (RGB)\n");
@@ -1986,36 +2534,89 @@ public class ECMA48Terminal extends LogicalScreen
                 } else {
                     // Just reset everything again
                     if (!lCell.isRGB()) {
-                        sb.append(color(lCell.getForeColor(),
+                        color(buf, lCell.getForeColor(),
                                 lCell.getBackColor(),
                                 lCell.isBold(),
                                 lCell.isReverse(),
                                 lCell.isBlink(),
-                                lCell.isUnderline()));
+                                lCell.isUnderline());
 
                         if (debugToStderr) {
                             System.err.printf("6 Change all attributes\n");
                         }
                     } else {
-                        sb.append(colorRGB(lCell.getForeColorRGB(),
+                        colorRGB(buf, lCell.getForeColorRGB(),
                                 lCell.getBackColorRGB(),
                                 lCell.isBold(),
                                 lCell.isReverse(),
                                 lCell.isBlink(),
-                                lCell.isUnderline()));
+                                lCell.isUnderline());
                         if (debugToStderr) {
                             System.err.printf("6 Change all attributes (RGB)\n");
                         }
                     }
 
                 }
+
+                // See if the following cells are the same as this one.
+                int run = 0;
+                if (cursorOptimize
+                    && !lCell.isImage()
+                    && (lCell.getWidth() == Cell.Width.SINGLE)
+                ) {
+                    int runEnd = right;
+                    if ((textEnd < width - 1) && (textEnd < runEnd)) {
+                        // Blanks past textEnd are cleared by EL.
+                        runEnd = textEnd;
+                    }
+                    run = countRun(x, y, runEnd);
+                }
+
+                if ((run > 0)
+                    && !repSupported
+                    && lCell.isBlank()
+                    && (csiCost(run + 1) + csiCost(run + 1) < run + 1)
+                ) {
+                    // Erase the whole run with ECH.  The cursor stays
+                    // put, so this only wins if ECH plus a CUF past the
+                    // run is shorter than the spaces.
+                    buf.csi(run + 1, 'X');
+                    for (int i = x; i <= x + run; i++) {
+                        physical[i][y].setTo(lCell);
+                    }
+                    lastAttr.setTo(lCell);
+                    x += run;
+                    lastX = x;
+                    continue;
+                }
+
                 // Emit the character
                 if (wideCharImages
                     // Don't emit the right-half of full-width chars.
                     || (!wideCharImages
                         && (lCell.getWidth() != Cell.Width.RIGHT))
                 ) {
-                    sb.append(Character.toChars(lCell.getChar()));
+                    buf.appendCodePoint(lCell.getChar());
+                    if (!wideCharImages
+                        && (lCell.getWidth() == Cell.Width.LEFT)
+                    ) {
+                        advanceTerminalCursor(x + 2);
+                    } else {
+                        advanceTerminalCursor(x + 1);
+                    }
+                }
+
+                if ((run > 0)
+                    && repSupported
+                    && (csiCost(run) < run * utf8Length(lCell.getChar()))
+                ) {
+                    // Repeat the character just emitted with REP.
+                    buf.csi(run, 'b');
+                    for (int i = x; i < x + run; i++) {
+                        physical[i][y].setTo(lCell);
+                    }
+                    x += run;
+                    advanceTerminalCursor(x + 1);
                 }
 
                 // Save the last rendered cell
@@ -2027,23 +2628,503 @@ public class ECMA48Terminal extends LogicalScreen
 
             } // if (!lCell.equals(pCell) || (reallyCleared == true))
 
-        } // for (int x = 0; x < width; x++)
+        } // for (int x = left; x < right; x++)
+
+        updateDirtyRow(y);
+    }
+
+    /**
+     * Record that the terminal's cursor advanced to column x after
+     * printing.  Once the right margin is reached the terminal may be
+     * holding a pending wrap, so the position is treated as unknown.
+     *
+     * @param x the new column
+     */
+    private void advanceTerminalCursor(final int x) {
+        if (x >= width) {
+            terminalCursorX = -1;
+            terminalCursorY = -1;
+        } else {
+            terminalCursorX = x;
+        }
+    }
+
+    /**
+     * Count the number of decimal digits in a non-negative number.
+     *
+     * @param n the number
+     * @return the number of digits
+     */
+    private static int digitCount(final int n) {
+        int digits = 1;
+        for (int i = n; i >= 10; i /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Get the number of bytes in a CSI sequence with a single numeric
+     * parameter that defaults to 1, e.g. CUF or REP.
+     *
+     * @param n the parameter
+     * @return the number of bytes
+     */
+    private static int csiCost(final int n) {
+        if (n == 1) {
+            return 3;
+        }
+        return 3 + digitCount(n);
+    }
+
+    /**
+     * Get the number of bytes a code point takes in UTF-8.
+     *
+     * @param ch the code point
+     * @return the number of bytes
+     */
+    private static int utf8Length(final int ch) {
+        if (ch < 0x80) {
+            return 1;
+        }
+        if (ch < 0x800) {
+            return 2;
+        }
+        if (ch < 0x10000) {
+            return 3;
+        }
+        return 4;
+    }
+
+    /**
+     * Count the cells following (x, y) that will be drawn exactly like it:
+     * each one must be due for output and identical to logical[x][y].
+     *
+     * @param x column coordinate of the first cell of the run
+     * @param y row coordinate
+     * @param end the column to stop at (exclusive)
+     * @return the number of cells after x that match
+     */
+    private int countRun(final int x, final int y, final int end) {
+        Cell lCell = logical[x][y];
+        int n = 0;
+        for (int i = x + 1; i < end; i++) {
+            Cell cell = logical[i][y];
+            if (!cell.equals(lCell)) {
+                break;
+            }
+            if (!reallyCleared
+                && (!isDirtyCell(i, y) || cell.equals(physical[i][y]))
+            ) {
+                break;
+            }
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Get the number of bytes needed to reach column x on the same row by
+     * re-printing the cells between the cursor and x.  This is only
+     * possible when those cells are plain single-width text that is
+     * already on screen with the current attributes.
+     *
+     * @param fromX the column the cursor is on
+     * @param x the target column
+     * @param y the row
+     * @param lastAttr the attributes currently selected on the terminal
+     * @param limit give up once the cost reaches this
+     * @return the number of bytes, or -1 if a rewrite is not possible or
+     * costs at least limit
+     */
+    private int rewriteCost(final int fromX, final int x, final int y,
+        final CellAttributes lastAttr, final int limit) {
+
+        int cost = 0;
+        for (int i = fromX; i < x; i++) {
+            Cell lCell = logical[i][y];
+            if (lCell.isImage()
+                || (lCell.getWidth() != Cell.Width.SINGLE)
+                || !lCell.equals(physical[i][y])
+                || !lastAttr.equals(lCell)
+            ) {
+                return -1;
+            }
+            cost += utf8Length(lCell.getChar());
+            if (cost >= limit) {
+                return -1;
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * Move the terminal's cursor to (x, y) using the cheapest of CUP,
+     * relative moves (CUU/CUD/CUF/CUB), CR, or re-printing the unchanged
+     * cells in between.  If the cursor position is unknown, CUP is used.
+     *
+     * @param buf encoder to write escape sequences to
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param lastAttr the attributes currently selected on the terminal
+     */
+    private void moveCursor(final ECMA48Encoder buf, final int x,
+        final int y, final CellAttributes lastAttr) {
+
+        int fromX = terminalCursorX;
+        int fromY = terminalCursorY;
+        terminalCursorX = x;
+        terminalCursorY = y;
+
+        if ((fromX == x) && (fromY == y)) {
+            return;
+        }
+        if ((fromX < 0) || (fromY < 0)) {
+            buf.gotoXY(x, y);
+            return;
+        }
+
+        // CUP: ESC [ row ; col H
+        int bestCost = 4 + digitCount(y + 1) + digitCount(x + 1);
+        char how = 'H';
+
+        int vertical = 0;
+        if (fromY != y) {
+            vertical = csiCost(Math.abs(fromY - y));
+        }
+
+        // CUF, CUB, or no horizontal movement at all
+        int cost = vertical;
+        if (x != fromX) {
+            cost += csiCost(Math.abs(fromX - x));
+        }
+        if (cost < bestCost) {
+            bestCost = cost;
+            how = (x > fromX ? 'C' : 'D');
+        }
+
+        // CR and then CUF
+        cost = vertical + 1;
+        if (x > 0) {
+            cost += csiCost(x);
+        }
+        if (cost < bestCost) {
+            bestCost = cost;
+            how = '\r';
+        }
+
+        // Re-print the cells in between
+        if ((fromY == y) && (x > fromX)) {
+            cost = rewriteCost(fromX, x, y, lastAttr, bestCost);
+            if (cost >= 0) {
+                for (int i = fromX; i < x; i++) {
+                    buf.appendCodePoint(logical[i][y].getChar());
+                }
+                return;
+            }
+        }
+
+        if (how == 'H') {
+            buf.gotoXY(x, y);
+            return;
+        }
+        if (y < fromY) {
+            cursorRelative(buf, fromY - y, 'A');
+        } else if (y > fromY) {
+            cursorRelative(buf, y - fromY, 'B');
+        }
+        if (how == '\r') {
+            buf.appendByte('\r');
+            if (x > 0) {
+                cursorRelative(buf, x, 'C');
+            }
+        } else if (x > fromX) {
+            cursorRelative(buf, x - fromX, 'C');
+        } else if (x < fromX) {
+            cursorRelative(buf, fromX - x, 'D');
+        }
+    }
+
+    /**
+     * Emit a relative cursor movement, leaving out the parameter when it
+     * is 1.
+     *
+     * @param buf encoder to write escape sequences to
+     * @param n the number of cells to move
+     * @param finalByte one of 'A', 'B', 'C', or 'D'
+     */
+    private void cursorRelative(final ECMA48Encoder buf, final int n,
+        final char finalByte) {
+
+        if (n == 1) {
+            buf.csi().appendByte(finalByte);
+        } else {
+            buf.csi(n, finalByte);
+        }
+    }
+
+    /**
+     * Compute the row hashes used by scrollPhysical() for one row, if they
+     * have not been computed yet.  A clean row is the same on logical and
+     * physical, so it only needs to be hashed once.
+     *
+     * @param y row coordinate.  0 is the top-most row.
+     */
+    private void hashRow(final int y) {
+        if (rowHashed[y]) {
+            return;
+        }
+        rowHashed[y] = true;
+
+        boolean dirtyRow = isDirtyRow(y);
+        int lHash = 13;
+        int pHash = 13;
+        boolean hasImage = false;
+        for (int x = 0; x < width; x++) {
+            Cell lCell = logical[x][y];
+            Cell pCell = physical[x][y];
+            if (lCell.isImage() || pCell.isImage()) {
+                hasImage = true;
+                break;
+            }
+            lHash = (23 * lHash) + lCell.hashCode();
+            if (dirtyRow) {
+                pHash = (23 * pHash) + pCell.hashCode();
+            }
+        }
+        logicalRowHash[y] = lHash;
+        physicalRowHash[y] = (dirtyRow ? pHash : lHash);
+        imageRow[y] = hasImage;
+    }
+
+    /**
+     * See if a logical row looks like it could be scrolled in from a
+     * physical row.
+     *
+     * @param y the logical row
+     * @param src the physical row
+     * @return true if neither row has images and the hashes match
+     */
+    private boolean rowMatches(final int y, final int src) {
+        hashRow(y);
+        hashRow(src);
+        return (!imageRow[y]
+            && !imageRow[src]
+            && (logicalRowHash[y] == physicalRowHash[src]));
+    }
+
+    /**
+     * See if a row would be repainted if it is not scrolled.
+     *
+     * @param y row coordinate.  0 is the top-most row.
+     * @return true if the row hashes say logical differs from physical
+     */
+    private boolean rowChanged(final int y) {
+        if (!isDirtyRow(y)) {
+            return false;
+        }
+        hashRow(y);
+        return (logicalRowHash[y] != physicalRowHash[y]);
+    }
+
+    /**
+     * Look for a block of rows that is on the physical screen, but shifted
+     * up or down from where logical wants it.  If moving it with a
+     * scrolling region saves more rows than it costs, emit the scroll and
+     * shift physical to match, leaving flushLine() to draw the rows that
+     * were scrolled in.
+     *
+     * @param buf encoder to write escape sequences to
+     */
+    private void scrollPhysical(final ECMA48Encoder buf) {
+        if ((scrollOption == ScrollOption.DISABLED) || (height < 2)) {
+            return;
+        }
+        if ((rowHashed == null) || (rowHashed.length != height)) {
+            logicalRowHash = new int[height];
+            physicalRowHash = new int[height];
+            imageRow = new boolean[height];
+            rowHashed = new boolean[height];
+            dirtyRowList = new int[height];
+            shiftScoredTo = new int[height * 2];
+        }
+
+        // A scroll changes at least two rows.
+        int dirtyRows = 0;
+        for (int y = 0; y < height; y++) {
+            if (isDirtyRow(y)) {
+                dirtyRowList[dirtyRows] = y;
+                dirtyRows++;
+            }
+        }
+        if (dirtyRows < 2) {
+            return;
+        }
+        Arrays.fill(rowHashed, false);
+        Arrays.fill(shiftScoredTo, -1);
+
+        // Logical rows [bestTop, bestBottom] are physical rows shifted by
+        // bestShift: logical[y] == physical[y + bestShift].
+        int bestScore = 0;
+        int bestShift = 0;
+        int bestTop = -1;
+        int bestBottom = -1;
+
+        // A row that scrolled moved away from where it was, so both ends
+        // of the move are dirty.  Only pairs of dirty rows are tried as
+        // shifts, and only dirty rows and the rows in the blocks around
+        // them are hashed.
+        for (int i = 0; i < dirtyRows; i++) {
+            int y = dirtyRowList[i];
+            if (!rowChanged(y)) {
+                continue;
+            }
+            for (int j = 0; j < dirtyRows; j++) {
+                int src = dirtyRowList[j];
+                int shift = src - y;
+                if ((shift == 0)
+                    || (y <= shiftScoredTo[shift + height])
+                    || !rowMatches(y, src)
+                ) {
+                    continue;
+                }
+
+                // Grow the block up and down from y, stopping at the
+                // first row that does not match.
+                int top = y;
+                while ((top - 1 >= 0)
+                    && (top - 1 + shift >= 0)
+                    && rowMatches(top - 1, top - 1 + shift)
+                ) {
+                    top--;
+                }
+                int bottom = y;
+                while ((bottom + 1 < height)
+                    && (bottom + 1 + shift < height)
+                    && rowMatches(bottom + 1, bottom + 1 + shift)
+                ) {
+                    bottom++;
+                }
+                shiftScoredTo[shift + height] = bottom;
+
+                int score = 0;
+                for (int k = top; k <= bottom; k++) {
+                    if (rowChanged(k)) {
+                        // This row would otherwise be repainted.
+                        score++;
+                    }
+                }
+
+                // The rows scrolled in are blanked, which costs any of
+                // them that were already correct.
+                int exposedTop = bottom + 1;
+                int exposedBottom = bottom + shift;
+                if (shift < 0) {
+                    exposedTop = top + shift;
+                    exposedBottom = top - 1;
+                }
+                for (int k = exposedTop; k <= exposedBottom; k++) {
+                    hashRow(k);
+                    if (imageRow[k]) {
+                        score = 0;
+                        break;
+                    }
+                    if (!rowChanged(k)) {
+                        score--;
+                    }
+                }
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestShift = shift;
+                    bestTop = top;
+                    bestBottom = bottom;
+                }
+            }
+        }
+
+        if (bestScore == 0) {
+            return;
+        }
+
+        // The hashes matched, make sure the cells do too.
+        for (int y = bestTop; y <= bestBottom; y++) {
+            for (int x = 0; x < width; x++) {
+                if (!logical[x][y].equals(physical[x][y + bestShift])) {
+                    return;
+                }
+            }
+        }
+
+        int regionTop = bestTop;
+        int regionBottom = bestBottom + bestShift;
+        int n = bestShift;
+        if (bestShift < 0) {
+            regionTop = bestTop + bestShift;
+            regionBottom = bestBottom;
+            n = -bestShift;
+        }
+
+        // The rows scrolled in take on the current background color.
+        normal(buf);
+        buf.csi().appendInt(regionTop + 1).appendByte(';').
+            appendInt(regionBottom + 1).appendByte('r');
+        if (scrollOption == ScrollOption.SU) {
+            buf.csi(n, (bestShift > 0 ? 'S' : 'T'));
+        } else {
+            buf.gotoXY(0, regionTop);
+            buf.csi(n, (bestShift > 0 ? 'M' : 'L'));
+        }
+        buf.csi().appendByte('r');
+
+        // DECSTBM homes the cursor.
+        terminalCursorX = -1;
+        terminalCursorY = -1;
+
+        // Now shift physical the same way.
+        if (bestShift > 0) {
+            for (int y = regionTop; y <= regionBottom; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (y + n <= regionBottom) {
+                        physical[x][y].setTo(physical[x][y + n]);
+                    } else {
+                        physical[x][y].reset();
+                    }
+                }
+            }
+        } else {
+            for (int y = regionBottom; y >= regionTop; y--) {
+                for (int x = 0; x < width; x++) {
+                    if (y - n >= regionTop) {
+                        physical[x][y].setTo(physical[x][y - n]);
+                    } else {
+                        physical[x][y].reset();
+                    }
+                }
+            }
+        }
+        for (int y = regionTop; y <= regionBottom; y++) {
+            for (int x = 0; x < width; x++) {
+                updateDirty(x, y);
+            }
+        }
     }
 
     /**
      * Render the screen to a string that can be emitted to something that
      * knows how to process ECMA-48/ANSI X3.64 escape sequences.
      *
-     * @param sb StringBuilder to write escape sequences to
-     * @return escape sequences string that provides the updates to the
-     * physical screen
+     * @param buf encoder to write escape sequences to
      */
-    private String flushString(final StringBuilder sb) {
+    private void flushString(final ECMA48Encoder buf) {
         CellAttributes attr = null;
 
         if (reallyCleared) {
             attr = new CellAttributes();
-            sb.append(clearAll());
+            buf.append(clearAll());
+            terminalCursorX = -1;
+            terminalCursorY = -1;
+        } else {
+            scrollPhysical(buf);
         }
 
         /*
@@ -2052,7 +3133,10 @@ public class ECMA48Terminal extends LogicalScreen
          * is still a drag on larger pictures.
          */
         for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
+            if (imageDeltas || !isDirtyRow(y)) {
+                continue;
+            }
+            for (int x = getDirtyLeft(y); x < getDirtyRight(y); x++) {
                 // If physical had non-image data that is now image data, the
                 // entire row must be redrawn.
                 Cell lCell = logical[x][y];
@@ -2064,7 +3148,16 @@ public class ECMA48Terminal extends LogicalScreen
             }
         }
         for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
+            if (!isDirtyRow(y) && !reallyCleared) {
+                continue;
+            }
+            int spanLeft = 0;
+            int spanRight = width;
+            if (!reallyCleared) {
+                spanLeft = getDirtyLeft(y);
+                spanRight = getDirtyRight(y);
+            }
+            for (int x = spanLeft; x < spanRight; x++) {
                 Cell lCell = logical[x][y];
                 Cell pCell = physical[x][y];
 
@@ -2084,40 +3177,67 @@ public class ECMA48Terminal extends LogicalScreen
                 ) {
                     right++;
                 }
+                boolean parallel = sixelParallel && !iterm2Images
+                    && (jexerImageOption == JexerImageOption.DISABLED);
                 ArrayList<Cell> cellsToDraw = new ArrayList<Cell>();
                 for (int i = 0; i < (right - x); i++) {
                     assert (logical[x + i][y].isImage());
-                    cellsToDraw.add(logical[x + i][y]);
+                    if (parallel) {
+                        // Compute the digest before copying, so that the
+                        // logical cell keeps it for the next frame's
+                        // cache lookup instead of only the copy having
+                        // it.
+                        logical[x + i][y].getImageDigest();
+                        cellsToDraw.add(new Cell(logical[x + i][y]));
+                    } else {
+                        cellsToDraw.add(logical[x + i][y]);
+                    }
 
                     // Physical is always updated.
                     physical[x + i][y].setTo(lCell);
                 }
                 if (cellsToDraw.size() > 0) {
                     if (iterm2Images) {
-                        sb.append(toIterm2Image(x, y, cellsToDraw));
+                        toIterm2Image(x, y, cellsToDraw, buf);
                     } else if (jexerImageOption != JexerImageOption.DISABLED) {
-                        sb.append(toJexerImage(x, y, cellsToDraw));
+                        toJexerImage(x, y, cellsToDraw, buf);
+                    } else if (parallel) {
+                        sixelJobs.add(new SixelJob(x, y, cellsToDraw));
                     } else {
-                        sb.append(toSixel(x, y, cellsToDraw));
+                        buf.append(toSixel(x, y, cellsToDraw));
                     }
+                    // Image output leaves the cursor somewhere we cannot
+                    // predict.
+                    terminalCursorX = -1;
+                    terminalCursorY = -1;
                 }
 
                 x = right;
             }
         }
+        if (sixelJobs.size() > 0) {
+            flushSixelJobs(buf);
+        }
 
         // Draw the text part now.
         for (int y = 0; y < height; y++) {
-            flushLine(y, sb, attr);
+            flushLine(y, buf, attr);
         }
 
+        // Image rows that missed the sixel deadline stay dirty.
+        for (SixelJob job: sixelJobs) {
+            for (int i = 0; i < job.cells.size(); i++) {
+                physical[job.x + i][job.y].unset();
+                updateDirty(job.x + i, job.y);
+            }
+        }
+        sixelJobs.clear();
+
         reallyCleared = false;
 
-        String result = sb.toString();
         if (debugToStderr) {
-            System.err.printf("flushString(): %s\n", result);
+            System.err.printf("flushString(): %s\n", buf);
         }
-        return result;
     }
 
     /**
@@ -3059,6 +4179,37 @@ public class ECMA48Terminal extends LogicalScreen
     // Sixel output support ---------------------------------------------------
     // ------------------------------------------------------------------------
 
+    /**
+     * Get the number of image rows served from the image cache.  Unless
+     * jexer.ECMA48.sharedImageCache is false, the counts are for all
+     * terminals in this process.
+     *
+     * @return the number of cache hits
+     */
+    public long getImageCacheHits() {
+        return imageCache.getHits();
+    }
+
+    /**
+     * Get the number of image rows that had to be encoded because they
+     * were not in the image cache.
+     *
+     * @return the number of cache misses
+     */
+    public long getImageCacheMisses() {
+        return imageCache.getMisses();
+    }
+
+    /**
+     * Get the number of image rows dropped from the image cache to keep it
+     * within its size limit.
+     *
+     * @return the number of cache evictions
+     */
+    public long getImageCacheEvictions() {
+        return imageCache.getEvictions();
+    }
+
     /**
      * Get the number of colors in the sixel palette.
      *
@@ -3094,7 +4245,14 @@ public class ECMA48Terminal extends LogicalScreen
         synchronized (this) {
             sixelPaletteSize = paletteSize;
             palette = null;
-            sixelCache = null;
+            sixelPaletteSent = false;
+            // The encodes may be shared with other terminals, so they are
+            // not cancelled, but they must not stay in sixelInFlight
+            // forever either.
+            for (SixelJob job: sixelPending) {
+                finishSixelFuture(job);
+            }
+            sixelPending.clear();
             clearPhysical();
         }
     }
@@ -3119,9 +4277,12 @@ public class ECMA48Terminal extends LogicalScreen
 
         if (palette == null) {
             palette = new SixelPalette();
-            if (sixelSharedPalette == true) {
-                palette.emitPalette(sb, null);
-            }
+        }
+        if ((sixelSharedPalette == true) && (sixelPaletteSent == false)) {
+            // The cached rows never carry the shared palette, so send it
+            // with whichever row reaches the terminal first.
+            palette.emitPalette(sb, null);
+            sixelPaletteSent = true;
         }
 
         return sb.toString();
@@ -3151,6 +4312,34 @@ public class ECMA48Terminal extends LogicalScreen
     private String toSixel(final int x, final int y,
         final ArrayList<Cell> cells) {
 
+        String result = toSixelShortcut(x, y, cells);
+        if (result != null) {
+            return result;
+        }
+
+        if (palette == null) {
+            palette = new SixelPalette();
+        }
+        String data = encodeSixel(palette, cells);
+        imageCache.put(getSixelKey(cells), data);
+
+        return (startSixel(x, y) + data + endSixel());
+    }
+
+    /**
+     * Produce the output for a row of image cells that does not need to be
+     * encoded: blanks if sixel is off or this is the bottom row, or the
+     * cached sixel string.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param cells the cells containing the bitmap data
+     * @return the string to emit to an ANSI / ECMA-style terminal, or null
+     * if the cells need to go through encodeSixel()
+     */
+    private String toSixelShortcut(final int x, final int y,
+        final ArrayList<Cell> cells) {
+
         StringBuilder sb = new StringBuilder();
 
         assert (cells != null);
@@ -3158,12 +4347,7 @@ public class ECMA48Terminal extends LogicalScreen
         assert (cells.get(0).getImage() != null);
 
         if (sixel == false) {
-            sb.append(normal());
-            sb.append(gotoXY(x, y));
-            for (int i = 0; i < cells.size(); i++) {
-                sb.append(' ');
-            }
-            return sb.toString();
+            return blankCells(x, y, cells.size());
         }
 
         if (y == height - 1) {
@@ -3171,94 +4355,115 @@ public class ECMA48Terminal extends LogicalScreen
             // (default), then VT320/xterm will scroll the entire screen if
             // we draw any pixels here.  Do not draw the image, bail out
             // instead.
-            sb.append(normal());
-            sb.append(gotoXY(x, y));
-            for (int j = 0; j < cells.size(); j++) {
-                sb.append(' ');
-            }
+            return blankCells(x, y, cells.size());
+        }
+
+        String cachedResult = imageCache.get(getSixelKey(cells));
+        if (cachedResult != null) {
+            // System.err.println("CACHE HIT");
+            sb.append(startSixel(x, y));
+            sb.append(cachedResult);
+            sb.append(endSixel());
             return sb.toString();
         }
+        // System.err.println("CACHE MISS");
+        return null;
+    }
 
-        if (sixelCache == null) {
-            sixelCache = new ImageCache(height * 10);
+    /**
+     * Produce blanks in place of a row of image cells.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param count the number of cells
+     * @return the string to emit to an ANSI / ECMA-style terminal
+     */
+    private String blankCells(final int x, final int y, final int count) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(normal());
+        sb.append(gotoXY(x, y));
+        for (int i = 0; i < count; i++) {
+            sb.append(' ');
         }
+        return sb.toString();
+    }
 
-        // Save and get rows to/from the cache that do NOT have inverted
-        // cells.
-        boolean saveInCache = true;
-        for (Cell cell: cells) {
-            if (cell.isInvertedImage()) {
-                saveInCache = false;
-            }
-        }
-        if (saveInCache) {
-            String cachedResult = sixelCache.get(cells);
-            if (cachedResult != null) {
-                // System.err.println("CACHE HIT");
-                sb.append(startSixel(x, y));
-                sb.append(cachedResult);
-                sb.append(endSixel());
-                return sb.toString();
-            }
-            // System.err.println("CACHE MISS");
-        }
+    /**
+     * Get the imageCache key for a row of sixel cells.  The key covers
+     * which cells are inverted, so inverted rows are cached (and deferred
+     * past the frame deadline) the same as any other.
+     *
+     * @param cells the cells containing the bitmap data
+     * @return the key
+     */
+    private String getSixelKey(final List<Cell> cells) {
+        return ImageCache.makeKey("sixel;" + sixelPaletteSize + ";"
+            + sixelSharedPalette + ";" + getTextWidth() + "x"
+            + getTextHeight(), cells);
+    }
+
+    /**
+     * Dither and encode a row of image cells.  This only reads the palette
+     * and the text cell size, so it is safe to call from sixelPool.
+     *
+     * @param palette the palette to dither with
+     * @param cells the cells containing the bitmap data
+     * @return the sixel data, without the DCS, ST, or shared palette
+     */
+    private String encodeSixel(final SixelPalette palette,
+        final ArrayList<Cell> cells) {
+
+        StringBuilder sb = new StringBuilder();
 
         BufferedImage image = cellsToImage(cells);
         int fullHeight = image.getHeight();
 
-        // Dither the image.  It is ok to lose the original here.
-        if (palette == null) {
-            palette = new SixelPalette();
-            if (sixelSharedPalette == true) {
-                palette.emitPalette(sb, null);
-            }
-        }
-        image = palette.ditherImage(image);
+        // Dither the image to palette indexes.
+        int imageWidth = image.getWidth();
+        int [] indexes = palette.ditherImage(image);
 
         // Collect the raster information
         int rasterHeight = 0;
-        int rasterWidth = image.getWidth();
+        int rasterWidth = imageWidth;
 
         if (sixelSharedPalette == false) {
             // Emit the palette, but only for the colors actually used by
             // these cells.
             boolean [] usedColors = new boolean[sixelPaletteSize];
-            for (int imageX = 0; imageX < image.getWidth(); imageX++) {
-                for (int imageY = 0; imageY < image.getHeight(); imageY++) {
-                    usedColors[image.getRGB(imageX, imageY)] = true;
-                }
+            for (int i = 0; i < indexes.length; i++) {
+                usedColors[indexes[i]] = true;
             }
             palette.emitPalette(sb, usedColors);
         }
 
         // Render the entire row of cells.
+        boolean [] bandColors = new boolean[sixelPaletteSize];
         for (int currentRow = 0; currentRow < fullHeight; currentRow += 6) {
-            int [][] sixels = new int[image.getWidth()][6];
+            int [][] sixels = new int[imageWidth][6];
 
             // See which colors are actually used in this band of sixels.
-            for (int imageX = 0; imageX < image.getWidth(); imageX++) {
+            for (int imageX = 0; imageX < imageWidth; imageX++) {
                 for (int imageY = 0;
                      (imageY < 6) && (imageY + currentRow < fullHeight);
                      imageY++) {
 
-                    int colorIdx = image.getRGB(imageX, imageY + currentRow);
+                    int colorIdx = indexes[((imageY + currentRow)
+                            * imageWidth) + imageX];
                     assert (colorIdx >= 0);
                     assert (colorIdx < sixelPaletteSize);
 
                     sixels[imageX][imageY] = colorIdx;
                 }
             }
+            Arrays.fill(bandColors, false);
+            for (int imageX = 0; imageX < imageWidth; imageX++) {
+                for (int j = 0; j < 6; j++) {
+                    bandColors[sixels[imageX][j]] = true;
+                }
+            }
 
             for (int i = 0; i < sixelPaletteSize; i++) {
-                boolean isUsed = false;
-                for (int imageX = 0; imageX < image.getWidth(); imageX++) {
-                    for (int j = 0; j < 6; j++) {
-                        if (sixels[imageX][j] == i) {
-                            isUsed = true;
-                        }
-                    }
-                }
-                if (isUsed == false) {
+                if (bandColors[i] == false) {
                     continue;
                 }
 
@@ -3268,7 +4473,7 @@ public class ECMA48Terminal extends LogicalScreen
 
                 int oldData = -1;
                 int oldDataCount = 0;
-                for (int imageX = 0; imageX < image.getWidth(); imageX++) {
+                for (int imageX = 0; imageX < imageWidth; imageX++) {
 
                     // Add up all the pixels that match this color.
                     int data = 0;
@@ -3319,7 +4524,7 @@ public class ECMA48Terminal extends LogicalScreen
                         oldData = data;
                     }
 
-                } // for (int imageX = 0; imageX < image.getWidth(); imageX++)
+                } // for (int imageX = 0; imageX < imageWidth; imageX++)
 
                 // Emit the last sequence.
                 if (oldDataCount == 1) {
@@ -3342,12 +4547,251 @@ public class ECMA48Terminal extends LogicalScreen
         // Add the raster information
         sb.insert(0, String.format("\"1;1;%d;%d", rasterWidth, rasterHeight));
 
-        if (saveInCache) {
-            // This row is OK to save into the cache.
-            sixelCache.put(cells, sb.toString());
+        return sb.toString();
+    }
+
+    /**
+     * Encode the image rows collected in sixelJobs and append them to the
+     * output in screen order.  Rows that can not be finished within
+     * sixelDeadline are left out of this frame and remain in sixelJobs;
+     * flushString() unsets their physical cells, and the encoder wakes the
+     * listener when it finishes so that the application flushes again and
+     * finds the result in the cache.
+     *
+     * @param buf the output buffer
+     */
+    private void flushSixelJobs(final ECMA48Encoder buf) {
+        if ((sixel == true)
+            && (sixelSharedPalette == true)
+            && (sixelPaletteSent == false)
+        ) {
+            // Send the shared palette in a sequence of its own, ahead of
+            // every row in this frame.  Rows may be cached, deferred by the
+            // deadline, or fail to encode, so none of them can be relied on
+            // to carry it.  The top-left corner is a safe place for a DCS
+            // with no pixels.
+            if (palette == null) {
+                palette = new SixelPalette();
+            }
+            StringBuilder sb = new StringBuilder();
+            sb.append(gotoXY(0, 0));
+            sb.append("\033Pq");
+            palette.emitPalette(sb, null);
+            sb.append(endSixel());
+            buf.append(sb.toString());
+            sixelPaletteSent = true;
+        }
+
+        // Pick up rows that missed an earlier frame.
+        for (int i = sixelPending.size() - 1; i >= 0; i--) {
+            SixelJob job = sixelPending.get(i);
+            if (!job.result.isDone()) {
+                continue;
+            }
+            sixelPending.remove(i);
+            String data = getSixelResult(job);
+            if ((data != null) && (job.palette == palette)) {
+                imageCache.put(job.key, data);
+            }
+            finishSixelFuture(job);
+        }
+
+        // The cache, palette, and shared palette emission are only touched
+        // here on the screen thread.  The pool only sees encodeSixel().
+        String [] output = new String[sixelJobs.size()];
+        ArrayList<SixelJob> deferred = new ArrayList<SixelJob>();
+        int submitted = 0;
+        for (int i = 0; i < sixelJobs.size(); i++) {
+            SixelJob job = sixelJobs.get(i);
+            output[i] = toSixelShortcut(job.x, job.y, job.cells);
+            if (output[i] != null) {
+                continue;
+            }
+            if (palette == null) {
+                palette = new SixelPalette();
+            }
+            job.palette = palette;
+            job.key = getSixelKey(job.cells);
+            submitted++;
+        }
+        if (submitted == 1) {
+            // Not worth a trip through the pool.
+            for (int i = 0; i < sixelJobs.size(); i++) {
+                SixelJob job = sixelJobs.get(i);
+                if (output[i] == null) {
+                    String data = job.call();
+                    imageCache.put(job.key, data);
+                    output[i] = startSixel(job.x, job.y) + data + endSixel();
+                }
+            }
+        } else if (submitted > 1) {
+            ForkJoinPool pool = getSixelPool();
+            for (int i = 0; i < sixelJobs.size(); i++) {
+                if (output[i] == null) {
+                    SixelJob job = sixelJobs.get(i);
+                    job.result = submitSixelJob(pool, job);
+                }
+            }
+            long deadline = System.currentTimeMillis() + sixelDeadline;
+            for (int i = 0; i < sixelJobs.size(); i++) {
+                SixelJob job = sixelJobs.get(i);
+                if (output[i] != null) {
+                    continue;
+                }
+                String data = null;
+                try {
+                    if (sixelDeadline == 0) {
+                        data = job.result.get();
+                    } else {
+                        long remaining = deadline - System.currentTimeMillis();
+                        if ((remaining > 0) || job.result.isDone()) {
+                            data = job.result.get(Math.max(remaining, 0),
+                                TimeUnit.MILLISECONDS);
+                        }
+                    }
+                } catch (TimeoutException e) {
+                    // Fall through to deferring this row.
+                } catch (InterruptedException e) {
+                    // SQUASH
+                } catch (ExecutionException e) {
+                    // The encoder failed.  Leave the cells blank for this
+                    // frame rather than take down the screen thread; the
+                    // next change to these cells tries again.
+                    finishSixelFuture(job);
+                    output[i] = blankCells(job.x, job.y, job.cells.size());
+                    continue;
+                }
+
+                if ((data == null)
+                    && job.runner.wakeWhenDone(listener)
+                ) {
+                    // Missed the deadline.  The encoder wakes the listener
+                    // when it finishes, and the next flush draws it.
+                    deferred.add(job);
+                    sixelPending.add(job);
+                    output[i] = "";
+                    continue;
+                }
+                if (data == null) {
+                    // It finished just after the deadline.
+                    data = getSixelResult(job);
+                }
+                finishSixelFuture(job);
+                if (data == null) {
+                    output[i] = blankCells(job.x, job.y, job.cells.size());
+                    continue;
+                }
+                imageCache.put(job.key, data);
+                output[i] = startSixel(job.x, job.y) + data + endSixel();
+            }
+        }
+        for (int i = 0; i < output.length; i++) {
+            buf.append(output[i]);
+        }
+        sixelJobs.clear();
+        sixelJobs.addAll(deferred);
+    }
+
+    /**
+     * Get the result of a finished SixelJob.
+     *
+     * @param job the job
+     * @return the sixel data, or null if the encoder failed
+     */
+    private String getSixelResult(final SixelJob job) {
+        try {
+            return job.result.get();
+        } catch (InterruptedException e) {
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the pool shared by all terminals for sixel encoding, creating it
+     * if needed.
+     *
+     * @return the pool
+     */
+    private static synchronized ForkJoinPool getSixelPool() {
+        if (sixelPool == null) {
+            sixelPool = new ForkJoinPool();
+        }
+        return sixelPool;
+    }
+
+    /**
+     * Submit a sixel row to the pool, or join the encode of an identical
+     * row already submitted by this or another terminal.
+     *
+     * @param pool the pool
+     * @param job the row to encode
+     * @return the Future of the encoder output
+     */
+    private static Future<String> submitSixelJob(final ForkJoinPool pool,
+        final SixelJob job) {
+
+        synchronized (sixelInFlight) {
+            SixelJob runner = sixelInFlight.get(job.key);
+            if (runner == null) {
+                runner = job;
+                runner.result = pool.submit(job);
+                sixelInFlight.put(job.key, runner);
+            }
+            job.runner = runner;
+            return runner.result;
+        }
+    }
+
+    /**
+     * Forget a finished sixel row once its output is in the image cache.
+     *
+     * @param job the row that was encoded
+     */
+    private static void finishSixelFuture(final SixelJob job) {
+        synchronized (sixelInFlight) {
+            if (sixelInFlight.get(job.key) == job.runner) {
+                sixelInFlight.remove(job.key);
+            }
+        }
+    }
+
+    /**
+     * Get the image cache shared by all terminals, creating it if needed.
+     *
+     * @param maxBytes the cache size to use if it is created now
+     * @return the cache
+     */
+    private static synchronized ImageCache getSharedImageCache(
+        final long maxBytes) {
+
+        if (sharedImageCache == null) {
+            sharedImageCache = new ImageCache(maxBytes);
         }
+        return sharedImageCache;
+    }
+
+    /**
+     * Get the color lookup cube for a palette, building it the first time
+     * a palette of that size is seen.
+     *
+     * @param palette the palette
+     * @return the cube
+     */
+    private static synchronized short [] getSixelColorCube(
+        final SixelPalette palette) {
 
-        return (startSixel(x, y) + sb.toString() + endSixel());
+        if (sixelColorCubes == null) {
+            sixelColorCubes = new HashMap<Integer, short []>();
+        }
+        int size = palette.rgbArray.length;
+        short [] cube = sixelColorCubes.get(size);
+        if (cube == null) {
+            cube = palette.makeColorCube();
+            sixelColorCubes.put(size, cube);
+        }
+        return cube;
     }
 
     /**
@@ -3359,6 +4803,17 @@ public class ECMA48Terminal extends LogicalScreen
         return sixel;
     }
 
+    /**
+     * Get the image deltas flag.
+     *
+     * @return true if this terminal only re-sends the image cells that
+     * changed, and the application does not need to unset whole image rows
+     * around the mouse pointer
+     */
+    public boolean hasImageDeltas() {
+        return imageDeltas;
+    }
+
     /**
      * Convert a horizontal range of cell's image data into a single
      * contigous image, rescaled and anti-aliased to match the current text
@@ -3505,28 +4960,22 @@ public class ECMA48Terminal extends LogicalScreen
      * @param x column coordinate.  0 is the left-most column.
      * @param y row coordinate.  0 is the top-most row.
      * @param cells the cells containing the bitmap data
-     * @return the string to emit to an ANSI / ECMA-style terminal
+     * @param buf the output buffer
      */
-    private String toIterm2Image(final int x, final int y,
-        final ArrayList<Cell> cells) {
-
-        StringBuilder sb = new StringBuilder();
+    private void toIterm2Image(final int x, final int y,
+        final ArrayList<Cell> cells, final ECMA48Encoder buf) {
 
         assert (cells != null);
         assert (cells.size() > 0);
         assert (cells.get(0).getImage() != null);
 
         if (iterm2Images == false) {
-            sb.append(normal());
-            sb.append(gotoXY(x, y));
+            buf.append(normal());
+            buf.gotoXY(x, y);
             for (int i = 0; i < cells.size(); i++) {
-                sb.append(' ');
+                buf.appendByte(' ');
             }
-            return sb.toString();
-        }
-
-        if (iterm2Cache == null) {
-            iterm2Cache = new ImageCache(height * 10);
+            return;
         }
 
         // Save and get rows to/from the cache that do NOT have inverted
@@ -3537,13 +4986,16 @@ public class ECMA48Terminal extends LogicalScreen
                 saveInCache = false;
             }
         }
+        String key = null;
         if (saveInCache) {
-            String cachedResult = iterm2Cache.get(cells);
+            key = ImageCache.makeKey("iterm2;" + pngCompression + ";"
+                + getTextWidth() + "x" + getTextHeight(), cells);
+            String cachedResult = imageCache.get(key);
             if (cachedResult != null) {
                 // System.err.println("CACHE HIT");
-                sb.append(gotoXY(x, y));
-                sb.append(cachedResult);
-                return sb.toString();
+                buf.gotoXY(x, y);
+                buf.append(cachedResult);
+                return;
             }
             // System.err.println("CACHE MISS");
         }
@@ -3597,22 +5049,10 @@ public class ECMA48Terminal extends LogicalScreen
          *
          */
 
-        // File contents can be several image formats.  We will use PNG.
-        ByteArrayOutputStream pngOutputStream = new ByteArrayOutputStream(1024);
-        try {
-            if (!ImageIO.write(image.getSubimage(0, 0, image.getWidth(),
-                        Math.min(image.getHeight(), fullHeight)),
-                    "PNG", pngOutputStream)
-            ) {
-                // We failed to render image, bail out.
-                return "";
-            }
-        } catch (IOException e) {
-            // We failed to render image, bail out.
-            return "";
-        }
+        buf.gotoXY(x, y);
+        int start = buf.length();
 
-        sb.append("\033]1337;File=");
+        buf.append("\033]1337;File=");
         /*
         sb.append(String.format("width=$d;height=1;preserveAspectRatio=1;",
                 cells.size()));
@@ -3622,16 +5062,25 @@ public class ECMA48Terminal extends LogicalScreen
                 image.getWidth(), Math.min(image.getHeight(),
                     getTextHeight())));
          */
-        sb.append("inline=1:");
-        sb.append(StringUtils.toBase64(pngOutputStream.toByteArray()));
-        sb.append("\007");
+        buf.append("inline=1:");
+
+        // File contents can be several image formats.  We will use PNG,
+        // streamed through Base64 straight into the output buffer.
+        OutputStream base64 = buf.base64Stream();
+        try {
+            PNGEncoder.write(image, pngCompression, base64);
+            base64.close();
+        } catch (IOException e) {
+            // We failed to render image, bail out.
+            buf.setLength(start);
+            return;
+        }
+        buf.append("\007");
 
         if (saveInCache) {
             // This row is OK to save into the cache.
-            iterm2Cache.put(cells, sb.toString());
+            imageCache.put(key, buf.substring(start));
         }
-
-        return (gotoXY(x, y) + sb.toString());
     }
 
     /**
@@ -3658,28 +5107,22 @@ public class ECMA48Terminal extends LogicalScreen
      * @param x column coordinate.  0 is the left-most column.
      * @param y row coordinate.  0 is the top-most row.
      * @param cells the cells containing the bitmap data
-     * @return the string to emit to an ANSI / ECMA-style terminal
+     * @param buf the output buffer
      */
-    private String toJexerImage(final int x, final int y,
-        final ArrayList<Cell> cells) {
-
-        StringBuilder sb = new StringBuilder();
+    private void toJexerImage(final int x, final int y,
+        final ArrayList<Cell> cells, final ECMA48Encoder buf) {
 
         assert (cells != null);
         assert (cells.size() > 0);
         assert (cells.get(0).getImage() != null);
 
         if (jexerImageOption == JexerImageOption.DISABLED) {
-            sb.append(normal());
-            sb.append(gotoXY(x, y));
+            buf.append(normal());
+            buf.gotoXY(x, y);
             for (int i = 0; i < cells.size(); i++) {
-                sb.append(' ');
+                buf.appendByte(' ');
             }
-            return sb.toString();
-        }
-
-        if (jexerCache == null) {
-            jexerCache = new ImageCache(height * 10);
+            return;
         }
 
         // Save and get rows to/from the cache that do NOT have inverted
@@ -3690,13 +5133,17 @@ public class ECMA48Terminal extends LogicalScreen
                 saveInCache = false;
             }
         }
+        String key = null;
         if (saveInCache) {
-            String cachedResult = jexerCache.get(cells);
+            key = ImageCache.makeKey("jexer;" + jexerImageOption + ";"
+                + pngCompression + ";" + getTextWidth() + "x"
+                + getTextHeight(), cells);
+            String cachedResult = imageCache.get(key);
             if (cachedResult != null) {
                 // System.err.println("CACHE HIT");
-                sb.append(gotoXY(x, y));
-                sb.append(cachedResult);
-                return sb.toString();
+                buf.gotoXY(x, y);
+                buf.append(cachedResult);
+                return;
             }
             // System.err.println("CACHE MISS");
         }
@@ -3704,84 +5151,77 @@ public class ECMA48Terminal extends LogicalScreen
         BufferedImage image = cellsToImage(cells);
         int fullHeight = image.getHeight();
 
-        if (jexerImageOption == JexerImageOption.PNG) {
-            // Encode as PNG
-            ByteArrayOutputStream pngOutputStream = new ByteArrayOutputStream(1024);
-            try {
-                if (!ImageIO.write(image.getSubimage(0, 0, image.getWidth(),
-                            Math.min(image.getHeight(), fullHeight)),
-                        "PNG", pngOutputStream)
-                ) {
-                    // We failed to render image, bail out.
-                    return "";
-                }
-            } catch (IOException e) {
-                // We failed to render image, bail out.
-                return "";
-            }
-
-            sb.append("\033]444;1;0;");
-            sb.append(StringUtils.toBase64(pngOutputStream.toByteArray()));
-            sb.append("\007");
-
-        } else if (jexerImageOption == JexerImageOption.JPG) {
+        buf.gotoXY(x, y);
+        int start = buf.length();
+        OutputStream base64 = buf.base64Stream();
 
-            // Encode as JPG
-            ByteArrayOutputStream jpgOutputStream = new ByteArrayOutputStream(1024);
-
-            // Convert from ARGB to RGB, otherwise the JPG encode will fail.
-            BufferedImage jpgImage = new BufferedImage(image.getWidth(),
-                image.getHeight(), BufferedImage.TYPE_INT_RGB);
-            int [] pixels = new int[image.getWidth() * image.getHeight()];
-            image.getRGB(0, 0, image.getWidth(), image.getHeight(), pixels,
-                0, image.getWidth());
-            jpgImage.setRGB(0, 0, image.getWidth(), image.getHeight(), pixels,
-                0, image.getWidth());
+        try {
+            if (jexerImageOption == JexerImageOption.PNG) {
+                // Encode as PNG
+                buf.append("\033]444;1;0;");
+                PNGEncoder.write(image, pngCompression, base64);
+
+            } else if (jexerImageOption == JexerImageOption.JPG) {
+
+                // Encode as JPG
+                buf.append("\033]444;2;0;");
+
+                // Convert from ARGB to RGB, otherwise the JPG encode will
+                // fail.
+                BufferedImage jpgImage = new BufferedImage(image.getWidth(),
+                    image.getHeight(), BufferedImage.TYPE_INT_RGB);
+                int [] pixels = new int[image.getWidth() * image.getHeight()];
+                image.getRGB(0, 0, image.getWidth(), image.getHeight(),
+                    pixels, 0, image.getWidth());
+                jpgImage.setRGB(0, 0, image.getWidth(), image.getHeight(),
+                    pixels, 0, image.getWidth());
 
-            try {
                 if (!ImageIO.write(jpgImage.getSubimage(0, 0,
                             jpgImage.getWidth(),
                             Math.min(jpgImage.getHeight(), fullHeight)),
-                        "JPG", jpgOutputStream)
+                        "JPG", base64)
                 ) {
                     // We failed to render image, bail out.
-                    return "";
+                    buf.setLength(start);
+                    return;
                 }
-            } catch (IOException e) {
-                // We failed to render image, bail out.
-                return "";
-            }
 
-            sb.append("\033]444;2;0;");
-            sb.append(StringUtils.toBase64(jpgOutputStream.toByteArray()));
-            sb.append("\007");
+            } else if (jexerImageOption == JexerImageOption.RGB) {
 
-        } else if (jexerImageOption == JexerImageOption.RGB) {
+                // RGB
+                buf.append("\033]444;0;");
+                buf.appendInt(image.getWidth());
+                buf.appendByte(';');
+                buf.appendInt(Math.min(image.getHeight(), fullHeight));
+                buf.append(";0;");
 
-            // RGB
-            sb.append(String.format("\033]444;0;%d;%d;0;", image.getWidth(),
-                    Math.min(image.getHeight(), fullHeight)));
-
-            byte [] bytes = new byte[image.getWidth() * image.getHeight() * 3];
-            int stride = image.getWidth();
-            for (int px = 0; px < stride; px++) {
+                // One scanline at a time, rather than the whole image.
+                int stride = image.getWidth();
+                int [] rgbs = new int[stride];
+                byte [] bytes = new byte[stride * 3];
                 for (int py = 0; py < image.getHeight(); py++) {
-                    int rgb = image.getRGB(px, py);
-                    bytes[(py * stride * 3) + (px * 3)]     = (byte) ((rgb >>> 16) & 0xFF);
-                    bytes[(py * stride * 3) + (px * 3) + 1] = (byte) ((rgb >>>  8) & 0xFF);
-                    bytes[(py * stride * 3) + (px * 3) + 2] = (byte) ( rgb         & 0xFF);
+                    image.getRGB(0, py, stride, 1, rgbs, 0, stride);
+                    for (int px = 0; px < stride; px++) {
+                        int rgb = rgbs[px];
+                        bytes[(px * 3)]     = (byte) ((rgb >>> 16) & 0xFF);
+                        bytes[(px * 3) + 1] = (byte) ((rgb >>>  8) & 0xFF);
+                        bytes[(px * 3) + 2] = (byte) ( rgb         & 0xFF);
+                    }
+                    base64.write(bytes, 0, bytes.length);
                 }
             }
-            sb.append(StringUtils.toBase64(bytes));
-            sb.append("\007");
+            base64.close();
+        } catch (IOException e) {
+            // We failed to render image, bail out.
+            buf.setLength(start);
+            return;
         }
+        buf.append("\007");
 
         if (saveInCache) {
             // This row is OK to save into the cache.
-            jexerCache.put(cells, sb.toString());
+            imageCache.put(key, buf.substring(start));
         }
-
-        return (gotoXY(x, y) + sb.toString());
     }
 
     /**
@@ -3876,176 +5316,156 @@ public class ECMA48Terminal extends LogicalScreen
     }
 
     /**
-     * Create a T.416 RGB parameter sequence for a custom system color.
+     * Append a T.416 RGB parameter sequence for a custom system color.
      *
+     * @param buf the encoder to append to
      * @param color one of the MYBLACK, MYBOLD_BLUE, etc. colors
-     * @return the color portion of the string to emit to an ANSI /
-     * ECMA-style terminal
      */
-    private String systemColorRGB(final java.awt.Color color) {
-        return String.format("%d;%d;%d", color.getRed(), color.getGreen(),
-            color.getBlue());
+    private void systemColorRGB(final ECMA48Encoder buf,
+        final java.awt.Color color) {
+
+        buf.appendInt(color.getRed()).appendByte(';');
+        buf.appendInt(color.getGreen()).appendByte(';');
+        buf.appendInt(color.getBlue());
     }
 
     /**
-     * Create a SGR parameter sequence for a single color change.
+     * Append a SGR parameter sequence for a single color change.
      *
+     * @param buf the encoder to append to, e.g. "\033[42m"
      * @param bold if true, set bold
      * @param color one of the Color.WHITE, Color.BLUE, etc. constants
      * @param foreground if true, this is a foreground color
-     * @return the string to emit to an ANSI / ECMA-style terminal,
-     * e.g. "\033[42m"
      */
-    private String color(final boolean bold, final Color color,
-        final boolean foreground) {
-        return color(color, foreground, true) +
-                rgbColor(bold, color, foreground);
+    private void color(final ECMA48Encoder buf, final boolean bold,
+        final Color color, final boolean foreground) {
+
+        color(buf, color, foreground, true);
+        rgbColor(buf, bold, color, foreground);
     }
 
     /**
-     * Create a T.416 RGB parameter sequence for a single color change.
+     * Append a T.416 RGB parameter sequence for a single color change.
      *
+     * @param buf the encoder to append to, e.g. "\033[38;2;RR;GG;BBm"
      * @param colorRGB a 24-bit RGB value for foreground color
      * @param foreground if true, this is a foreground color
-     * @return the string to emit to an ANSI / ECMA-style terminal,
-     * e.g. "\033[42m"
      */
-    private String colorRGB(final int colorRGB, final boolean foreground) {
-
-        int colorRed     = (colorRGB >>> 16) & 0xFF;
-        int colorGreen   = (colorRGB >>>  8) & 0xFF;
-        int colorBlue    =  colorRGB         & 0xFF;
+    private void colorRGB(final ECMA48Encoder buf, final int colorRGB,
+        final boolean foreground) {
 
-        StringBuilder sb = new StringBuilder();
-        if (foreground) {
-            sb.append("\033[38;2;");
-        } else {
-            sb.append("\033[48;2;");
-        }
-        sb.append(String.format("%d;%d;%dm", colorRed, colorGreen, colorBlue));
-        return sb.toString();
+        buf.csi().rgbParam(colorRGB, foreground).appendByte('m');
     }
 
     /**
-     * Create a T.416 RGB parameter sequence for both foreground and
+     * Append a T.416 RGB parameter sequence for both foreground and
      * background color change.
      *
+     * @param buf the encoder to append to, e.g.
+     * "\033[38;2;RR;GG;BBm\033[48;2;RR;GG;BBm"
      * @param foreColorRGB a 24-bit RGB value for foreground color
      * @param backColorRGB a 24-bit RGB value for foreground color
-     * @return the string to emit to an ANSI / ECMA-style terminal,
-     * e.g. "\033[42m"
      */
-    private String colorRGB(final int foreColorRGB, final int backColorRGB) {
-        int foreColorRed     = (foreColorRGB >>> 16) & 0xFF;
-        int foreColorGreen   = (foreColorRGB >>>  8) & 0xFF;
-        int foreColorBlue    =  foreColorRGB         & 0xFF;
-        int backColorRed     = (backColorRGB >>> 16) & 0xFF;
-        int backColorGreen   = (backColorRGB >>>  8) & 0xFF;
-        int backColorBlue    =  backColorRGB         & 0xFF;
+    private void colorRGB(final ECMA48Encoder buf, final int foreColorRGB,
+        final int backColorRGB) {
 
-        StringBuilder sb = new StringBuilder();
-        sb.append(String.format("\033[38;2;%d;%d;%dm",
-                foreColorRed, foreColorGreen, foreColorBlue));
-        sb.append(String.format("\033[48;2;%d;%d;%dm",
-                backColorRed, backColorGreen, backColorBlue));
-        return sb.toString();
+        buf.csi().rgbParam(foreColorRGB, true).appendByte('m');
+        buf.csi().rgbParam(backColorRGB, false).appendByte('m');
     }
 
     /**
-     * Create a T.416 RGB parameter sequence for a single color change.
+     * Append a T.416 RGB parameter sequence for a single color change.
      *
+     * @param buf the encoder to append to, e.g. "\033[38;2;RR;GG;BBm"
      * @param bold if true, set bold
      * @param color one of the Color.WHITE, Color.BLUE, etc. constants
      * @param foreground if true, this is a foreground color
-     * @return the string to emit to an xterm terminal with RGB support,
-     * e.g. "\033[38;2;RR;GG;BBm"
      */
-    private String rgbColor(final boolean bold, final Color color,
-        final boolean foreground) {
+    private void rgbColor(final ECMA48Encoder buf, final boolean bold,
+        final Color color, final boolean foreground) {
+
         if (doRgbColor == false) {
-            return "";
+            return;
         }
-        StringBuilder sb = new StringBuilder("\033[");
+        buf.csi();
         if (bold) {
             // Bold implies foreground only
-            sb.append("38;2;");
+            buf.append("38;2;");
             if (color.equals(Color.BLACK)) {
-                sb.append(systemColorRGB(MYBOLD_BLACK));
+                systemColorRGB(buf, MYBOLD_BLACK);
             } else if (color.equals(Color.RED)) {
-                sb.append(systemColorRGB(MYBOLD_RED));
+                systemColorRGB(buf, MYBOLD_RED);
             } else if (color.equals(Color.GREEN)) {
-                sb.append(systemColorRGB(MYBOLD_GREEN));
+                systemColorRGB(buf, MYBOLD_GREEN);
             } else if (color.equals(Color.YELLOW)) {
-                sb.append(systemColorRGB(MYBOLD_YELLOW));
+                systemColorRGB(buf, MYBOLD_YELLOW);
             } else if (color.equals(Color.BLUE)) {
-                sb.append(systemColorRGB(MYBOLD_BLUE));
+                systemColorRGB(buf, MYBOLD_BLUE);
             } else if (color.equals(Color.MAGENTA)) {
-                sb.append(systemColorRGB(MYBOLD_MAGENTA));
+                systemColorRGB(buf, MYBOLD_MAGENTA);
             } else if (color.equals(Color.CYAN)) {
-                sb.append(systemColorRGB(MYBOLD_CYAN));
+                systemColorRGB(buf, MYBOLD_CYAN);
             } else if (color.equals(Color.WHITE)) {
-                sb.append(systemColorRGB(MYBOLD_WHITE));
+                systemColorRGB(buf, MYBOLD_WHITE);
             }
         } else {
             if (foreground) {
-                sb.append("38;2;");
+                buf.append("38;2;");
             } else {
-                sb.append("48;2;");
+                buf.append("48;2;");
             }
             if (color.equals(Color.BLACK)) {
-                sb.append(systemColorRGB(MYBLACK));
+                systemColorRGB(buf, MYBLACK);
             } else if (color.equals(Color.RED)) {
-                sb.append(systemColorRGB(MYRED));
+                systemColorRGB(buf, MYRED);
             } else if (color.equals(Color.GREEN)) {
-                sb.append(systemColorRGB(MYGREEN));
+                systemColorRGB(buf, MYGREEN);
             } else if (color.equals(Color.YELLOW)) {
-                sb.append(systemColorRGB(MYYELLOW));
+                systemColorRGB(buf, MYYELLOW);
             } else if (color.equals(Color.BLUE)) {
-                sb.append(systemColorRGB(MYBLUE));
+                systemColorRGB(buf, MYBLUE);
             } else if (color.equals(Color.MAGENTA)) {
-                sb.append(systemColorRGB(MYMAGENTA));
+                systemColorRGB(buf, MYMAGENTA);
             } else if (color.equals(Color.CYAN)) {
-                sb.append(systemColorRGB(MYCYAN));
+                systemColorRGB(buf, MYCYAN);
             } else if (color.equals(Color.WHITE)) {
-                sb.append(systemColorRGB(MYWHITE));
+                systemColorRGB(buf, MYWHITE);
             }
         }
-        sb.append("m");
-        return sb.toString();
+        buf.appendByte('m');
     }
 
     /**
-     * Create a T.416 RGB parameter sequence for both foreground and
+     * Append a T.416 RGB parameter sequence for both foreground and
      * background color change.
      *
+     * @param buf the encoder to append to, e.g.
+     * "\033[38;2;RR;GG;BBm\033[48;2;RR;GG;BBm"
      * @param bold if true, set bold
      * @param foreColor one of the Color.WHITE, Color.BLUE, etc. constants
      * @param backColor one of the Color.WHITE, Color.BLUE, etc. constants
-     * @return the string to emit to an xterm terminal with RGB support,
-     * e.g. "\033[38;2;RR;GG;BB;48;2;RR;GG;BBm"
      */
-    private String rgbColor(final boolean bold, final Color foreColor,
-        final Color backColor) {
+    private void rgbColor(final ECMA48Encoder buf, final boolean bold,
+        final Color foreColor, final Color backColor) {
+
         if (doRgbColor == false) {
-            return "";
+            return;
         }
-
-        return rgbColor(bold, foreColor, true) +
-                rgbColor(false, backColor, false);
+        rgbColor(buf, bold, foreColor, true);
+        rgbColor(buf, false, backColor, false);
     }
 
     /**
-     * Create a SGR parameter sequence for a single color change.
+     * Append a SGR parameter sequence for a single color change.
      *
+     * @param buf the encoder to append to, e.g. "\033[42m"
      * @param color one of the Color.WHITE, Color.BLUE, etc. constants
      * @param foreground if true, this is a foreground color
      * @param header if true, make the full header, otherwise just emit the
      * color parameter e.g. "42;"
-     * @return the string to emit to an ANSI / ECMA-style terminal,
-     * e.g. "\033[42m"
      */
-    private String color(final Color color, final boolean foreground,
-        final boolean header) {
+    private void color(final ECMA48Encoder buf, final Color color,
+        final boolean foreground, final boolean header) {
 
         int ecmaColor = color.getValue();
 
@@ -4057,41 +5477,40 @@ public class ECMA48Terminal extends LogicalScreen
         }
 
         if (header) {
-            return String.format("\033[%dm", ecmaColor);
+            buf.csi(ecmaColor, 'm');
         } else {
-            return String.format("%d;", ecmaColor);
+            buf.appendInt(ecmaColor).appendByte(';');
         }
     }
 
     /**
-     * Create a SGR parameter sequence for both foreground and background
+     * Append a SGR parameter sequence for both foreground and background
      * color change.
      *
+     * @param buf the encoder to append to, e.g. "\033[31;42m"
      * @param bold if true, set bold
      * @param foreColor one of the Color.WHITE, Color.BLUE, etc. constants
      * @param backColor one of the Color.WHITE, Color.BLUE, etc. constants
-     * @return the string to emit to an ANSI / ECMA-style terminal,
-     * e.g. "\033[31;42m"
      */
-    private String color(final boolean bold, final Color foreColor,
-        final Color backColor) {
-        return color(foreColor, backColor, true) +
-                rgbColor(bold, foreColor, backColor);
+    private void color(final ECMA48Encoder buf, final boolean bold,
+        final Color foreColor, final Color backColor) {
+
+        color(buf, foreColor, backColor, true);
+        rgbColor(buf, bold, foreColor, backColor);
     }
 
     /**
-     * Create a SGR parameter sequence for both foreground and
-     * background color change.
+     * Append a SGR parameter sequence for both foreground and background
+     * color change.
      *
+     * @param buf the encoder to append to, e.g. "\033[31;42m"
      * @param foreColor one of the Color.WHITE, Color.BLUE, etc. constants
      * @param backColor one of the Color.WHITE, Color.BLUE, etc. constants
      * @param header if true, make the full header, otherwise just emit the
      * color parameter e.g. "31;42;"
-     * @return the string to emit to an ANSI / ECMA-style terminal,
-     * e.g. "\033[31;42m"
      */
-    private String color(final Color foreColor, final Color backColor,
-        final boolean header) {
+    private void color(final ECMA48Encoder buf, final Color foreColor,
+        final Color backColor, final boolean header) {
 
         int ecmaForeColor = foreColor.getValue();
         int ecmaBackColor = backColor.getValue();
@@ -4101,29 +5520,60 @@ public class ECMA48Terminal extends LogicalScreen
         ecmaForeColor += 30;
 
         if (header) {
-            return String.format("\033[%d;%dm", ecmaForeColor, ecmaBackColor);
+            buf.csi();
+        }
+        buf.appendInt(ecmaForeColor).appendByte(';').appendInt(ecmaBackColor);
+        if (header) {
+            buf.appendByte('m');
         } else {
-            return String.format("%d;%d;", ecmaForeColor, ecmaBackColor);
+            buf.appendByte(';');
         }
     }
 
     /**
-     * Create a SGR parameter sequence for foreground, background, and
+     * Append the SGR attribute reset and bold/reverse/blink/underline
+     * parameters, e.g. "\033[0;1;7;".
+     *
+     * @param buf the encoder to append to
+     * @param bold if true, set bold
+     * @param reverse if true, set reverse
+     * @param blink if true, set blink
+     * @param underline if true, set underline
+     */
+    private void attributes(final ECMA48Encoder buf, final boolean bold,
+        final boolean reverse, final boolean blink, final boolean underline) {
+
+        buf.csi().appendByte('0').appendByte(';');
+        if (bold) {
+            buf.appendByte('1').appendByte(';');
+        }
+        if (reverse) {
+            buf.appendByte('7').appendByte(';');
+        }
+        if (blink) {
+            buf.appendByte('5').appendByte(';');
+        }
+        if (underline) {
+            buf.appendByte('4').appendByte(';');
+        }
+    }
+
+    /**
+     * Append a SGR parameter sequence for foreground, background, and
      * several attributes.  This sequence first resets all attributes to
      * default, then sets attributes as per the parameters.
      *
+     * @param buf the encoder to append to, e.g. "\033[0;1;31;42m"
      * @param foreColor one of the Color.WHITE, Color.BLUE, etc. constants
      * @param backColor one of the Color.WHITE, Color.BLUE, etc. constants
      * @param bold if true, set bold
      * @param reverse if true, set reverse
      * @param blink if true, set blink
      * @param underline if true, set underline
-     * @return the string to emit to an ANSI / ECMA-style terminal,
-     * e.g. "\033[0;1;31;42m"
      */
-    private String color(final Color foreColor, final Color backColor,
-        final boolean bold, final boolean reverse, final boolean blink,
-        final boolean underline) {
+    private void color(final ECMA48Encoder buf, final Color foreColor,
+        final Color backColor, final boolean bold, final boolean reverse,
+        final boolean blink, final boolean underline) {
 
         int ecmaForeColor = foreColor.getValue();
         int ecmaBackColor = backColor.getValue();
@@ -4132,125 +5582,56 @@ public class ECMA48Terminal extends LogicalScreen
         ecmaBackColor += 40;
         ecmaForeColor += 30;
 
-        StringBuilder sb = new StringBuilder();
-        if        (  bold &&  reverse &&  blink && !underline ) {
-            sb.append("\033[0;1;7;5;");
-        } else if (  bold &&  reverse && !blink && !underline ) {
-            sb.append("\033[0;1;7;");
-        } else if ( !bold &&  reverse &&  blink && !underline ) {
-            sb.append("\033[0;7;5;");
-        } else if (  bold && !reverse &&  blink && !underline ) {
-            sb.append("\033[0;1;5;");
-        } else if (  bold && !reverse && !blink && !underline ) {
-            sb.append("\033[0;1;");
-        } else if ( !bold &&  reverse && !blink && !underline ) {
-            sb.append("\033[0;7;");
-        } else if ( !bold && !reverse &&  blink && !underline) {
-            sb.append("\033[0;5;");
-        } else if (  bold &&  reverse &&  blink &&  underline ) {
-            sb.append("\033[0;1;7;5;4;");
-        } else if (  bold &&  reverse && !blink &&  underline ) {
-            sb.append("\033[0;1;7;4;");
-        } else if ( !bold &&  reverse &&  blink &&  underline ) {
-            sb.append("\033[0;7;5;4;");
-        } else if (  bold && !reverse &&  blink &&  underline ) {
-            sb.append("\033[0;1;5;4;");
-        } else if (  bold && !reverse && !blink &&  underline ) {
-            sb.append("\033[0;1;4;");
-        } else if ( !bold &&  reverse && !blink &&  underline ) {
-            sb.append("\033[0;7;4;");
-        } else if ( !bold && !reverse &&  blink &&  underline) {
-            sb.append("\033[0;5;4;");
-        } else if ( !bold && !reverse && !blink &&  underline) {
-            sb.append("\033[0;4;");
-        } else {
-            assert (!bold && !reverse && !blink && !underline);
-            sb.append("\033[0;");
-        }
-        sb.append(String.format("%d;%dm", ecmaForeColor, ecmaBackColor));
-        sb.append(rgbColor(bold, foreColor, backColor));
-        return sb.toString();
+        attributes(buf, bold, reverse, blink, underline);
+        buf.appendInt(ecmaForeColor).appendByte(';').appendInt(ecmaBackColor);
+        buf.appendByte('m');
+        rgbColor(buf, bold, foreColor, backColor);
     }
 
     /**
-     * Create a SGR parameter sequence for foreground, background, and
+     * Append a SGR parameter sequence for foreground, background, and
      * several attributes.  This sequence first resets all attributes to
      * default, then sets attributes as per the parameters.
      *
+     * @param buf the encoder to append to, e.g.
+     * "\033[0;1;m\033[38;2;RR;GG;BBm\033[48;2;RR;GG;BBm"
      * @param foreColorRGB a 24-bit RGB value for foreground color
      * @param backColorRGB a 24-bit RGB value for foreground color
      * @param bold if true, set bold
      * @param reverse if true, set reverse
      * @param blink if true, set blink
      * @param underline if true, set underline
-     * @return the string to emit to an ANSI / ECMA-style terminal,
-     * e.g. "\033[0;1;31;42m"
      */
-    private String colorRGB(final int foreColorRGB, final int backColorRGB,
-        final boolean bold, final boolean reverse, final boolean blink,
-        final boolean underline) {
-
-        int foreColorRed     = (foreColorRGB >>> 16) & 0xFF;
-        int foreColorGreen   = (foreColorRGB >>>  8) & 0xFF;
-        int foreColorBlue    =  foreColorRGB         & 0xFF;
-        int backColorRed     = (backColorRGB >>> 16) & 0xFF;
-        int backColorGreen   = (backColorRGB >>>  8) & 0xFF;
-        int backColorBlue    =  backColorRGB         & 0xFF;
-
-        StringBuilder sb = new StringBuilder();
-        if        (  bold &&  reverse &&  blink && !underline ) {
-            sb.append("\033[0;1;7;5;");
-        } else if (  bold &&  reverse && !blink && !underline ) {
-            sb.append("\033[0;1;7;");
-        } else if ( !bold &&  reverse &&  blink && !underline ) {
-            sb.append("\033[0;7;5;");
-        } else if (  bold && !reverse &&  blink && !underline ) {
-            sb.append("\033[0;1;5;");
-        } else if (  bold && !reverse && !blink && !underline ) {
-            sb.append("\033[0;1;");
-        } else if ( !bold &&  reverse && !blink && !underline ) {
-            sb.append("\033[0;7;");
-        } else if ( !bold && !reverse &&  blink && !underline) {
-            sb.append("\033[0;5;");
-        } else if (  bold &&  reverse &&  blink &&  underline ) {
-            sb.append("\033[0;1;7;5;4;");
-        } else if (  bold &&  reverse && !blink &&  underline ) {
-            sb.append("\033[0;1;7;4;");
-        } else if ( !bold &&  reverse &&  blink &&  underline ) {
-            sb.append("\033[0;7;5;4;");
-        } else if (  bold && !reverse &&  blink &&  underline ) {
-            sb.append("\033[0;1;5;4;");
-        } else if (  bold && !reverse && !blink &&  underline ) {
-            sb.append("\033[0;1;4;");
-        } else if ( !bold &&  reverse && !blink &&  underline ) {
-            sb.append("\033[0;7;4;");
-        } else if ( !bold && !reverse &&  blink &&  underline) {
-            sb.append("\033[0;5;4;");
-        } else if ( !bold && !reverse && !blink &&  underline) {
-            sb.append("\033[0;4;");
-        } else {
-            assert (!bold && !reverse && !blink && !underline);
-            sb.append("\033[0;");
-        }
+    private void colorRGB(final ECMA48Encoder buf, final int foreColorRGB,
+        final int backColorRGB, final boolean bold, final boolean reverse,
+        final boolean blink, final boolean underline) {
 
-        sb.append("m\033[38;2;");
-        sb.append(String.format("%d;%d;%d", foreColorRed, foreColorGreen,
-                foreColorBlue));
-        sb.append("m\033[48;2;");
-        sb.append(String.format("%d;%d;%d", backColorRed, backColorGreen,
-                backColorBlue));
-        sb.append("m");
-        return sb.toString();
+        attributes(buf, bold, reverse, blink, underline);
+        buf.appendByte('m');
+        colorRGB(buf, foreColorRGB, backColorRGB);
     }
 
     /**
-     * Create a SGR parameter sequence to reset to VT100 defaults.
+     * Create a SGR parameter sequence to reset to VT100 defaults.  This
+     * version is only used by the image paths, which still build Strings.
      *
      * @return the string to emit to an ANSI / ECMA-style terminal,
      * e.g. "\033[0m"
      */
     private String normal() {
-        return normal(true) + rgbColor(false, Color.WHITE, Color.BLACK);
+        ECMA48Encoder buf = new ECMA48Encoder(64);
+        normal(buf);
+        return buf.toString();
+    }
+
+    /**
+     * Append a SGR parameter sequence to reset to VT100 defaults.
+     *
+     * @param buf the encoder to append to, e.g. "\033[0;37;40m"
+     */
+    private void normal(final ECMA48Encoder buf) {
+        buf.append(normal(true));
+        rgbColor(buf, false, Color.WHITE, Color.BLACK);
     }
 
     /**
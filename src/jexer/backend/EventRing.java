@@ -0,0 +1,489 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2019 Kevin Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.backend;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import jexer.event.TInputEvent;
+
+/**
+ * EventRing is a bounded multi-producer, single-consumer queue of input
+ * events.  Any number of threads (terminal readers, the Swing event thread,
+ * widgets posting events) may add to it without taking a lock; exactly one
+ * thread removes from it.  When the ring is full, put() adds events to an
+ * overflow list until the consumer catches up.  The overflow list is
+ * bounded too: once it holds MAX_OVERFLOW events, producers other than
+ * the consumer wait in put() until it drains.  The consumer itself never
+ * waits in put(), since it would be waiting on itself.  The consumer
+ * sleeps with LockSupport.park() and is woken by producers only when it
+ * is actually asleep.
+ *
+ * <p>Each slot carries a sequence number, as in Dmitry Vyukov's bounded
+ * queue: a producer claims a slot by advancing the tail with a CAS, stores
+ * the event, and then publishes the slot by bumping its sequence number.
+ */
+public class EventRing {
+
+    // ------------------------------------------------------------------------
+    // Constants --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Something that can be woken up when a backend has new input.  A
+     * backend's listener that implements this is woken with
+     * eventsReady() instead of Object.notifyAll().
+     */
+    public interface Listener {
+
+        /**
+         * Called by a producer thread after it has added events.
+         */
+        public void eventsReady();
+    }
+
+    /**
+     * The default number of slots.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * The number of events the overflow list can hold before producers
+     * other than the consumer have to wait.
+     */
+    public static final int MAX_OVERFLOW = 65536;
+
+    // ------------------------------------------------------------------------
+    // Variables --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The slots.  A slot's contents are made visible by the write to its
+     * sequence number that follows.
+     */
+    private final TInputEvent [] buffer;
+
+    /**
+     * The sequence number of each slot.  A slot at position p is free for
+     * a producer when its sequence is p, and holds an event for the
+     * consumer when its sequence is p + 1.
+     */
+    private final AtomicLongArray sequence;
+
+    /**
+     * buffer.length - 1, buffer.length is a power of two.
+     */
+    private final int mask;
+
+    /**
+     * The next position a producer will claim.
+     */
+    private final AtomicLong tail = new AtomicLong(0);
+
+    /**
+     * The next position the consumer will read.  Only the consumer
+     * writes this.
+     */
+    private volatile long head = 0;
+
+    /**
+     * Events added by put() while the ring was full, in order.  While this
+     * is not empty, put() adds here rather than to the ring so that events
+     * stay in order.
+     */
+    private final ConcurrentLinkedQueue<TInputEvent> overflow =
+        new ConcurrentLinkedQueue<TInputEvent>();
+
+    /**
+     * The number of events in overflow.  ConcurrentLinkedQueue.size() has
+     * to walk the whole list.
+     */
+    private final AtomicInteger overflowSize = new AtomicInteger(0);
+
+    /**
+     * The thread that removes events, woken when something is added.
+     */
+    private volatile Thread consumer = null;
+
+    /**
+     * If true, the consumer is in await() or about to be.
+     */
+    private volatile boolean waiting = false;
+
+    /**
+     * If true, wakeConsumer() was called since the consumer last returned
+     * from await().
+     */
+    private volatile boolean signalled = false;
+
+    /**
+     * The largest number of events seen in the ring at once.  Producers
+     * update this without locking, so it is approximate.
+     */
+    private volatile int maxDepth = 0;
+
+    /**
+     * The number of events added.
+     */
+    private final AtomicLong addCount = new AtomicLong(0);
+
+    /**
+     * The number of events put() added to the overflow list.
+     */
+    private final AtomicLong fullCount = new AtomicLong(0);
+
+    /**
+     * The number of times the consumer went to sleep.
+     */
+    private volatile long waitCount = 0;
+
+    /**
+     * The total time the consumer has spent asleep, in nanos.
+     */
+    private volatile long waitNanos = 0;
+
+    // ------------------------------------------------------------------------
+    // Constructors -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Public constructor.
+     */
+    public EventRing() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Public constructor.
+     *
+     * @param capacity the number of events the ring can hold.  This is
+     * rounded up to a power of two.
+     */
+    public EventRing(final int capacity) {
+        int size = 2;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        buffer = new TInputEvent[size];
+        sequence = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequence.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    // ------------------------------------------------------------------------
+    // EventRing --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Wake a backend listener.  Listeners implementing EventRing.Listener
+     * are called directly, any other Object is notifyAll()'d.
+     *
+     * @param listener the listener, may be null
+     */
+    public static void wakeListener(final Object listener) {
+        if (listener == null) {
+            return;
+        }
+        if (listener instanceof Listener) {
+            ((Listener) listener).eventsReady();
+            return;
+        }
+        synchronized (listener) {
+            listener.notifyAll();
+        }
+    }
+
+    /**
+     * Get the number of events the ring can hold.
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Add an event if there is room.  Safe to call from any thread.
+     *
+     * @param event the event
+     * @return true if the event was added, false if the ring is full
+     */
+    public boolean offer(final TInputEvent event) {
+        long pos;
+        int idx;
+        for (;;) {
+            pos = tail.get();
+            idx = (int) pos & mask;
+            long diff = sequence.get(idx) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+            } else if (diff < 0) {
+                // The consumer has not freed this slot yet.
+                return false;
+            }
+            // Another producer got here first, try the next slot.
+        }
+        buffer[idx] = event;
+        sequence.set(idx, pos + 1);
+
+        addCount.incrementAndGet();
+        int depth = (int) (pos + 1 - head);
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+        if (waiting) {
+            Thread thread = consumer;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add an event.  If the ring is full, the event goes to the overflow
+     * list instead.  If the overflow list is full too, a producer other
+     * than the consumer waits here for the consumer to catch up; the
+     * consumer never waits.  Safe to call from any thread, including the
+     * consumer.
+     *
+     * @param event the event
+     */
+    public void put(final TInputEvent event) {
+        if (overflow.isEmpty() && offer(event)) {
+            return;
+        }
+        fullCount.incrementAndGet();
+
+        // Backpressure: a flood of input from a backend should slow that
+        // backend down rather than use up the heap.
+        while (overflowSize.get() >= MAX_OVERFLOW) {
+            Thread thread = consumer;
+            if ((thread == null)
+                || (thread == Thread.currentThread())
+                || !thread.isAlive()
+            ) {
+                // Nobody else will ever drain the list.
+                break;
+            }
+            LockSupport.unpark(thread);
+            LockSupport.parkNanos(this, 1000000L);
+        }
+
+        addCount.incrementAndGet();
+        overflowSize.incrementAndGet();
+        overflow.add(event);
+        if (waiting) {
+            Thread thread = consumer;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    /**
+     * Remove the oldest event.  Only the consumer may call this.
+     *
+     * @return the event, or null if the ring is empty
+     */
+    public TInputEvent poll() {
+        long pos = head;
+        int idx = (int) pos & mask;
+        if (sequence.get(idx) != pos + 1) {
+            // Everything in the ring is older than the overflow.
+            TInputEvent event = overflow.poll();
+            if (event != null) {
+                overflowSize.decrementAndGet();
+            }
+            return event;
+        }
+        TInputEvent event = buffer[idx];
+        buffer[idx] = null;
+        sequence.set(idx, pos + buffer.length);
+        head = pos + 1;
+        return event;
+    }
+
+    /**
+     * Remove all available events.  Only the consumer may call this.
+     *
+     * @param queue list to append the events to
+     * @return the number of events appended
+     */
+    public int drainTo(final List<TInputEvent> queue) {
+        int n = 0;
+        for (;;) {
+            TInputEvent event = poll();
+            if (event == null) {
+                return n;
+            }
+            queue.add(event);
+            n++;
+        }
+    }
+
+    /**
+     * Check if the ring has an event ready for the consumer.  Safe to call
+     * from any thread.
+     *
+     * @return true if poll() would return null
+     */
+    public boolean isEmpty() {
+        long pos = head;
+        return ((sequence.get((int) pos & mask) != pos + 1)
+            && overflow.isEmpty());
+    }
+
+    /**
+     * Get the number of events in the ring.  Safe to call from any thread,
+     * the answer may be out of date by the time it returns.
+     *
+     * @return the number of events
+     */
+    public int size() {
+        long size = tail.get() - head;
+        if (size < 0) {
+            size = 0;
+        }
+        return (int) Math.min(size, buffer.length) + overflowSize.get();
+    }
+
+    /**
+     * Set the thread that will call poll(), drainTo(), and await().
+     *
+     * @param thread the consumer thread
+     */
+    public void setConsumer(final Thread thread) {
+        consumer = thread;
+    }
+
+    /**
+     * Wake the consumer if it is asleep in await(), or make its next
+     * await() return immediately.  Used when the consumer also watches
+     * something other than this ring.  Safe to call from any thread.
+     */
+    public void wakeConsumer() {
+        signalled = true;
+        if (waiting) {
+            Thread thread = consumer;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    /**
+     * Sleep until an event is added, wakeConsumer() is called, or the
+     * timeout passes.  Only the consumer may call this, and it must have
+     * been registered with setConsumer() first.  As with any park(), this
+     * can return early for no reason, so callers loop.
+     *
+     * @param millis the most time to sleep
+     */
+    public void await(final long millis) {
+        assert (consumer == Thread.currentThread());
+
+        waiting = true;
+        if (!signalled && isEmpty()) {
+            long start = System.nanoTime();
+            LockSupport.parkNanos(this, millis * 1000000L);
+            waitNanos += System.nanoTime() - start;
+            waitCount++;
+        }
+        waiting = false;
+        signalled = false;
+    }
+
+    /**
+     * Get the largest number of events that have been in the ring at once.
+     *
+     * @return the high water mark
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Get the number of events added since the ring was created.
+     *
+     * @return the number of events
+     */
+    public long getAddCount() {
+        return addCount.get();
+    }
+
+    /**
+     * Get the number of events that did not fit in the ring.
+     *
+     * @return the number of times put() found the ring full
+     */
+    public long getFullCount() {
+        return fullCount.get();
+    }
+
+    /**
+     * Get the number of times the consumer slept in await().
+     *
+     * @return the number of sleeps
+     */
+    public long getWaitCount() {
+        return waitCount;
+    }
+
+    /**
+     * Get the total time the consumer has slept in await().
+     *
+     * @return the time in millis
+     */
+    public long getWaitMillis() {
+        return waitNanos / 1000000L;
+    }
+
+    /**
+     * Make human-readable description of this EventRing.
+     *
+     * @return displayable String
+     */
+    @Override
+    public String toString() {
+        return String.format("EventRing: size %d/%d max %d added %d " +
+            "full %d waits %d (%d millis)", size(), buffer.length,
+            maxDepth, getAddCount(), getFullCount(), waitCount,
+            getWaitMillis());
+    }
+
+}
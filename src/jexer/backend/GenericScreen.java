@@ -0,0 +1,1517 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2019 Kevin Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.backend;
+
+import java.awt.image.BufferedImage;
+
+import jexer.bits.Cell;
+import jexer.bits.CellAttributes;
+import jexer.bits.Clipboard;
+import jexer.bits.GraphicsChars;
+import jexer.bits.StringUtils;
+
+/**
+ * This abstract class provides the drawing, clipping, selection, and
+ * dirty-tracking parts of a logical screen.  Subclasses decide how the
+ * logical and physical cells are stored, by implementing the small set of
+ * per-cell accessors in the storage section.
+ */
+public abstract class GenericScreen implements Screen {
+
+    // ------------------------------------------------------------------------
+    // Variables --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Width of the visible window.
+     */
+    protected int width;
+
+    /**
+     * Height of the visible window.
+     */
+    protected int height;
+
+    /**
+     * Drawing offset for x.
+     */
+    private int offsetX;
+
+    /**
+     * Drawing offset for y.
+     */
+    private int offsetY;
+
+    /**
+     * Ignore anything drawn right of clipRight.
+     */
+    private int clipRight;
+
+    /**
+     * Ignore anything drawn below clipBottom.
+     */
+    private int clipBottom;
+
+    /**
+     * Ignore anything drawn left of clipLeft.
+     */
+    private int clipLeft;
+
+    /**
+     * Ignore anything drawn above clipTop.
+     */
+    private int clipTop;
+
+    /**
+     * Per-cell damage flags.  A cell is dirty if its logical value differs
+     * from its physical value, or if it is blinking.
+     */
+    private boolean [][] dirty;
+
+    /**
+     * Number of dirty cells on each row.
+     */
+    private int [] dirtyCount;
+
+    /**
+     * Left-most column on each row that might be dirty.
+     */
+    private int [] dirtyLeft;
+
+    /**
+     * One past the right-most column on each row that might be dirty.
+     */
+    private int [] dirtyRight;
+
+    /**
+     * Set if the user explicitly wants to redraw everything starting with a
+     * ECMATerminal.clearAll().
+     */
+    protected boolean reallyCleared;
+
+    /**
+     * If true, the cursor is visible and should be placed onscreen at
+     * (cursorX, cursorY) during a call to flushPhysical().
+     */
+    protected boolean cursorVisible;
+
+    /**
+     * Cursor X position if visible.
+     */
+    protected int cursorX;
+
+    /**
+     * Cursor Y position if visible.
+     */
+    protected int cursorY;
+
+    /**
+     * The last used height of a character cell in pixels, only used for
+     * full-width chars.
+     */
+    private int lastTextHeight = -1;
+
+    /**
+     * The glyph drawer for full-width chars.
+     */
+    private GlyphMaker glyphMaker = null;
+
+    // ------------------------------------------------------------------------
+    // Constructors -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Protected constructor.  Subclasses must call reallocate() once their
+     * own fields are ready.
+     */
+    protected GenericScreen() {
+        offsetX  = 0;
+        offsetY  = 0;
+        width    = 80;
+        height   = 24;
+    }
+
+    // ------------------------------------------------------------------------
+    // Screen -----------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Get the width of a character cell in pixels.
+     *
+     * @return the width in pixels of a character cell
+     */
+    public int getTextWidth() {
+        // Default width is 16 pixels.
+        return 16;
+    }
+
+    /**
+     * Get the height of a character cell in pixels.
+     *
+     * @return the height in pixels of a character cell
+     */
+    public int getTextHeight() {
+        // Default height is 20 pixels.
+        return 20;
+    }
+
+    /**
+     * Set drawing offset for x.
+     *
+     * @param offsetX new drawing offset
+     */
+    public final void setOffsetX(final int offsetX) {
+        this.offsetX = offsetX;
+    }
+
+    /**
+     * Set drawing offset for y.
+     *
+     * @param offsetY new drawing offset
+     */
+    public final void setOffsetY(final int offsetY) {
+        this.offsetY = offsetY;
+    }
+
+    /**
+     * Get right drawing clipping boundary.
+     *
+     * @return drawing boundary
+     */
+    public final int getClipRight() {
+        return clipRight;
+    }
+
+    /**
+     * Set right drawing clipping boundary.
+     *
+     * @param clipRight new boundary
+     */
+    public final void setClipRight(final int clipRight) {
+        this.clipRight = clipRight;
+    }
+
+    /**
+     * Get bottom drawing clipping boundary.
+     *
+     * @return drawing boundary
+     */
+    public final int getClipBottom() {
+        return clipBottom;
+    }
+
+    /**
+     * Set bottom drawing clipping boundary.
+     *
+     * @param clipBottom new boundary
+     */
+    public final void setClipBottom(final int clipBottom) {
+        this.clipBottom = clipBottom;
+    }
+
+    /**
+     * Get left drawing clipping boundary.
+     *
+     * @return drawing boundary
+     */
+    public final int getClipLeft() {
+        return clipLeft;
+    }
+
+    /**
+     * Set left drawing clipping boundary.
+     *
+     * @param clipLeft new boundary
+     */
+    public final void setClipLeft(final int clipLeft) {
+        this.clipLeft = clipLeft;
+    }
+
+    /**
+     * Get top drawing clipping boundary.
+     *
+     * @return drawing boundary
+     */
+    public final int getClipTop() {
+        return clipTop;
+    }
+
+    /**
+     * Set top drawing clipping boundary.
+     *
+     * @param clipTop new boundary
+     */
+    public final void setClipTop(final int clipTop) {
+        this.clipTop = clipTop;
+    }
+
+    /**
+     * Get dirty flag.
+     *
+     * @return if true, the logical screen is not in sync with the physical
+     * screen
+     */
+    public final boolean isDirty() {
+        for (int y = 0; y < height; y++) {
+            if (dirtyCount[y] > 0) {
+                // Blinking screens are always dirty.  There is opportunity
+                // for a Netscape blink tag joke here...
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the attributes at one location.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @return attributes at (x, y)
+     */
+    public final CellAttributes getAttrXY(final int x, final int y) {
+        CellAttributes attr = new CellAttributes();
+        if ((x >= 0) && (x < width) && (y >= 0) && (y < height)) {
+            readLogicalAttr(x, y, attr);
+        }
+        return attr;
+    }
+
+    /**
+     * Get the cell at one location.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @return the character + attributes
+     */
+    public Cell getCharXY(final int x, final int y) {
+        Cell cell = new Cell();
+        if ((x >= 0) && (x < width) && (y >= 0) && (y < height)) {
+            readLogicalCell(x, y, cell);
+        }
+        return cell;
+    }
+
+    /**
+     * Set the attributes at one location.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param attr attributes to use (bold, foreColor, backColor)
+     */
+    public final void putAttrXY(final int x, final int y,
+        final CellAttributes attr) {
+
+        putAttrXY(x, y, attr, true);
+    }
+
+    /**
+     * Set the attributes at one location.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param attr attributes to use (bold, foreColor, backColor)
+     * @param clip if true, honor clipping/offset
+     */
+    public final void putAttrXY(final int x, final int y,
+        final CellAttributes attr, final boolean clip) {
+
+        int X = x;
+        int Y = y;
+
+        if (clip) {
+            if ((x < clipLeft)
+                || (x >= clipRight)
+                || (y < clipTop)
+                || (y >= clipBottom)
+            ) {
+                return;
+            }
+            X += offsetX;
+            Y += offsetY;
+        }
+
+        if ((X >= 0) && (X < width) && (Y >= 0) && (Y < height)) {
+            setLogicalAttr(X, Y, attr);
+
+            // If this happens to be the cursor position, make the position
+            // dirty.
+            if ((cursorX == X) && (cursorY == Y)) {
+                unsetPhysicalCell(cursorX, cursorY);
+                unsetImageRow(cursorY);
+            }
+            updateDirty(X, Y);
+        }
+    }
+
+    /**
+     * Fill the entire screen with one character with attributes.
+     *
+     * @param ch character to draw
+     * @param attr attributes to use (bold, foreColor, backColor)
+     */
+    public final void putAll(final int ch, final CellAttributes attr) {
+
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                putCharXY(x, y, ch, attr);
+            }
+        }
+    }
+
+    /**
+     * Render one character with attributes.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param ch character + attributes to draw
+     */
+    public final void putCharXY(final int x, final int y, final Cell ch) {
+        if ((x < clipLeft)
+            || (x >= clipRight)
+            || (y < clipTop)
+            || (y >= clipBottom)
+        ) {
+            return;
+        }
+
+        if ((StringUtils.width(ch.getChar()) == 2) && (!ch.isImage())) {
+            putFullwidthCharXY(x, y, ch);
+            return;
+        }
+
+        int X = x + offsetX;
+        int Y = y + offsetY;
+
+        // System.err.printf("putCharXY: %d, %d, %c\n", X, Y, ch);
+
+        if ((X >= 0) && (X < width) && (Y >= 0) && (Y < height)) {
+
+            // Do not put control characters on the display
+            if (!ch.isImage()) {
+                assert (ch.getChar() >= 0x20);
+                assert (ch.getChar() != 0x7F);
+            }
+            setLogicalCell(X, Y, ch);
+
+            // If this happens to be the cursor position, make the position
+            // dirty.
+            if ((cursorX == X) && (cursorY == Y)) {
+                unsetPhysicalCell(cursorX, cursorY);
+                unsetImageRow(cursorY);
+            }
+            updateDirty(X, Y);
+        }
+    }
+
+    /**
+     * Render one character with attributes.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param ch character to draw
+     * @param attr attributes to use (bold, foreColor, backColor)
+     */
+    public final void putCharXY(final int x, final int y, final int ch,
+        final CellAttributes attr) {
+
+        if ((x < clipLeft)
+            || (x >= clipRight)
+            || (y < clipTop)
+            || (y >= clipBottom)
+        ) {
+            return;
+        }
+
+        if (StringUtils.width(ch) == 2) {
+            putFullwidthCharXY(x, y, ch, attr);
+            return;
+        }
+
+        int X = x + offsetX;
+        int Y = y + offsetY;
+
+        // System.err.printf("putCharXY: %d, %d, %c\n", X, Y, ch);
+
+        if ((X >= 0) && (X < width) && (Y >= 0) && (Y < height)) {
+
+            // Do not put control characters on the display
+            assert (ch >= 0x20);
+            assert (ch != 0x7F);
+
+            setLogicalChar(X, Y, ch, attr);
+
+            // If this happens to be the cursor position, make the position
+            // dirty.
+            if ((cursorX == X) && (cursorY == Y)) {
+                unsetPhysicalCell(cursorX, cursorY);
+                unsetImageRow(cursorY);
+            }
+            updateDirty(X, Y);
+        }
+    }
+
+    /**
+     * Render one character without changing the underlying attributes.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param ch character to draw
+     */
+    public final void putCharXY(final int x, final int y, final int ch) {
+        if ((x < clipLeft)
+            || (x >= clipRight)
+            || (y < clipTop)
+            || (y >= clipBottom)
+        ) {
+            return;
+        }
+
+        if (StringUtils.width(ch) == 2) {
+            putFullwidthCharXY(x, y, ch);
+            return;
+        }
+
+        int X = x + offsetX;
+        int Y = y + offsetY;
+
+        // System.err.printf("putCharXY: %d, %d, %c\n", X, Y, ch);
+
+        if ((X >= 0) && (X < width) && (Y >= 0) && (Y < height)) {
+            setLogicalChar(X, Y, ch);
+
+            // If this happens to be the cursor position, make the position
+            // dirty.
+            if ((cursorX == X) && (cursorY == Y)) {
+                unsetPhysicalCell(cursorX, cursorY);
+                unsetImageRow(cursorY);
+            }
+            updateDirty(X, Y);
+        }
+    }
+    /**
+     * Render a string.  Does not wrap if the string exceeds the line.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param str string to draw
+     * @param attr attributes to use (bold, foreColor, backColor)
+     */
+    public final void putStringXY(final int x, final int y, final String str,
+        final CellAttributes attr) {
+
+        int i = x;
+        for (int j = 0; j < str.length();) {
+            int ch = str.codePointAt(j);
+            j += Character.charCount(ch);
+            putCharXY(i, y, ch, attr);
+            i += StringUtils.width(ch);
+            if (i == width) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Render a string without changing the underlying attribute.  Does not
+     * wrap if the string exceeds the line.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param str string to draw
+     */
+    public final void putStringXY(final int x, final int y, final String str) {
+
+        int i = x;
+        for (int j = 0; j < str.length();) {
+            int ch = str.codePointAt(j);
+            j += Character.charCount(ch);
+            putCharXY(i, y, ch);
+            i += StringUtils.width(ch);
+            if (i == width) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Draw a vertical line from (x, y) to (x, y + n).
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param n number of characters to draw
+     * @param ch character to draw
+     * @param attr attributes to use (bold, foreColor, backColor)
+     */
+    public final void vLineXY(final int x, final int y, final int n,
+        final int ch, final CellAttributes attr) {
+
+        for (int i = y; i < y + n; i++) {
+            putCharXY(x, i, ch, attr);
+        }
+    }
+
+    /**
+     * Draw a horizontal line from (x, y) to (x + n, y).
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param n number of characters to draw
+     * @param ch character to draw
+     * @param attr attributes to use (bold, foreColor, backColor)
+     */
+    public final void hLineXY(final int x, final int y, final int n,
+        final int ch, final CellAttributes attr) {
+
+        for (int i = x; i < x + n; i++) {
+            putCharXY(i, y, ch, attr);
+        }
+    }
+
+    /**
+     * Change the width.  Everything on-screen will be destroyed and must be
+     * redrawn.
+     *
+     * @param width new screen width
+     */
+    public final synchronized void setWidth(final int width) {
+        reallocate(width, this.height);
+    }
+
+    /**
+     * Change the height.  Everything on-screen will be destroyed and must be
+     * redrawn.
+     *
+     * @param height new screen height
+     */
+    public final synchronized void setHeight(final int height) {
+        reallocate(this.width, height);
+    }
+
+    /**
+     * Change the width and height.  Everything on-screen will be destroyed
+     * and must be redrawn.
+     *
+     * @param width new screen width
+     * @param height new screen height
+     */
+    public final void setDimensions(final int width, final int height) {
+        reallocate(width, height);
+        resizeToScreen();
+    }
+
+    /**
+     * Resize the physical screen to match the logical screen dimensions.
+     */
+    public void resizeToScreen() {
+        // Subclasses are expected to override this.
+    }
+
+    /**
+     * Get the height.
+     *
+     * @return current screen height
+     */
+    public final synchronized int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * Get the width.
+     *
+     * @return current screen width
+     */
+    public final synchronized int getWidth() {
+        return this.width;
+    }
+
+    /**
+     * Reset screen to not-bold, white-on-black.  Also flushes the offset and
+     * clip variables.
+     */
+    public final synchronized void reset() {
+        resetLogicalCells();
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                updateDirty(col, row);
+            }
+        }
+        resetClipping();
+    }
+
+    /**
+     * Flush the offset and clip variables.
+     */
+    public final void resetClipping() {
+        offsetX    = 0;
+        offsetY    = 0;
+        clipLeft   = 0;
+        clipTop    = 0;
+        clipRight  = width;
+        clipBottom = height;
+    }
+
+    /**
+     * Clear the logical screen.
+     */
+    public final void clear() {
+        reset();
+    }
+
+    /**
+     * Draw a box with a border and empty background.
+     *
+     * @param left left column of box.  0 is the left-most column.
+     * @param top top row of the box.  0 is the top-most row.
+     * @param right right column of box
+     * @param bottom bottom row of the box
+     * @param border attributes to use for the border
+     * @param background attributes to use for the background
+     */
+    public final void drawBox(final int left, final int top,
+        final int right, final int bottom,
+        final CellAttributes border, final CellAttributes background) {
+
+        drawBox(left, top, right, bottom, border, background, 1, false);
+    }
+
+    /**
+     * Draw a box with a border and empty background.
+     *
+     * @param left left column of box.  0 is the left-most column.
+     * @param top top row of the box.  0 is the top-most row.
+     * @param right right column of box
+     * @param bottom bottom row of the box
+     * @param border attributes to use for the border
+     * @param background attributes to use for the background
+     * @param borderType if 1, draw a single-line border; if 2, draw a
+     * double-line border; if 3, draw double-line top/bottom edges and
+     * single-line left/right edges (like Qmodem)
+     * @param shadow if true, draw a "shadow" on the box
+     */
+    public final void drawBox(final int left, final int top,
+        final int right, final int bottom,
+        final CellAttributes border, final CellAttributes background,
+        final int borderType, final boolean shadow) {
+
+        int boxWidth = right - left;
+        int boxHeight = bottom - top;
+
+        char cTopLeft;
+        char cTopRight;
+        char cBottomLeft;
+        char cBottomRight;
+        char cHSide;
+        char cVSide;
+
+        switch (borderType) {
+        case 1:
+            cTopLeft = GraphicsChars.ULCORNER;
+            cTopRight = GraphicsChars.URCORNER;
+            cBottomLeft = GraphicsChars.LLCORNER;
+            cBottomRight = GraphicsChars.LRCORNER;
+            cHSide = GraphicsChars.SINGLE_BAR;
+            cVSide = GraphicsChars.WINDOW_SIDE;
+            break;
+
+        case 2:
+            cTopLeft = GraphicsChars.WINDOW_LEFT_TOP_DOUBLE;
+            cTopRight = GraphicsChars.WINDOW_RIGHT_TOP_DOUBLE;
+            cBottomLeft = GraphicsChars.WINDOW_LEFT_BOTTOM_DOUBLE;
+            cBottomRight = GraphicsChars.WINDOW_RIGHT_BOTTOM_DOUBLE;
+            cHSide = GraphicsChars.DOUBLE_BAR;
+            cVSide = GraphicsChars.WINDOW_SIDE_DOUBLE;
+            break;
+
+        case 3:
+            cTopLeft = GraphicsChars.WINDOW_LEFT_TOP;
+            cTopRight = GraphicsChars.WINDOW_RIGHT_TOP;
+            cBottomLeft = GraphicsChars.WINDOW_LEFT_BOTTOM;
+            cBottomRight = GraphicsChars.WINDOW_RIGHT_BOTTOM;
+            cHSide = GraphicsChars.WINDOW_TOP;
+            cVSide = GraphicsChars.WINDOW_SIDE;
+            break;
+        default:
+            throw new IllegalArgumentException("Invalid border type: "
+                + borderType);
+        }
+
+        // Place the corner characters
+        putCharXY(left, top, cTopLeft, border);
+        putCharXY(left + boxWidth - 1, top, cTopRight, border);
+        putCharXY(left, top + boxHeight - 1, cBottomLeft, border);
+        putCharXY(left + boxWidth - 1, top + boxHeight - 1, cBottomRight,
+            border);
+
+        // Draw the box lines
+        hLineXY(left + 1, top, boxWidth - 2, cHSide, border);
+        vLineXY(left, top + 1, boxHeight - 2, cVSide, border);
+        hLineXY(left + 1, top + boxHeight - 1, boxWidth - 2, cHSide, border);
+        vLineXY(left + boxWidth - 1, top + 1, boxHeight - 2, cVSide, border);
+
+        // Fill in the interior background
+        for (int i = 1; i < boxHeight - 1; i++) {
+            hLineXY(1 + left, i + top, boxWidth - 2, ' ', background);
+        }
+
+        if (shadow) {
+            // Draw a shadow
+            drawBoxShadow(left, top, right, bottom);
+        }
+    }
+
+    /**
+     * Draw a box shadow.
+     *
+     * @param left left column of box.  0 is the left-most column.
+     * @param top top row of the box.  0 is the top-most row.
+     * @param right right column of box
+     * @param bottom bottom row of the box
+     */
+    public final void drawBoxShadow(final int left, final int top,
+        final int right, final int bottom) {
+
+        int boxTop = top;
+        int boxLeft = left;
+        int boxWidth = right - left;
+        int boxHeight = bottom - top;
+        CellAttributes shadowAttr = new CellAttributes();
+
+        // Shadows do not honor clipping but they DO honor offset.
+        int oldClipRight = clipRight;
+        int oldClipBottom = clipBottom;
+        // When offsetX or offsetY go negative, we need to increase the clip
+        // bounds.
+        clipRight = width - offsetX;
+        clipBottom = height - offsetY;
+
+        for (int i = 0; i < boxHeight; i++) {
+            if (getWidthXY(offsetX + boxLeft + boxWidth,
+                    offsetY + boxTop + 1 + i) == Cell.Width.SINGLE) {
+                putAttrXY(boxLeft + boxWidth, boxTop + 1 + i, shadowAttr);
+            } else {
+                putCharXY(boxLeft + boxWidth, boxTop + 1 + i, ' ', shadowAttr);
+            }
+            if (getWidthXY(offsetX + boxLeft + boxWidth + 1,
+                    offsetY + boxTop + 1 + i) == Cell.Width.SINGLE) {
+                putAttrXY(boxLeft + boxWidth + 1, boxTop + 1 + i, shadowAttr);
+            } else {
+                putCharXY(boxLeft + boxWidth + 1, boxTop + 1 + i, ' ',
+                    shadowAttr);
+            }
+        }
+        for (int i = 0; i < boxWidth; i++) {
+            if (getWidthXY(offsetX + boxLeft + 2 + i,
+                    offsetY + boxTop + boxHeight) == Cell.Width.SINGLE) {
+                putAttrXY(boxLeft + 2 + i, boxTop + boxHeight, shadowAttr);
+            } else {
+                putCharXY(boxLeft + 2 + i, boxTop + boxHeight, ' ', shadowAttr);
+            }
+        }
+        clipRight = oldClipRight;
+        clipBottom = oldClipBottom;
+    }
+
+    /**
+     * Default implementation does nothing.
+     */
+    public void flushPhysical() {}
+
+    /**
+     * Put the cursor at (x,y).
+     *
+     * @param visible if true, the cursor should be visible
+     * @param x column coordinate to put the cursor on
+     * @param y row coordinate to put the cursor on
+     */
+    public void putCursor(final boolean visible, final int x, final int y) {
+        if ((cursorY >= 0)
+            && (cursorX >= 0)
+            && (cursorY <= height - 1)
+            && (cursorX <= width - 1)
+        ) {
+            // Make the current cursor position dirty
+            unsetPhysicalCell(cursorX, cursorY);
+            setDirty(cursorX, cursorY, true);
+            unsetImageRow(cursorY);
+        }
+
+        cursorVisible = visible;
+        cursorX = x;
+        cursorY = y;
+    }
+
+    /**
+     * Hide the cursor.
+     */
+    public final void hideCursor() {
+        cursorVisible = false;
+    }
+
+    /**
+     * Get the cursor visibility.
+     *
+     * @return true if the cursor is visible
+     */
+    public boolean isCursorVisible() {
+        return cursorVisible;
+    }
+
+    /**
+     * Get the cursor X position.
+     *
+     * @return the cursor x column position
+     */
+    public int getCursorX() {
+        return cursorX;
+    }
+
+    /**
+     * Get the cursor Y position.
+     *
+     * @return the cursor y row position
+     */
+    public int getCursorY() {
+        return cursorY;
+    }
+
+    /**
+     * Set the window title.  Default implementation does nothing.
+     *
+     * @param title the new title
+     */
+    public void setTitle(final String title) {}
+
+    // ------------------------------------------------------------------------
+    // GenericScreen ----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Reallocate screen buffers.  Subclasses call this from their
+     * constructor, once their own storage fields are initialized.
+     *
+     * @param width new width
+     * @param height new height
+     */
+    protected final synchronized void reallocate(final int width,
+        final int height) {
+
+        allocateCells(width, height);
+        dirty = new boolean[width][height];
+        dirtyCount = new int[height];
+        dirtyLeft = new int[height];
+        dirtyRight = new int[height];
+        for (int row = 0; row < height; row++) {
+            dirtyLeft[row] = width;
+            dirtyRight[row] = 0;
+        }
+
+        this.width = width;
+        this.height = height;
+
+        clipLeft = 0;
+        clipTop = 0;
+        clipRight = width;
+        clipBottom = height;
+
+        reallyCleared = true;
+    }
+
+    /**
+     * Get the cell at one location without allocating a new Cell.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param cell the cell to overwrite with the character + attributes at
+     * (x, y)
+     */
+    public final void getCharXY(final int x, final int y, final Cell cell) {
+        if ((x < 0) || (x >= width) || (y < 0) || (y >= height)) {
+            cell.reset();
+            return;
+        }
+        readLogicalCell(x, y, cell);
+    }
+
+    /**
+     * Copy one logical cell to the physical screen.  Subclasses call this
+     * after they have sent the cell out to the physical device.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     */
+    protected final void syncPhysical(final int x, final int y) {
+        syncPhysicalCell(x, y);
+        updateDirty(x, y);
+    }
+
+    /**
+     * Clear the physical screen.
+     */
+    public final void clearPhysical() {
+        unsetPhysicalCells();
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                setDirty(col, row, true);
+            }
+        }
+    }
+
+    /**
+     * Unset every image cell on one row of the physical screen, forcing
+     * images on that row to be redrawn.
+     *
+     * @param y row coordinate.  0 is the top-most row.
+     */
+    public final void unsetImageRow(final int y) {
+        if ((y < 0) || (y >= height)) {
+            return;
+        }
+        for (int x = 0; x < width; x++) {
+            if (isLogicalImage(x, y)) {
+                unsetPhysicalCell(x, y);
+                setDirty(x, y, true);
+            }
+        }
+    }
+
+    /**
+     * Check if a row has any cells that need to be flushed.
+     *
+     * @param y row coordinate.  0 is the top-most row.
+     * @return true if at least one cell on this row is dirty
+     */
+    protected final boolean isDirtyRow(final int y) {
+        return (dirtyCount[y] > 0);
+    }
+
+    /**
+     * Check if a cell needs to be flushed.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @return true if logical differs from physical at (x, y), or the cell
+     * is blinking
+     */
+    protected final boolean isDirtyCell(final int x, final int y) {
+        return dirty[x][y];
+    }
+
+    /**
+     * Get the left edge of the dirty span on a row.
+     *
+     * @param y row coordinate.  0 is the top-most row.
+     * @return the left-most column that might be dirty, or the screen width
+     * if the row is clean
+     */
+    protected final int getDirtyLeft(final int y) {
+        return dirtyLeft[y];
+    }
+
+    /**
+     * Get the right edge of the dirty span on a row.
+     *
+     * @param y row coordinate.  0 is the top-most row.
+     * @return one past the right-most column that might be dirty, or 0 if
+     * the row is clean
+     */
+    protected final int getDirtyRight(final int y) {
+        return dirtyRight[y];
+    }
+
+    /**
+     * Recompute the dirty flag for one cell.  Subclasses must call this (or
+     * updateDirtyRow()) after changing physical.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     */
+    protected final void updateDirty(final int x, final int y) {
+        setDirty(x, y, isCellStale(x, y));
+    }
+
+    /**
+     * Recompute the dirty flags for the dirty span of one row.  Subclasses
+     * call this after flushing that row to the physical device.
+     *
+     * @param y row coordinate.  0 is the top-most row.
+     */
+    protected final void updateDirtyRow(final int y) {
+        int right = dirtyRight[y];
+        for (int x = dirtyLeft[y]; x < right; x++) {
+            if (dirty[x][y]) {
+                updateDirty(x, y);
+            }
+        }
+    }
+
+    /**
+     * Set or clear the dirty flag for one cell, keeping the per-row count
+     * and span in step.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param isDirty the new value of the flag
+     */
+    private void setDirty(final int x, final int y, final boolean isDirty) {
+        if (dirty[x][y] == isDirty) {
+            return;
+        }
+        dirty[x][y] = isDirty;
+        if (isDirty) {
+            dirtyCount[y]++;
+            if (x < dirtyLeft[y]) {
+                dirtyLeft[y] = x;
+            }
+            if (x + 1 > dirtyRight[y]) {
+                dirtyRight[y] = x + 1;
+            }
+        } else {
+            dirtyCount[y]--;
+            if (dirtyCount[y] == 0) {
+                dirtyLeft[y] = width;
+                dirtyRight[y] = 0;
+            }
+        }
+    }
+
+    /**
+     * Render one fullwidth cell.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param cell the cell to draw
+     */
+    public final void putFullwidthCharXY(final int x, final int y,
+        final Cell cell) {
+
+        int cellWidth = getTextWidth();
+        int cellHeight = getTextHeight();
+
+        if (lastTextHeight != cellHeight) {
+            glyphMaker = GlyphMaker.getInstance(cellHeight);
+            lastTextHeight = cellHeight;
+        }
+        BufferedImage image = glyphMaker.getImage(cell, cellWidth * 2,
+            cellHeight);
+        BufferedImage leftImage = image.getSubimage(0, 0, cellWidth,
+            cellHeight);
+        BufferedImage rightImage = image.getSubimage(cellWidth, 0, cellWidth,
+            cellHeight);
+
+        Cell left = new Cell(cell);
+        left.setImage(leftImage);
+        left.setWidth(Cell.Width.LEFT);
+        putCharXY(x, y, left);
+
+        Cell right = new Cell(cell);
+        right.setImage(rightImage);
+        right.setWidth(Cell.Width.RIGHT);
+        putCharXY(x + 1, y, right);
+    }
+
+    /**
+     * Render one fullwidth character with attributes.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param ch character to draw
+     * @param attr attributes to use (bold, foreColor, backColor)
+     */
+    public final void putFullwidthCharXY(final int x, final int y,
+        final int ch, final CellAttributes attr) {
+
+        Cell cell = new Cell(ch, attr);
+        putFullwidthCharXY(x, y, cell);
+    }
+
+    /**
+     * Render one fullwidth character with attributes.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @param ch character to draw
+     */
+    public final void putFullwidthCharXY(final int x, final int y,
+        final int ch) {
+
+        Cell cell = new Cell(ch);
+        cell.setAttr(getAttrXY(x, y));
+        putFullwidthCharXY(x, y, cell);
+    }
+
+    /**
+     * Invert the cell color at a position, including both halves of a
+     * double-width cell.
+     *
+     * @param x column position
+     * @param y row position
+     */
+    public void invertCell(final int x, final int y) {
+        invertCell(x, y, false);
+    }
+
+    /**
+     * Invert the cell color at a position.
+     *
+     * @param x column position
+     * @param y row position
+     * @param onlyThisCell if true, only invert this cell, otherwise invert
+     * both halves of a double-width cell if necessary
+     */
+    public void invertCell(final int x, final int y,
+        final boolean onlyThisCell) {
+
+        Cell cell = getCharXY(x, y);
+        if (cell.isImage()) {
+            cell.invertImage();
+        }
+        if (cell.getForeColorRGB() < 0) {
+            cell.setForeColor(cell.getForeColor().invert());
+        } else {
+            cell.setForeColorRGB(cell.getForeColorRGB() ^ 0x00ffffff);
+        }
+        if (cell.getBackColorRGB() < 0) {
+            cell.setBackColor(cell.getBackColor().invert());
+        } else {
+            cell.setBackColorRGB(cell.getBackColorRGB() ^ 0x00ffffff);
+        }
+        putCharXY(x, y, cell);
+        if ((onlyThisCell == true) || (cell.getWidth() == Cell.Width.SINGLE)) {
+            return;
+        }
+
+        // This cell is one half of a fullwidth glyph.  Invert the other
+        // half.
+        if (cell.getWidth() == Cell.Width.LEFT) {
+            if (x < width - 1) {
+                if (getWidthXY(x + 1, y) == Cell.Width.RIGHT) {
+                    invertCell(x + 1, y, true);
+                    return;
+                }
+            }
+        }
+        if (cell.getWidth() == Cell.Width.RIGHT) {
+            if (x > 0) {
+                if (getWidthXY(x - 1, y) == Cell.Width.LEFT) {
+                    invertCell(x - 1, y, true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Set a selection area on the screen.
+     *
+     * @param x0 the starting X position of the selection
+     * @param y0 the starting Y position of the selection
+     * @param x1 the ending X position of the selection
+     * @param y1 the ending Y position of the selection
+     * @param rectangle if true, this is a rectangle select
+     */
+    public void setSelection(final int x0, final int y0,
+        final int x1, final int y1, final boolean rectangle) {
+
+        int startX = x0;
+        int startY = y0;
+        int endX = x1;
+        int endY = y1;
+
+        if (((x1 < x0) && (y1 == y0))
+            || (y1 < y0)
+        ) {
+            // The user dragged from bottom-to-top and/or right-to-left.
+            // Reverse the coordinates for the inverted section.
+            startX = x1;
+            startY = y1;
+            endX = x0;
+            endY = y0;
+        }
+        if (rectangle) {
+            for (int y = startY; y <= endY; y++) {
+                for (int x = startX; x <= endX; x++) {
+                    invertCell(x, y);
+                }
+            }
+        } else {
+            if (endY > startY) {
+                for (int x = startX; x < width; x++) {
+                    invertCell(x, startY);
+                }
+                for (int y = startY + 1; y < endY; y++) {
+                    for (int x = 0; x < width; x++) {
+                        invertCell(x, y);
+                    }
+                }
+                for (int x = 0; x <= endX; x++) {
+                    invertCell(x, endY);
+                }
+            } else {
+                assert (startY == endY);
+                for (int x = startX; x <= endX; x++) {
+                    invertCell(x, startY);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy the screen selection area to the clipboard.
+     *
+     * @param clipboard the clipboard to use
+     * @param x0 the starting X position of the selection
+     * @param y0 the starting Y position of the selection
+     * @param x1 the ending X position of the selection
+     * @param y1 the ending Y position of the selection
+     * @param rectangle if true, this is a rectangle select
+     */
+    public void copySelection(final Clipboard clipboard,
+        final int x0, final int y0, final int x1, final int y1,
+        final boolean rectangle) {
+
+        StringBuilder sb = new StringBuilder();
+
+        int startX = x0;
+        int startY = y0;
+        int endX = x1;
+        int endY = y1;
+
+        if (((x1 < x0) && (y1 == y0))
+            || (y1 < y0)
+        ) {
+            // The user dragged from bottom-to-top and/or right-to-left.
+            // Reverse the coordinates for the inverted section.
+            startX = x1;
+            startY = y1;
+            endX = x0;
+            endY = y0;
+        }
+        if (rectangle) {
+            for (int y = startY; y <= endY; y++) {
+                for (int x = startX; x <= endX; x++) {
+                    sb.append(Character.toChars(getGlyphXY(x, y)));
+                }
+                sb.append("\n");
+            }
+        } else {
+            if (endY > startY) {
+                for (int x = startX; x < width; x++) {
+                    sb.append(Character.toChars(getGlyphXY(x, startY)));
+                }
+                sb.append("\n");
+                for (int y = startY + 1; y < endY; y++) {
+                    for (int x = 0; x < width; x++) {
+                        sb.append(Character.toChars(getGlyphXY(x, y)));
+                    }
+                    sb.append("\n");
+                }
+                for (int x = 0; x <= endX; x++) {
+                    sb.append(Character.toChars(getGlyphXY(x, endY)));
+                }
+            } else {
+                assert (startY == endY);
+                for (int x = startX; x <= endX; x++) {
+                    sb.append(Character.toChars(getGlyphXY(x, startY)));
+                }
+            }
+        }
+        clipboard.copyText(sb.toString());
+    }
+
+    /**
+     * Get the width of the cell at one location.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @return the width, or SINGLE if (x, y) is off-screen
+     */
+    private Cell.Width getWidthXY(final int x, final int y) {
+        if ((x < 0) || (x >= width) || (y < 0) || (y >= height)) {
+            return Cell.Width.SINGLE;
+        }
+        return getLogicalWidth(x, y);
+    }
+
+    /**
+     * Get the code point at one location.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @return the code point, or ' ' if (x, y) is off-screen
+     */
+    private int getGlyphXY(final int x, final int y) {
+        if ((x < 0) || (x >= width) || (y < 0) || (y >= height)) {
+            return ' ';
+        }
+        return getLogicalChar(x, y);
+    }
+
+    // ------------------------------------------------------------------------
+    // Cell storage -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Allocate new logical and physical cells.  Called by reallocate()
+     * before width and height change.  Every logical cell must read back as
+     * a blank, and every physical cell as a blank.
+     *
+     * @param width new width
+     * @param height new height
+     */
+    protected abstract void allocateCells(final int width, final int height);
+
+    /**
+     * Copy one logical cell out.
+     *
+     * @param x column coordinate, on-screen
+     * @param y row coordinate, on-screen
+     * @param cell the cell to overwrite
+     */
+    protected abstract void readLogicalCell(final int x, final int y,
+        final Cell cell);
+
+    /**
+     * Copy the attributes of one logical cell out.
+     *
+     * @param x column coordinate, on-screen
+     * @param y row coordinate, on-screen
+     * @param attr the attributes to overwrite
+     */
+    protected abstract void readLogicalAttr(final int x, final int y,
+        final CellAttributes attr);
+
+    /**
+     * Get the width of one logical cell.
+     *
+     * @param x column coordinate, on-screen
+     * @param y row coordinate, on-screen
+     * @return the width
+     */
+    protected abstract Cell.Width getLogicalWidth(final int x, final int y);
+
+    /**
+     * Get the code point of one logical cell.
+     *
+     * @param x column coordinate, on-screen
+     * @param y row coordinate, on-screen
+     * @return the code point
+     */
+    protected abstract int getLogicalChar(final int x, final int y);
+
+    /**
+     * Check if one logical cell is an image.
+     *
+     * @param x column coordinate, on-screen
+     * @param y row coordinate, on-screen
+     * @return true if the cell has an image
+     */
+    protected abstract boolean isLogicalImage(final int x, final int y);
+
+    /**
+     * Overwrite one logical cell, as Cell.setTo(Cell) would.
+     *
+     * @param x column coordinate, on-screen
+     * @param y row coordinate, on-screen
+     * @param cell the new character + attributes
+     */
+    protected abstract void setLogicalCell(final int x, final int y,
+        final Cell cell);
+
+    /**
+     * Overwrite the character and attributes of one logical cell, as
+     * Cell.setTo(CellAttributes) followed by Cell.setChar() would.
+     *
+     * @param x column coordinate, on-screen
+     * @param y row coordinate, on-screen
+     * @param ch the new character
+     * @param attr the new attributes
+     */
+    protected abstract void setLogicalChar(final int x, final int y,
+        final int ch, final CellAttributes attr);
+
+    /**
+     * Overwrite only the character of one logical cell.
+     *
+     * @param x column coordinate, on-screen
+     * @param y row coordinate, on-screen
+     * @param ch the new character
+     */
+    protected abstract void setLogicalChar(final int x, final int y,
+        final int ch);
+
+    /**
+     * Overwrite the attributes of one logical cell, as Cell.setTo() would:
+     * if attr is really a Cell, the character, width, and image are
+     * copied too.
+     *
+     * @param x column coordinate, on-screen
+     * @param y row coordinate, on-screen
+     * @param attr the new attributes
+     */
+    protected abstract void setLogicalAttr(final int x, final int y,
+        final CellAttributes attr);
+
+    /**
+     * Reset every logical cell to a blank.
+     */
+    protected abstract void resetLogicalCells();
+
+    /**
+     * Unset one physical cell, so that it will never match its logical
+     * cell.
+     *
+     * @param x column coordinate, on-screen
+     * @param y row coordinate, on-screen
+     */
+    protected abstract void unsetPhysicalCell(final int x, final int y);
+
+    /**
+     * Unset every physical cell.
+     */
+    protected abstract void unsetPhysicalCells();
+
+    /**
+     * Copy one logical cell to its physical cell.
+     *
+     * @param x column coordinate, on-screen
+     * @param y row coordinate, on-screen
+     */
+    protected abstract void syncPhysicalCell(final int x, final int y);
+
+    /**
+     * Check if one cell needs to be flushed.
+     *
+     * @param x column coordinate, on-screen
+     * @param y row coordinate, on-screen
+     * @return true if the logical cell is blinking or differs from the
+     * physical cell
+     */
+    protected abstract boolean isCellStale(final int x, final int y);
+
+}
@@ -0,0 +1,244 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2019 Kevin Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.backend;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jexer.bits.Cell;
+
+/**
+ * ImageCache is a least-recently-used cache that hangs on to the
+ * post-rendered sixel, iTerm2, or Jexer image string for a row of image
+ * cells.  Entries are keyed on a digest of what the cells actually look
+ * like, and the cache is bounded by the total size of the strings it
+ * holds rather than the number of entries.
+ */
+class ImageCache {
+
+    // ------------------------------------------------------------------------
+    // Variables --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Maximum number of bytes of cached strings.
+     */
+    private long maxBytes;
+
+    /**
+     * Number of bytes of cached strings.
+     */
+    private long bytes = 0;
+
+    /**
+     * Number of get() calls that found an entry.
+     */
+    private long hits = 0;
+
+    /**
+     * Number of get() calls that did not find an entry.
+     */
+    private long misses = 0;
+
+    /**
+     * Number of entries dropped to make room for new ones.
+     */
+    private long evictions = 0;
+
+    /**
+     * The entries stored in the cache, least recently used first.
+     */
+    private LinkedHashMap<String, String> cache;
+
+    // ------------------------------------------------------------------------
+    // Constructors -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Package private constructor.
+     *
+     * @param maxBytes the maximum number of bytes of strings to keep
+     */
+    ImageCache(final long maxBytes) {
+        this.maxBytes = maxBytes;
+        cache = new LinkedHashMap<String, String>(16, 0.75f, true);
+    }
+
+    // ------------------------------------------------------------------------
+    // ImageCache -------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Make a key for a row of cells.  The key covers the pixels, inversion,
+     * and background of every cell, so two rows that would render the
+     * same share a key.
+     *
+     * @param prefix everything else the rendered string depends on, e.g.
+     * the encoder, palette, and text cell size
+     * @param cells the cells
+     * @return the key
+     */
+    public static String makeKey(final String prefix,
+        final List<Cell> cells) {
+
+        MessageDigest sha1;
+        try {
+            sha1 = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to have SHA-1.
+            throw new RuntimeException(e);
+        }
+        for (Cell cell: cells) {
+            sha1.update(cell.getImageDigest());
+            int background = cell.getBackground().getRGB();
+            sha1.update((byte) (background >>> 24));
+            sha1.update((byte) (background >>> 16));
+            sha1.update((byte) (background >>> 8));
+            sha1.update((byte) background);
+            sha1.update((byte) (cell.isInvertedImage() ? 1 : 0));
+        }
+        StringBuilder sb = new StringBuilder(prefix);
+        sb.append(':');
+        for (byte b: sha1.digest()) {
+            sb.append(Character.forDigit((b >>> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get an entry from the cache.
+     *
+     * @param key the key from makeKey()
+     * @return the string representing these cells, or null if this list of
+     * cells is not in the cache
+     */
+    public synchronized String get(final String key) {
+        String data = cache.get(key);
+        if (data == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return data;
+    }
+
+    /**
+     * Put an entry into the cache, evicting the least recently used
+     * entries until it fits.
+     *
+     * @param key the key from makeKey()
+     * @param data the string representing these cells
+     */
+    public synchronized void put(final String key, final String data) {
+        long size = sizeOf(key, data);
+        if (size > maxBytes) {
+            // This would push out everything else.
+            return;
+        }
+
+        String old = cache.put(key, data);
+        if (old != null) {
+            bytes -= sizeOf(key, old);
+        }
+        bytes += size;
+
+        Iterator<Map.Entry<String, String>> it = cache.entrySet().iterator();
+        while ((bytes > maxBytes) && it.hasNext()) {
+            Map.Entry<String, String> entry = it.next();
+            if (entry.getKey().equals(key)) {
+                continue;
+            }
+            bytes -= sizeOf(entry.getKey(), entry.getValue());
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Estimate the memory used by one entry.
+     *
+     * @param key the key
+     * @param data the data
+     * @return the size in bytes
+     */
+    private static long sizeOf(final String key, final String data) {
+        return 2L * (key.length() + data.length());
+    }
+
+    /**
+     * Get the number of entries in the cache.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    /**
+     * Get the number of bytes of strings held by the cache.
+     *
+     * @return the size in bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Get the number of lookups that found an entry.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of lookups that did not find an entry.
+     *
+     * @return the number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the number of entries dropped to make room for new ones.
+     *
+     * @return the number of evictions
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+}
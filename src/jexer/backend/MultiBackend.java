@@ -141,13 +141,15 @@ public class MultiBackend implements Backend {
         List<Backend> backendsToRemove = null;
         for (Backend backend: backends) {
             if (backend.hasEvents()) {
+                int start = queue.size();
                 backend.getEvents(queue);
 
                 // This default backend assumes a single user, and if that
                 // user becomes disconnected we should terminate the
-                // application.
-                if (queue.size() > 0) {
-                    TInputEvent event = queue.get(queue.size() - 1);
+                // application.  The disconnect need not be the last event
+                // drained.
+                for (int i = start; i < queue.size(); i++) {
+                    TInputEvent event = queue.get(i);
                     if (event instanceof TCommandEvent) {
                         TCommandEvent command = (TCommandEvent) event;
                         if (command.equals(cmBackendDisconnect)) {
@@ -155,6 +157,7 @@ public class MultiBackend implements Backend {
                                 backendsToRemove = new ArrayList<Backend>();
                             }
                             backendsToRemove.add(backend);
+                            break;
                         }
                     }
                 }
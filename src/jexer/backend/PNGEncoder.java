@@ -0,0 +1,358 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2019 Kevin Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.backend;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * PNGEncoder writes a BufferedImage as a PNG file straight to an
+ * OutputStream, one scanline at a time.  Unlike ImageIO it needs no
+ * intermediate byte array for the whole file, and the zlib compression
+ * level can be chosen to trade CPU for bandwidth.
+ */
+class PNGEncoder {
+
+    // ------------------------------------------------------------------------
+    // Constants --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The PNG file signature.
+     */
+    private static final byte [] SIGNATURE = {
+        (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+    };
+
+    /**
+     * The most bytes to put in one IDAT chunk.
+     */
+    private static final int MAX_IDAT = 32768;
+
+    /**
+     * Scanline filter types.
+     */
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int FILTER_UP = 2;
+    private static final int FILTER_PAETH = 4;
+
+    // ------------------------------------------------------------------------
+    // Variables --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The stream the PNG file is written to.
+     */
+    private OutputStream output;
+
+    /**
+     * The CRC of the chunk being written.
+     */
+    private CRC32 crc = new CRC32();
+
+    /**
+     * Buffer for the data of the IDAT chunk being filled.
+     */
+    private byte [] idat = new byte[MAX_IDAT];
+
+    /**
+     * The number of bytes in idat that are used.
+     */
+    private int idatLength = 0;
+
+    // ------------------------------------------------------------------------
+    // Constructors -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Private constructor, use write() instead.
+     *
+     * @param output the stream to write to
+     */
+    private PNGEncoder(final OutputStream output) {
+        this.output = output;
+    }
+
+    // ------------------------------------------------------------------------
+    // PNGEncoder -------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Write an image as PNG.  The image is written as 8-bit truecolor, with
+     * an alpha channel only if the image has one.
+     *
+     * @param image the image
+     * @param level the zlib compression level, 0 (none, fastest) to 9
+     * (smallest, slowest)
+     * @param output the stream to write to.  It is not closed.
+     * @throws IOException if the stream throws it
+     */
+    public static void write(final BufferedImage image, final int level,
+        final OutputStream output) throws IOException {
+
+        new PNGEncoder(output).writeImage(image,
+            Math.max(0, Math.min(level, 9)));
+    }
+
+    /**
+     * Write the signature and all of the chunks.
+     *
+     * @param image the image
+     * @param level the zlib compression level
+     * @throws IOException if the stream throws it
+     */
+    private void writeImage(final BufferedImage image,
+        final int level) throws IOException {
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean alpha = image.getColorModel().hasAlpha();
+        int bpp = alpha ? 4 : 3;
+
+        output.write(SIGNATURE);
+
+        // IHDR: width, height, bit depth 8, color type 6 (RGBA) or 2 (RGB),
+        // deflate, adaptive filtering, no interlace.
+        byte [] ihdr = new byte[13];
+        putInt(ihdr, 0, width);
+        putInt(ihdr, 4, height);
+        ihdr[8] = 8;
+        ihdr[9] = (byte) (alpha ? 6 : 2);
+        writeChunk("IHDR", ihdr, ihdr.length);
+
+        Deflater deflater = new Deflater(level);
+        DeflaterOutputStream zlib = new DeflaterOutputStream(
+            new OutputStream() {
+                @Override
+                public void write(final int b) throws IOException {
+                    if (idatLength == MAX_IDAT) {
+                        flushIdat();
+                    }
+                    idat[idatLength++] = (byte) b;
+                }
+
+                @Override
+                public void write(final byte [] b, final int off,
+                    final int len) throws IOException {
+
+                    int n = 0;
+                    while (n < len) {
+                        if (idatLength == MAX_IDAT) {
+                            flushIdat();
+                        }
+                        int count = Math.min(len - n, MAX_IDAT - idatLength);
+                        System.arraycopy(b, off + n, idat, idatLength, count);
+                        idatLength += count;
+                        n += count;
+                    }
+                }
+            }, deflater, 8192);
+
+        try {
+            int rowBytes = width * bpp;
+            int [] argb = new int[width];
+            byte [] previous = new byte[rowBytes];
+            byte [] current = new byte[rowBytes];
+            byte [] filtered = new byte[rowBytes + 1];
+            byte [] best = new byte[rowBytes + 1];
+            for (int y = 0; y < height; y++) {
+                image.getRGB(0, y, width, 1, argb, 0, width);
+                for (int x = 0, i = 0; x < width; x++) {
+                    int rgb = argb[x];
+                    current[i++] = (byte) (rgb >>> 16);
+                    current[i++] = (byte) (rgb >>> 8);
+                    current[i++] = (byte) rgb;
+                    if (alpha) {
+                        current[i++] = (byte) (rgb >>> 24);
+                    }
+                }
+
+                if (level == 0) {
+                    // Nothing will be compressed, so filtering is wasted work.
+                    zlib.write(FILTER_NONE);
+                    zlib.write(current, 0, rowBytes);
+                } else {
+                    // Pick the filter with the smallest sum of absolute
+                    // differences, the usual heuristic.
+                    long bestSum = Long.MAX_VALUE;
+                    for (int filter: new int [] {
+                            FILTER_NONE, FILTER_SUB, FILTER_UP, FILTER_PAETH
+                        }) {
+
+                        long sum = filterRow(filter, current, previous, bpp,
+                            filtered);
+                        if (sum < bestSum) {
+                            bestSum = sum;
+                            byte [] swap = best;
+                            best = filtered;
+                            filtered = swap;
+                        }
+                    }
+                    zlib.write(best, 0, rowBytes + 1);
+                }
+
+                byte [] swap = previous;
+                previous = current;
+                current = swap;
+            }
+            zlib.finish();
+        } finally {
+            // The Deflater holds native memory until end() is called.
+            deflater.end();
+        }
+        flushIdat();
+
+        writeChunk("IEND", idat, 0);
+    }
+
+    /**
+     * Filter one scanline.
+     *
+     * @param filter the filter type
+     * @param current the raw bytes of this scanline
+     * @param previous the raw bytes of the scanline above, all zero for the
+     * first one
+     * @param bpp bytes per pixel
+     * @param out the filter type byte followed by the filtered scanline
+     * @return the sum of the filtered bytes as signed values
+     */
+    private static long filterRow(final int filter, final byte [] current,
+        final byte [] previous, final int bpp, final byte [] out) {
+
+        out[0] = (byte) filter;
+        long sum = 0;
+        for (int i = 0; i < current.length; i++) {
+            int raw = current[i] & 0xFF;
+            int a = (i >= bpp) ? (current[i - bpp] & 0xFF) : 0;
+            int b = previous[i] & 0xFF;
+            int value;
+            switch (filter) {
+            case FILTER_SUB:
+                value = raw - a;
+                break;
+            case FILTER_UP:
+                value = raw - b;
+                break;
+            case FILTER_PAETH:
+                int c = (i >= bpp) ? (previous[i - bpp] & 0xFF) : 0;
+                value = raw - paeth(a, b, c);
+                break;
+            default:
+                value = raw;
+                break;
+            }
+            out[i + 1] = (byte) value;
+            sum += Math.abs((int) ((byte) value));
+        }
+        return sum;
+    }
+
+    /**
+     * The Paeth predictor.
+     *
+     * @param a the byte to the left
+     * @param b the byte above
+     * @param c the byte above and to the left
+     * @return whichever of a, b, or c is closest to a + b - c
+     */
+    private static int paeth(final int a, final int b, final int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if ((pa <= pb) && (pa <= pc)) {
+            return a;
+        }
+        if (pb <= pc) {
+            return b;
+        }
+        return c;
+    }
+
+    /**
+     * Write out the IDAT chunk being filled, if it has anything in it.
+     *
+     * @throws IOException if the stream throws it
+     */
+    private void flushIdat() throws IOException {
+        if (idatLength > 0) {
+            writeChunk("IDAT", idat, idatLength);
+            idatLength = 0;
+        }
+    }
+
+    /**
+     * Write one chunk.
+     *
+     * @param type the four-letter chunk type
+     * @param data the chunk data
+     * @param length the number of bytes of data to write
+     * @throws IOException if the stream throws it
+     */
+    private void writeChunk(final String type, final byte [] data,
+        final int length) throws IOException {
+
+        byte [] header = new byte[8];
+        putInt(header, 0, length);
+        for (int i = 0; i < 4; i++) {
+            header[4 + i] = (byte) type.charAt(i);
+        }
+        output.write(header);
+        output.write(data, 0, length);
+
+        crc.reset();
+        crc.update(header, 4, 4);
+        crc.update(data, 0, length);
+        byte [] trailer = new byte[4];
+        putInt(trailer, 0, (int) crc.getValue());
+        output.write(trailer);
+    }
+
+    /**
+     * Store a big-endian int.
+     *
+     * @param bytes the array to store into
+     * @param offset the first byte to store
+     * @param value the value
+     */
+    private static void putInt(final byte [] bytes, final int offset,
+        final int value) {
+
+        bytes[offset]     = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+}
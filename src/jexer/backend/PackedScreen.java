@@ -0,0 +1,561 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2019 Kevin Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.backend;
+
+import java.util.Arrays;
+
+import jexer.bits.Cell;
+import jexer.bits.CellAttributes;
+import jexer.bits.Color;
+
+/**
+ * A logical screen that stores each cell as a single packed long rather than
+ * as a Cell object.  The glyph, width, attribute flags, and the SGR color
+ * indexes all fit in one long; the rarer 24-bit colors and image cells are
+ * kept in side arrays that are only allocated once something uses them.
+ *
+ * <p>This costs 16 bytes per cell for the logical and physical buffers
+ * together (versus two Cell objects per cell in LogicalScreen), keeps each
+ * row contiguous in memory, and lets the dirty check be a primitive
+ * compare.  Cells are only materialized as Cell objects when asked for
+ * through getCharXY() / getAttrXY().
+ */
+public class PackedScreen extends GenericScreen {
+
+    // ------------------------------------------------------------------------
+    // Constants --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Bits 0-20: the code point.
+     */
+    private static final long GLYPH_MASK = 0x1FFFFFL;
+
+    /**
+     * Bits 21-25: bold, blink, reverse, underline, protect.
+     */
+    private static final long BOLD      = 1L << 21;
+    private static final long BLINK     = 1L << 22;
+    private static final long REVERSE   = 1L << 23;
+    private static final long UNDERLINE = 1L << 24;
+    private static final long PROTECT   = 1L << 25;
+
+    /**
+     * Bits 26-27: Cell.Width ordinal.
+     */
+    private static final int WIDTH_SHIFT = 26;
+
+    /**
+     * Bits 28-30: foreground SGR color value.
+     */
+    private static final int FORE_SHIFT = 28;
+
+    /**
+     * Bits 31-33: background SGR color value.
+     */
+    private static final int BACK_SHIFT = 31;
+
+    /**
+     * Bit 34: foreground RGB is in the foreRGB side array.
+     */
+    private static final long FORE_RGB = 1L << 34;
+
+    /**
+     * Bit 35: background RGB is in the backRGB side array.
+     */
+    private static final long BACK_RGB = 1L << 35;
+
+    /**
+     * Bit 36: the cell is an image, held in the images side array.
+     */
+    private static final long IMAGE = 1L << 36;
+
+    /**
+     * Everything above bit 36 is always zero in a real cell, so all ones
+     * can never match one.  This is the packed form of Cell.unset().
+     */
+    private static final long UNSET = -1L;
+
+    /**
+     * The glyph value Cell uses for unset cells.
+     */
+    private static final int UNSET_VALUE = 65535;
+
+    /**
+     * A blank cell: ' ', white on black, no flags.
+     */
+    private static final long BLANK = ' ' | (7L << FORE_SHIFT);
+
+    /**
+     * Color instances by SGR value.
+     */
+    private static final Color [] COLORS = {
+        Color.BLACK, Color.RED, Color.GREEN, Color.YELLOW,
+        Color.BLUE, Color.MAGENTA, Color.CYAN, Color.WHITE
+    };
+
+    /**
+     * Cell.Width instances by ordinal.
+     */
+    private static final Cell.Width [] WIDTHS = Cell.Width.values();
+
+    // ------------------------------------------------------------------------
+    // Variables --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The logical screen being rendered to, one packed cell per entry, in
+     * row-major order.
+     */
+    private long [] logical;
+
+    /**
+     * The physical screen last sent out on flush(), in the same layout as
+     * logical.
+     */
+    private long [] physical;
+
+    /**
+     * Foreground RGB values for logical cells with FORE_RGB set, or null.
+     */
+    private int [] logicalForeRGB;
+
+    /**
+     * Background RGB values for logical cells with BACK_RGB set, or null.
+     */
+    private int [] logicalBackRGB;
+
+    /**
+     * Image cells for logical cells with IMAGE set, or null.
+     */
+    private Cell [] logicalImages;
+
+    /**
+     * Foreground RGB values for physical cells with FORE_RGB set, or null.
+     */
+    private int [] physicalForeRGB;
+
+    /**
+     * Background RGB values for physical cells with BACK_RGB set, or null.
+     */
+    private int [] physicalBackRGB;
+
+    /**
+     * Image cells for physical cells with IMAGE set, or null.
+     */
+    private Cell [] physicalImages;
+
+    // ------------------------------------------------------------------------
+    // Constructors -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Public constructor.  Sets everything to not-bold, white-on-black.
+     */
+    protected PackedScreen() {
+        reallocate(width, height);
+    }
+
+    // ------------------------------------------------------------------------
+    // GenericScreen ----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Allocate new logical and physical cells.
+     *
+     * @param width new width
+     * @param height new height
+     */
+    protected final void allocateCells(final int width, final int height) {
+        logical = new long[width * height];
+        physical = new long[width * height];
+        Arrays.fill(logical, BLANK);
+        Arrays.fill(physical, BLANK);
+        logicalForeRGB = null;
+        logicalBackRGB = null;
+        logicalImages = null;
+        physicalForeRGB = null;
+        physicalBackRGB = null;
+        physicalImages = null;
+    }
+
+    /**
+     * Copy one logical cell out.
+     *
+     * @param x column coordinate, on-screen
+     * @param y row coordinate, on-screen
+     * @param cell the cell to overwrite
+     */
+    protected final void readLogicalCell(final int x, final int y,
+        final Cell cell) {
+
+        int i = (y * width) + x;
+        long bits = logical[i];
+        if ((bits & IMAGE) != 0) {
+            cell.setTo(logicalImages[i]);
+            return;
+        }
+        cell.reset();
+        cell.setChar((int) (bits & GLYPH_MASK));
+        cell.setWidth(WIDTHS[(int) ((bits >>> WIDTH_SHIFT) & 0x3)]);
+        unpackAttr(bits, logicalForeRGB, logicalBackRGB, i, cell);
+    }
+
+    /**
+     * Copy the attributes of one logical cell out.
+     *
+     * @param x column coordinate, on-screen
+     * @param y row coordinate, on-screen
+     * @param attr the attributes to overwrite
+     */
+    protected final void readLogicalAttr(final int x, final int y,
+        final CellAttributes attr) {
+
+        int i = (y * width) + x;
+        unpackAttr(logical[i], logicalForeRGB, logicalBackRGB, i, attr);
+    }
+
+    /**
+     * Get the width of one logical cell.
+     *
+     * @param x column coordinate, on-screen
+     * @param y row coordinate, on-screen
+     * @return the width
+     */
+    protected final Cell.Width getLogicalWidth(final int x, final int y) {
+        return WIDTHS[(int) ((logical[(y * width) + x] >>> WIDTH_SHIFT)
+                & 0x3)];
+    }
+
+    /**
+     * Get the code point of one logical cell.
+     *
+     * @param x column coordinate, on-screen
+     * @param y row coordinate, on-screen
+     * @return the code point
+     */
+    protected final int getLogicalChar(final int x, final int y) {
+        return (int) (logical[(y * width) + x] & GLYPH_MASK);
+    }
+
+    /**
+     * Check if one logical cell is an image.
+     *
+     * @param x column coordinate, on-screen
+     * @param y row coordinate, on-screen
+     * @return true if the cell has an image
+     */
+    protected final boolean isLogicalImage(final int x, final int y) {
+        return ((logical[(y * width) + x] & IMAGE) != 0);
+    }
+
+    /**
+     * Overwrite one logical cell.
+     *
+     * @param x column coordinate, on-screen
+     * @param y row coordinate, on-screen
+     * @param cell the new character + attributes
+     */
+    protected final void setLogicalCell(final int x, final int y,
+        final Cell cell) {
+
+        int i = (y * width) + x;
+        long bits = packAttr(i, cell) | (cell.getChar() & GLYPH_MASK)
+            | (((long) cell.getWidth().ordinal()) << WIDTH_SHIFT);
+        if (cell.isImage()) {
+            bits |= IMAGE;
+            if (logicalImages == null) {
+                logicalImages = new Cell[logical.length];
+            }
+            if (logicalImages[i] == null) {
+                logicalImages[i] = new Cell(cell);
+            } else {
+                logicalImages[i].setTo(cell);
+            }
+        } else {
+            dropImage(i);
+        }
+        logical[i] = bits;
+    }
+
+    /**
+     * Overwrite the character and attributes of one logical cell.
+     *
+     * @param x column coordinate, on-screen
+     * @param y row coordinate, on-screen
+     * @param ch the new character
+     * @param attr the new attributes
+     */
+    protected final void setLogicalChar(final int x, final int y,
+        final int ch, final CellAttributes attr) {
+
+        int i = (y * width) + x;
+        logical[i] = packAttr(i, attr) | (ch & GLYPH_MASK);
+        dropImage(i);
+    }
+
+    /**
+     * Overwrite only the character of one logical cell.
+     *
+     * @param x column coordinate, on-screen
+     * @param y row coordinate, on-screen
+     * @param ch the new character
+     */
+    protected final void setLogicalChar(final int x, final int y,
+        final int ch) {
+
+        int i = (y * width) + x;
+        logical[i] = (logical[i] & ~GLYPH_MASK) | (ch & GLYPH_MASK);
+        if ((logical[i] & IMAGE) != 0) {
+            logicalImages[i].setChar(ch);
+        }
+    }
+
+    /**
+     * Overwrite the attributes of one logical cell.
+     *
+     * @param x column coordinate, on-screen
+     * @param y row coordinate, on-screen
+     * @param attr the new attributes
+     */
+    protected final void setLogicalAttr(final int x, final int y,
+        final CellAttributes attr) {
+
+        if (attr instanceof Cell) {
+            // Cell.setTo() copies the whole cell when it is given one.
+            setLogicalCell(x, y, (Cell) attr);
+            return;
+        }
+
+        int i = (y * width) + x;
+
+        // Same as Cell.setTo(CellAttributes): keep the glyph, drop the
+        // image, back to single width.
+        logical[i] = (logical[i] & GLYPH_MASK) | packAttr(i, attr);
+        dropImage(i);
+    }
+
+    /**
+     * Reset every logical cell to a blank.
+     */
+    protected final void resetLogicalCells() {
+        Arrays.fill(logical, BLANK);
+        logicalImages = null;
+    }
+
+    /**
+     * Unset one physical cell.
+     *
+     * @param x column coordinate, on-screen
+     * @param y row coordinate, on-screen
+     */
+    protected final void unsetPhysicalCell(final int x, final int y) {
+        physical[(y * width) + x] = UNSET;
+    }
+
+    /**
+     * Unset every physical cell.
+     */
+    protected final void unsetPhysicalCells() {
+        Arrays.fill(physical, UNSET);
+        physicalImages = null;
+    }
+
+    /**
+     * Copy one logical cell to its physical cell.
+     *
+     * @param x column coordinate, on-screen
+     * @param y row coordinate, on-screen
+     */
+    protected final void syncPhysicalCell(final int x, final int y) {
+        int i = (y * width) + x;
+        long bits = logical[i];
+        physical[i] = bits;
+        if ((bits & FORE_RGB) != 0) {
+            if (physicalForeRGB == null) {
+                physicalForeRGB = new int[physical.length];
+            }
+            physicalForeRGB[i] = logicalForeRGB[i];
+        }
+        if ((bits & BACK_RGB) != 0) {
+            if (physicalBackRGB == null) {
+                physicalBackRGB = new int[physical.length];
+            }
+            physicalBackRGB[i] = logicalBackRGB[i];
+        }
+        if ((bits & IMAGE) != 0) {
+            if (physicalImages == null) {
+                physicalImages = new Cell[physical.length];
+            }
+            if (physicalImages[i] == null) {
+                physicalImages[i] = new Cell(logicalImages[i]);
+            } else {
+                physicalImages[i].setTo(logicalImages[i]);
+            }
+        } else if (physicalImages != null) {
+            physicalImages[i] = null;
+        }
+    }
+
+    /**
+     * Check if one cell needs to be flushed.
+     *
+     * @param x column coordinate, on-screen
+     * @param y row coordinate, on-screen
+     * @return true if the logical cell is blinking or differs from the
+     * physical cell
+     */
+    protected final boolean isCellStale(final int x, final int y) {
+        int i = (y * width) + x;
+        return ((logical[i] & BLINK) != 0) || !isSynced(i);
+    }
+
+    // ------------------------------------------------------------------------
+    // PackedScreen -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Pack the attributes of a cell, saving any RGB colors into the logical
+     * side arrays.
+     *
+     * @param i index into logical
+     * @param attr the attributes
+     * @return the flag and color bits
+     */
+    private long packAttr(final int i, final CellAttributes attr) {
+        long bits = 0;
+        if (attr.isBold()) {
+            bits |= BOLD;
+        }
+        if (attr.isBlink()) {
+            bits |= BLINK;
+        }
+        if (attr.isReverse()) {
+            bits |= REVERSE;
+        }
+        if (attr.isUnderline()) {
+            bits |= UNDERLINE;
+        }
+        if (attr.isProtect()) {
+            bits |= PROTECT;
+        }
+        bits |= ((long) attr.getForeColor().getValue()) << FORE_SHIFT;
+        bits |= ((long) attr.getBackColor().getValue()) << BACK_SHIFT;
+
+        int rgb = attr.getForeColorRGB();
+        if (rgb >= 0) {
+            if (logicalForeRGB == null) {
+                logicalForeRGB = new int[logical.length];
+            }
+            logicalForeRGB[i] = rgb;
+            bits |= FORE_RGB;
+        }
+        rgb = attr.getBackColorRGB();
+        if (rgb >= 0) {
+            if (logicalBackRGB == null) {
+                logicalBackRGB = new int[logical.length];
+            }
+            logicalBackRGB[i] = rgb;
+            bits |= BACK_RGB;
+        }
+        return bits;
+    }
+
+    /**
+     * Unpack the attributes of a cell.
+     *
+     * @param bits the packed cell
+     * @param foreRGB the foreground RGB side array, may be null
+     * @param backRGB the background RGB side array, may be null
+     * @param i index into the side arrays
+     * @param attr the attributes to overwrite
+     */
+    private static void unpackAttr(final long bits, final int [] foreRGB,
+        final int [] backRGB, final int i, final CellAttributes attr) {
+
+        attr.setBold((bits & BOLD) != 0);
+        attr.setBlink((bits & BLINK) != 0);
+        attr.setReverse((bits & REVERSE) != 0);
+        attr.setUnderline((bits & UNDERLINE) != 0);
+        attr.setProtect((bits & PROTECT) != 0);
+        attr.setForeColor(COLORS[(int) ((bits >>> FORE_SHIFT) & 0x7)]);
+        attr.setBackColor(COLORS[(int) ((bits >>> BACK_SHIFT) & 0x7)]);
+        attr.setForeColorRGB((bits & FORE_RGB) != 0 ? foreRGB[i] : -1);
+        attr.setBackColorRGB((bits & BACK_RGB) != 0 ? backRGB[i] : -1);
+    }
+
+    /**
+     * Forget the image (if any) of a logical cell.  The caller is
+     * responsible for clearing the IMAGE bit.
+     *
+     * @param i index into logical
+     */
+    private void dropImage(final int i) {
+        if (logicalImages != null) {
+            logicalImages[i] = null;
+        }
+    }
+
+    /**
+     * Check if the logical and physical cells match, using the same rules
+     * as Cell.equals().
+     *
+     * @param i index into logical and physical
+     * @return true if the cells are the same
+     */
+    private boolean isSynced(final int i) {
+        long lBits = logical[i];
+        long pBits = physical[i];
+        if ((pBits == UNSET) || ((lBits & GLYPH_MASK) == UNSET_VALUE)) {
+            // Unsetted cells can never be equal.
+            return false;
+        }
+        if (((lBits & IMAGE) != 0) || ((pBits & IMAGE) != 0)) {
+            if (((lBits & IMAGE) != 0) && ((pBits & IMAGE) != 0)) {
+                return logicalImages[i].equals(physicalImages[i]);
+            }
+            return false;
+        }
+        if (lBits != pBits) {
+            return false;
+        }
+        if (((lBits & FORE_RGB) != 0)
+            && (logicalForeRGB[i] != physicalForeRGB[i])
+        ) {
+            return false;
+        }
+        if (((lBits & BACK_RGB) != 0)
+            && (logicalBackRGB[i] != physicalBackRGB[i])
+        ) {
+            return false;
+        }
+        return true;
+    }
+
+}
@@ -52,7 +52,6 @@ import java.awt.event.WindowListener;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.io.InputStream;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -276,7 +275,7 @@ public class SwingTerminal extends LogicalScreen
     /**
      * The event queue, filled up by a thread reading on input.
      */
-    private List<TInputEvent> eventQueue;
+    private EventRing eventQueue;
 
     /**
      * The last reported mouse X position.
@@ -423,7 +422,7 @@ public class SwingTerminal extends LogicalScreen
         mouse1           = false;
         mouse2           = false;
         mouse3           = false;
-        eventQueue       = new ArrayList<TInputEvent>();
+        eventQueue       = new EventRing();
 
         // Add listeners to Swing.
         swing.addKeyListener(this);
@@ -536,7 +535,7 @@ public class SwingTerminal extends LogicalScreen
         mouse1           = false;
         mouse2           = false;
         mouse3           = false;
-        eventQueue       = new ArrayList<TInputEvent>();
+        eventQueue       = new EventRing();
 
         // Add listeners to Swing.
         swing.addKeyListener(this);
@@ -601,9 +600,7 @@ public class SwingTerminal extends LogicalScreen
      * @return if true, getEvents() has something to return to the backend
      */
     public boolean hasEvents() {
-        synchronized (eventQueue) {
-            return (eventQueue.size() > 0);
-        }
+        return !eventQueue.isEmpty();
     }
 
     /**
@@ -612,14 +609,7 @@ public class SwingTerminal extends LogicalScreen
      * @param queue list to append new events to
      */
     public void getEvents(final List<TInputEvent> queue) {
-        synchronized (eventQueue) {
-            if (eventQueue.size() > 0) {
-                synchronized (queue) {
-                    queue.addAll(eventQueue);
-                }
-                eventQueue.clear();
-            }
-        }
+        eventQueue.drainTo(queue);
     }
 
     /**
@@ -1517,6 +1507,7 @@ public class SwingTerminal extends LogicalScreen
 
                         // Physical is always updated
                         physical[x][y].setTo(lCell);
+                        updateDirty(x, y);
                     }
                 }
             }
@@ -1570,7 +1561,17 @@ public class SwingTerminal extends LogicalScreen
 
             synchronized (this) {
                 for (int y = 0; y < height; y++) {
-                    for (int x = 0; x < width; x++) {
+                    boolean cursorRow = (cursorVisible && (y == cursorY));
+                    if (!isDirtyRow(y) && !cursorRow) {
+                        continue;
+                    }
+                    int xMin = getDirtyLeft(y);
+                    int xMax = getDirtyRight(y);
+                    if (cursorRow) {
+                        xMin = Math.min(xMin, Math.max(cursorX, 0));
+                        xMax = Math.max(xMax, Math.min(cursorX + 1, width));
+                    }
+                    for (int x = xMin; x < xMax; x++) {
                         Cell lCell = logical[x][y];
                         Cell pCell = physical[x][y];
 
@@ -1591,6 +1592,7 @@ public class SwingTerminal extends LogicalScreen
                             physical[x][y].setTo(lCell);
                         }
                     }
+                    updateDirtyRow(y);
                 }
                 drawCursor(gr);
             } // synchronized (this)
@@ -1612,7 +1614,17 @@ public class SwingTerminal extends LogicalScreen
 
         synchronized (this) {
             for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
+                boolean cursorRow = (cursorVisible && (y == cursorY));
+                if (!isDirtyRow(y) && !cursorRow) {
+                    continue;
+                }
+                int xCellMin = getDirtyLeft(y);
+                int xCellMax = getDirtyRight(y);
+                if (cursorRow) {
+                    xCellMin = Math.min(xCellMin, Math.max(cursorX, 0));
+                    xCellMax = Math.max(xCellMax, Math.min(cursorX + 1, width));
+                }
+                for (int x = xCellMin; x < xCellMax; x++) {
                     Cell lCell = logical[x][y];
                     Cell pCell = physical[x][y];
 
@@ -1952,15 +1964,9 @@ public class SwingTerminal extends LogicalScreen
         }
 
         // Save it and we are done.
-        synchronized (eventQueue) {
-            eventQueue.add(new TKeypressEvent(keypress));
-            resetBlinkTimer();
-        }
-        if (listener != null) {
-            synchronized (listener) {
-                listener.notifyAll();
-            }
-        }
+        eventQueue.put(new TKeypressEvent(keypress));
+        resetBlinkTimer();
+        EventRing.wakeListener(listener);
     }
 
     // ------------------------------------------------------------------------
@@ -1995,15 +2001,9 @@ public class SwingTerminal extends LogicalScreen
      */
     public void windowClosing(final WindowEvent event) {
         // Drop a cmBackendDisconnect and walk away
-        synchronized (eventQueue) {
-            eventQueue.add(new TCommandEvent(cmBackendDisconnect));
-            resetBlinkTimer();
-        }
-        if (listener != null) {
-            synchronized (listener) {
-                listener.notifyAll();
-            }
-        }
+        eventQueue.put(new TCommandEvent(cmBackendDisconnect));
+        resetBlinkTimer();
+        EventRing.wakeListener(listener);
     }
 
     /**
@@ -2094,21 +2094,15 @@ public class SwingTerminal extends LogicalScreen
 
         // Drop a new TResizeEvent into the queue
         sessionInfo.queryWindowSize();
-        synchronized (eventQueue) {
-            TResizeEvent windowResize = new TResizeEvent(TResizeEvent.Type.SCREEN,
-                sessionInfo.getWindowWidth(), sessionInfo.getWindowHeight());
-            eventQueue.add(windowResize);
-            resetBlinkTimer();
-            /*
-            System.err.println("Add resize event: " + windowResize.getWidth() +
-                " x " + windowResize.getHeight());
-             */
-        }
-        if (listener != null) {
-            synchronized (listener) {
-                listener.notifyAll();
-            }
-        }
+        TResizeEvent windowResize = new TResizeEvent(TResizeEvent.Type.SCREEN,
+            sessionInfo.getWindowWidth(), sessionInfo.getWindowHeight());
+        eventQueue.put(windowResize);
+        resetBlinkTimer();
+        /*
+        System.err.println("Add resize event: " + windowResize.getWidth() +
+            " x " + windowResize.getHeight());
+         */
+        EventRing.wakeListener(listener);
     }
 
     // ------------------------------------------------------------------------
@@ -2158,15 +2152,9 @@ public class SwingTerminal extends LogicalScreen
             x, y, x, y, mouse1, mouse2, mouse3, false, false,
             eventAlt, eventCtrl, eventShift);
 
-        synchronized (eventQueue) {
-            eventQueue.add(mouseEvent);
-            resetBlinkTimer();
-        }
-        if (listener != null) {
-            synchronized (listener) {
-                listener.notifyAll();
-            }
-        }
+        eventQueue.put(mouseEvent);
+        resetBlinkTimer();
+        EventRing.wakeListener(listener);
     }
 
     /**
@@ -2203,15 +2191,9 @@ public class SwingTerminal extends LogicalScreen
             x, y, x, y, mouse1, mouse2, mouse3, false, false,
             eventAlt, eventCtrl, eventShift);
 
-        synchronized (eventQueue) {
-            eventQueue.add(mouseEvent);
-            resetBlinkTimer();
-        }
-        if (listener != null) {
-            synchronized (listener) {
-                listener.notifyAll();
-            }
-        }
+        eventQueue.put(mouseEvent);
+        resetBlinkTimer();
+        EventRing.wakeListener(listener);
     }
 
     // ------------------------------------------------------------------------
@@ -2288,15 +2270,9 @@ public class SwingTerminal extends LogicalScreen
             x, y, x, y, mouse1, mouse2, mouse3, false, false,
             eventAlt, eventCtrl, eventShift);
 
-        synchronized (eventQueue) {
-            eventQueue.add(mouseEvent);
-            resetBlinkTimer();
-        }
-        if (listener != null) {
-            synchronized (listener) {
-                listener.notifyAll();
-            }
-        }
+        eventQueue.put(mouseEvent);
+        resetBlinkTimer();
+        EventRing.wakeListener(listener);
     }
 
     /**
@@ -2351,15 +2327,9 @@ public class SwingTerminal extends LogicalScreen
             x, y, x, y, eventMouse1, eventMouse2, eventMouse3, false, false,
             eventAlt, eventCtrl, eventShift);
 
-        synchronized (eventQueue) {
-            eventQueue.add(mouseEvent);
-            resetBlinkTimer();
-        }
-        if (listener != null) {
-            synchronized (listener) {
-                listener.notifyAll();
-            }
-        }
+        eventQueue.put(mouseEvent);
+        resetBlinkTimer();
+        EventRing.wakeListener(listener);
     }
 
     // ------------------------------------------------------------------------
@@ -2417,15 +2387,9 @@ public class SwingTerminal extends LogicalScreen
             x, y, x, y, mouse1, mouse2, mouse3, mouseWheelUp, mouseWheelDown,
             eventAlt, eventCtrl, eventShift);
 
-        synchronized (eventQueue) {
-            eventQueue.add(mouseEvent);
-            resetBlinkTimer();
-        }
-        if (listener != null) {
-            synchronized (listener) {
-                listener.notifyAll();
-            }
-        }
+        eventQueue.put(mouseEvent);
+        resetBlinkTimer();
+        EventRing.wakeListener(listener);
     }
 
 }
@@ -28,11 +28,11 @@
  */
 package jexer.backend;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import jexer.TApplication;
 import jexer.TWindow;
+import jexer.bits.Cell;
 import jexer.event.TCommandEvent;
 import jexer.event.TInputEvent;
 import jexer.event.TKeypressEvent;
@@ -68,12 +68,12 @@ public class TWindowBackend extends TWindow implements Backend {
     /**
      * The event queue, filled up by a thread reading on input.
      */
-    private List<TInputEvent> eventQueue;
+    private EventRing eventQueue;
 
     /**
      * The screen this window is monitoring.
      */
-    private Screen otherScreen;
+    private OtherScreen otherScreen;
 
     /**
      * The application associated with otherScreen.
@@ -89,7 +89,7 @@ public class TWindowBackend extends TWindow implements Backend {
      * OtherScreen provides a hook to notify TWindowBackend of screen size
      * changes.
      */
-    private class OtherScreen extends LogicalScreen {
+    private class OtherScreen extends PackedScreen {
 
         /**
          * The TWindowBackend to notify.
@@ -156,7 +156,7 @@ public class TWindowBackend extends TWindow implements Backend {
         super(application, title, width, height);
 
         this.listener = listener;
-        eventQueue = new ArrayList<TInputEvent>();
+        eventQueue = new EventRing();
         sessionInfo = new TSessionInfo(width, height);
         otherScreen = new OtherScreen(this);
         otherScreen.setDimensions(width - 2, height - 2);
@@ -182,7 +182,7 @@ public class TWindowBackend extends TWindow implements Backend {
         super(application, title, width, height, flags);
 
         this.listener = listener;
-        eventQueue = new ArrayList<TInputEvent>();
+        eventQueue = new EventRing();
         sessionInfo = new TSessionInfo(width, height);
         otherScreen = new OtherScreen(this);
         otherScreen.setDimensions(width - 2, height - 2);
@@ -209,7 +209,7 @@ public class TWindowBackend extends TWindow implements Backend {
         super(application, title, x, y, width, height);
 
         this.listener = listener;
-        eventQueue = new ArrayList<TInputEvent>();
+        eventQueue = new EventRing();
         sessionInfo = new TSessionInfo(width, height);
         otherScreen = new OtherScreen(this);
         otherScreen.setDimensions(width - 2, height - 2);
@@ -238,7 +238,7 @@ public class TWindowBackend extends TWindow implements Backend {
         super(application, title, x, y, width, height, flags);
 
         this.listener = listener;
-        eventQueue = new ArrayList<TInputEvent>();
+        eventQueue = new EventRing();
         sessionInfo = new TSessionInfo(width, height);
         otherScreen = new OtherScreen(this);
         otherScreen.setDimensions(width - 2, height - 2);
@@ -265,13 +265,9 @@ public class TWindowBackend extends TWindow implements Backend {
             ) {
                 // I was resized, notify the screen I am watching to match my
                 // new size.
-                synchronized (eventQueue) {
-                    eventQueue.add(new TResizeEvent(TResizeEvent.Type.SCREEN,
-                            newWidth, newHeight));
-                }
-                synchronized (listener) {
-                    listener.notifyAll();
-                }
+                eventQueue.put(new TResizeEvent(TResizeEvent.Type.SCREEN,
+                    newWidth, newHeight));
+                EventRing.wakeListener(listener);
             }
             return;
         } else {
@@ -309,12 +305,8 @@ public class TWindowBackend extends TWindow implements Backend {
             event.setY(mouse.getY() - 1);
             event.setAbsoluteX(event.getX());
             event.setAbsoluteY(event.getY());
-            synchronized (eventQueue) {
-                eventQueue.add(event);
-            }
-            synchronized (listener) {
-                listener.notifyAll();
-            }
+            eventQueue.put(event);
+            EventRing.wakeListener(listener);
         }
         super.onMouseDown(mouse);
     }
@@ -332,12 +324,8 @@ public class TWindowBackend extends TWindow implements Backend {
             event.setY(mouse.getY() - 1);
             event.setAbsoluteX(event.getX());
             event.setAbsoluteY(event.getY());
-            synchronized (eventQueue) {
-                eventQueue.add(event);
-            }
-            synchronized (listener) {
-                listener.notifyAll();
-            }
+            eventQueue.put(event);
+            EventRing.wakeListener(listener);
         }
         super.onMouseUp(mouse);
     }
@@ -355,12 +343,8 @@ public class TWindowBackend extends TWindow implements Backend {
             event.setY(mouse.getY() - 1);
             event.setAbsoluteX(event.getX());
             event.setAbsoluteY(event.getY());
-            synchronized (eventQueue) {
-                eventQueue.add(event);
-            }
-            synchronized (listener) {
-                listener.notifyAll();
-            }
+            eventQueue.put(event);
+            EventRing.wakeListener(listener);
         }
         super.onMouseMotion(mouse);
     }
@@ -373,12 +357,8 @@ public class TWindowBackend extends TWindow implements Backend {
     @Override
     public void onKeypress(final TKeypressEvent keypress) {
         TKeypressEvent event = keypress.dup();
-        synchronized (eventQueue) {
-            eventQueue.add(event);
-        }
-        synchronized (listener) {
-            listener.notifyAll();
-        }
+        eventQueue.put(event);
+        EventRing.wakeListener(listener);
     }
 
     // ------------------------------------------------------------------------
@@ -398,9 +378,11 @@ public class TWindowBackend extends TWindow implements Backend {
             super.draw();
 
             // Draw every cell of the other screen
+            Cell cell = new Cell();
             for (int y = 0; y < otherScreen.getHeight(); y++) {
                 for (int x = 0; x < otherScreen.getWidth(); x++) {
-                    putCharXY(x + 1, y + 1, otherScreen.getCharXY(x, y));
+                    otherScreen.getCharXY(x, y, cell);
+                    putCharXY(x + 1, y + 1, cell);
                 }
             }
 
@@ -430,9 +412,7 @@ public class TWindowBackend extends TWindow implements Backend {
      */
     @Override
     public void onClose() {
-        synchronized (eventQueue) {
-            eventQueue.add(new TCommandEvent(cmBackendDisconnect));
-        }
+        eventQueue.put(new TCommandEvent(cmBackendDisconnect));
     }
 
     // ------------------------------------------------------------------------
@@ -462,9 +442,7 @@ public class TWindowBackend extends TWindow implements Backend {
      * @return if true, getEvents() has something to return to the application
      */
     public boolean hasEvents() {
-        synchronized (eventQueue) {
-            return (eventQueue.size() > 0);
-        }
+        return !eventQueue.isEmpty();
     }
 
     /**
@@ -474,14 +452,7 @@ public class TWindowBackend extends TWindow implements Backend {
      * @param queue list to append new events to
      */
     public void getEvents(List<TInputEvent> queue) {
-        synchronized (eventQueue) {
-            if (eventQueue.size() > 0) {
-                synchronized (queue) {
-                    queue.addAll(eventQueue);
-                }
-                eventQueue.clear();
-            }
-        }
+        eventQueue.drainTo(queue);
     }
 
     /**
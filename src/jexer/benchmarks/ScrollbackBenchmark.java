@@ -0,0 +1,118 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2019 Kevin Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+import jexer.tterminal.ECMA48;
+
+/**
+ * Measure how many lines per second ECMA48 can consume once its scrollback
+ * is full.  Log-style lines of about 70 characters are written through a
+ * pipe into a fresh 80x24 XTERM emulator, and the clock stops when its
+ * reader thread has consumed everything.
+ *
+ * <p>Usage: ScrollbackBenchmark [lines [scrollbackMax ...]].  The defaults
+ * are 100000 lines with scrollbackMax 10000 and 50000.  Each setting is
+ * run twice, and the second (warm) run is reported.
+ */
+public class ScrollbackBenchmark {
+
+    /**
+     * Main entry point.
+     *
+     * @param args Command line arguments
+     * @throws Exception if the emulator or the pipe fails
+     */
+    public static void main(final String [] args) throws Exception {
+        int lines = 100000;
+        int [] scrollbackMax = { 10000, 50000 };
+        if (args.length > 0) {
+            lines = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            scrollbackMax = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                scrollbackMax[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            sb.append("2019-10-16 12:00:00 INFO  [worker-" + (i % 7)
+                + "] processed request " + i + " in 12ms\r\n");
+        }
+        byte [] data = sb.toString().getBytes("UTF-8");
+
+        // Read on a plain blocking thread, so that the timing does not
+        // include any polling interval.
+        System.setProperty("jexer.TTerminal.blockingRead", "true");
+
+        for (int max: scrollbackMax) {
+            double linesPerSecond = 0;
+            for (int round = 0; round < 2; round++) {
+                linesPerSecond = run(data, lines, max);
+            }
+            System.out.printf("%d lines, scrollbackMax %d: %.0f lines/s\n",
+                lines, max, linesPerSecond);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Feed the data to a new emulator.
+     *
+     * @param data the bytes to write
+     * @param lines the number of lines in data
+     * @param scrollbackMax the scrollback limit
+     * @return lines per second
+     * @throws Exception if the emulator or the pipe fails
+     */
+    private static double run(final byte [] data, final int lines,
+        final int scrollbackMax) throws Exception {
+
+        PipedOutputStream pipe = new PipedOutputStream();
+        PipedInputStream input = new PipedInputStream(pipe, 1 << 16);
+        ECMA48 emulator = new ECMA48(ECMA48.DeviceType.XTERM, input,
+            new ByteArrayOutputStream(), null);
+        emulator.setScrollbackMax(scrollbackMax);
+
+        long start = System.nanoTime();
+        pipe.write(data);
+        pipe.close();
+        while (emulator.isReading()) {
+            Thread.sleep(1);
+        }
+        long nanos = System.nanoTime() - start;
+        return lines / (nanos / 1000000000.0);
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2019 Kevin Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import jexer.backend.ECMA48Terminal;
+import jexer.backend.TSessionInfo;
+import jexer.bits.Cell;
+
+/**
+ * Measure how many image pixels per second ECMA48Terminal can turn into
+ * sixel output at each palette size.  A screen of image cells holding a
+ * noisy gradient is flushed by a fresh terminal, so that nothing comes
+ * from the image cache, and the time covers dithering and encoding.
+ *
+ * <p>Usage: SixelBenchmark [rounds].  Each palette size is flushed that
+ * many times (default 20) after five warm-up flushes, and the average
+ * is reported.  Rows are encoded on the calling thread.
+ */
+public class SixelBenchmark {
+
+    /**
+     * The palette sizes to measure.
+     */
+    private static final int [] PALETTE_SIZES = { 2, 256, 512, 1024 };
+
+    /**
+     * The number of flushes at each palette size before timing starts.
+     */
+    private static final int WARMUP_ROUNDS = 5;
+
+    /**
+     * The screen size in text cells.  The bottom row is never drawn as
+     * sixel, so it is left empty.
+     */
+    private static final int COLUMNS = 60;
+    private static final int ROWS = 20;
+
+    /**
+     * Main entry point.
+     *
+     * @param args Command line arguments
+     * @throws Exception if the terminal fails
+     */
+    public static void main(final String [] args) throws Exception {
+        int rounds = 20;
+        if (args.length > 0) {
+            rounds = Integer.parseInt(args[0]);
+        }
+
+        System.setProperty("jexer.ECMA48.sixel", "true");
+        System.setProperty("jexer.ECMA48.sixelParallel", "false");
+        System.setProperty("jexer.ECMA48.jexerImages", "false");
+
+        Cell [][] cells = null;
+        for (int paletteSize: PALETTE_SIZES) {
+            long total = 0;
+            long pixels = 0;
+            for (int round = -WARMUP_ROUNDS; round < rounds; round++) {
+                ECMA48Terminal terminal = new ECMA48Terminal(
+                    new TSessionInfo(COLUMNS, ROWS + 1),
+                    new ByteArrayOutputStream());
+                terminal.setSixelPaletteSize(paletteSize);
+                int textWidth = terminal.getTextWidth();
+                int textHeight = terminal.getTextHeight();
+                if (cells == null) {
+                    cells = makeCells(textWidth, textHeight);
+                }
+                pixels = (long) COLUMNS * ROWS * textWidth * textHeight;
+
+                for (int y = 0; y < ROWS; y++) {
+                    for (int x = 0; x < COLUMNS; x++) {
+                        terminal.putCharXY(x, y, cells[x][y]);
+                    }
+                }
+                long start = System.nanoTime();
+                synchronized (terminal) {
+                    terminal.flushPhysical();
+                }
+                if (round >= 0) {
+                    total += System.nanoTime() - start;
+                }
+            }
+            System.out.printf("palette %4d: %.2f Mpixels/s\n", paletteSize,
+                pixels * rounds / (total / 1000.0));
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Make one screen of image cells.  The image is a color gradient with
+     * noise added, so that dithering has work to do in every cell.
+     *
+     * @param textWidth the width of a cell in pixels
+     * @param textHeight the height of a cell in pixels
+     * @return the cells, indexed [x][y]
+     */
+    private static Cell [][] makeCells(final int textWidth,
+        final int textHeight) {
+
+        int width = COLUMNS * textWidth;
+        int height = ROWS * textHeight;
+        Random random = new Random(1);
+        Cell [][] cells = new Cell[COLUMNS][ROWS];
+        for (int y = 0; y < ROWS; y++) {
+            for (int x = 0; x < COLUMNS; x++) {
+                BufferedImage image = new BufferedImage(textWidth,
+                    textHeight, BufferedImage.TYPE_INT_ARGB);
+                for (int j = 0; j < textHeight; j++) {
+                    for (int i = 0; i < textWidth; i++) {
+                        int px = x * textWidth + i;
+                        int py = y * textHeight + j;
+                        int red = (255 * px / width) ^ random.nextInt(32);
+                        int green = (255 * py / height) ^ random.nextInt(32);
+                        int blue = (255 * (px + py) / (width + height))
+                            ^ random.nextInt(32);
+                        image.setRGB(i, j, 0xFF000000 | (red << 16)
+                            | (green << 8) | blue);
+                    }
+                }
+                cells[x][y] = new Cell();
+                cells[x][y].setImage(image);
+            }
+        }
+        return cells;
+    }
+
+}
@@ -30,6 +30,9 @@ package jexer.bits;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * This class represents a single text cell or bit of image on the screen.
@@ -108,6 +111,12 @@ public final class Cell extends CellAttributes {
      */
     private int backgroundHashCode = 0;
 
+    /**
+     * SHA-1 digest of the image pixels, computed the first time someone
+     * asks for it.
+     */
+    private byte [] imageDigest = null;
+
     // ------------------------------------------------------------------------
     // Constructors -----------------------------------------------------------
     // ------------------------------------------------------------------------
@@ -174,6 +183,7 @@ public final class Cell extends CellAttributes {
     public void setImage(final BufferedImage image) {
         this.image = image;
         imageHashCode = image.hashCode();
+        imageDigest = null;
         width = Width.SINGLE;
     }
 
@@ -189,6 +199,35 @@ public final class Cell extends CellAttributes {
         return image;
     }
 
+    /**
+     * Get a digest of the image data for this cell, suitable for use as a
+     * cache key.  Two cells with the same image pixels have the same
+     * digest even if they hold different BufferedImage objects.  The
+     * digest is of the normal image, not the inverted one.
+     *
+     * @return the 20-byte SHA-1 digest, or null if this cell has no image
+     */
+    public byte [] getImageDigest() {
+        if ((imageDigest == null) && (image != null)) {
+            int imageWidth = image.getWidth();
+            int imageHeight = image.getHeight();
+            int [] rgbArray = image.getRGB(0, 0, imageWidth, imageHeight,
+                null, 0, imageWidth);
+            ByteBuffer bytes = ByteBuffer.allocate((rgbArray.length + 2) * 4);
+            bytes.putInt(imageWidth);
+            bytes.putInt(imageHeight);
+            bytes.asIntBuffer().put(rgbArray);
+            try {
+                MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+                imageDigest = sha1.digest(bytes.array());
+            } catch (NoSuchAlgorithmException e) {
+                // Every Java platform is required to have SHA-1.
+                throw new RuntimeException(e);
+            }
+        }
+        return imageDigest;
+    }
+
     /**
      * Get the bitmap image background color for this cell.
      *
@@ -305,6 +344,7 @@ public final class Cell extends CellAttributes {
         width = Width.SINGLE;
         image = null;
         imageHashCode = 0;
+        imageDigest = null;
         invertedImage = null;
         background = Color.BLACK;
         backgroundHashCode = 0;
@@ -320,6 +360,7 @@ public final class Cell extends CellAttributes {
         width = Width.SINGLE;
         image = null;
         imageHashCode = 0;
+        imageDigest = null;
         invertedImage = null;
         background = Color.BLACK;
         backgroundHashCode = 0;
@@ -446,6 +487,7 @@ public final class Cell extends CellAttributes {
         CellAttributes thatAttr = (CellAttributes) rhs;
         this.image = null;
         this.imageHashCode = 0;
+        this.imageDigest = null;
         this.backgroundHashCode = 0;
         this.width = Width.SINGLE;
         super.setTo(thatAttr);
@@ -458,6 +500,7 @@ public final class Cell extends CellAttributes {
             this.invertedImage = that.invertedImage;
             this.background = that.background;
             this.imageHashCode = that.imageHashCode;
+            this.imageDigest = that.imageDigest;
             this.backgroundHashCode = that.backgroundHashCode;
         }
     }
@@ -469,6 +512,7 @@ public final class Cell extends CellAttributes {
      */
     public void setAttr(final CellAttributes that) {
         image = null;
+        imageDigest = null;
         super.setTo(that);
     }
 
@@ -51,9 +51,9 @@ public class TelnetInputStream extends InputStream implements SessionInfo {
     // ------------------------------------------------------------------------
 
     /**
-     * The root TelnetSocket that has my telnet protocol state.
+     * The telnet protocol options of the connection I belong to.
      */
-    private TelnetSocket master;
+    private TelnetOptions master;
 
     /**
      * The raw socket's InputStream.
@@ -141,11 +141,12 @@ public class TelnetInputStream extends InputStream implements SessionInfo {
     /**
      * Package private constructor.
      *
-     * @param master the master TelnetSocket
-     * @param input the underlying socket's InputStream
+     * @param master the telnet options of this connection
+     * @param input the underlying socket's InputStream, or null if raw
+     * bytes will be passed to decode() instead
      * @param output the telnet-aware OutputStream
      */
-    TelnetInputStream(final TelnetSocket master, final InputStream input,
+    TelnetInputStream(final TelnetOptions master, final InputStream input,
         final TelnetOutputStream output) {
 
         this.master = master;
@@ -986,409 +987,436 @@ public class TelnetInputStream extends InputStream implements SessionInfo {
     }
 
     /**
-     * Reads up to len bytes of data from the input stream into an array of
-     * bytes.
+     * Run raw bytes from the remote side through the telnet protocol.
+     * Option negotiation is handled (and responded to) here; the remaining
+     * user data is written to buf.  Note package private access: this is
+     * used directly by TelnetSession, which reads from a non-blocking
+     * channel rather than an InputStream.
      *
-     * @param buf the buffer into which the data is read.
-     * @param off the start offset in array b at which the data is written.
-     * @param len the maximum number of bytes to read.
-     * @return the total number of bytes read into the buffer, or -1 if there
-     * is no more data because the end of the stream has been reached.
+     * @param buffer the raw bytes read from the remote side
+     * @param bufferN the number of bytes in buffer
+     * @param buf the buffer to write user data to.  It must have room for
+     * bufferN + 1 bytes.
+     * @param off the start offset in buf at which the data is written
+     * @return the number of bytes written to buf, which may be 0
      * @throws IOException if an I/O error occurs
      */
-    private int readImpl(final byte[] buf, final int off,
-        final int len) throws IOException {
-
-        assert (len > 0);
+    int decode(final byte [] buffer, final int bufferN, final byte [] buf,
+        final int off) throws IOException {
 
         // The current writing position in buf.
         int bufN = off;
 
-        // We will keep trying to read() until we have something to return.
-        do {
+        // Loop through the raw bytes
+        for (int i = 0; i < bufferN; i++) {
+            byte b = buffer[i];
 
-            byte [] buffer = null;
-            if (master.binaryMode) {
-                // Binary mode: read up to len bytes.  There will never be
-                // more bytes to pass upstream than there are bytes on the
-                // wire.
-                buffer = new byte[len];
-            } else {
-                // ASCII mode: read up to len - 2 bytes.  There may have been
-                // some combination of IAC, CR, and NUL from a previous
-                // readImpl() that could result in more bytes to pass up than
-                // are on the wire.
-                buffer = new byte[len - 2];
-            }
-
-            int bufferN = 0;
-
-            // Read some data from the other end
-            int rc = input.read(buffer);
-
-            // Check for EOF or error
-            if (rc > 0) {
-                // More data came in
-                bufferN = rc;
-            } else {
-                // EOF, just return it.
-                return rc;
+            if (subnegEnd == true) {
+                // Looking for IAC SE to end this subnegotiation
+                if (b == (byte) TELNET_SE) {
+                    if (iac == true) {
+                        iac = false;
+                        subnegEnd = false;
+                        handleSubneg();
+                    }
+                } else if (b == (byte) TELNET_IAC) {
+                    if (iac == true) {
+                        // An argument to the subnegotiation option
+                        subnegBuffer.add((byte) TELNET_IAC);
+                    } else {
+                        iac = true;
+                    }
+                } else {
+                    // An argument to the subnegotiation option
+                    subnegBuffer.add(b);
+                }
+                continue;
             }
 
-            // Loop through the read bytes
-            for (int i = 0; i < bufferN; i++) {
-                byte b = buffer[i];
-
-                if (subnegEnd == true) {
-                    // Looking for IAC SE to end this subnegotiation
-                    if (b == (byte) TELNET_SE) {
-                        if (iac == true) {
-                            iac = false;
-                            subnegEnd = false;
-                            handleSubneg();
+            // Look for DO/DON'T/WILL/WON'T option
+            if (dowill == true) {
+
+                // Look for option/
+                switch (b) {
+
+                case 0:
+                    // Binary Transmission
+                    if (dowillType == (byte) TELNET_WILL) {
+                        // Server will use binary transmission, yay.
+                        master.binaryMode = true;
+                    } else if (dowillType == (byte) TELNET_DO) {
+                        // Server asks for binary transmission.
+                        WILL(b);
+                        master.binaryMode = true;
+                    } else if (dowillType == (byte) TELNET_WONT) {
+                        // We're screwed, server won't do binary
+                        // transmission.
+                        master.binaryMode = false;
+                    } else {
+                        // Server demands NVT ASCII mode.
+                        master.binaryMode = false;
+                    }
+                    break;
+
+                case 1:
+                    // Echo
+                    if (dowillType == (byte) TELNET_WILL) {
+                        // Server will use echo, yay.
+                        master.echoMode = true;
+                    } else if (dowillType == (byte) TELNET_DO) {
+                        // Server asks for echo.
+                        WILL(b);
+                        master.echoMode = true;
+                    } else if (dowillType == (byte) TELNET_WONT) {
+                        // We're screwed, server won't do echo.
+                        master.echoMode = false;
+                    } else {
+                        // Server demands no echo.
+                        master.echoMode = false;
+                    }
+                    break;
+
+                case 3:
+                    // Suppress Go Ahead
+                    if (dowillType == (byte) TELNET_WILL) {
+                        // Server will use suppress go-ahead, yay.
+                        master.goAhead = false;
+                    } else if (dowillType == (byte) TELNET_DO) {
+                        // Server asks for suppress go-ahead.
+                        WILL(b);
+                        master.goAhead = false;
+                    } else if (dowillType == (byte) TELNET_WONT) {
+                        // We're screwed, server won't do suppress
+                        // go-ahead.
+                        master.goAhead = true;
+                    } else {
+                        // Server demands Go-Ahead mode.
+                        master.goAhead = true;
+                    }
+                    break;
+
+                case 24:
+                    // Terminal Type - send what's in TERM
+                    if (dowillType == (byte) TELNET_WILL) {
+                        // Server will use terminal type, yay.
+                        if (master.isServer
+                            && master.doTermType
+                        ) {
+                            requestTerminalType();
+                            master.doTermType = false;
+                        } else if (!master.isServer) {
+                            master.doTermType = true;
                         }
-                    } else if (b == (byte) TELNET_IAC) {
-                        if (iac == true) {
-                            // An argument to the subnegotiation option
-                            subnegBuffer.add((byte) TELNET_IAC);
-                        } else {
-                            iac = true;
+                    } else if (dowillType == (byte) TELNET_DO) {
+                        // Server asks for terminal type.
+                        WILL(b);
+                        master.doTermType = true;
+                    } else if (dowillType == (byte) TELNET_WONT) {
+                        // We're screwed, server won't do terminal type.
+                        master.doTermType = false;
+                    } else {
+                        // Server will not listen to terminal type.
+                        master.doTermType = false;
+                    }
+                    break;
+
+                case 31:
+                    // NAWS
+                    if (dowillType == (byte) TELNET_WILL) {
+                        // Server will use NAWS, yay.
+                        master.doNAWS = true;
+                        // NAWS cannot be requested by the server, it is
+                        // only sent by the client.
+                    } else if (dowillType == (byte) TELNET_DO) {
+                        // Server asks for NAWS.
+                        WILL(b);
+                        master.doNAWS = true;
+                    } else if (dowillType == (byte) TELNET_WONT) {
+                        // Server won't do NAWS.
+                        master.doNAWS = false;
+                    } else {
+                        // Server will not listen to NAWS.
+                        master.doNAWS = false;
+                    }
+                    break;
+
+                case 32:
+                    // Terminal Speed
+                    if (dowillType == (byte) TELNET_WILL) {
+                        // Server will use terminal speed, yay.
+                        if (master.isServer
+                            && master.doTermSpeed
+                        ) {
+                            requestTerminalSpeed();
+                            master.doTermSpeed = false;
+                        } else if (!master.isServer) {
+                            master.doTermSpeed = true;
                         }
+                    } else if (dowillType == (byte) TELNET_DO) {
+                        // Server asks for terminal speed.
+                        WILL(b);
+                        master.doTermSpeed = true;
+                    } else if (dowillType == (byte) TELNET_WONT) {
+                        // We're screwed, server won't do terminal speed.
+                        master.doTermSpeed = false;
                     } else {
-                        // An argument to the subnegotiation option
-                        subnegBuffer.add(b);
+                        // Server will not listen to terminal speed.
+                        master.doTermSpeed = false;
                     }
-                    continue;
+                    break;
+
+                case 39:
+                    // New Environment
+                    if (dowillType == (byte) TELNET_WILL) {
+                        // Server will use NewEnvironment, yay.
+                        if (master.isServer
+                            && master.doEnvironment
+                        ) {
+                            requestEnvironment();
+                            master.doEnvironment = false;
+                        } else if (!master.isServer) {
+                            master.doEnvironment = true;
+                        }
+                    } else if (dowillType == (byte) TELNET_DO) {
+                        // Server asks for NewEnvironment.
+                        WILL(b);
+                        master.doEnvironment = true;
+                    } else if (dowillType == (byte) TELNET_WONT) {
+                        // Server won't do NewEnvironment.
+                        master.doEnvironment = false;
+                    } else {
+                        // Server will not listen to New Environment.
+                        master.doEnvironment = false;
+                    }
+                    break;
+
+
+                default:
+                    // Other side asked for something we don't
+                    // understand.  Tell them we will not do this option.
+                    refuse(dowillType, b);
+                    break;
                 }
 
-                // Look for DO/DON'T/WILL/WON'T option
-                if (dowill == true) {
+                dowill = false;
+                continue;
+            } // if (dowill == true)
+
+            // Perform read processing
+            if (b == (byte) TELNET_IAC) {
+
+                // Telnet command
+                if (iac == true) {
+                    // IAC IAC -> IAC
+                    buf[bufN++] = (byte) TELNET_IAC;
+                    iac = false;
+                } else {
+                    iac = true;
+                }
+                continue;
+            } else {
+                if (iac == true) {
 
-                    // Look for option/
                     switch (b) {
 
-                    case 0:
-                        // Binary Transmission
-                        if (dowillType == (byte) TELNET_WILL) {
-                            // Server will use binary transmission, yay.
-                            master.binaryMode = true;
-                        } else if (dowillType == (byte) TELNET_DO) {
-                            // Server asks for binary transmission.
-                            WILL(b);
-                            master.binaryMode = true;
-                        } else if (dowillType == (byte) TELNET_WONT) {
-                            // We're screwed, server won't do binary
-                            // transmission.
-                            master.binaryMode = false;
-                        } else {
-                            // Server demands NVT ASCII mode.
-                            master.binaryMode = false;
-                        }
+                    case (byte) TELNET_SE:
+                        // END Sub-Negotiation
                         break;
-
-                    case 1:
-                        // Echo
-                        if (dowillType == (byte) TELNET_WILL) {
-                            // Server will use echo, yay.
-                            master.echoMode = true;
-                        } else if (dowillType == (byte) TELNET_DO) {
-                            // Server asks for echo.
-                            WILL(b);
-                            master.echoMode = true;
-                        } else if (dowillType == (byte) TELNET_WONT) {
-                            // We're screwed, server won't do echo.
-                            master.echoMode = false;
-                        } else {
-                            // Server demands no echo.
-                            master.echoMode = false;
-                        }
+                    case (byte) TELNET_NOP:
+                        // NOP
                         break;
-
-                    case 3:
-                        // Suppress Go Ahead
-                        if (dowillType == (byte) TELNET_WILL) {
-                            // Server will use suppress go-ahead, yay.
-                            master.goAhead = false;
-                        } else if (dowillType == (byte) TELNET_DO) {
-                            // Server asks for suppress go-ahead.
-                            WILL(b);
-                            master.goAhead = false;
-                        } else if (dowillType == (byte) TELNET_WONT) {
-                            // We're screwed, server won't do suppress
-                            // go-ahead.
-                            master.goAhead = true;
-                        } else {
-                            // Server demands Go-Ahead mode.
-                            master.goAhead = true;
-                        }
+                    case (byte) TELNET_DM:
+                        // Data Mark
                         break;
-
-                    case 24:
-                        // Terminal Type - send what's in TERM
-                        if (dowillType == (byte) TELNET_WILL) {
-                            // Server will use terminal type, yay.
-                            if (master.isServer
-                                && master.doTermType
-                            ) {
-                                requestTerminalType();
-                                master.doTermType = false;
-                            } else if (!master.isServer) {
-                                master.doTermType = true;
-                            }
-                        } else if (dowillType == (byte) TELNET_DO) {
-                            // Server asks for terminal type.
-                            WILL(b);
-                            master.doTermType = true;
-                        } else if (dowillType == (byte) TELNET_WONT) {
-                            // We're screwed, server won't do terminal type.
-                            master.doTermType = false;
-                        } else {
-                            // Server will not listen to terminal type.
-                            master.doTermType = false;
-                        }
+                    case (byte) TELNET_BRK:
+                        // Break
                         break;
-
-                    case 31:
-                        // NAWS
-                        if (dowillType == (byte) TELNET_WILL) {
-                            // Server will use NAWS, yay.
-                            master.doNAWS = true;
-                            // NAWS cannot be requested by the server, it is
-                            // only sent by the client.
-                        } else if (dowillType == (byte) TELNET_DO) {
-                            // Server asks for NAWS.
-                            WILL(b);
-                            master.doNAWS = true;
-                        } else if (dowillType == (byte) TELNET_WONT) {
-                            // Server won't do NAWS.
-                            master.doNAWS = false;
-                        } else {
-                            // Server will not listen to NAWS.
-                            master.doNAWS = false;
-                        }
+                    case (byte) TELNET_IP:
+                        // Interrupt Process
                         break;
-
-                    case 32:
-                        // Terminal Speed
-                        if (dowillType == (byte) TELNET_WILL) {
-                            // Server will use terminal speed, yay.
-                            if (master.isServer
-                                && master.doTermSpeed
-                            ) {
-                                requestTerminalSpeed();
-                                master.doTermSpeed = false;
-                            } else if (!master.isServer) {
-                                master.doTermSpeed = true;
-                            }
-                        } else if (dowillType == (byte) TELNET_DO) {
-                            // Server asks for terminal speed.
-                            WILL(b);
-                            master.doTermSpeed = true;
-                        } else if (dowillType == (byte) TELNET_WONT) {
-                            // We're screwed, server won't do terminal speed.
-                            master.doTermSpeed = false;
-                        } else {
-                            // Server will not listen to terminal speed.
-                            master.doTermSpeed = false;
-                        }
+                    case (byte) TELNET_AO:
+                        // Abort Output
                         break;
-
-                    case 39:
-                        // New Environment
-                        if (dowillType == (byte) TELNET_WILL) {
-                            // Server will use NewEnvironment, yay.
-                            if (master.isServer
-                                && master.doEnvironment
-                            ) {
-                                requestEnvironment();
-                                master.doEnvironment = false;
-                            } else if (!master.isServer) {
-                                master.doEnvironment = true;
-                            }
-                        } else if (dowillType == (byte) TELNET_DO) {
-                            // Server asks for NewEnvironment.
-                            WILL(b);
-                            master.doEnvironment = true;
-                        } else if (dowillType == (byte) TELNET_WONT) {
-                            // Server won't do NewEnvironment.
-                            master.doEnvironment = false;
-                        } else {
-                            // Server will not listen to New Environment.
-                            master.doEnvironment = false;
-                        }
+                    case (byte) TELNET_AYT:
+                        // Are You There?
+                        break;
+                    case (byte) TELNET_EC:
+                        // Erase Character
+                        break;
+                    case (byte) TELNET_EL:
+                        // Erase Line
+                        break;
+                    case (byte) TELNET_GA:
+                        // Go Ahead
+                        break;
+                    case (byte) TELNET_SB:
+                        // START Sub-Negotiation
+                        // From here we wait for the IAC SE
+                        subnegEnd = true;
+                        subnegBuffer.clear();
+                        break;
+                    case (byte) TELNET_WILL:
+                        // WILL
+                        dowill = true;
+                        dowillType = b;
+                        break;
+                    case (byte) TELNET_WONT:
+                        // WON'T
+                        dowill = true;
+                        dowillType = b;
+                        break;
+                    case (byte) TELNET_DO:
+                        // DO
+                        dowill = true;
+                        dowillType = b;
+                        break;
+                    case (byte) TELNET_DONT:
+                        // DON'T
+                        dowill = true;
+                        dowillType = b;
                         break;
-
-
                     default:
-                        // Other side asked for something we don't
-                        // understand.  Tell them we will not do this option.
-                        refuse(dowillType, b);
+                        // This should be equivalent to IAC NOP
                         break;
                     }
-
-                    dowill = false;
+                    iac = false;
                     continue;
-                } // if (dowill == true)
-
-                // Perform read processing
-                if (b == (byte) TELNET_IAC) {
 
-                    // Telnet command
-                    if (iac == true) {
-                        // IAC IAC -> IAC
-                        buf[bufN++] = (byte) TELNET_IAC;
-                        iac = false;
-                    } else {
-                        iac = true;
-                    }
-                    continue;
-                } else {
-                    if (iac == true) {
+                } // if (iac == true)
 
-                        switch (b) {
-
-                        case (byte) TELNET_SE:
-                            // END Sub-Negotiation
-                            break;
-                        case (byte) TELNET_NOP:
-                            // NOP
-                            break;
-                        case (byte) TELNET_DM:
-                            // Data Mark
-                            break;
-                        case (byte) TELNET_BRK:
-                            // Break
-                            break;
-                        case (byte) TELNET_IP:
-                            // Interrupt Process
-                            break;
-                        case (byte) TELNET_AO:
-                            // Abort Output
-                            break;
-                        case (byte) TELNET_AYT:
-                            // Are You There?
-                            break;
-                        case (byte) TELNET_EC:
-                            // Erase Character
-                            break;
-                        case (byte) TELNET_EL:
-                            // Erase Line
-                            break;
-                        case (byte) TELNET_GA:
-                            // Go Ahead
-                            break;
-                        case (byte) TELNET_SB:
-                            // START Sub-Negotiation
-                            // From here we wait for the IAC SE
-                            subnegEnd = true;
-                            subnegBuffer.clear();
-                            break;
-                        case (byte) TELNET_WILL:
-                            // WILL
-                            dowill = true;
-                            dowillType = b;
-                            break;
-                        case (byte) TELNET_WONT:
-                            // WON'T
-                            dowill = true;
-                            dowillType = b;
-                            break;
-                        case (byte) TELNET_DO:
-                            // DO
-                            dowill = true;
-                            dowillType = b;
-                            break;
-                        case (byte) TELNET_DONT:
-                            // DON'T
-                            dowill = true;
-                            dowillType = b;
-                            break;
-                        default:
-                            // This should be equivalent to IAC NOP
-                            break;
-                        }
-                        iac = false;
-                        continue;
+                /*
+                 * All of the regular IAC processing is completed at this
+                 * point.  Now we need to handle the CR and CR LF cases.
+                 *
+                 * According to RFC 854, in NVT ASCII mode:
+                 *     Bare CR -> CR NUL
+                 *     CR LF -> CR LF
+                 *
+                 */
+                if (master.binaryMode == false) {
 
-                    } // if (iac == true)
-
-                    /*
-                     * All of the regular IAC processing is completed at this
-                     * point.  Now we need to handle the CR and CR LF cases.
-                     *
-                     * According to RFC 854, in NVT ASCII mode:
-                     *     Bare CR -> CR NUL
-                     *     CR LF -> CR LF
-                     *
-                     */
-                    if (master.binaryMode == false) {
-
-                        if (b == C_LF) {
-                            if (readCR == true) {
-                                // This is CR LF.  Send CR LF and turn the cr
-                                // flag off.
-                                buf[bufN++] = C_CR;
-                                buf[bufN++] = C_LF;
-                                readCR = false;
-                                continue;
-                            }
-                            // This is bare LF.  Send LF.
+                    if (b == C_LF) {
+                        if (readCR == true) {
+                            // This is CR LF.  Send CR LF and turn the cr
+                            // flag off.
+                            buf[bufN++] = C_CR;
                             buf[bufN++] = C_LF;
+                            readCR = false;
                             continue;
                         }
+                        // This is bare LF.  Send LF.
+                        buf[bufN++] = C_LF;
+                        continue;
+                    }
 
-                        if (b == C_NUL) {
-                            if (readCR == true) {
-                                // This is CR NUL.  Send CR and turn the cr
-                                // flag off.
-                                buf[bufN++] = C_CR;
-                                readCR = false;
-                                continue;
-                            }
-                            // This is bare NUL.  Send NUL.
-                            buf[bufN++] = C_NUL;
-                            continue;
-                        }
-
-                        if (b == C_CR) {
-                            if (readCR == true) {
-                                // This is CR CR.  Send a CR NUL and leave
-                                // the cr flag on.
-                                buf[bufN++] = C_CR;
-                                buf[bufN++] = C_NUL;
-                                continue;
-                            }
-                            // This is the first CR.  Set the cr flag.
-                            readCR = true;
+                    if (b == C_NUL) {
+                        if (readCR == true) {
+                            // This is CR NUL.  Send CR and turn the cr
+                            // flag off.
+                            buf[bufN++] = C_CR;
+                            readCR = false;
                             continue;
                         }
+                        // This is bare NUL.  Send NUL.
+                        buf[bufN++] = C_NUL;
+                        continue;
+                    }
 
+                    if (b == C_CR) {
                         if (readCR == true) {
-                            // This was a bare CR in the stream.
+                            // This is CR CR.  Send a CR NUL and leave
+                            // the cr flag on.
                             buf[bufN++] = C_CR;
-                            readCR = false;
+                            buf[bufN++] = C_NUL;
+                            continue;
                         }
-
-                        // This is a regular character.  Pass it on.
-                        buf[bufN++] = b;
+                        // This is the first CR.  Set the cr flag.
+                        readCR = true;
                         continue;
                     }
 
-                    /*
-                     * This is the case for any of:
-                     *
-                     *     1) A NVT ASCII character that isn't CR, LF, or
-                     *        NUL.
-                     *
-                     *     2) A NVT binary character.
-                     *
-                     * For all of these cases, we just pass the character on.
-                     */
+                    if (readCR == true) {
+                        // This was a bare CR in the stream.
+                        buf[bufN++] = C_CR;
+                        readCR = false;
+                    }
+
+                    // This is a regular character.  Pass it on.
                     buf[bufN++] = b;
+                    continue;
+                }
 
-                } // if (b == TELNET_IAC)
+                /*
+                 * This is the case for any of:
+                 *
+                 *     1) A NVT ASCII character that isn't CR, LF, or
+                 *        NUL.
+                 *
+                 *     2) A NVT binary character.
+                 *
+                 * For all of these cases, we just pass the character on.
+                 */
+                buf[bufN++] = b;
+
+            } // if (b == TELNET_IAC)
+
+        } // for (int i = 0; i < bufferN; i++)
+
+        return (bufN - off);
+    }
+
+    /**
+     * Reads up to len bytes of data from the input stream into an array of
+     * bytes.
+     *
+     * @param buf the buffer into which the data is read.
+     * @param off the start offset in array b at which the data is written.
+     * @param len the maximum number of bytes to read.
+     * @return the total number of bytes read into the buffer, or -1 if there
+     * is no more data because the end of the stream has been reached.
+     * @throws IOException if an I/O error occurs
+     */
+    private int readImpl(final byte[] buf, final int off,
+        final int len) throws IOException {
+
+        assert (len > 0);
+
+        // The current writing position in buf.
+        int bufN = off;
+
+        // We will keep trying to read() until we have something to return.
+        do {
+
+            byte [] buffer = null;
+            if (master.binaryMode) {
+                // Binary mode: read up to len bytes.  There will never be
+                // more bytes to pass upstream than there are bytes on the
+                // wire.
+                buffer = new byte[len];
+            } else {
+                // ASCII mode: read up to len - 2 bytes.  There may have been
+                // some combination of IAC, CR, and NUL from a previous
+                // readImpl() that could result in more bytes to pass up than
+                // are on the wire.
+                buffer = new byte[len - 2];
+            }
+
+            int bufferN = 0;
+
+            // Read some data from the other end
+            int rc = input.read(buffer);
+
+            // Check for EOF or error
+            if (rc > 0) {
+                // More data came in
+                bufferN = rc;
+            } else {
+                // EOF, just return it.
+                return rc;
+            }
 
-            } // for (int i = 0; i < bufferN; i++)
+            // Run it through the telnet protocol
+            bufN += decode(buffer, bufferN, buf, bufN);
 
         } while (bufN == 0);
 
@@ -43,9 +43,9 @@ public class TelnetOutputStream extends OutputStream {
     // ------------------------------------------------------------------------
 
     /**
-     * The root TelnetSocket that has my telnet protocol state.
+     * The telnet protocol options of the connection I belong to.
      */
-    private TelnetSocket master;
+    private TelnetOptions master;
 
     /**
      * The raw socket's OutputStream.
@@ -64,10 +64,10 @@ public class TelnetOutputStream extends OutputStream {
     /**
      * Package private constructor.
      *
-     * @param master the master TelnetSocket
+     * @param master the telnet options of this connection
      * @param output the underlying socket's OutputStream
      */
-    TelnetOutputStream(final TelnetSocket master, final OutputStream output) {
+    TelnetOutputStream(final TelnetOptions master, final OutputStream output) {
         this.master = master;
         this.output = output;
     }
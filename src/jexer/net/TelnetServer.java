@@ -0,0 +1,495 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2019 Kevin Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * TelnetServer serves many telnet sessions from a single thread using a
+ * Selector and non-blocking channels.  Unlike TelnetServerSocket, no
+ * thread is blocked or polling on behalf of an idle connection: user data
+ * is decoded by the server thread and passed directly to each session's
+ * ECMA48Terminal.  Sessions are only looked at between reads when their
+ * terminal is waiting on a timeout, such as a lone ESC keystroke.
+ *
+ * <p>The server thread does all of the socket I/O, but each TApplication
+ * still runs its own main, widget, and screen threads.
+ *
+ * <p>Typical use:
+ *
+ * <pre>
+ * TelnetServer server = new TelnetServer(port,
+ *     new TelnetServer.SessionHandler() {
+ *         public void sessionOpened(final TelnetSession session)
+ *             throws IOException {
+ *
+ *             TApplication app = new MyApplication(session.createBackend());
+ *             (new Thread(app)).start();
+ *         }
+ *     });
+ * server.run();
+ * </pre>
+ */
+public class TelnetServer implements Runnable {
+
+    // ------------------------------------------------------------------------
+    // Constants --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The size of the raw read buffer shared by all sessions.
+     */
+    private static final int READ_BUFFER_SIZE = 4096;
+
+    // ------------------------------------------------------------------------
+    // Variables --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The listening channel.
+     */
+    private ServerSocketChannel serverChannel;
+
+    /**
+     * The selector for the listening channel and all sessions.
+     */
+    private Selector selector;
+
+    /**
+     * The handler told about new sessions.
+     */
+    private SessionHandler handler;
+
+    /**
+     * The open sessions.  This is only accessed by the server thread.
+     */
+    private Set<TelnetSession> sessions = new HashSet<TelnetSession>();
+
+    /**
+     * When sessions next need checkIdle(), soonest first.  Only sessions
+     * whose terminal is waiting on a timeout are here.  An entry whose
+     * time no longer matches its session's getIdleTime() is stale and is
+     * skipped.  This is only accessed by the server thread.
+     */
+    private PriorityQueue<IdleTimeout> idleTimeouts =
+        new PriorityQueue<IdleTimeout>();
+
+    /**
+     * Sessions that other threads have asked the server thread to look at,
+     * because they have output to send or are closing.
+     */
+    private ConcurrentLinkedQueue<TelnetSession> wakeups;
+
+    /**
+     * The raw read buffer shared by all sessions.
+     */
+    private ByteBuffer readBuffer;
+
+    /**
+     * The decoded user data buffer shared by all sessions.
+     */
+    private byte [] userData;
+
+    /**
+     * The thread running run(), or null if it is not running.
+     */
+    private volatile Thread serverThread;
+
+    /**
+     * If true, run() should close everything and return.
+     */
+    private volatile boolean stopped = false;
+
+    // ------------------------------------------------------------------------
+    // Constructors -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a server bound to the specified port on all local addresses.
+     *
+     * @param port the port number, or 0 to use a port number that is
+     * automatically allocated.
+     * @param handler the handler told about new sessions
+     * @throws IOException if an I/O error occurs
+     */
+    public TelnetServer(final int port,
+        final SessionHandler handler) throws IOException {
+
+        this(port, null, handler);
+    }
+
+    /**
+     * Creates a server bound to the specified port and local address.
+     *
+     * @param port the port number, or 0 to use a port number that is
+     * automatically allocated.
+     * @param bindAddr the local InetAddress the server will bind to, or null
+     * for all local addresses
+     * @param handler the handler told about new sessions
+     * @throws IOException if an I/O error occurs
+     */
+    public TelnetServer(final int port, final InetAddress bindAddr,
+        final SessionHandler handler) throws IOException {
+
+        if (handler == null) {
+            throw new IllegalArgumentException("SessionHandler must be " +
+                "specified");
+        }
+        this.handler = handler;
+        wakeups      = new ConcurrentLinkedQueue<TelnetSession>();
+        readBuffer   = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        userData     = new byte[READ_BUFFER_SIZE * 2];
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress(bindAddr, port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    // ------------------------------------------------------------------------
+    // Runnable ---------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Accept connections and perform I/O for all sessions until close() is
+     * called.
+     */
+    public void run() {
+        serverThread = Thread.currentThread();
+        try {
+            while (!stopped) {
+                IdleTimeout next = idleTimeouts.peek();
+                if (next != null) {
+                    long waitMillis = next.time - System.currentTimeMillis();
+                    if (waitMillis > 0) {
+                        selector.select(waitMillis);
+                    } else {
+                        selector.selectNow();
+                    }
+                } else {
+                    selector.select();
+                }
+
+                processWakeups();
+
+                Iterator<SelectionKey> keys;
+                keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    TelnetSession session = (TelnetSession) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            if (!session.read(readBuffer, userData)) {
+                                close(session, true);
+                                continue;
+                            }
+                            scheduleIdle(session);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            if (!session.write()) {
+                                close(session, false);
+                            }
+                        }
+                    } catch (IOException e) {
+                        close(session, true);
+                    }
+                }
+
+                processIdleTimeouts();
+            } // while (!stopped)
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            for (TelnetSession session: new ArrayList<TelnetSession>(
+                    sessions)) {
+
+                close(session, true);
+            }
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                // SQUASH
+            }
+            serverThread = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // TelnetServer -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Get the port this server is listening on.
+     *
+     * @return the local port
+     */
+    public int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Get the number of open sessions.
+     *
+     * @return the number of sessions
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Stop accepting connections, and close all open sessions.  run() will
+     * return shortly after.
+     */
+    public void close() {
+        stopped = true;
+        selector.wakeup();
+    }
+
+    /**
+     * See if the calling thread is the server thread.  Note package private
+     * access.
+     *
+     * @return true if this is the thread running run()
+     */
+    boolean isServerThread() {
+        return (Thread.currentThread() == serverThread);
+    }
+
+    /**
+     * Ask the server thread to look at a session that has pending output
+     * or is closing.  Note package private access.
+     *
+     * @param session the session
+     */
+    void wakeup(final TelnetSession session) {
+        wakeups.add(session);
+        if (!isServerThread()) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Handle the sessions passed to wakeup().
+     */
+    private void processWakeups() {
+        TelnetSession session;
+        while ((session = wakeups.poll()) != null) {
+            if (session.isClosed()) {
+                continue;
+            }
+            try {
+                if (!session.write()) {
+                    close(session, false);
+                }
+            } catch (IOException e) {
+                close(session, true);
+            }
+        }
+    }
+
+    /**
+     * Schedule checkIdle() for a session if its terminal is now waiting on
+     * a timeout.
+     *
+     * @param session the session
+     */
+    private void scheduleIdle(final TelnetSession session) {
+        long time = session.getIdleDeadline();
+        if (time == session.getIdleTime()) {
+            return;
+        }
+        session.setIdleTime(time);
+        if (time != Long.MAX_VALUE) {
+            idleTimeouts.add(new IdleTimeout(session, time));
+        }
+    }
+
+    /**
+     * Call checkIdle() on the sessions whose timeouts have passed.
+     */
+    private void processIdleTimeouts() {
+        long now = System.currentTimeMillis();
+        while ((idleTimeouts.size() > 0)
+            && (idleTimeouts.peek().time <= now)
+        ) {
+            IdleTimeout timeout = idleTimeouts.poll();
+            TelnetSession session = timeout.session;
+            if (session.isClosed()
+                || (session.getIdleTime() != timeout.time)
+            ) {
+                // Closed or rescheduled since.
+                continue;
+            }
+            session.setIdleTime(Long.MAX_VALUE);
+            session.checkIdle();
+            scheduleIdle(session);
+        }
+    }
+
+    /**
+     * Accept a new connection and pass it to the handler.
+     *
+     * @throws IOException if an I/O error occurs on the listening channel
+     */
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        TelnetSession session = null;
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            session = new TelnetSession(this, channel);
+            session.setKey(channel.register(selector, SelectionKey.OP_READ,
+                    session));
+            sessions.add(session);
+            handler.sessionOpened(session);
+        } catch (Exception e) {
+            // Keep serving everyone else.
+            e.printStackTrace();
+            if (session != null) {
+                close(session, true);
+            } else {
+                channel.close();
+            }
+            return;
+        }
+        // Send the telnet options and anything the handler wrote.
+        wakeup(session);
+    }
+
+    /**
+     * Close a session and forget about it.
+     *
+     * @param session the session
+     * @param disconnected if true, the remote side closed the connection
+     */
+    private void close(final TelnetSession session,
+        final boolean disconnected) {
+
+        session.closeChannel(disconnected);
+        sessions.remove(session);
+        session.setIdleTime(Long.MAX_VALUE);
+    }
+
+    // ------------------------------------------------------------------------
+    // IdleTimeout ------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * IdleTimeout is one entry in the idleTimeouts queue.
+     */
+    private static class IdleTimeout implements Comparable<IdleTimeout> {
+
+        /**
+         * The session.
+         */
+        public final TelnetSession session;
+
+        /**
+         * When to call checkIdle(), in millis.
+         */
+        public final long time;
+
+        /**
+         * Public constructor.
+         *
+         * @param session the session
+         * @param time when to call checkIdle()
+         */
+        public IdleTimeout(final TelnetSession session, final long time) {
+            this.session = session;
+            this.time = time;
+        }
+
+        /**
+         * Comparison operator.
+         *
+         * @param that another IdleTimeout instance
+         * @return differences between this.time and that.time
+         */
+        public int compareTo(final IdleTimeout that) {
+            if (time < that.time) {
+                return -1;
+            }
+            if (time > that.time) {
+                return 1;
+            }
+            return 0;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // SessionHandler ---------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * SessionHandler is told about each new connection.
+     */
+    public interface SessionHandler {
+
+        /**
+         * Called on the server thread for each new connection, after the
+         * telnet options have been queued for sending.  This should return
+         * quickly: typically it calls session.createBackend(), passes that
+         * to a new TApplication, and starts the application on its own
+         * thread.
+         *
+         * @param session the new session
+         * @throws IOException if an I/O error occurs
+         */
+        public void sessionOpened(TelnetSession session) throws IOException;
+
+    }
+
+}
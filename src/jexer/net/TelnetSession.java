@@ -0,0 +1,518 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2019 Kevin Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.net;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import jexer.backend.ECMA48Backend;
+import jexer.backend.ECMA48Terminal;
+import jexer.backend.SessionInfo;
+
+/**
+ * TelnetSession is one connection accepted by a TelnetServer.  It performs
+ * the telnet protocol over a non-blocking SocketChannel, and passes the
+ * user data directly to an ECMA48Terminal rather than through an
+ * InputStream and reader thread.
+ */
+public class TelnetSession {
+
+    // ------------------------------------------------------------------------
+    // Constants --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The initial size of the pending output buffer.
+     */
+    private static final int WRITE_BUFFER_SIZE = 4096;
+
+    /**
+     * Threads other than the server thread that write to this session will
+     * block once this many bytes are waiting to be sent to the remote side.
+     */
+    private static final int MAX_PENDING_BYTES = 1024 * 1024;
+
+    // ------------------------------------------------------------------------
+    // Variables --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The server that accepted this session.
+     */
+    private TelnetServer server;
+
+    /**
+     * The non-blocking channel to the remote side.
+     */
+    private SocketChannel channel;
+
+    /**
+     * The key of channel in the server's selector.
+     */
+    private SelectionKey key;
+
+    /**
+     * The negotiated telnet options.
+     */
+    private TelnetOptions options;
+
+    /**
+     * The telnet protocol decoder.  It also holds the window size and
+     * environment reported by the client.
+     */
+    private TelnetInputStream input;
+
+    /**
+     * The telnet-aware OutputStream.
+     */
+    private TelnetOutputStream output;
+
+    /**
+     * The terminal that receives the user data, or null if createBackend()
+     * has not been called.
+     */
+    private ECMA48Terminal terminal;
+
+    /**
+     * Bytes waiting to be sent to the remote side.
+     */
+    private byte [] writeBuffer;
+
+    /**
+     * The number of bytes in writeBuffer.
+     */
+    private int writeBufferN = 0;
+
+    /**
+     * The time the server has scheduled checkIdle() for, or
+     * Long.MAX_VALUE if it is not scheduled.  Only the server thread
+     * touches this.
+     */
+    private long idleTime = Long.MAX_VALUE;
+
+    /**
+     * If true, close the channel once writeBuffer is empty.
+     */
+    private boolean closing = false;
+
+    /**
+     * If true, the channel is closed.
+     */
+    private boolean closed = false;
+
+    // ------------------------------------------------------------------------
+    // Constructors -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Package private constructor, used by TelnetServer.
+     *
+     * @param server the server that accepted this session
+     * @param channel the non-blocking channel to the remote side
+     * @throws IOException if an I/O error occurs
+     */
+    TelnetSession(final TelnetServer server,
+        final SocketChannel channel) throws IOException {
+
+        this.server  = server;
+        this.channel = channel;
+        writeBuffer  = new byte[WRITE_BUFFER_SIZE];
+        options      = new TelnetOptions();
+        output       = new TelnetOutputStream(options,
+            new ChannelOutputStream());
+        input        = new TelnetInputStream(options, null, output);
+        input.telnetSendOptions();
+    }
+
+    // ------------------------------------------------------------------------
+    // TelnetSession ----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Get the session information reported by the client: terminal type,
+     * window size, username, and language.
+     *
+     * @return the session information
+     */
+    public SessionInfo getSessionInfo() {
+        return input;
+    }
+
+    /**
+     * Get the telnet-aware OutputStream for this session.
+     *
+     * @return the output stream
+     */
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    /**
+     * Get the address of the remote side.
+     *
+     * @return the remote address
+     */
+    public SocketAddress getRemoteAddress() {
+        return channel.socket().getRemoteSocketAddress();
+    }
+
+    /**
+     * See if telnet server/client is in ASCII mode.
+     *
+     * @return if true, this connection is in ASCII mode
+     */
+    public boolean isAscii() {
+        return (!options.binaryMode);
+    }
+
+    /**
+     * See if this session has been closed.
+     *
+     * @return true if the session is closed
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Create a backend for this session.  User data from the remote side
+     * will be passed to its terminal by the TelnetServer thread.  Pass the
+     * backend to the TApplication constructor.
+     *
+     * @return the new backend
+     * @throws UnsupportedEncodingException if an exception is thrown when
+     * creating the terminal
+     */
+    public ECMA48Backend createBackend() throws UnsupportedEncodingException {
+        if (terminal != null) {
+            throw new IllegalStateException("Backend was already created");
+        }
+        ECMA48Terminal newTerminal = new ECMA48Terminal(input, output);
+        terminal = newTerminal;
+        return new ECMA48Backend(newTerminal);
+    }
+
+    /**
+     * Close this session.  Output already written is sent to the remote
+     * side first.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed || closing) {
+                return;
+            }
+            closing = true;
+        }
+        server.wakeup(this);
+    }
+
+    /**
+     * Make human-readable description of this TelnetSession.
+     *
+     * @return displayable String
+     */
+    @Override
+    public String toString() {
+        return String.format("TelnetSession[%s, %d bytes pending%s]",
+            getRemoteAddress(), writeBufferN, (closed ? ", closed" : ""));
+    }
+
+    /**
+     * Set the key of this session in the server's selector.  Note package
+     * private access.
+     *
+     * @param key the selection key
+     */
+    void setKey(final SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Read bytes from the channel and pass the user data to the terminal.
+     * Note package private access, this is only called by the server
+     * thread.
+     *
+     * @param readBuffer the buffer to read raw bytes into
+     * @param userData the buffer to decode user data into.  It must be at
+     * least twice the size of readBuffer.
+     * @return false if the remote side closed the connection
+     * @throws IOException if an I/O error occurs
+     */
+    boolean read(final ByteBuffer readBuffer,
+        final byte [] userData) throws IOException {
+
+        readBuffer.clear();
+        int rc = channel.read(readBuffer);
+        if (rc < 0) {
+            return false;
+        }
+        if (rc > 0) {
+            int n = input.decode(readBuffer.array(), rc, userData, 0);
+            if ((n > 0) && (terminal != null)) {
+                terminal.addInput(userData, 0, n);
+            }
+            // Send any option negotiation responses.
+            output.flush();
+        }
+        return true;
+    }
+
+    /**
+     * Process timeouts in the terminal.  Note package private access, this
+     * is only called by the server thread.
+     */
+    void checkIdle() {
+        if (terminal != null) {
+            terminal.checkIdle();
+        }
+    }
+
+    /**
+     * Get the time the terminal next needs checkIdle().  Note package
+     * private access, this is only called by the server thread.
+     *
+     * @return the time in millis, or Long.MAX_VALUE if nothing is waiting
+     * on a timeout
+     */
+    long getIdleDeadline() {
+        if (terminal != null) {
+            return terminal.getIdleDeadline();
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Get the time the server has scheduled checkIdle() for.  Note package
+     * private access.
+     *
+     * @return the time in millis, or Long.MAX_VALUE if not scheduled
+     */
+    long getIdleTime() {
+        return idleTime;
+    }
+
+    /**
+     * Set the time the server has scheduled checkIdle() for.  Note package
+     * private access.
+     *
+     * @param idleTime the time in millis, or Long.MAX_VALUE if not
+     * scheduled
+     */
+    void setIdleTime(final long idleTime) {
+        this.idleTime = idleTime;
+    }
+
+    /**
+     * Send pending bytes to the remote side and update the selection key.
+     * Note package private access, this is only called by the server
+     * thread.
+     *
+     * @return false if the session should be closed now
+     * @throws IOException if an I/O error occurs
+     */
+    synchronized boolean write() throws IOException {
+        if (closed) {
+            return false;
+        }
+        try {
+            writeChannel();
+        } finally {
+            notifyAll();
+        }
+        if (writeBufferN > 0) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            return true;
+        }
+        if (writeBuffer.length > WRITE_BUFFER_SIZE) {
+            // Don't keep a large buffer around for an idle session.
+            writeBuffer = new byte[WRITE_BUFFER_SIZE];
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        return !closing;
+    }
+
+    /**
+     * Close the channel.  Note package private access, this is only called
+     * by the server thread.
+     *
+     * @param disconnected if true, the remote side closed the connection
+     * and the terminal is told about it
+     */
+    void closeChannel(final boolean disconnected) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            writeBufferN = 0;
+            notifyAll();
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // SQUASH
+        }
+        if (disconnected && (terminal != null)) {
+            terminal.inputClosed();
+        }
+    }
+
+    /**
+     * Write as much of writeBuffer to the channel as it will take without
+     * blocking.  The caller must hold the lock on this session.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeChannel() throws IOException {
+        if (writeBufferN == 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(writeBuffer, 0, writeBufferN);
+        channel.write(buffer);
+        int n = buffer.remaining();
+        if (n > 0) {
+            System.arraycopy(writeBuffer, buffer.position(), writeBuffer, 0,
+                n);
+        }
+        writeBufferN = n;
+    }
+
+    // ------------------------------------------------------------------------
+    // ChannelOutputStream ----------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * ChannelOutputStream collects bytes for the non-blocking channel.
+     * flush() sends what the channel will take immediately, and leaves the
+     * rest for the server thread.
+     */
+    private class ChannelOutputStream extends OutputStream {
+
+        /**
+         * Writes the specified byte to this output stream.
+         *
+         * @param b the byte to write.
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void write(final int b) throws IOException {
+            byte [] bytes = new byte[1];
+            bytes[0] = (byte) b;
+            write(bytes, 0, 1);
+        }
+
+        /**
+         * Writes len bytes from the specified byte array starting at offset
+         * off to this output stream.
+         *
+         * @param b the data.
+         * @param off the start offset in the data.
+         * @param len the number of bytes to write.
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void write(final byte[] b, final int off,
+            final int len) throws IOException {
+
+            synchronized (TelnetSession.this) {
+                if (closed || closing) {
+                    throw new IOException("Session is closed");
+                }
+                if (writeBufferN + len > writeBuffer.length) {
+                    byte [] newBuffer = new byte[Math.max(writeBuffer.length
+                            * 2, writeBufferN + len)];
+                    System.arraycopy(writeBuffer, 0, newBuffer, 0,
+                        writeBufferN);
+                    writeBuffer = newBuffer;
+                }
+                System.arraycopy(b, off, writeBuffer, writeBufferN, len);
+                writeBufferN += len;
+            }
+        }
+
+        /**
+         * Send what the channel will take now, and have the server thread
+         * send the rest.  Threads other than the server thread will wait
+         * here if the remote side is too far behind.
+         *
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void flush() throws IOException {
+            synchronized (TelnetSession.this) {
+                if (closed) {
+                    throw new IOException("Session is closed");
+                }
+                if ((writeBufferN == 0) || (key == null)) {
+                    // The server thread will flush when the channel is
+                    // registered.
+                    return;
+                }
+                writeChannel();
+                if (writeBufferN == 0) {
+                    return;
+                }
+            }
+            server.wakeup(TelnetSession.this);
+            if (server.isServerThread()) {
+                return;
+            }
+            synchronized (TelnetSession.this) {
+                while ((writeBufferN > MAX_PENDING_BYTES) && !closed) {
+                    try {
+                        TelnetSession.this.wait();
+                    } catch (InterruptedException e) {
+                        // SQUASH
+                    }
+                }
+                if (closed) {
+                    throw new IOException("Session is closed");
+                }
+            }
+        }
+
+        /**
+         * Close the session once the pending output is sent.
+         */
+        @Override
+        public void close() {
+            TelnetSession.this.close();
+        }
+
+    }
+
+}
@@ -28,6 +28,7 @@
  */
 
 /**
- * A Telnet-aware ServerSocket that establishes an 8-bit clean data channel.
+ * A Telnet-aware ServerSocket, and a Selector-based TelnetServer, that
+ * establish an 8-bit clean data channel.
  */
 package jexer.net;
@@ -28,8 +28,12 @@
  */
 package jexer.tterminal;
 
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+
 import jexer.bits.Cell;
 import jexer.bits.CellAttributes;
+import jexer.bits.Color;
 
 /**
  * This represents a single line of the display buffer.
@@ -45,15 +49,57 @@ public class DisplayLine {
      */
     private static final int MAX_LINE_LENGTH = 256;
 
+    /**
+     * The Colors in the order of their SGR values, used to read back
+     * serialized lines.
+     */
+    private static final Color [] COLORS = {
+        Color.BLACK, Color.RED, Color.GREEN, Color.YELLOW,
+        Color.BLUE, Color.MAGENTA, Color.CYAN, Color.WHITE,
+    };
+
+    /**
+     * The number of bytes one serialized CellAttributes takes.
+     */
+    private static final int ATTR_BYTES = 11;
+
+    /**
+     * The Cell.Width values, indexed by ordinal.
+     */
+    private static final Cell.Width [] WIDTHS = Cell.Width.values();
+
     // ------------------------------------------------------------------------
     // Variables --------------------------------------------------------------
     // ------------------------------------------------------------------------
 
     /**
-     * The characters/attributes of the line.
+     * The characters/attributes of the line, or null if the line is
+     * compacted.
      */
     private Cell [] chars;
 
+    /**
+     * When compacted, the characters of the line up to the trailing
+     * blanks.  Each is a code point, with the ordinal of the Cell.Width in
+     * the top byte.
+     */
+    private int [] codes;
+
+    /**
+     * When compacted, the attributes of each run of cells.
+     */
+    private CellAttributes [] runAttrs;
+
+    /**
+     * When compacted, the index just past the end of each run of cells.
+     */
+    private int [] runEnds;
+
+    /**
+     * When compacted, the attributes of the blanks past the end of codes.
+     */
+    private CellAttributes fillAttr;
+
     /**
      * Double-width line flag.
      */
@@ -76,6 +122,13 @@ public class DisplayLine {
      */
     private boolean reverseColor = false;
 
+    /**
+     * Incremented every time this line is changed through one of its
+     * methods.  Changes made through the Cell returned by charAt() are not
+     * counted.
+     */
+    private int generation = 0;
+
     // ------------------------------------------------------------------------
     // Constructors -----------------------------------------------------------
     // ------------------------------------------------------------------------
@@ -86,15 +139,26 @@ public class DisplayLine {
      * @param line the line to duplicate
      */
     public DisplayLine(final DisplayLine line) {
-        chars = new Cell[MAX_LINE_LENGTH];
-        for (int i = 0; i < chars.length; i++) {
-            chars[i] = new Cell(line.chars[i]);
+        if (line.chars == null) {
+            chars = line.expand();
+        } else {
+            chars = new Cell[MAX_LINE_LENGTH];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = new Cell(line.chars[i]);
+            }
         }
         doubleWidth = line.doubleWidth;
         doubleHeight = line.doubleHeight;
         reverseColor = line.reverseColor;
     }
 
+    /**
+     * Private constructor used by readFrom().
+     */
+    private DisplayLine() {
+        // NOP
+    }
+
     /**
      * Public constructor sets everything to drawing attributes.
      *
@@ -118,6 +182,9 @@ public class DisplayLine {
      * @return the Cell
      */
     public Cell charAt(final int idx) {
+        if (chars == null) {
+            inflate();
+        }
         return chars[idx];
     }
 
@@ -127,7 +194,7 @@ public class DisplayLine {
      * @return line length
      */
     public int length() {
-        return chars.length;
+        return MAX_LINE_LENGTH;
     }
 
     /**
@@ -146,6 +213,7 @@ public class DisplayLine {
      */
     public void setDoubleWidth(final boolean doubleWidth) {
         this.doubleWidth = doubleWidth;
+        generation++;
     }
 
     /**
@@ -164,6 +232,7 @@ public class DisplayLine {
      */
     public void setDoubleHeight(final int doubleHeight) {
         this.doubleHeight = doubleHeight;
+        generation++;
     }
 
     /**
@@ -182,6 +251,7 @@ public class DisplayLine {
      */
     public void setReverseColor(final boolean reverseColor) {
         this.reverseColor = reverseColor;
+        generation++;
     }
 
     /**
@@ -191,8 +261,12 @@ public class DisplayLine {
      * @param newCell the new Cell
      */
     public void insert(final int idx, final Cell newCell) {
+        if (chars == null) {
+            inflate();
+        }
         System.arraycopy(chars, idx, chars, idx + 1, chars.length - idx - 1);
         chars[idx] = new Cell(newCell);
+        generation++;
     }
 
     /**
@@ -202,7 +276,36 @@ public class DisplayLine {
      * @param newCell the new Cell
      */
     public void replace(final int idx, final Cell newCell) {
+        if (chars == null) {
+            inflate();
+        }
         chars[idx].setTo(newCell);
+        generation++;
+    }
+
+    /**
+     * Replace a run of characters starting at the specified position, all
+     * with the same attributes.
+     *
+     * @param idx the character index of the first character
+     * @param codePoints the new characters
+     * @param offset the index in codePoints of the first character
+     * @param count the number of characters to replace
+     * @param attr the attributes of the new characters
+     */
+    public void replace(final int idx, final int [] codePoints,
+        final int offset, final int count, final CellAttributes attr) {
+
+        if (chars == null) {
+            inflate();
+        }
+        for (int i = 0; i < count; i++) {
+            Cell cell = chars[idx + i];
+            cell.reset();
+            cell.setTo(attr);
+            cell.setChar(codePoints[offset + i]);
+        }
+        generation++;
     }
 
     /**
@@ -211,7 +314,11 @@ public class DisplayLine {
      * @param idx the character index
      */
     public void setBlank(final int idx) {
+        if (chars == null) {
+            inflate();
+        }
         chars[idx].reset();
+        generation++;
     }
 
     /**
@@ -222,7 +329,11 @@ public class DisplayLine {
      * @param ch the new char
      */
     public void setChar(final int idx, final int ch) {
+        if (chars == null) {
+            inflate();
+        }
         chars[idx].setChar(ch);
+        generation++;
     }
 
     /**
@@ -233,7 +344,11 @@ public class DisplayLine {
      * @param attr the new attributes
      */
     public void setAttr(final int idx, final CellAttributes attr) {
+        if (chars == null) {
+            inflate();
+        }
         chars[idx].setAttr(attr);
+        generation++;
     }
 
     /**
@@ -244,8 +359,66 @@ public class DisplayLine {
      * @param newCell the new Cell
      */
     public void delete(final int idx, final Cell newCell) {
+        if (chars == null) {
+            inflate();
+        }
         System.arraycopy(chars, idx + 1, chars, idx, chars.length - idx - 1);
         chars[chars.length - 1] = new Cell(newCell);
+        generation++;
+    }
+
+    /**
+     * Get the generation of this line.  If a line has the same generation
+     * as it did earlier, it has not been changed through its methods.
+     *
+     * @return the generation
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Make this line a copy of another line, reusing this line's cells.
+     *
+     * @param line the line to copy
+     */
+    public void setTo(final DisplayLine line) {
+        if (chars == null) {
+            inflate();
+        }
+        if (line.chars == null) {
+            line.expandInto(chars);
+        } else {
+            for (int i = 0; i < chars.length; i++) {
+                chars[i].setTo(line.chars[i]);
+            }
+        }
+        doubleWidth = line.doubleWidth;
+        doubleHeight = line.doubleHeight;
+        reverseColor = line.reverseColor;
+        generation++;
+    }
+
+    /**
+     * Make this line blank, reusing this line's cells.
+     *
+     * @param attr the attributes of the blanks
+     */
+    public void reset(final CellAttributes attr) {
+        if (chars == null) {
+            inflate();
+        }
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i].isImage()) {
+                chars[i].reset();
+            }
+            chars[i].setTo(attr);
+            chars[i].setChar(' ');
+        }
+        doubleWidth = false;
+        doubleHeight = 0;
+        reverseColor = false;
+        generation++;
     }
 
     /**
@@ -254,6 +427,9 @@ public class DisplayLine {
      * @return true if the line has image data
      */
     public boolean isImage() {
+        if (chars == null) {
+            return false;
+        }
         for (int i = 0; i < chars.length; i++) {
             if (chars[i].isImage()) {
                 return true;
@@ -266,11 +442,331 @@ public class DisplayLine {
      * Clear image data from line.
      */
     public void clearImages() {
+        if (chars == null) {
+            return;
+        }
         for (int i = 0; i < chars.length; i++) {
             if (chars[i].isImage()) {
                 chars[i].reset();
+                generation++;
+            }
+        }
+    }
+
+    /**
+     * Get the number of bytes of pixel data held by the images on this
+     * line, counting four bytes per pixel.
+     *
+     * @return the number of bytes
+     */
+    public long getImageBytes() {
+        long bytes = 0;
+        if (chars == null) {
+            return bytes;
+        }
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i].isImage()) {
+                BufferedImage image = chars[i].getImage();
+                bytes += (long) image.getWidth() * image.getHeight() * 4;
             }
         }
+        return bytes;
+    }
+
+    /**
+     * Replace image data on this line with text that approximates it: a
+     * half block per cell, colored with the average of the top and bottom
+     * halves of the image.
+     *
+     * @return the number of cells that were replaced
+     */
+    public int imagesToPlaceholders() {
+        int count = 0;
+        if (chars == null) {
+            return count;
+        }
+        for (int i = 0; i < chars.length; i++) {
+            Cell cell = chars[i];
+            if (!cell.isImage()) {
+                continue;
+            }
+            BufferedImage image = cell.getImage();
+            int half = image.getHeight() / 2;
+            int top = averageColor(image, 0, half);
+            int bottom = averageColor(image, half, image.getHeight());
+            cell.reset();
+            if ((top != -1) && (bottom != -1)) {
+                cell.setChar(0x2580);
+                cell.setForeColorRGB(top);
+                cell.setBackColorRGB(bottom);
+            } else if (top != -1) {
+                cell.setChar(0x2580);
+                cell.setForeColorRGB(top);
+            } else if (bottom != -1) {
+                cell.setChar(0x2584);
+                cell.setForeColorRGB(bottom);
+            }
+            count++;
+            generation++;
+        }
+        return count;
+    }
+
+    /**
+     * Whether or not this line is compacted.
+     *
+     * @return true if the line is held in its compact form
+     */
+    public boolean isCompact() {
+        return (chars == null);
+    }
+
+    /**
+     * Switch this line to a compact form: the characters in a primitive
+     * array with trailing blanks trimmed, and one set of attributes per run
+     * of cells.  Lines with image data are left alone.  The line is
+     * inflated again the next time one of its cells is asked for.
+     *
+     * @return true if the line is compacted
+     */
+    public boolean compact() {
+        if (chars == null) {
+            return true;
+        }
+        if (isImage()) {
+            return false;
+        }
+
+        // Trim the blanks on the right that match the last cell.
+        fillAttr = new CellAttributes(chars[chars.length - 1]);
+        int end = chars.length;
+        while ((end > 0)
+            && (chars[end - 1].getChar() == ' ')
+            && (chars[end - 1].getWidth() == Cell.Width.SINGLE)
+            && fillAttr.equals(chars[end - 1])
+        ) {
+            end--;
+        }
+
+        codes = new int[end];
+        CellAttributes [] attrs = new CellAttributes[end];
+        int [] ends = new int[end];
+        int runs = 0;
+        for (int i = 0; i < end; i++) {
+            codes[i] = chars[i].getChar()
+                | (chars[i].getWidth().ordinal() << 24);
+            if ((runs == 0) || !attrs[runs - 1].equals(chars[i])) {
+                attrs[runs] = new CellAttributes(chars[i]);
+                runs++;
+            }
+            ends[runs - 1] = i + 1;
+        }
+        runAttrs = new CellAttributes[runs];
+        System.arraycopy(attrs, 0, runAttrs, 0, runs);
+        runEnds = new int[runs];
+        System.arraycopy(ends, 0, runEnds, 0, runs);
+        if ((runs > 0) && fillAttr.equals(runAttrs[runs - 1])) {
+            fillAttr = runAttrs[runs - 1];
+        }
+        chars = null;
+        return true;
+    }
+
+    /**
+     * Get the number of bytes writeTo() will use for this line.
+     *
+     * @return the number of bytes
+     * @throws IllegalStateException if the line is not compacted
+     */
+    public int getSerializedSize() {
+        if (chars != null) {
+            throw new IllegalStateException("Line is not compacted");
+        }
+        return 10 + ATTR_BYTES + (runEnds.length * (4 + ATTR_BYTES))
+            + (codes.length * 4);
+    }
+
+    /**
+     * Write a compacted line to a buffer.
+     *
+     * @param buffer the buffer, which must have getSerializedSize() bytes
+     * remaining
+     * @throws IllegalStateException if the line is not compacted
+     */
+    public void writeTo(final ByteBuffer buffer) {
+        if (chars != null) {
+            throw new IllegalStateException("Line is not compacted");
+        }
+        buffer.putInt(codes.length);
+        buffer.putInt(runEnds.length);
+        buffer.put((byte) ((doubleWidth ? 0x01 : 0)
+                | (reverseColor ? 0x02 : 0)));
+        buffer.put((byte) doubleHeight);
+        writeAttr(buffer, fillAttr);
+        for (int i = 0; i < runEnds.length; i++) {
+            buffer.putInt(runEnds[i]);
+            writeAttr(buffer, runAttrs[i]);
+        }
+        for (int i = 0; i < codes.length; i++) {
+            buffer.putInt(codes[i]);
+        }
+    }
+
+    /**
+     * Read a line written by writeTo().  The line is returned compacted.
+     *
+     * @param buffer the buffer, positioned at the start of the line
+     * @return the line
+     */
+    public static DisplayLine readFrom(final ByteBuffer buffer) {
+        DisplayLine line = new DisplayLine();
+        int codesLength = buffer.getInt();
+        int runs = buffer.getInt();
+        int flags = buffer.get();
+        line.doubleWidth = ((flags & 0x01) != 0);
+        line.reverseColor = ((flags & 0x02) != 0);
+        line.doubleHeight = buffer.get();
+        line.fillAttr = readAttr(buffer);
+        line.runEnds = new int[runs];
+        line.runAttrs = new CellAttributes[runs];
+        for (int i = 0; i < runs; i++) {
+            line.runEnds[i] = buffer.getInt();
+            line.runAttrs[i] = readAttr(buffer);
+        }
+        line.codes = new int[codesLength];
+        for (int i = 0; i < codesLength; i++) {
+            line.codes[i] = buffer.getInt();
+        }
+        return line;
+    }
+
+    /**
+     * Write attributes to a buffer in ATTR_BYTES bytes.
+     *
+     * @param buffer the buffer
+     * @param attr the attributes
+     */
+    private static void writeAttr(final ByteBuffer buffer,
+        final CellAttributes attr) {
+
+        buffer.put((byte) ((attr.isBold() ? 0x01 : 0)
+                | (attr.isBlink() ? 0x02 : 0)
+                | (attr.isReverse() ? 0x04 : 0)
+                | (attr.isUnderline() ? 0x08 : 0)
+                | (attr.isProtect() ? 0x10 : 0)));
+        buffer.put((byte) attr.getForeColor().getValue());
+        buffer.put((byte) attr.getBackColor().getValue());
+        buffer.putInt(attr.getForeColorRGB());
+        buffer.putInt(attr.getBackColorRGB());
+    }
+
+    /**
+     * Read attributes written by writeAttr().
+     *
+     * @param buffer the buffer
+     * @return the attributes
+     */
+    private static CellAttributes readAttr(final ByteBuffer buffer) {
+        CellAttributes attr = new CellAttributes();
+        int flags = buffer.get();
+        attr.setBold((flags & 0x01) != 0);
+        attr.setBlink((flags & 0x02) != 0);
+        attr.setReverse((flags & 0x04) != 0);
+        attr.setUnderline((flags & 0x08) != 0);
+        attr.setProtect((flags & 0x10) != 0);
+        attr.setForeColor(COLORS[buffer.get()]);
+        attr.setBackColor(COLORS[buffer.get()]);
+        attr.setForeColorRGB(buffer.getInt());
+        attr.setBackColorRGB(buffer.getInt());
+        return attr;
+    }
+
+    /**
+     * Switch this line back to one Cell per column.
+     */
+    private void inflate() {
+        chars = expand();
+        codes = null;
+        runAttrs = null;
+        runEnds = null;
+        fillAttr = null;
+    }
+
+    /**
+     * Make the cells of a compacted line.
+     *
+     * @return new cells
+     */
+    private Cell [] expand() {
+        Cell [] cells = new Cell[MAX_LINE_LENGTH];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = new Cell();
+        }
+        expandInto(cells);
+        return cells;
+    }
+
+    /**
+     * Set existing cells to the cells of a compacted line.
+     *
+     * @param cells the cells to set
+     */
+    private void expandInto(final Cell [] cells) {
+        assert (chars == null);
+
+        int i = 0;
+        for (int run = 0; run < runEnds.length; run++) {
+            for (; i < runEnds[run]; i++) {
+                if (cells[i].isImage()) {
+                    cells[i].reset();
+                }
+                cells[i].setTo(runAttrs[run]);
+                cells[i].setChar(codes[i] & 0xFFFFFF);
+                cells[i].setWidth(WIDTHS[codes[i] >>> 24]);
+            }
+        }
+        for (; i < cells.length; i++) {
+            if (cells[i].isImage()) {
+                cells[i].reset();
+            }
+            cells[i].setTo(fillAttr);
+            cells[i].setChar(' ');
+        }
+    }
+
+    /**
+     * Average the opaque pixels of some rows of an image.
+     *
+     * @param image the image
+     * @param y0 the first row, inclusive
+     * @param y1 the last row, exclusive
+     * @return the average color as RGB, or -1 if the rows are mostly
+     * transparent
+     */
+    private static int averageColor(final BufferedImage image, final int y0,
+        final int y1) {
+
+        long red = 0;
+        long green = 0;
+        long blue = 0;
+        long alpha = 0;
+        int pixels = 0;
+        for (int y = y0; y < y1; y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int argb = image.getRGB(x, y);
+                int a = (argb >>> 24) & 0xFF;
+                red += ((argb >>> 16) & 0xFF) * a;
+                green += ((argb >>> 8) & 0xFF) * a;
+                blue += (argb & 0xFF) * a;
+                alpha += a;
+                pixels++;
+            }
+        }
+        if ((pixels == 0) || (alpha * 2 < pixels * 0xFF)) {
+            return -1;
+        }
+        return (int) (((red / alpha) << 16) | ((green / alpha) << 8)
+            | (blue / alpha));
     }
 
 }
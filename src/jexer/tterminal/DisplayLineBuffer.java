@@ -0,0 +1,207 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2019 Kevin Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.tterminal;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * DisplayLineBuffer is a list of DisplayLines stored in a circular array,
+ * so that lines can be added at the bottom and retired from the top
+ * without moving the lines in between.
+ */
+public class DisplayLineBuffer extends AbstractList<DisplayLine>
+                               implements RandomAccess {
+
+    // ------------------------------------------------------------------------
+    // Variables --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The lines.  The length is always a power of two.
+     */
+    private DisplayLine [] lines;
+
+    /**
+     * The index in lines of the first line.
+     */
+    private int head = 0;
+
+    /**
+     * The number of lines.
+     */
+    private int size = 0;
+
+    // ------------------------------------------------------------------------
+    // Constructors -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Public constructor.
+     */
+    public DisplayLineBuffer() {
+        lines = new DisplayLine[16];
+    }
+
+    // ------------------------------------------------------------------------
+    // AbstractList -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Get the line at a position.
+     *
+     * @param index the position, 0 is the top line
+     * @return the line
+     */
+    @Override
+    public DisplayLine get(final int index) {
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException("Index: " + index +
+                ", Size: " + size);
+        }
+        return lines[(head + index) & (lines.length - 1)];
+    }
+
+    /**
+     * Replace the line at a position.
+     *
+     * @param index the position, 0 is the top line
+     * @param line the new line
+     * @return the line that was there
+     */
+    @Override
+    public DisplayLine set(final int index, final DisplayLine line) {
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException("Index: " + index +
+                ", Size: " + size);
+        }
+        int i = (head + index) & (lines.length - 1);
+        DisplayLine oldLine = lines[i];
+        lines[i] = line;
+        return oldLine;
+    }
+
+    /**
+     * Get the number of lines.
+     *
+     * @return the number of lines
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Add a line at a position.  Adding at the top or bottom does not move
+     * any other lines.
+     *
+     * @param index the position, 0 is the top line
+     * @param line the new line
+     */
+    @Override
+    public void add(final int index, final DisplayLine line) {
+        if ((index < 0) || (index > size)) {
+            throw new IndexOutOfBoundsException("Index: " + index +
+                ", Size: " + size);
+        }
+        if (size == lines.length) {
+            grow();
+        }
+        int mask = lines.length - 1;
+        if (index == 0) {
+            head = (head - 1) & mask;
+        } else {
+            for (int i = size; i > index; i--) {
+                lines[(head + i) & mask] = lines[(head + i - 1) & mask];
+            }
+        }
+        lines[(head + index) & mask] = line;
+        size++;
+        modCount++;
+    }
+
+    /**
+     * Remove the line at a position.  Removing from the top or bottom does
+     * not move any other lines.
+     *
+     * @param index the position, 0 is the top line
+     * @return the line that was removed
+     */
+    @Override
+    public DisplayLine remove(final int index) {
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException("Index: " + index +
+                ", Size: " + size);
+        }
+        int mask = lines.length - 1;
+        DisplayLine line = lines[(head + index) & mask];
+        if (index == 0) {
+            lines[head] = null;
+            head = (head + 1) & mask;
+        } else {
+            for (int i = index; i < size - 1; i++) {
+                lines[(head + i) & mask] = lines[(head + i + 1) & mask];
+            }
+            lines[(head + size - 1) & mask] = null;
+        }
+        size--;
+        modCount++;
+        return line;
+    }
+
+    /**
+     * Remove all of the lines.
+     */
+    @Override
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            lines[(head + i) & (lines.length - 1)] = null;
+        }
+        head = 0;
+        size = 0;
+        modCount++;
+    }
+
+    // ------------------------------------------------------------------------
+    // DisplayLineBuffer ------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Double the room for lines, unwrapping them to start at 0.
+     */
+    private void grow() {
+        DisplayLine [] newLines = new DisplayLine[lines.length * 2];
+        int first = Math.min(size, lines.length - head);
+        System.arraycopy(lines, head, newLines, 0, first);
+        System.arraycopy(lines, 0, newLines, first, size - first);
+        lines = newLines;
+        head = 0;
+    }
+
+}
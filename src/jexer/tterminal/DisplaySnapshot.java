@@ -0,0 +1,292 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2019 Kevin Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.tterminal;
+
+import jexer.bits.CellAttributes;
+
+/**
+ * DisplaySnapshot is a private copy of the visible window of an ECMA48
+ * display.  It is refreshed with ECMA48.updateVisibleDisplay(), which only
+ * copies lines that were changed, moved into view, or scrolled; lines
+ * that merely moved to another row keep their copy.  Refreshing an
+ * unchanged display allocates nothing.
+ */
+public class DisplaySnapshot {
+
+    // ------------------------------------------------------------------------
+    // Variables --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The copies of the visible lines.
+     */
+    private DisplayLine [] lines = new DisplayLine[0];
+
+    /**
+     * The emulator line each copy was made from, or null for a blank line.
+     */
+    private DisplayLine [] sources = new DisplayLine[0];
+
+    /**
+     * The generation of each source line when it was copied.
+     */
+    private int [] generations = new int[0];
+
+    /**
+     * The attributes of each blank line.
+     */
+    private CellAttributes [] blankAttrs = new CellAttributes[0];
+
+    /**
+     * The lines being brought into view by the current update.
+     */
+    private DisplayLine [] pending = new DisplayLine[0];
+
+    /**
+     * Scratch space for the update.
+     */
+    private DisplayLine [] newLines = new DisplayLine[0];
+
+    /**
+     * Scratch space for the update.
+     */
+    private int [] newGenerations = new int[0];
+
+    /**
+     * Scratch space for the update.
+     */
+    private CellAttributes [] newBlankAttrs = new CellAttributes[0];
+
+    /**
+     * Scratch space for the update: which old copies have been reused.
+     */
+    private boolean [] used = new boolean[0];
+
+    /**
+     * The number of lines copied by the last update.
+     */
+    private int copied = 0;
+
+    // ------------------------------------------------------------------------
+    // DisplaySnapshot --------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Get the number of rows.
+     *
+     * @return the number of rows
+     */
+    public int size() {
+        return lines.length;
+    }
+
+    /**
+     * Get the line at a row.  The line belongs to this snapshot and must
+     * not be changed.
+     *
+     * @param row the row, 0 is the top
+     * @return the line
+     */
+    public DisplayLine getLine(final int row) {
+        return lines[row];
+    }
+
+    /**
+     * Get the number of lines copied by the last update.
+     *
+     * @return 0 if the last update found nothing had changed
+     */
+    public int getCopiedLines() {
+        return copied;
+    }
+
+    /**
+     * Start an update.
+     *
+     * @param height the number of rows
+     */
+    void begin(final int height) {
+        if (pending.length != height) {
+            pending = new DisplayLine[height];
+            newLines = new DisplayLine[height];
+            newGenerations = new int[height];
+            newBlankAttrs = new CellAttributes[height];
+        }
+        if (used.length < lines.length) {
+            used = new boolean[lines.length];
+        }
+        for (int i = 0; i < lines.length; i++) {
+            used[i] = false;
+        }
+    }
+
+    /**
+     * Set the emulator line for a row of the update.
+     *
+     * @param row the row, 0 is the top
+     * @param line the line, or null for a blank line
+     */
+    void setSource(final int row, final DisplayLine line) {
+        pending[row] = line;
+    }
+
+    /**
+     * Finish an update, copying what has changed.
+     *
+     * @param blankAttr the attributes to use for blank lines
+     * @return true if any row is different from the previous update
+     */
+    boolean commit(final CellAttributes blankAttr) {
+        int height = pending.length;
+        boolean changed = (height != lines.length);
+        copied = 0;
+
+        // First reuse the copies of lines that are still in view, wherever
+        // they are now.  Output usually scrolls everything by the same
+        // amount, so look at the same offset as the last match first.
+        int delta = 0;
+        for (int row = 0; row < height; row++) {
+            newLines[row] = null;
+            DisplayLine source = pending[row];
+            int old = findOld(source, blankAttr, row + delta);
+            if (old == -1) {
+                changed = true;
+                continue;
+            }
+            used[old] = true;
+            delta = old - row;
+            if (old != row) {
+                changed = true;
+            }
+            newLines[row] = lines[old];
+            newBlankAttrs[row] = blankAttrs[old];
+            newGenerations[row] = generations[old];
+            if ((source != null)
+                && (generations[old] != source.getGeneration())
+            ) {
+                newLines[row].setTo(source);
+                newGenerations[row] = source.getGeneration();
+                copied++;
+                changed = true;
+            }
+        }
+
+        // Then fill in the rest, recycling copies no longer in view.
+        int free = 0;
+        for (int row = 0; row < height; row++) {
+            if (newLines[row] != null) {
+                continue;
+            }
+            while ((free < lines.length) && used[free]) {
+                free++;
+            }
+            DisplayLine line;
+            if (free < lines.length) {
+                used[free] = true;
+                line = lines[free];
+            } else {
+                line = new DisplayLine(blankAttr);
+            }
+            DisplayLine source = pending[row];
+            if (source == null) {
+                line.reset(blankAttr);
+                newBlankAttrs[row] = new CellAttributes(blankAttr);
+                newGenerations[row] = 0;
+            } else {
+                line.setTo(source);
+                newBlankAttrs[row] = null;
+                newGenerations[row] = source.getGeneration();
+            }
+            newLines[row] = line;
+            copied++;
+        }
+
+        // Swap in the new rows.
+        if (lines.length != height) {
+            lines = new DisplayLine[height];
+            sources = new DisplayLine[height];
+            generations = new int[height];
+            blankAttrs = new CellAttributes[height];
+        }
+        for (int row = 0; row < height; row++) {
+            lines[row] = newLines[row];
+            sources[row] = pending[row];
+            generations[row] = newGenerations[row];
+            blankAttrs[row] = newBlankAttrs[row];
+            newLines[row] = null;
+            pending[row] = null;
+        }
+        return changed;
+    }
+
+    /**
+     * Find an unused copy from the previous update made from a line.
+     *
+     * @param source the emulator line, or null for a blank line
+     * @param blankAttr the attributes for blank lines
+     * @param hint the row to look at first
+     * @return the row of the previous update, or -1
+     */
+    private int findOld(final DisplayLine source,
+        final CellAttributes blankAttr, final int hint) {
+
+        if ((hint >= 0) && (hint < lines.length)
+            && isMatch(hint, source, blankAttr)
+        ) {
+            return hint;
+        }
+        for (int i = 0; i < lines.length; i++) {
+            if (isMatch(i, source, blankAttr)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * See if an unused copy from the previous update was made from a line.
+     *
+     * @param old the row of the previous update
+     * @param source the emulator line, or null for a blank line
+     * @param blankAttr the attributes for blank lines
+     * @return true if the copy can be reused for source
+     */
+    private boolean isMatch(final int old, final DisplayLine source,
+        final CellAttributes blankAttr) {
+
+        if (used[old] || (sources[old] != source)) {
+            return false;
+        }
+        if (source == null) {
+            return blankAttr.equals(blankAttrs[old]);
+        }
+        return true;
+    }
+
+}
@@ -43,6 +43,8 @@ import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -256,6 +258,13 @@ public class ECMA48 implements Runnable {
      */
     private Thread readerThread = null;
 
+    /**
+     * If true, the reader thread blocks on read() rather than polling
+     * available(), and user events are sent to the remote side by the
+     * thread that calls addUserEvent().
+     */
+    private boolean blockingRead = false;
+
     /**
      * The type of emulator to be.
      */
@@ -264,18 +273,54 @@ public class ECMA48 implements Runnable {
     /**
      * The scrollback buffer characters + attributes.
      */
-    private volatile ArrayList<DisplayLine> scrollback;
+    private volatile DisplayLineBuffer scrollback;
 
     /**
      * The raw display buffer characters + attributes.
      */
-    private volatile ArrayList<DisplayLine> display;
+    private volatile DisplayLineBuffer display;
 
     /**
      * The maximum number of lines in the scrollback buffer.
      */
     private int scrollbackMax = 10000;
 
+    /**
+     * If true, lines that fall off the top of the scrollback buffer are
+     * kept in scrollbackSpill instead of being discarded.
+     */
+    private boolean unlimitedScrollback = false;
+
+    /**
+     * The lines older than the scrollback buffer, kept on disk.  This is
+     * created when the first line is spilled.
+     */
+    private ScrollbackSpill scrollbackSpill;
+
+    /**
+     * The maximum number of bytes of image data to keep in the scrollback
+     * buffer.  Beyond that, images on the oldest lines are replaced with
+     * text placeholders.
+     */
+    private long imageMemoryMax = 16 * 1024 * 1024;
+
+    /**
+     * The lines in the scrollback buffer that still hold image data,
+     * oldest first.
+     */
+    private ArrayDeque<DisplayLine> scrollbackImageLines;
+
+    /**
+     * The number of bytes of image data held by the scrollback buffer.
+     */
+    private long scrollbackImageBytes = 0;
+
+    /**
+     * The number of image cells replaced by placeholders to stay within
+     * imageMemoryMax.
+     */
+    private long imageCellsDropped = 0;
+
     /**
      * The terminal's input.  For type == XTERM, this is an InputStreamReader
      * with UTF-8 encoding.
@@ -470,9 +515,32 @@ public class ECMA48 implements Runnable {
     private List<Integer> colors88;
 
     /**
-     * Sixel collection buffer.
+     * The sixel image being decoded, fed as DCS data arrives.
+     */
+    private Sixel sixel;
+
+    /**
+     * The column the current sixel image started at.
+     */
+    private int sixelX0;
+
+    /**
+     * The row the current sixel image started at.
+     */
+    private int sixelY0;
+
+    /**
+     * The number of cell rows of the current sixel image already put on
+     * the display.
+     */
+    private int sixelRowsShown;
+
+    /**
+     * Copies of the cells that showSixelRows() overwrote, one array per
+     * cell row starting at sixelY0.  They are put back if the image is
+     * cancelled or rejected before parseSixel() can place it.
      */
-    private StringBuilder sixelParseBuffer = new StringBuilder(2048);
+    private ArrayList<Cell []> sixelPreviewCells = new ArrayList<Cell []>();
 
     /**
      * Sixel shared palette.
@@ -511,6 +579,12 @@ public class ECMA48 implements Runnable {
      */
     private long readCount = 0;
 
+    /**
+     * Scratch space for a run of printable characters taken from the read
+     * buffer by printText().
+     */
+    private int [] textRun = new int[2048];
+
     /**
      * DECSC/DECRC save/restore a subset of the total state.  This class
      * encapsulates those specific flags/modes.
@@ -653,14 +727,32 @@ public class ECMA48 implements Runnable {
 
         csiParams         = new ArrayList<Integer>();
         tabStops          = new ArrayList<Integer>();
-        scrollback        = new ArrayList<DisplayLine>();
-        display           = new ArrayList<DisplayLine>();
+        scrollback        = new DisplayLineBuffer();
+        scrollbackImageLines = new ArrayDeque<DisplayLine>();
+        display           = new DisplayLineBuffer();
 
         this.type         = type;
         if (inputStream instanceof TimeoutInputStream) {
+            // Use the caller's stream and its timeout as they are.
+            // blockingRead stays off, so the reader only calls read()
+            // once available() reports data.
             this.inputStream  = (TimeoutInputStream)inputStream;
         } else {
-            this.inputStream  = new TimeoutInputStream(inputStream, 2000);
+            blockingRead = System.getProperty("jexer.TTerminal.blockingRead",
+                "false").equals("true");
+            this.inputStream  = new TimeoutInputStream(inputStream,
+                (blockingRead ? 0 : 2000));
+        }
+        unlimitedScrollback = System.getProperty(
+            "jexer.TTerminal.unlimitedScrollback", "false").equals("true");
+        try {
+            int mb = Integer.parseInt(System.getProperty(
+                "jexer.TTerminal.imageMemory", "16"));
+            if (mb >= 0) {
+                imageMemoryMax = (long) mb * 1024 * 1024;
+            }
+        } catch (NumberFormatException e) {
+            // SQUASH
         }
         if (type == DeviceType.XTERM) {
             this.input    = new InputStreamReader(new BufferedInputStream(
@@ -737,7 +829,7 @@ public class ECMA48 implements Runnable {
                         readBuffer = new byte[newSizeHalf * 2];
                     }
                 }
-                if (n == 0) {
+                if ((n == 0) && !blockingRead) {
                     try {
                         Thread.sleep(10);
                     } catch (InterruptedException e) {
@@ -768,6 +860,13 @@ public class ECMA48 implements Runnable {
                     synchronized (this) {
                         if (utf8) {
                             for (int i = 0; i < rc;) {
+                                if (scanState == ScanState.GROUND) {
+                                    int j = printText(readBufferUTF8, i, rc);
+                                    if (j > i) {
+                                        i = j;
+                                        continue;
+                                    }
+                                }
                                 int ch = Character.codePointAt(readBufferUTF8,
                                     i);
                                 i += Character.charCount(ch);
@@ -784,6 +883,13 @@ public class ECMA48 implements Runnable {
                             }
                         } else {
                             for (int i = 0; i < rc; i++) {
+                                if (scanState == ScanState.GROUND) {
+                                    int j = printText(readBuffer, i, rc);
+                                    if (j > i) {
+                                        i = j - 1;
+                                        continue;
+                                    }
+                                }
                                 // Special case for VT10x: 7-bit characters
                                 // only.
                                 if ((type == DeviceType.VT100)
@@ -795,6 +901,9 @@ public class ECMA48 implements Runnable {
                                 }
                             }
                         }
+                        // Paint whatever part of a sixel image has
+                        // arrived so far.
+                        showSixelRows();
                     }
                     // Permit my enclosing UI to know that I updated.
                     if (displayListener != null) {
@@ -804,6 +913,11 @@ public class ECMA48 implements Runnable {
                 // System.err.println("end while loop"); System.err.flush();
             } catch (IOException e) {
                 done = true;
+                if (stopReaderThread) {
+                    // close() pulled the input out from under a blocked
+                    // read(), this is not an error.
+                    break;
+                }
 
                 // This is an unusual case.  We want to see the stack trace,
                 // but it is related to the spawned process rather than the
@@ -909,6 +1023,15 @@ public class ECMA48 implements Runnable {
     public void addUserEvent(final TInputEvent event) {
         synchronized (userQueue) {
             userQueue.add(event);
+            if (blockingRead) {
+                // The reader thread may be blocked waiting for the remote
+                // side, so send it now.
+                synchronized (this) {
+                    while (userQueue.size() > 0) {
+                        handleUserEvent(userQueue.remove(0));
+                    }
+                }
+            }
         }
     }
 
@@ -1060,6 +1183,42 @@ public class ECMA48 implements Runnable {
             stopReaderThread = true;
         }
 
+        if (blockingRead) {
+            // The reader thread may be blocked in read() waiting on the
+            // remote side, where it will never see stopReaderThread.
+            // Close the input out from under it and interrupt it, then
+            // give it a moment to exit.  It needs this lock to finish
+            // consuming input, so do not wait if the caller holds it.
+            Thread thread = readerThread;
+            TimeoutInputStream stream = inputStream;
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    // SQUASH
+                }
+            }
+            if ((thread != null) && (thread != Thread.currentThread())) {
+                thread.interrupt();
+                if (!Thread.holdsLock(this)) {
+                    try {
+                        thread.join(500);
+                    } catch (InterruptedException e) {
+                        // SQUASH
+                    }
+                }
+            }
+        }
+
+        // Remove the scrollback spill file.
+        synchronized (this) {
+            if (scrollbackSpill != null) {
+                scrollbackSpill.close();
+                scrollbackSpill = null;
+            }
+            unlimitedScrollback = false;
+        }
+
         // Now close the output stream.
         switch (type) {
         case VT100:
@@ -1119,12 +1278,26 @@ public class ECMA48 implements Runnable {
     }
 
     /**
-     * Get the scrollback buffer.
+     * Get the scrollback buffer.  With unlimited scrollback this includes
+     * the lines in the spill file, read only.
      *
      * @return the scrollback buffer
      */
     public final List<DisplayLine> getScrollbackBuffer() {
-        return scrollback;
+        if (scrollbackSpill == null) {
+            return scrollback;
+        }
+        return new AbstractList<DisplayLine>() {
+            @Override
+            public DisplayLine get(final int index) {
+                return getScrollbackLine(index);
+            }
+
+            @Override
+            public int size() {
+                return getScrollbackSize();
+            }
+        };
     }
 
     /**
@@ -1150,7 +1323,8 @@ public class ECMA48 implements Runnable {
         assert (visibleHeight >= 0);
         assert (scrollBottom >= 0);
 
-        int visibleBottom = scrollback.size() + display.size() - scrollBottom;
+        int scrollbackSize = getScrollbackSize();
+        int visibleBottom = scrollbackSize + display.size() - scrollBottom;
 
         List<DisplayLine> preceedingBlankLines = new ArrayList<DisplayLine>();
         int visibleTop = visibleBottom - visibleHeight;
@@ -1162,13 +1336,15 @@ public class ECMA48 implements Runnable {
         }
         assert (visibleTop >= 0);
 
-        List<DisplayLine> displayLines = new ArrayList<DisplayLine>();
-        displayLines.addAll(scrollback);
-        displayLines.addAll(display);
-
         List<DisplayLine> visibleLines = new ArrayList<DisplayLine>();
         visibleLines.addAll(preceedingBlankLines);
-        visibleLines.addAll(displayLines.subList(visibleTop, visibleBottom));
+        for (int i = visibleTop; i < visibleBottom; i++) {
+            if (i < scrollbackSize) {
+                visibleLines.add(getScrollbackLine(i));
+            } else {
+                visibleLines.add(display.get(i - scrollbackSize));
+            }
+        }
 
         // Fill in the blank lines on bottom
         int bottomBlankLines = visibleHeight - visibleLines.size();
@@ -1180,6 +1356,40 @@ public class ECMA48 implements Runnable {
         return copyBuffer(visibleLines);
     }
 
+    /**
+     * Update a snapshot of the visible display + scrollback buffer, offset
+     * by a specified number of rows from the bottom.  Only the lines that
+     * changed since the snapshot was last updated are copied.
+     *
+     * @param snapshot the snapshot to update
+     * @param visibleHeight the total height of the display to show
+     * @param scrollBottom the number of rows from the bottom to scroll back
+     * @return true if the snapshot is different from before
+     */
+    public final boolean updateVisibleDisplay(final DisplaySnapshot snapshot,
+        final int visibleHeight, final int scrollBottom) {
+
+        assert (visibleHeight >= 0);
+        assert (scrollBottom >= 0);
+
+        int scrollbackSize = getScrollbackSize();
+        int visibleBottom = scrollbackSize + display.size() - scrollBottom;
+        int visibleTop = visibleBottom - visibleHeight;
+
+        snapshot.begin(visibleHeight);
+        for (int row = 0; row < visibleHeight; row++) {
+            int i = visibleTop + row;
+            if ((i < 0) || (i >= visibleBottom)) {
+                snapshot.setSource(row, null);
+            } else if (i < scrollbackSize) {
+                snapshot.setSource(row, getScrollbackLine(i));
+            } else {
+                snapshot.setSource(row, display.get(i - scrollbackSize));
+            }
+        }
+        return snapshot.commit(currentState.attr);
+    }
+
     /**
      * Copy a display buffer.
      *
@@ -1278,6 +1488,71 @@ public class ECMA48 implements Runnable {
         this.scrollbackMax = scrollbackMax;
     }
 
+    /**
+     * Get the unlimited scrollback flag.
+     *
+     * @return if true, lines beyond the scrollback maximum are kept in a
+     * temporary file instead of being discarded
+     */
+    public boolean isUnlimitedScrollback() {
+        return unlimitedScrollback;
+    }
+
+    /**
+     * Set the unlimited scrollback flag.  Lines that have already been
+     * written to the temporary file stay there either way.
+     *
+     * @param unlimitedScrollback if true, lines beyond the scrollback
+     * maximum are kept in a temporary file instead of being discarded
+     */
+    public void setUnlimitedScrollback(final boolean unlimitedScrollback) {
+        this.unlimitedScrollback = unlimitedScrollback;
+    }
+
+    /**
+     * Get the maximum number of bytes of image data kept in the scrollback
+     * buffer.
+     *
+     * @return the number of bytes
+     */
+    public long getImageMemoryMax() {
+        return imageMemoryMax;
+    }
+
+    /**
+     * Set the maximum number of bytes of image data kept in the scrollback
+     * buffer.  Images on the oldest scrollback lines beyond this are
+     * replaced with text placeholders.
+     *
+     * @param imageMemoryMax the number of bytes
+     */
+    public void setImageMemoryMax(final long imageMemoryMax) {
+        synchronized (this) {
+            this.imageMemoryMax = imageMemoryMax;
+            trimScrollbackImages();
+        }
+    }
+
+    /**
+     * Get the number of bytes of image data held by the scrollback buffer,
+     * counting four bytes per pixel.
+     *
+     * @return the number of bytes
+     */
+    public long getScrollbackImageBytes() {
+        return scrollbackImageBytes;
+    }
+
+    /**
+     * Get the number of image cells in the scrollback buffer that were
+     * replaced with placeholders to stay within the image budget.
+     *
+     * @return the number of cells
+     */
+    public long getImageCellsDropped() {
+        return imageCellsDropped;
+    }
+
     /**
      * Get visible cursor flag.
      *
@@ -1311,6 +1586,7 @@ public class ECMA48 implements Runnable {
      * Clear the CSI parameters and flags.
      */
     private void toGround() {
+        cancelSixel();
         csiParams.clear();
         collectBuffer.setLength(0);
         scanState = ScanState.GROUND;
@@ -1715,16 +1991,102 @@ public class ECMA48 implements Runnable {
     }
 
     /**
-     * Append a to the scrollback buffer, clearing image data for lines more
-     * than three screenfuls in.
+     * Append a line to the scrollback buffer, compacting it if it has no
+     * images.  If that puts the scrollback over its image budget, images
+     * on the oldest lines are replaced with placeholders until it fits
+     * again.
+     *
+     * @param line the line that scrolled off the display
      */
-    private void appendScrollbackLine(DisplayLine line) {
+    private void appendScrollbackLine(final DisplayLine line) {
         scrollback.add(line);
-        if (scrollback.size() > height * 3) {
-            scrollback.get(scrollback.size() - (height * 3)).clearImages();
+        if (!line.isImage()) {
+            line.compact();
+            return;
+        }
+        scrollbackImageLines.addLast(line);
+        scrollbackImageBytes += line.getImageBytes();
+        trimScrollbackImages();
+    }
+
+    /**
+     * Replace images on the oldest scrollback lines with placeholders until
+     * the scrollback is within imageMemoryMax.
+     */
+    private void trimScrollbackImages() {
+        while ((scrollbackImageBytes > imageMemoryMax)
+            && (scrollbackImageLines.size() > 0)
+        ) {
+            DisplayLine line = scrollbackImageLines.removeFirst();
+            scrollbackImageBytes -= line.getImageBytes();
+            imageCellsDropped += line.imagesToPlaceholders();
+            line.compact();
         }
     }
 
+    /**
+     * Remove the oldest line from the scrollback buffer.
+     */
+    private void removeScrollbackLine() {
+        DisplayLine line = scrollback.remove(0);
+        if (scrollbackImageLines.peekFirst() == line) {
+            scrollbackImageLines.removeFirst();
+            scrollbackImageBytes -= line.getImageBytes();
+        }
+        if (unlimitedScrollback) {
+            spillScrollbackLine(line);
+        }
+    }
+
+    /**
+     * Write a line that fell off the top of the scrollback buffer to the
+     * spill file.  Images on it are replaced with placeholders first.  If
+     * the file cannot be written, unlimited scrollback is switched off and
+     * lines are discarded as usual.
+     *
+     * @param line the line
+     */
+    private void spillScrollbackLine(final DisplayLine line) {
+        imageCellsDropped += line.imagesToPlaceholders();
+        try {
+            if (scrollbackSpill == null) {
+                scrollbackSpill = new ScrollbackSpill();
+            }
+            scrollbackSpill.add(line);
+        } catch (IOException e) {
+            unlimitedScrollback = false;
+        }
+    }
+
+    /**
+     * Get the number of scrollback lines, including those in the spill
+     * file.
+     *
+     * @return the number of lines
+     */
+    private int getScrollbackSize() {
+        if (scrollbackSpill == null) {
+            return scrollback.size();
+        }
+        return scrollbackSpill.size() + scrollback.size();
+    }
+
+    /**
+     * Get a scrollback line, reading it from the spill file if needed.
+     *
+     * @param index the line number, 0 is the oldest line
+     * @return the line
+     */
+    private DisplayLine getScrollbackLine(final int index) {
+        if (scrollbackSpill == null) {
+            return scrollback.get(index);
+        }
+        if (index < scrollbackSpill.size()) {
+            return scrollbackSpill.get(index);
+        }
+        return scrollback.get(index - scrollbackSpill.size());
+    }
+
     /**
      * Append a new line to the bottom of the display, adding lines off the
      * top to the scrollback buffer.
@@ -1733,11 +2095,9 @@ public class ECMA48 implements Runnable {
         // Scroll the top line off into the scrollback buffer
         appendScrollbackLine(display.get(0));
         while (scrollback.size() > scrollbackMax) {
-            scrollback.remove(0);
-            scrollback.trimToSize();
+            removeScrollbackLine();
         }
         display.remove(0);
-        display.trimToSize();
         DisplayLine line = new DisplayLine(currentState.attr);
         line.setReverseColor(reverseVideo);
         display.add(line);
@@ -1918,6 +2278,132 @@ public class ECMA48 implements Runnable {
         }
     }
 
+    /**
+     * Print the run of plain printable characters at the start of a UTF-8
+     * read buffer.  Only call this in the GROUND state.
+     *
+     * @param buffer the characters read from the remote side
+     * @param start the index of the first character to look at
+     * @param end the index just past the last character read
+     * @return the index of the first character not printed, which is start
+     * if the first character must go through consume()
+     */
+    private int printText(final char [] buffer, final int start,
+        final int end) {
+
+        if (printerControllerMode == true) {
+            return start;
+        }
+
+        int i = start;
+        int count = 0;
+        while ((i < end) && (count < textRun.length)) {
+            char ch = buffer[i];
+            if ((ch < 0x20)
+                || ((ch >= 0x7F) && (ch <= 0x9F))
+                || Character.isSurrogate(ch)
+            ) {
+                break;
+            }
+            textRun[count] = ch;
+            count++;
+            i++;
+        }
+        printTextRun(count);
+        return i;
+    }
+
+    /**
+     * Print the run of plain printable characters at the start of a byte
+     * read buffer.  Only call this in the GROUND state.
+     *
+     * @param buffer the bytes read from the remote side
+     * @param start the index of the first byte to look at
+     * @param end the index just past the last byte read
+     * @return the index of the first byte not printed, which is start if
+     * the first byte must go through consume()
+     */
+    private int printText(final byte [] buffer, final int start,
+        final int end) {
+
+        if (((type == DeviceType.VT220) || (type == DeviceType.XTERM))
+            && (printerControllerMode == true)
+        ) {
+            return start;
+        }
+        boolean sevenBit = ((type == DeviceType.VT100)
+            || (type == DeviceType.VT102));
+
+        int i = start;
+        int count = 0;
+        while ((i < end) && (count < textRun.length)) {
+            int ch = buffer[i];
+            if (sevenBit) {
+                ch &= 0x7F;
+            }
+            if ((ch < 0x20) || (ch >= 0x7F)) {
+                break;
+            }
+            textRun[count] = ch;
+            count++;
+            i++;
+        }
+        printTextRun(count);
+        return i;
+    }
+
+    /**
+     * Print the characters collected in textRun.  This does the same thing
+     * as passing each of them through consume() in the GROUND state, but
+     * stretches that fit before the right margin are written to the line
+     * all at once.
+     *
+     * @param count the number of characters in textRun
+     */
+    private void printTextRun(final int count) {
+        if (count == 0) {
+            return;
+        }
+        readCount += count;
+        for (int i = 0; i < count; i++) {
+            textRun[i] = mapCharacter(textRun[i]);
+        }
+        repCh = textRun[count - 1];
+
+        int i = 0;
+        while (i < count) {
+            DisplayLine line = display.get(currentState.cursorY);
+            int rightMargin = this.rightMargin;
+            if (line.isDoubleWidth()) {
+                rightMargin = ((rightMargin + 1) / 2) - 1;
+            }
+
+            // Characters left of the right margin never wrap, so they can
+            // be written together.  Everything else goes through
+            // printCharacter().
+            int x = currentState.cursorX;
+            int n = 0;
+            if (insertMode == false) {
+                while ((i + n < count) && (x + n < rightMargin)) {
+                    int ch = textRun[i + n];
+                    if ((ch >= 0x80) && (StringUtils.width(ch) != 1)) {
+                        break;
+                    }
+                    n++;
+                }
+            }
+            if (n > 0) {
+                line.replace(x, textRun, i, n, currentState.attr);
+                currentState.cursorX += n;
+                wrapLineFlag = false;
+                i += n;
+            } else {
+                printCharacter(textRun[i]);
+                i++;
+            }
+        }
+    }
+
     /**
      * Translate the mouse event to a VT100, VT220, or XTERM sequence and
      * send to the remote side.
@@ -2969,19 +3455,14 @@ public class ECMA48 implements Runnable {
         }
 
         int remaining = regionBottom + 1 - regionTop - n;
-        List<DisplayLine> displayTop = display.subList(0, regionTop);
-        List<DisplayLine> displayBottom = display.subList(regionBottom + 1,
-            display.size());
-        List<DisplayLine> displayMiddle = display.subList(regionBottom + 1
-            - remaining, regionBottom + 1);
-        display = new ArrayList<DisplayLine>(displayTop);
-        display.addAll(displayMiddle);
-        for (int i = 0; i < n; i++) {
+        for (int i = regionTop; i < regionTop + remaining; i++) {
+            display.set(i, display.get(i + n));
+        }
+        for (int i = regionTop + remaining; i <= regionBottom; i++) {
             DisplayLine line = new DisplayLine(currentState.attr);
             line.setReverseColor(reverseVideo);
-            display.add(line);
+            display.set(i, line);
         }
-        display.addAll(displayBottom);
 
         assert (display.size() == height);
     }
@@ -3009,20 +3490,14 @@ public class ECMA48 implements Runnable {
             return;
         }
 
-        int remaining = regionBottom + 1 - regionTop - n;
-        List<DisplayLine> displayTop = display.subList(0, regionTop);
-        List<DisplayLine> displayBottom = display.subList(regionBottom + 1,
-            display.size());
-        List<DisplayLine> displayMiddle = display.subList(regionTop,
-            regionTop + remaining);
-        display = new ArrayList<DisplayLine>(displayTop);
-        for (int i = 0; i < n; i++) {
+        for (int i = regionBottom; i >= regionTop + n; i--) {
+            display.set(i, display.get(i - n));
+        }
+        for (int i = regionTop; i < regionTop + n; i++) {
             DisplayLine line = new DisplayLine(currentState.attr);
             line.setReverseColor(reverseVideo);
-            display.add(line);
+            display.set(i, line);
         }
-        display.addAll(displayMiddle);
-        display.addAll(displayBottom);
 
         assert (display.size() == height);
     }
@@ -5309,6 +5784,7 @@ public class ECMA48 implements Runnable {
                 && (scanState != ScanState.DCS_PARAM)
                 && (scanState != ScanState.DCS_PASSTHROUGH)
             ) {
+                cancelSixel();
                 scanState = ScanState.ESCAPE;
                 return;
             }
@@ -5316,24 +5792,28 @@ public class ECMA48 implements Runnable {
 
         // 0x9B == CSI 8-bit sequence
         if (ch == 0x9B) {
+            cancelSixel();
             scanState = ScanState.CSI_ENTRY;
             return;
         }
 
         // 0x9D goes to ScanState.OSC_STRING
         if (ch == 0x9D) {
+            cancelSixel();
             scanState = ScanState.OSC_STRING;
             return;
         }
 
         // 0x90 goes to DCS_ENTRY
         if (ch == 0x90) {
+            cancelSixel();
             scanState = ScanState.DCS_ENTRY;
             return;
         }
 
         // 0x98, 0x9E, and 0x9F go to SOSPMAPC_STRING
         if ((ch == 0x98) || (ch == 0x9E) || (ch == 0x9F)) {
+            cancelSixel();
             scanState = ScanState.SOSPMAPC_STRING;
             return;
         }
@@ -7054,7 +7534,7 @@ public class ECMA48 implements Runnable {
 
             // 0x71 goes to DCS_SIXEL
             if (ch == 0x71) {
-                sixelParseBuffer.setLength(0);
+                startSixel();
                 scanState = ScanState.DCS_SIXEL;
             } else if ((ch >= 0x40) && (ch <= 0x7E)) {
                 // 0x40-7E goes to DCS_PASSTHROUGH
@@ -7139,7 +7619,7 @@ public class ECMA48 implements Runnable {
 
             // 0x71 goes to DCS_SIXEL
             if (ch == 0x71) {
-                sixelParseBuffer.setLength(0);
+                startSixel();
                 scanState = ScanState.DCS_SIXEL;
             } else if ((ch >= 0x40) && (ch <= 0x7E)) {
                 // 0x40-7E goes to DCS_PASSTHROUGH
@@ -7226,7 +7706,7 @@ public class ECMA48 implements Runnable {
                 || ((ch >= 0x1C) && (ch <= 0x1F))
                 || ((ch >= 0x20) && (ch <= 0x7E))
             ) {
-                sixelParseBuffer.append((char) ch);
+                sixel.consume((char) ch);
             }
 
             // 7F                        --> ignore
@@ -7384,23 +7864,107 @@ public class ECMA48 implements Runnable {
     }
 
     /**
-     * Parse a sixel string into a bitmap image, and overlay that image onto
-     * the text cells.
+     * Begin a new sixel image at the cursor.
      */
-    private void parseSixel() {
+    private void startSixel() {
+        sixel = new Sixel(sixelPalette);
+        sixelX0 = currentState.cursorX;
+        sixelY0 = currentState.cursorY;
+        sixelRowsShown = 0;
+        sixelPreviewCells.clear();
+    }
 
-        /*
-        System.err.println("parseSixel(): '" + sixelParseBuffer.toString()
-            + "'");
-        */
+    /**
+     * Put the cell rows of the sixel image that have been completely
+     * received so far on the display, so that a large or slow image paints
+     * as it arrives.  The cursor is not moved and the screen is not
+     * scrolled: parseSixel() places the whole image again when the image
+     * ends, overwriting these cells.
+     */
+    private void showSixelRows() {
+        if ((sixel == null) || (scanState != ScanState.DCS_SIXEL)) {
+            return;
+        }
+        if (sixel.isAborted()) {
+            // The rest of the data will be thrown away, so take down what
+            // was shown now rather than when the DCS ends.
+            restoreSixelPreview();
+            return;
+        }
+        int rows = sixel.getCompletedHeight() / textHeight;
+        if (rows <= sixelRowsShown) {
+            return;
+        }
+        BufferedImage image = sixel.getCompletedImage();
+        if (image == null) {
+            return;
+        }
+
+        int cellColumns = image.getWidth() / textWidth;
+        if (cellColumns * textWidth < image.getWidth()) {
+            cellColumns++;
+        }
+        // Only the rows that fit without scrolling.
+        int lastRow = Math.min(Math.max(scrollRegionBottom, sixelY0),
+            display.size() - 1);
+        rows = Math.min(rows, lastRow - sixelY0 + 1);
+
+        for (int y = sixelRowsShown; y < rows; y++) {
+            DisplayLine line = display.get(sixelY0 + y);
+            int columns = Math.min(cellColumns, rightMargin - sixelX0 + 1);
+            Cell [] saved = new Cell[Math.max(columns, 0)];
+            for (int x = 0; x < columns; x++) {
+                saved[x] = new Cell(line.charAt(sixelX0 + x));
+                line.replace(sixelX0 + x, getImageCell(image, x, y));
+            }
+            sixelPreviewCells.add(saved);
+        }
+        sixelRowsShown = Math.max(sixelRowsShown, rows);
+    }
 
-        Sixel sixel = new Sixel(sixelParseBuffer.toString(), sixelPalette);
+    /**
+     * Put back the cells that showSixelRows() overwrote.
+     */
+    private void restoreSixelPreview() {
+        for (int y = 0; y < sixelPreviewCells.size(); y++) {
+            if (sixelY0 + y >= display.size()) {
+                break;
+            }
+            DisplayLine line = display.get(sixelY0 + y);
+            Cell [] saved = sixelPreviewCells.get(y);
+            for (int x = 0; x < saved.length; x++) {
+                if (sixelX0 + x < line.length()) {
+                    line.replace(sixelX0 + x, saved[x]);
+                }
+            }
+        }
+        sixelPreviewCells.clear();
+    }
+
+    /**
+     * Abandon the sixel image being decoded, if any, because its DCS was
+     * cancelled or interrupted by another sequence.
+     */
+    private void cancelSixel() {
+        if (sixel == null) {
+            return;
+        }
+        restoreSixelPreview();
+        sixel = null;
+    }
+
+    /**
+     * Finish the sixel image, and overlay that image onto the text cells.
+     */
+    private void parseSixel() {
         BufferedImage image = sixel.getImage();
+        sixel = null;
 
         // System.err.println("parseSixel(): image " + image);
 
         if (image == null) {
             // Sixel data was malformed in some way, bail out.
+            restoreSixelPreview();
             return;
         }
         if ((image.getWidth() < 1)
@@ -7408,9 +7972,12 @@ public class ECMA48 implements Runnable {
             || (image.getHeight() < 1)
             || (image.getHeight() > 10000)
         ) {
+            restoreSixelPreview();
             return;
         }
 
+        // The whole image covers every previewed cell.
+        sixelPreviewCells.clear();
         imageToCells(image, true);
     }
 
@@ -7601,34 +8168,7 @@ public class ECMA48 implements Runnable {
 
         for (int x = 0; x < cellColumns; x++) {
             for (int y = 0; y < cellRows; y++) {
-
-                int width = textWidth;
-                if ((x + 1) * textWidth > image.getWidth()) {
-                    width = image.getWidth() - (x * textWidth);
-                }
-                int height = textHeight;
-                if ((y + 1) * textHeight > image.getHeight()) {
-                    height = image.getHeight() - (y * textHeight);
-                }
-
-                Cell cell = new Cell();
-                if ((width != textWidth) || (height != textHeight)) {
-                    BufferedImage newImage;
-                    newImage = new BufferedImage(textWidth, textHeight,
-                        BufferedImage.TYPE_INT_ARGB);
-
-                    Graphics gr = newImage.getGraphics();
-                    gr.drawImage(image.getSubimage(x * textWidth,
-                            y * textHeight, width, height),
-                        0, 0, null, null);
-                    gr.dispose();
-                    cell.setImage(newImage);
-                } else {
-                    cell.setImage(image.getSubimage(x * textWidth,
-                            y * textHeight, width, height));
-                }
-
-                cells[x][y] = cell;
+                cells[x][y] = getImageCell(image, x, y);
             }
         }
 
@@ -7672,4 +8212,43 @@ public class ECMA48 implements Runnable {
 
     }
 
+    /**
+     * Cut one text cell sized piece out of an image.
+     *
+     * @param image the image
+     * @param x the cell column within the image
+     * @param y the cell row within the image
+     * @return a new cell holding that piece of the image
+     */
+    private Cell getImageCell(final BufferedImage image, final int x,
+        final int y) {
+
+        int width = textWidth;
+        if ((x + 1) * textWidth > image.getWidth()) {
+            width = image.getWidth() - (x * textWidth);
+        }
+        int height = textHeight;
+        if ((y + 1) * textHeight > image.getHeight()) {
+            height = image.getHeight() - (y * textHeight);
+        }
+
+        Cell cell = new Cell();
+        if ((width != textWidth) || (height != textHeight)) {
+            BufferedImage newImage;
+            newImage = new BufferedImage(textWidth, textHeight,
+                BufferedImage.TYPE_INT_ARGB);
+
+            Graphics gr = newImage.getGraphics();
+            gr.drawImage(image.getSubimage(x * textWidth,
+                    y * textHeight, width, height),
+                0, 0, null, null);
+            gr.dispose();
+            cell.setImage(newImage);
+        } else {
+            cell.setImage(image.getSubimage(x * textWidth,
+                    y * textHeight, width, height));
+        }
+        return cell;
+    }
+
 }
@@ -0,0 +1,248 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2019 Kevin Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.tterminal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+
+/**
+ * ScrollbackSpill keeps scrollback lines in a memory-mapped temporary
+ * file.  Lines are appended in their compact form; only an index of their
+ * offsets stays on the heap.
+ */
+public class ScrollbackSpill {
+
+    // ------------------------------------------------------------------------
+    // Constants --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The file is mapped in segments of this many bytes.  A line never
+     * crosses a segment boundary.
+     */
+    private static final int SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * The number of lines kept in the read cache.  This must be a power of
+     * two.
+     */
+    private static final int CACHE_SIZE = 256;
+
+    // ------------------------------------------------------------------------
+    // Variables --------------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The spill file.
+     */
+    private File file;
+
+    /**
+     * The spill file, opened for read and write.
+     */
+    private RandomAccessFile randomAccessFile;
+
+    /**
+     * The channel the segments are mapped from.
+     */
+    private FileChannel channel;
+
+    /**
+     * The mapped segments of the file.
+     */
+    private ArrayList<MappedByteBuffer> segments;
+
+    /**
+     * The file offset of each line.
+     */
+    private long [] offsets = new long[1024];
+
+    /**
+     * The number of lines.
+     */
+    private int size = 0;
+
+    /**
+     * The file offset the next line will be written to.
+     */
+    private long end = 0;
+
+    /**
+     * Lines recently read back, so that repeated reads of the same line
+     * return the same object.
+     */
+    private DisplayLine [] cache = new DisplayLine[CACHE_SIZE];
+
+    /**
+     * The line number of each cache entry.
+     */
+    private int [] cacheIndex = new int[CACHE_SIZE];
+
+    // ------------------------------------------------------------------------
+    // Constructors -----------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Public constructor creates the spill file in the default temporary
+     * directory.  The file holds terminal output, which may include
+     * passwords, so on POSIX systems only the owner may read it.
+     *
+     * @throws IOException if the file cannot be created
+     */
+    public ScrollbackSpill() throws IOException {
+        if (FileSystems.getDefault().supportedFileAttributeViews().
+            contains("posix")
+        ) {
+            file = Files.createTempFile("jexer", ".scrollback",
+                PosixFilePermissions.asFileAttribute(
+                    PosixFilePermissions.fromString("rw-------"))).toFile();
+        } else {
+            file = Files.createTempFile("jexer", ".scrollback").toFile();
+        }
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+        segments = new ArrayList<MappedByteBuffer>();
+    }
+
+    // ------------------------------------------------------------------------
+    // ScrollbackSpill --------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Get the number of lines in the file.
+     *
+     * @return the number of lines
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the number of bytes written to the file.
+     *
+     * @return the number of bytes
+     */
+    public long getBytes() {
+        return end;
+    }
+
+    /**
+     * Append a line to the end of the file.
+     *
+     * @param line the line, which is compacted if it is not already
+     * @throws IOException if the file cannot be extended
+     * @throws IllegalArgumentException if the line cannot be compacted
+     */
+    public void add(final DisplayLine line) throws IOException {
+        if (!line.compact()) {
+            throw new IllegalArgumentException("Line has image data");
+        }
+        int bytes = line.getSerializedSize();
+        int segment = (int) (end / SEGMENT_SIZE);
+        if ((end % SEGMENT_SIZE) + bytes > SEGMENT_SIZE) {
+            segment++;
+            end = (long) segment * SEGMENT_SIZE;
+        }
+        while (segments.size() <= segment) {
+            segments.add(channel.map(FileChannel.MapMode.READ_WRITE,
+                    (long) segments.size() * SEGMENT_SIZE, SEGMENT_SIZE));
+        }
+
+        ByteBuffer buffer = segments.get(segment).duplicate();
+        buffer.position((int) (end % SEGMENT_SIZE));
+        line.writeTo(buffer);
+
+        if (size == offsets.length) {
+            long [] newOffsets = new long[offsets.length * 2];
+            System.arraycopy(offsets, 0, newOffsets, 0, size);
+            offsets = newOffsets;
+        }
+        offsets[size] = end;
+        size++;
+        end += bytes;
+    }
+
+    /**
+     * Read a line back from the file.  Lines read recently are returned
+     * from a cache; they must not be changed.
+     *
+     * @param index the line number, 0 is the oldest line
+     * @return a compacted line
+     */
+    public DisplayLine get(final int index) {
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException("Index: " + index +
+                ", Size: " + size);
+        }
+        int slot = index & (CACHE_SIZE - 1);
+        if ((cache[slot] != null) && (cacheIndex[slot] == index)) {
+            return cache[slot];
+        }
+        ByteBuffer buffer = segments.get((int) (offsets[index] /
+                SEGMENT_SIZE)).duplicate();
+        buffer.position((int) (offsets[index] % SEGMENT_SIZE));
+        DisplayLine line = DisplayLine.readFrom(buffer);
+        cache[slot] = line;
+        cacheIndex[slot] = index;
+        return line;
+    }
+
+    /**
+     * Close and delete the file.  Note that it is safe to call this
+     * multiple times.
+     */
+    public void close() {
+        segments.clear();
+        for (int i = 0; i < CACHE_SIZE; i++) {
+            cache[i] = null;
+        }
+        size = 0;
+        end = 0;
+        try {
+            channel.close();
+            randomAccessFile.close();
+        } catch (IOException e) {
+            // SQUASH
+        }
+        // If a mapping is still alive the delete can fail on some
+        // platforms; only then leave it for deleteOnExit().
+        if (!file.delete() && file.exists()) {
+            file.deleteOnExit();
+        }
+    }
+
+}
@@ -29,12 +29,15 @@
 package jexer.tterminal;
 
 import java.awt.Color;
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
 import java.util.HashMap;
 
 /**
- * Sixel parses a buffer of sixel image data into a BufferedImage.
+ * Sixel parses a stream of sixel image data into a BufferedImage.  Data can
+ * be handed over all at once as a String, or pushed one character at a
+ * time via consume() as it arrives from the remote side.
  */
 public class Sixel {
 
@@ -62,12 +65,14 @@ public class Sixel {
     private static boolean DEBUG = false;
 
     /**
-     * Number of pixels to increment when we need more horizontal room.
+     * Number of pixels to allocate when we need horizontal room and the
+     * raster attributes were not provided.
      */
     private static int WIDTH_INCREASE = 400;
 
     /**
-     * Number of pixels to increment when we need more vertical room.
+     * Number of pixels to allocate when we need vertical room and the
+     * raster attributes were not provided.
      */
     private static int HEIGHT_INCREASE = 400;
 
@@ -102,7 +107,7 @@ public class Sixel {
     private HashMap<Integer, Color> palette;
 
     /**
-     * The buffer to parse.
+     * The buffer to parse, if one was passed to the constructor.
      */
     private String buffer;
 
@@ -111,13 +116,20 @@ public class Sixel {
      */
     private BufferedImage image;
 
+    /**
+     * The pixels backing image, one ARGB int per pixel, row-major with a
+     * stride of image.getWidth().
+     */
+    private int [] pixels;
+
     /**
      * The real width of image.
      */
     private int width = 0;
 
     /**
-     * The real height of image.
+     * The top pixel row of the current sixel band.  Every row above this
+     * is complete.
      */
     private int height = 0;
 
@@ -151,6 +163,11 @@ public class Sixel {
      */
     private Color color = Color.BLACK;
 
+    /**
+     * The current drawing color as ARGB.
+     */
+    private int rgb = Color.BLACK.getRGB();
+
     /**
      * If set, abort processing this image.
      */
@@ -161,13 +178,11 @@ public class Sixel {
     // ------------------------------------------------------------------------
 
     /**
-     * Public constructor.
+     * Public constructor for a decoder that will be fed with consume().
      *
-     * @param buffer the sixel data to parse
      * @param palette palette to use, or null for a private palette
      */
-    public Sixel(final String buffer, final HashMap<Integer, Color> palette) {
-        this.buffer = buffer;
+    public Sixel(final HashMap<Integer, Color> palette) {
         if (palette == null) {
             this.palette = new HashMap<Integer, Color>();
         } else {
@@ -175,6 +190,17 @@ public class Sixel {
         }
     }
 
+    /**
+     * Public constructor.
+     *
+     * @param buffer the sixel data to parse
+     * @param palette palette to use, or null for a private palette
+     */
+    public Sixel(final String buffer, final HashMap<Integer, Color> palette) {
+        this(palette);
+        this.buffer = buffer;
+    }
+
     // ------------------------------------------------------------------------
     // Sixel ------------------------------------------------------------------
     // ------------------------------------------------------------------------
@@ -196,22 +222,97 @@ public class Sixel {
         }
 
         if ((width > 0) && (height > 0) && (image != null)) {
-            /*
-            System.err.println(String.format("%d %d %d %d", width, y + 1,
-                    rasterWidth, rasterHeight));
-            */
-
-            if ((rasterWidth > width) || (rasterHeight > y + 1)) {
-                resizeImage(Math.max(width, rasterWidth),
-                    Math.max(y + 1, rasterHeight));
-            }
             return image.getSubimage(0, 0, width, y + 1);
         }
         return null;
     }
 
     /**
-     * Resize image to a new size.
+     * Get the rows of the image that have been completely received so far,
+     * i.e. everything above the band currently being drawn.  Those pixels
+     * will not change again, so the returned image may be displayed while
+     * the rest of the data is still arriving.
+     *
+     * @return the completed rows, or null if no complete row has anything
+     * drawn on it yet
+     */
+    public BufferedImage getCompletedImage() {
+        if ((abort == true) || (image == null) || (width == 0)) {
+            return null;
+        }
+        int rows = Math.min(Math.min(height, y + 1), image.getHeight());
+        if (rows <= 0) {
+            return null;
+        }
+        return image.getSubimage(0, 0, width, rows);
+    }
+
+    /**
+     * Get the number of pixel rows that have been completely received so
+     * far.
+     *
+     * @return the number of complete rows
+     */
+    public int getCompletedHeight() {
+        if ((abort == true) || (image == null) || (width == 0)) {
+            return 0;
+        }
+        return Math.max(0, Math.min(Math.min(height, y + 1),
+                image.getHeight()));
+    }
+
+    /**
+     * Whether or not this image was rejected, either as malformed or too
+     * large.
+     *
+     * @return true if the image will not be produced
+     */
+    public boolean isAborted() {
+        return abort;
+    }
+
+    /**
+     * Make sure the image is at least a given size.
+     *
+     * @param needWidth the minimum width in pixels
+     * @param needHeight the minimum height in pixels
+     */
+    private void ensureCapacity(final int needWidth, final int needHeight) {
+        if ((image != null)
+            && (needWidth <= image.getWidth())
+            && (needHeight <= image.getHeight())
+        ) {
+            return;
+        }
+
+        int newWidth;
+        int newHeight;
+        if (image == null) {
+            // Nothing yet: use the raster attributes if given, otherwise a
+            // reasonable starting size.
+            newWidth = (rasterWidth > 0 ? rasterWidth : WIDTH_INCREASE);
+            newHeight = (rasterHeight > 0 ? rasterHeight : HEIGHT_INCREASE);
+        } else {
+            newWidth = image.getWidth();
+            newHeight = image.getHeight();
+            if (needWidth > newWidth) {
+                newWidth = Math.max(newWidth * 2, newWidth + WIDTH_INCREASE);
+            }
+            if (needHeight > newHeight) {
+                newHeight = Math.max(newHeight * 2,
+                    newHeight + HEIGHT_INCREASE);
+            }
+        }
+        newWidth = Math.min(Math.max(newWidth, needWidth), MAX_WIDTH);
+        // Round the height to a whole band so the last band always fits.
+        newHeight = Math.max(newHeight, needHeight);
+        newHeight = Math.min(((newHeight + 5) / 6) * 6,
+            ((MAX_HEIGHT + 5) / 6) * 6);
+        resizeImage(newWidth, newHeight);
+    }
+
+    /**
+     * Resize image to a new size, keeping what was drawn so far.
      *
      * @param newWidth new width of image
      * @param newHeight new height of image
@@ -219,21 +320,26 @@ public class Sixel {
     private void resizeImage(final int newWidth, final int newHeight) {
         BufferedImage newImage = new BufferedImage(newWidth, newHeight,
             BufferedImage.TYPE_INT_ARGB);
+        int [] newPixels = ((DataBufferInt) newImage.getRaster().
+            getDataBuffer()).getData();
 
-        if (image == null) {
-            image = newImage;
-            return;
-        }
+        if (image != null) {
+            if (DEBUG) {
+                System.err.println("resizeImage(); old " + image.getWidth() +
+                    "x" + image.getHeight() + " new " + newWidth + "x" +
+                    newHeight);
+            }
 
-        if (DEBUG) {
-            System.err.println("resizeImage(); old " + image.getWidth() + "x" +
-                image.getHeight() + " new " + newWidth + "x" + newHeight);
+            int oldWidth = image.getWidth();
+            int copyWidth = Math.min(oldWidth, newWidth);
+            int copyHeight = Math.min(image.getHeight(), newHeight);
+            for (int row = 0; row < copyHeight; row++) {
+                System.arraycopy(pixels, row * oldWidth, newPixels,
+                    row * newWidth, copyWidth);
+            }
         }
-
-        Graphics2D gr = newImage.createGraphics();
-        gr.drawImage(image, 0, 0, image.getWidth(), image.getHeight(), null);
-        gr.dispose();
         image = newImage;
+        pixels = newPixels;
     }
 
     /**
@@ -292,13 +398,6 @@ public class Sixel {
      */
     private void addSixel(final char ch) {
         int n = ((int) ch - 63);
-
-        if (DEBUG && (color == null)) {
-            System.err.println("color is null?!");
-            System.err.println(buffer);
-        }
-
-        int rgb = color.getRGB();
         int rep = (repeatCount == -1 ? 1 : repeatCount);
 
         if (DEBUG) {
@@ -308,70 +407,49 @@ public class Sixel {
 
         assert (n >= 0);
 
-        if (image == null) {
-            // The raster attributes was not provided.
-            resizeImage(WIDTH_INCREASE, HEIGHT_INCREASE);
-        }
-
-        if (x + rep > image.getWidth()) {
-            // Resize the image, give us another max(rep, WIDTH_INCREASE)
-            // pixels of horizontal length.
-            resizeImage(image.getWidth() + Math.max(rep, WIDTH_INCREASE),
-                image.getHeight());
+        if (x + rep > MAX_WIDTH) {
+            // Check before allocating anything: a huge repeat count would
+            // otherwise ask for a huge image.
+            abort = true;
+            return;
         }
 
         // If nothing will be drawn, just advance x.
-        if (n == 0) {
+        if ((n == 0) || (rep == 0)) {
+            ensureCapacity(x + rep, 1);
             x += rep;
             if (x > width) {
                 width = x;
             }
-            if (width > MAX_WIDTH) {
-                abort = true;
-            }
             return;
         }
 
-        int dy = 0;
-        for (int i = 0; i < rep; i++) {
-            if ((n & 0x01) != 0) {
-                dy = 0;
-                image.setRGB(x, height + dy, rgb);
-            }
-            if ((n & 0x02) != 0) {
-                dy = 1;
-                image.setRGB(x, height + dy, rgb);
-            }
-            if ((n & 0x04) != 0) {
-                dy = 2;
-                image.setRGB(x, height + dy, rgb);
-            }
-            if ((n & 0x08) != 0) {
-                dy = 3;
-                image.setRGB(x, height + dy, rgb);
-            }
-            if ((n & 0x10) != 0) {
-                dy = 4;
-                image.setRGB(x, height + dy, rgb);
-            }
-            if ((n & 0x20) != 0) {
-                dy = 5;
-                image.setRGB(x, height + dy, rgb);
-            }
-            if (height + dy > y) {
-                y = height + dy;
+        // The lowest row this sixel touches.
+        int bottom = height + 31 - Integer.numberOfLeadingZeros(n);
+        if (bottom + 1 > MAX_HEIGHT) {
+            abort = true;
+            return;
+        }
+        ensureCapacity(x + rep, height + 6);
+
+        int stride = image.getWidth();
+        for (int dy = 0; dy < 6; dy++) {
+            if ((n & (1 << dy)) != 0) {
+                int start = ((height + dy) * stride) + x;
+                if (rep == 1) {
+                    pixels[start] = rgb;
+                } else {
+                    Arrays.fill(pixels, start, start + rep, rgb);
+                }
             }
-            x++;
         }
+        if (bottom > y) {
+            y = bottom;
+        }
+        x += rep;
         if (x > width) {
             width = x;
         }
-        if (width > MAX_WIDTH) {
-            abort = true;
-        }
-        if (y + 1 > MAX_HEIGHT) {
-            abort = true;
-        }
     }
 
     /**
@@ -390,6 +468,7 @@ public class Sixel {
                 }
                 color = Color.BLACK;
             }
+            rgb = color.getRGB();
 
             if (DEBUG) {
                 System.err.println("set color " + idx + " " + color);
@@ -429,7 +508,12 @@ public class Sixel {
             rasterWidth = pah;
             rasterHeight = pav;
             if ((rasterWidth <= MAX_WIDTH) && (rasterHeight <= MAX_HEIGHT)) {
-                resizeImage(rasterWidth, rasterHeight);
+                // Allocate the whole raster now (rounded up to a whole
+                // band) so that drawing never has to copy.
+                resizeImage(Math.max(rasterWidth,
+                        (image == null ? 0 : image.getWidth())),
+                    Math.max(((rasterHeight + 5) / 6) * 6,
+                        (image == null ? 0 : image.getHeight())));
             } else {
                 abort = true;
             }
@@ -443,11 +527,15 @@ public class Sixel {
      *
      * @param ch character from the remote side
      */
-    private void consume(char ch) {
+    public void consume(final char ch) {
 
         // DEBUG
         // System.err.printf("Sixel.consume() %c STATE = %s\n", ch, scanState);
 
+        if (abort == true) {
+            return;
+        }
+
         // Between decimal 63 (inclusive) and 127 (exclusive) --> pixels
         if ((ch >= 63) && (ch < 127)) {
             if (scanState == ScanState.COLOR) {
@@ -456,6 +544,9 @@ public class Sixel {
             if (scanState == ScanState.RASTER) {
                 parseRaster();
                 toGround();
+                if (abort == true) {
+                    return;
+                }
             }
             addSixel(ch);
             toGround();
@@ -501,15 +592,10 @@ public class Sixel {
                 toGround();
             }
 
+            // Room for the next band is made when something is drawn in
+            // it.
             height += 6;
             x = 0;
-
-            if (height + 6 > image.getHeight()) {
-                // Resize the image, give us another HEIGHT_INCREASE
-                // pixels of vertical length.
-                resizeImage(image.getWidth(),
-                    image.getHeight() + HEIGHT_INCREASE);
-            }
             return;
         }
 